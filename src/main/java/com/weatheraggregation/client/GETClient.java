@@ -8,6 +8,8 @@ package com.weatheraggregation.client;
 *   - "http://servername.domain.domain:portnumber"
 *   - "http://servername:portnumber" (with implicit domain information)
 *   - "servername:portnumber" (with implicit domain and protocol information).
+* - Several servers may be given separated by commas. The first is used for single requests, and the 'fetch'
+*   command requests the given stations from all of them at once.
 *
 * */
 
@@ -15,24 +17,51 @@ import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import com.weatheraggregation.utils.*;
 
-import java.io.*;
-import java.net.*;
+import java.io.BufferedInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.Iterator;
+import java.util.List;
 import java.util.Map;
 import java.util.Scanner;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
 
 public class GETClient {
     private static final int MAX_RETRY_COUNT = 3;
+    public static final int DEFAULT_PARALLELISM = 8; // requests of a fetch in flight at once
+    public static final int DEFAULT_TIMEOUT = 5000; // ms a request of a fetch may take
+
     private int retryCount = 0;
     private final LamportClock clock;
     private ServerData server;
+    private final List<ServerData> servers = new ArrayList<>(); // every server given, for fetch
+    private ClientConnection connection; // kept open across requests
     private final Scanner scanner;
     private boolean running = true;  // Flag to control the loop
+    // ETag and weather data of the last reply for each station ("" for all), so unchanged data is not sent again
+    private final Map<String, String> etags = new HashMap<>();
+    private final Map<String, ObjectNode> lastWeatherData = new HashMap<>();
 
     public GETClient(String serverAddress) {
         this.clock = new LamportClock();
-        this.server = new ServerData(serverAddress);
+        for (String address : serverAddress.split(",")) {
+            servers.add(new ServerData(address.trim()));
+        }
+        this.server = servers.get(0);
+        this.connection = new ClientConnection(server);
         this.scanner = new Scanner(System.in);
     }
 
@@ -41,6 +70,10 @@ public class GETClient {
         System.out.println("Usage:");
         System.out.println(" - 'all' to request all data");
         System.out.println(" - '[station ID]' to request a specific station");
+        System.out.println(" - 'fetch [station IDs]' to request several stations (comma separated, or all) from");
+        System.out.println("   every server at once");
+        System.out.println(" - 'subscribe [station IDs]' to print changes as they happen (all stations, or a");
+        System.out.println("   comma separated list), until the server stops");
         System.out.println(" - 'exit' to close client");
 
         // loop while running flag is true
@@ -53,6 +86,21 @@ public class GETClient {
                 break;
             }
 
+            if (input.toLowerCase().startsWith("subscribe")) {
+                subscribe(input.substring("subscribe".length()).trim(), Integer.MAX_VALUE);
+                continue;
+            }
+
+            if (input.toLowerCase().startsWith("fetch")) {
+                String stationIDs = input.substring("fetch".length()).trim();
+                List<String> ids = new ArrayList<>();
+                for (String stationID : stationIDs.split(",")) {
+                    ids.add(stationID.trim().equalsIgnoreCase("all") ? "" : stationID.trim());
+                }
+                printResults(fetch(ids, DEFAULT_PARALLELISM, DEFAULT_TIMEOUT));
+                continue;
+            }
+
             // stationID is blank if input=all, otherwise =input
             String stationID = input.equalsIgnoreCase("all") ? "" : input;
 
@@ -70,47 +118,38 @@ public class GETClient {
 
     // send GET request for weather data
     public boolean sendGetRequest(String stationID) {
-        clock.increment(); // increment clock before sending request
+        long requestTime = clock.increment(); // increment clock before sending request, and send that time
 
         // send GET request with lamport time
-        String GET_REQUEST = "GET /weather/" + stationID + " HTTP/1.1\r\n" +
-                "Host: " + server.name + server.domain + "\r\n" +
-                "Lamport-Time: " + clock.getTime() + "\r\n\r\n";
-
-        Map<String, String> headers = new HashMap<>();
-        int clientLamportTime = -1;
-        BufferedReader socketIn = null;
+        String GET_REQUEST = getRequest(server, stationID, etags.get(stationID), requestTime);
 
         while (retryCount < MAX_RETRY_COUNT) {
-            // establish connection to server through socket
-            try (Socket socket = new Socket(server.name, server.port)) {
-                // create an OutputStream to write to socket out, and a BufferedReader to read from socket in
-                OutputStream socketOut = socket.getOutputStream();
-                socketIn = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-                socketOut.write(GET_REQUEST.getBytes());
-                socketOut.flush();
-
-                String statusLine = socketIn.readLine();
-                System.out.println("Server response: " + statusLine);
-                try {
-                    headers = ParsingUtils.parseHeaders(socketIn);
-                } catch (IOException ex) {
-                    System.out.println("Invalid headers: " + ex.getMessage());
-                    break;
-                }
-                clientLamportTime = Integer.parseInt(headers.get("Lamport-Time"));
+            // send over the persistent connection, opened on first use
+            try {
+                ClientConnection.Reply reply = connection.send(GET_REQUEST.getBytes(StandardCharsets.UTF_8));
+                System.out.println("Server response: " + reply.statusLine);
+                Map<String, String> headers = reply.headers;
+                clock.updateAndIncrement(Long.parseLong(headers.get("Lamport-Time"))); // receive event
 
-                String[] statusSplit = statusLine.split(" ");
-                if (statusSplit[1].startsWith("2")) {
+                if (reply.status.equals("304")) {
+                    // status code 304 Not Modified, the data received last time is still current
+                    retryCount = 0;
+                    System.out.println("Weather data unchanged since last request.");
+                    printWeatherData(lastWeatherData.get(stationID));
+                    return true;
+                } else if (reply.status.startsWith("2")) {
                     // status code 2XX OK
-                    socketOut.close(); // close streams
                     retryCount = 0;  // reset retry count on success
 
-                    // parse remainder of socketIn buffer (payload) to JSON
+                    // parse payload to JSON
                     String[] jsonErrorCode = new String[2]; // string to hold error code
-                    ObjectNode weatherData = ParsingUtils.parseJSON(socketIn, jsonErrorCode, headers);
+                    ObjectNode weatherData = ParsingUtils.parseJSON(reply.body, jsonErrorCode, headers);
                     if (weatherData != null) {
+                        // remember the version received, to be sent with the next request for the same data
+                        if (headers.containsKey("ETag")) {
+                            etags.put(stationID, headers.get("ETag"));
+                            lastWeatherData.put(stationID, weatherData);
+                        }
                         // print formatted JSON weather data
                         printWeatherData(weatherData);
                     } else {
@@ -118,14 +157,12 @@ public class GETClient {
                         System.out.println(jsonErrorCode[1]);
                     }
                     return true; // success
-                } else if (statusSplit[1].startsWith("5") || statusSplit[1].equals("404")) {
+                } else if (reply.status.startsWith("5") || reply.status.equals("404")) {
                     // status code 5XX Internal Server Error
                     // status code 404 Not Found
                     retryCount++; // retry
                 } else {
                     // status code indicates client-side error
-                    // close streams
-                    socketOut.close();
                     break;
                 }
             } catch (Exception ex) {
@@ -136,6 +173,204 @@ public class GETClient {
         return false; // all retries failed
     }
 
+    // function to build a GET request for a station ("" for all), conditional on etag unless it is null
+    private static String getRequest(ServerData target, String stationID, String etag, long requestTime) {
+        return "GET /weather/" + stationID + " HTTP/1.1\r\n" +
+                "Host: " + target.name + target.domain + "\r\n" +
+                "Accept-Encoding: gzip, deflate\r\n" + // ClientConnection decompresses the reply
+                (etag != null ? "If-None-Match: " + etag + "\r\n" : "") +
+                "Connection: keep-alive\r\n" +
+                "Lamport-Time: " + requestTime + "\r\n\r\n";
+    }
+
+    /* CLASS HOLDING THE RESULT OF ONE REQUEST OF A FETCH */
+    public static final class FetchResult {
+        public final ServerData server;
+        public final String stationID; // "" for all stations
+        public final String statusLine; // null if no response was received
+        public final ObjectNode weatherData; // null unless the request succeeded
+        public final String error; // why there is no weather data, null if the request succeeded
+
+        FetchResult(ServerData server, String stationID, String statusLine, ObjectNode weatherData, String error) {
+            this.server = server;
+            this.stationID = stationID;
+            this.statusLine = statusLine;
+            this.weatherData = weatherData;
+            this.error = error;
+        }
+    }
+
+    /* function to request each station ("" for all) from every server at once. The requests run concurrently,
+     * at most parallelism at a time, each on a connection of its own, so N requests take about as long as the
+     * slowest rather than the sum. A request that takes longer than timeout ms to connect or to answer fails on
+     * its own without holding up the others, and is not retried. Returns one result per request in the order
+     * the requests were given: by station, then by server. */
+    public List<FetchResult> fetch(List<String> stationIDs, int parallelism, int timeout) {
+        int requests = stationIDs.size() * servers.size();
+        parallelism = Math.max(1, Math.min(parallelism, requests));
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<ServerData> targets = new ArrayList<>();
+            List<String> ids = new ArrayList<>();
+            List<Future<FetchResult>> futures = new ArrayList<>();
+            for (String stationID : stationIDs) {
+                for (ServerData target : servers) {
+                    targets.add(target);
+                    ids.add(stationID);
+                    futures.add(executor.submit(() -> fetch(target, stationID, timeout)));
+                }
+            }
+
+            // each request has its own socket timeouts. This bound only catches one that keeps trickling in
+            // data: every request has had its turn and its timeout (twice, to connect and to read) by then
+            long waves = (requests + parallelism - 1) / parallelism;
+            long deadline = System.currentTimeMillis() + 2 * timeout * waves;
+            List<FetchResult> results = new ArrayList<>();
+            for (int i = 0; i < futures.size(); i++) {
+                FetchResult result;
+                try {
+                    result = futures.get(i).get(Math.max(deadline - System.currentTimeMillis(), 0), TimeUnit.MILLISECONDS);
+                } catch (TimeoutException ex) {
+                    futures.get(i).cancel(true);
+                    result = new FetchResult(targets.get(i), ids.get(i), null, null, "Timed out");
+                } catch (ExecutionException ex) {
+                    result = new FetchResult(targets.get(i), ids.get(i), null, null, ex.getCause().getMessage());
+                }
+                results.add(result);
+            }
+            return results;
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            return List.of();
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    // function to send one request of a fetch, on a connection of its own as it runs on its own thread
+    private FetchResult fetch(ServerData target, String stationID, int timeout) {
+        long requestTime = clock.increment(); // the clock is thread-safe, shared by every request
+        try (ClientConnection fetchConnection = new ClientConnection(target, timeout)) {
+            ClientConnection.Reply reply = fetchConnection.send(
+                    getRequest(target, stationID, null, requestTime).getBytes(StandardCharsets.UTF_8));
+            clock.updateAndIncrement(Long.parseLong(reply.headers.get("Lamport-Time"))); // receive event
+            if (!reply.status.startsWith("2")) {
+                return new FetchResult(target, stationID, reply.statusLine, null, "Server response: " + reply.statusLine);
+            }
+            String[] jsonErrorCode = new String[2]; // string to hold error code
+            ObjectNode weatherData = ParsingUtils.parseJSON(reply.body, jsonErrorCode, reply.headers);
+            return new FetchResult(target, stationID, reply.statusLine, weatherData,
+                    weatherData == null ? jsonErrorCode[1] : null);
+        } catch (IOException | NumberFormatException ex) {
+            return new FetchResult(target, stationID, null, null, "Server not found: " + ex.getMessage());
+        }
+    }
+
+    // function to print the results of a fetch, in the order they were requested
+    private static void printResults(List<FetchResult> results) {
+        for (FetchResult result : results) {
+            String request = (result.stationID.isEmpty() ? "all stations" : result.stationID) +
+                    " from " + result.server.name + ":" + result.server.port;
+            if (result.weatherData == null) {
+                System.out.println(request + " failed: " + result.error);
+            } else {
+                System.out.println(request + ":");
+                printWeatherData(result.weatherData);
+            }
+        }
+    }
+
+    /* function to subscribe to changes of the given stations (comma separated, all if empty) and print each
+     * one as the server publishes it, until maxEvents have been received or the server ends the stream. The
+     * events arrive as Server-Sent Events on a connection of their own, as the reply never ends. Returns the
+     * number of events received, or -1 if the server refused the subscription. */
+    public int subscribe(String stationIDs, int maxEvents) {
+        String request = "GET /weather/stream" + (stationIDs.isEmpty() ? "" : "?ids=" + stationIDs) + " HTTP/1.1\r\n" +
+                "Host: " + server.name + server.domain + "\r\n" +
+                "Accept: text/event-stream\r\n" +
+                "Lamport-Time: " + clock.increment() + "\r\n\r\n";
+
+        int received = 0;
+        try (Socket socket = new Socket(server.name, server.port)) {
+            InputStream socketIn = new BufferedInputStream(socket.getInputStream());
+            OutputStream socketOut = socket.getOutputStream();
+            socketOut.write(request.getBytes(StandardCharsets.UTF_8));
+            socketOut.flush();
+
+            String statusLine = ParsingUtils.readLine(socketIn);
+            if (statusLine == null) {
+                throw new EOFException("Connection closed by server");
+            }
+            System.out.println("Server response: " + statusLine);
+            Map<String, String> headers = ParsingUtils.parseHeaders(socketIn);
+            clock.updateAndIncrement(Long.parseLong(headers.get("Lamport-Time"))); // receive event
+            if (!statusLine.contains(" 200 ") || !"chunked".equalsIgnoreCase(headers.get("Transfer-Encoding"))) {
+                return -1;
+            }
+
+            // a frame ends with a blank line and may be split across chunks, so bytes wait here until it is whole
+            ByteArrayOutputStream pending = new ByteArrayOutputStream();
+            byte[] chunk;
+            while (received < maxEvents && (chunk = ParsingUtils.readChunk(socketIn)) != null) {
+                pending.writeBytes(chunk);
+                byte[] bytes = pending.toByteArray();
+                int start = 0;
+                for (int i = 0; i + 1 < bytes.length && received < maxEvents; i++) {
+                    if (bytes[i] == '\n' && bytes[i + 1] == '\n') {
+                        if (printEvent(new String(bytes, start, i - start, StandardCharsets.UTF_8))) {
+                            received++;
+                        }
+                        start = i + 2;
+                        i++;
+                    }
+                }
+                pending.reset();
+                pending.writeBytes(Arrays.copyOfRange(bytes, start, bytes.length));
+            }
+        } catch (IOException | NumberFormatException ex) {
+            System.out.println("Subscription ended: " + ex.getMessage());
+        }
+        return received;
+    }
+
+    /* function to print one Server-Sent Event: a station's new data, its removal, or a request to resync.
+     * Returns false for comments such as heartbeats. */
+    private boolean printEvent(String frame) {
+        String type = "message";
+        StringBuilder data = new StringBuilder();
+        for (String line : frame.split("\n")) {
+            if (line.startsWith("event:")) {
+                type = line.substring("event:".length()).trim();
+            } else if (line.startsWith("data:")) {
+                data.append(line.substring("data:".length()).trim());
+            }
+        }
+        if (data.length() == 0) {
+            return false;
+        }
+
+        try {
+            JsonNode event = JsonUtils.READER.readTree(data.toString());
+            if (event.has("lamport_time")) {
+                clock.updateAndIncrement(event.get("lamport_time").asLong()); // receive event
+            }
+            String stationID = event.path("id").asText();
+            if (type.equals("put")) {
+                System.out.println("Station " + stationID + " updated:");
+                ObjectNode weatherData = JsonUtils.createObjectNode();
+                weatherData.set(stationID, event.get("data"));
+                printWeatherData(weatherData);
+            } else if (type.equals("resync")) {
+                System.out.println("Missed too many changes, request 'all' to catch up.");
+            } else {
+                System.out.println("Station " + stationID + " removed (" + type + ").");
+            }
+        } catch (IOException ex) {
+            System.out.println("Invalid event: " + ex.getMessage());
+        }
+        return true;
+    }
+
     /* function to handle failure to connect to server and provide option to enter new server address */
     private void handleConnectionError(Exception ex) {
         System.out.println("Server not found: " + ex.getMessage());
@@ -146,6 +381,8 @@ public class GETClient {
         } else if (!input.isEmpty()) {
             try {
                 server = new ServerData(input);
+                connection.close();
+                connection = new ClientConnection(server);
             } catch (Exception e) {
                 System.out.println("Error parsing server data: " + e.getMessage());
             }
@@ -156,6 +393,7 @@ public class GETClient {
     public void close() {
         System.out.println("Shutting down client...");
         running = false;  // Stop the main loop
+        connection.close(); // close persistent connection
         scanner.close();
         System.out.println("Successfully shut down client");
         System.exit(0);
@@ -5,6 +5,15 @@ package com.weatheraggregation.content;
 * 1. server name and port number (as for GET)
 * 2. location of a file in the file system local to the Content Server (expected to be in your project folder).
 *    The file will contain weather data to be assembled into JSON format and then uploaded to the server.
+*    Several files may be given, in which case all of them are uploaded together in one batch PUT to /weather.
+* 3. optionally --watch to run as a daemon, uploading whenever the files change and sending a heartbeat
+*    (--heartbeat=MS, default 10000, under the server's 30 second expiry) between changes. Writes are debounced
+*    by --debounce=MS (default 250).
+* 4. or --schedule to upload each file (or each file in a directory) separately every --interval=MS
+*    (default 15000, or per file as file@MS), moved by up to --jitter=MS (default a tenth of the interval),
+*    over at most --connections=N (default 4) connections.
+* 5. or --stream to upload files holding many station records (separated by blank lines or repeated id lines)
+*    once, in batches, reading each file in constant memory.
 *
 * EXAMPLE PUT MESSAGE:
 
@@ -25,39 +34,112 @@ Content-Length: (And this one too)
 
 import java.io.*;
 
-import java.net.Socket;
-import java.net.UnknownHostException;
+import java.net.URLEncoder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Scanner;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
 
 import com.fasterxml.jackson.databind.JsonNode;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import com.weatheraggregation.utils.ClientConnection;
+import com.weatheraggregation.utils.JsonUtils;
 import com.weatheraggregation.utils.LamportClock;
 import com.weatheraggregation.utils.ServerData;
 
 public class ContentServer {
     private static final int MAX_RETRY_COUNT = 3;
+    static final long DEFAULT_HEARTBEAT = 10_000; // ms, well inside the server's 30 second expiry
+    static final long SERVER_EXPIRY = 30_000; // ms, a station not refreshed within this is removed by the server
+    static final long DEFAULT_DEBOUNCE = 250; // ms the files must be quiet after a write before uploading
+    static final int STREAM_BATCH_SIZE = 500; // records per batch PUT when streaming a multi-record file
 
     private int retryCount = 0;
     private boolean running = true;
+    private volatile boolean watching = false; // running as a daemon, see watch()
+    private final List<String> uploadedIDs = new ArrayList<>(); // stations in the last upload, for heartbeats
+    private Payload payload; // request body of the last upload, reused until the files change
     private final LamportClock clock;
     private ServerData server;
-    private final String localData;
+    private ClientConnection connection; // kept open across updates
+    private final String[] localData; // one file per station
     private final Scanner scanner = new Scanner(System.in); // to read inputs
 
-    public ContentServer(String serverInfo, String localData) {
+    public ContentServer(String serverInfo, String... localData) {
         this.clock = new LamportClock();
         this.server = new ServerData(serverInfo);
+        this.connection = new ClientConnection(server);
         this.localData = localData;
     }
 
     public static void main(String[] args) {
-        if (args.length != 2) {
-            throw new IllegalArgumentException("Expected two arguments: connection information and data filename.");
+        if (args.length < 2) {
+            throw new IllegalArgumentException("Expected at least two arguments: connection information and data filename(s).");
+        }
+        List<String> files = new ArrayList<>();
+        boolean watch = false;
+        boolean schedule = false;
+        boolean stream = false;
+        long heartbeat = DEFAULT_HEARTBEAT;
+        long debounce = DEFAULT_DEBOUNCE;
+        long interval = UploadScheduler.DEFAULT_INTERVAL;
+        long jitter = -1; // a tenth of each file's interval
+        int connections = UploadScheduler.DEFAULT_CONNECTIONS;
+        for (int i = 1; i < args.length; i++) {
+            if (args[i].equals("--watch")) {
+                watch = true;
+            } else if (args[i].equals("--schedule")) {
+                schedule = true;
+            } else if (args[i].equals("--stream")) {
+                stream = true;
+            } else if (args[i].startsWith("--interval=")) {
+                interval = Long.parseLong(args[i].substring("--interval=".length()));
+            } else if (args[i].startsWith("--jitter=")) {
+                jitter = Long.parseLong(args[i].substring("--jitter=".length()));
+            } else if (args[i].startsWith("--connections=")) {
+                connections = Integer.parseInt(args[i].substring("--connections=".length()));
+            } else if (args[i].startsWith("--heartbeat=")) {
+                heartbeat = Long.parseLong(args[i].substring("--heartbeat=".length()));
+            } else if (args[i].startsWith("--debounce=")) {
+                debounce = Long.parseLong(args[i].substring("--debounce=".length()));
+            } else {
+                files.add(args[i]);
+            }
+        }
+        if (files.isEmpty()) {
+            throw new IllegalArgumentException("Expected at least one data filename.");
+        }
+        if (heartbeat < 1 || heartbeat >= SERVER_EXPIRY) {
+            // a station would expire between heartbeats
+            throw new IllegalArgumentException("--heartbeat must be between 1 and " + (SERVER_EXPIRY - 1) + " ms.");
+        }
+
+        if (schedule) {
+            // each file (or each file in a directory) is uploaded separately on its own interval
+            UploadScheduler scheduler = new UploadScheduler(args[0], connections, jitter);
+            for (String file : files) {
+                scheduler.add(file, interval);
+            }
+            scheduler.start();
+            Runtime.getRuntime().addShutdownHook(new Thread(scheduler::stop));
+            return;
+        }
+
+        ContentServer contentServer = new ContentServer(args[0], files.toArray(new String[0]));
+        if (stream) {
+            contentServer.streamRecords();
+            contentServer.close();
+        } else if (watch) {
+            contentServer.watch(heartbeat, debounce);
+        } else {
+            contentServer.start();
         }
-        ContentServer contentServer = new ContentServer(args[0], args[1]);
-        contentServer.start();
     }
 
     public void start() {
@@ -92,72 +174,260 @@ public class ContentServer {
     }
 
     public boolean sendPutRequest() {
-        // read weather data from file and parse to JSON
-        ObjectMapper mapper = new ObjectMapper();
-        ObjectNode weatherData = mapper.createObjectNode();
-        parseFileJSON(weatherData, localData);
-
-        // get stationID from JSON
-        JsonNode stationID = weatherData.get("id");
+        // the files are only parsed again when they have changed since the last upload
+        if (payload == null || payload.isStale()) {
+            payload = Payload.read(localData);
+            if (payload == null) {
+                return false;
+            }
+        }
+        uploadedIDs.clear();
+        uploadedIDs.addAll(payload.stationIDs);
 
-        // build the PUT request from the connection data and the weather data
-        String weatherDataString = weatherData.toString();
-        String PUT_REQUEST = "PUT /weather/" + stationID.asText() + " HTTP/1.1\r\n" +
-                "Host: " + server.name + server.domain + "\r\n" +
-                "User-Agent: ATOMClient/1/0\r\n" +
-                "Content-Type: application/json\r\n" +
-                "Content-Length: " + weatherDataString.getBytes().length + "\r\n" +
-                "Lamport-Time: " + clock.getTime() + "\r\n\r\n" +
-                weatherDataString + "\r\n"; // JSON body
+        return send(payload, true) != null;
+    }
 
-        clock.increment(); // increment clock before sending request
+    /* function to send a payload, retrying up to MAX_RETRY_COUNT times. printResults prints the status of each
+     * station of a batch. Returns the server's reply, or null if the payload was not accepted. */
+    private ClientConnection.Reply send(Payload payload, boolean printResults) {
+        long requestTime = clock.increment(); // increment clock before sending request, and send that time
+        byte[] PUT_REQUEST = payload.request(server, requestTime);
 
-        boolean success = false;
         while (retryCount < MAX_RETRY_COUNT) {
-            // establish connection to server through socket
-            try (Socket socket = new Socket(server.name, server.port)) {
-                // create an OutputStream to write to socket out, and a BufferedReader to read from socket in
-                OutputStream socketOut = socket.getOutputStream();
-                BufferedReader socketIn = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-                System.out.println("Sending weather data for station " + stationID.asText() + "...");
+            // send over the persistent connection, opened on first use
+            try {
+                System.out.println("Sending weather data for " + payload.description + "...");
                 // send PUT request with lamport time
-                socketOut.write(PUT_REQUEST.getBytes());
-                socketOut.flush();
+                ClientConnection.Reply reply = connection.send(PUT_REQUEST);
 
-                String statusLine = socketIn.readLine();
-                System.out.println("Server Response: " + statusLine);
-                String[] statusSplit = statusLine.split(" ");
+                System.out.println("Server Response: " + reply.statusLine);
+                updateClock(reply);
+                if (printResults && payload.batch && reply.status.equals("200")) {
+                    printBatchResults(reply.body);
+                }
 
-                if (statusSplit[1].startsWith("5")) {
+                if (reply.status.startsWith("5")) {
                     System.out.println("Invalid JSON or internal server error, retrying...");
                     retryCount++;
-                } else if (statusSplit[1].equals("204")) {
+                } else if (reply.status.equals("204")) {
                     System.out.println("Server received PUT request with no payload, retrying...");
                     retryCount++;
-                } else if (statusSplit[1].startsWith("2")) {
+                } else if (reply.status.startsWith("2")) {
                     // 200 OK, break loop
-                    socketOut.close();
-                    success = true;
                     retryCount = 0;
-                    break;
+                    return reply;
                 } else {
                     // status code indicates client-side error
-                    // close streams
                     System.out.println("Server response indicates invalid request. Please try another request.");
-                    socketOut.close();
                     break;
                 }
             } catch (Exception ex) {
                 handleConnectionError(ex);
             }
         }
-        return success;
+        return null;
+    }
+
+    /* function to upload files holding many station records (see RecordParser), e.g. a large export. Records
+     * are sent as they are read, in batch PUTs of up to STREAM_BATCH_SIZE stations, so only one batch is held
+     * in memory whatever the size of the files. The server stores a station once per batch, so a record for a
+     * station already in the batch starts the next one. Stops at the first batch the server does not accept.
+     * Returns the number of records the server stored. */
+    public long streamRecords() {
+        long stored = 0;
+        long rejected = 0;
+        for (String fileName : localData) {
+            try (RecordParser records = RecordParser.open(fileName)) {
+                ArrayNode batch = JsonUtils.createObjectNode().arrayNode();
+                Set<String> batchIDs = new HashSet<>();
+                while (records.hasNext() || !batch.isEmpty()) {
+                    ObjectNode repeat = null; // record for a station already in the batch
+                    if (records.hasNext()) {
+                        ObjectNode record = records.next();
+                        if (!record.hasNonNull("id")) {
+                            rejected++;
+                        } else if (batchIDs.add(record.get("id").asText().trim())) {
+                            batch.add(record);
+                        } else {
+                            repeat = record;
+                        }
+                        if (repeat == null && batch.size() < STREAM_BATCH_SIZE) {
+                            continue;
+                        }
+                    }
+
+                    // a full batch, or the end of the file
+                    Payload payload = Payload.of(batch);
+                    ClientConnection.Reply reply = payload == null ? null : send(payload, false);
+                    if (reply == null) {
+                        System.out.println("Upload of " + fileName + " failed after " + stored + " records stored.");
+                        retryCount = 0;
+                        return stored;
+                    }
+                    if (payload.batch) {
+                        for (JsonNode result : JsonUtils.READER.readTree(reply.body)) {
+                            if (result.path("status").asText().startsWith("2")) {
+                                stored++;
+                            } else {
+                                rejected++;
+                            }
+                        }
+                    } else {
+                        stored++;
+                    }
+                    batch.removeAll();
+                    batchIDs.clear();
+                    if (repeat != null) {
+                        batch.add(repeat);
+                        batchIDs.add(repeat.get("id").asText().trim());
+                    }
+                }
+            } catch (IOException ex) {
+                System.out.println("Error reading " + fileName + ": " + ex.getMessage());
+            }
+        }
+        System.out.println(stored + " records stored" + (rejected > 0 ? ", " + rejected + " rejected" : "") + ".");
+        return stored;
+    }
+
+    /* function to run as a daemon instead of reading commands: upload once, then watch the data files and
+     * upload again whenever they change. A burst of writes (an editor saving, a logger appending line by line)
+     * is debounced into one upload once the files have been quiet for debounceMillis, though never held back
+     * for longer than heartbeatMillis. While nothing changes a heartbeat is sent every heartbeatMillis, so the
+     * stations do not expire without their data being sent again. Runs until stopWatching() is called. */
+    public void watch(long heartbeatMillis, long debounceMillis) {
+        watching = true;
+        try (WatchService watcher = FileSystems.getDefault().newWatchService()) {
+            // a WatchService watches directories, so each file's directory is registered and events filtered
+            // by name. Creation is watched too, as editors often save by replacing the file
+            Set<Path> files = new HashSet<>();
+            Set<Path> directories = new HashSet<>();
+            for (String fileName : localData) {
+                Path file = Paths.get(fileName).toAbsolutePath().normalize();
+                files.add(file);
+                if (directories.add(file.getParent())) {
+                    file.getParent().register(watcher, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+                }
+            }
+            System.out.println("Watching " + files.size() + " file(s) for changes...");
+
+            upload();
+            long lastSent = System.currentTimeMillis();
+            long firstChange = -1; // time of the first change not yet uploaded, -1 if there is none
+            long lastChange = -1;
+            while (watching) {
+                long now = System.currentTimeMillis();
+                long due = firstChange < 0 ? lastSent + heartbeatMillis
+                        : Math.min(lastChange + debounceMillis, firstChange + heartbeatMillis);
+                WatchKey key = watcher.poll(Math.max(due - now, 1), TimeUnit.MILLISECONDS);
+                if (key != null) {
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        // an overflow means events were lost, so treat it as a change to be safe
+                        if (event.kind() == StandardWatchEventKinds.OVERFLOW
+                                || files.contains(((Path) key.watchable()).resolve((Path) event.context()))) {
+                            lastChange = System.currentTimeMillis();
+                            if (firstChange < 0) {
+                                firstChange = lastChange;
+                            }
+                        }
+                    }
+                    key.reset();
+                    continue;
+                }
+
+                now = System.currentTimeMillis();
+                if (firstChange >= 0 && (now - lastChange >= debounceMillis || now - firstChange >= heartbeatMillis)) {
+                    System.out.println("Weather data changed, uploading...");
+                    upload();
+                    firstChange = -1;
+                    lastSent = now;
+                } else if (firstChange < 0 && now - lastSent >= heartbeatMillis) {
+                    if (!sendHeartbeat()) {
+                        upload(); // the server no longer holds the data, or is not answering heartbeats
+                    }
+                    lastSent = now;
+                }
+            }
+        } catch (IOException ex) {
+            System.out.println("Error watching weather data files: " + ex.getMessage());
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            watching = false;
+        }
+    }
+
+    // function to make watch() return, e.g. from another thread
+    public void stopWatching() {
+        watching = false;
+    }
+
+    private void upload() {
+        if (!sendPutRequest()) {
+            System.out.println("Upload failed, will try again at the next change or heartbeat.");
+            retryCount = 0;
+        }
+    }
+
+    /* function to refresh the expiry of the stations last uploaded without sending their data again.
+     * Returns false if the server did not refresh every station (e.g. one has expired), so the data should be
+     * uploaded instead. */
+    public boolean sendHeartbeat() {
+        if (uploadedIDs.isEmpty()) {
+            return false;
+        }
+        List<String> ids = new ArrayList<>();
+        for (String stationID : uploadedIDs) {
+            ids.add(URLEncoder.encode(stationID, StandardCharsets.UTF_8));
+        }
+        long requestTime = clock.increment(); // increment clock before sending request, and send that time
+        String HEARTBEAT_REQUEST = "PUT /weather/heartbeat?ids=" + String.join(",", ids) + " HTTP/1.1\r\n" +
+                "Host: " + server.name + server.domain + "\r\n" +
+                "User-Agent: ATOMClient/1/0\r\n" +
+                "Content-Length: 0\r\n" +
+                "Connection: keep-alive\r\n" +
+                "Lamport-Time: " + requestTime + "\r\n\r\n";
+        try {
+            ClientConnection.Reply reply = connection.send(HEARTBEAT_REQUEST.getBytes(StandardCharsets.UTF_8));
+            updateClock(reply);
+            if (!reply.status.equals("200")) {
+                System.out.println("Heartbeat refused: " + reply.statusLine);
+                return false;
+            }
+            return true;
+        } catch (IOException ex) {
+            System.out.println("Heartbeat failed: " + ex.getMessage());
+            return false;
+        }
+    }
+
+    // function to print the status of each station in a batch PUT response
+    private static void printBatchResults(byte[] body) {
+        try {
+            for (JsonNode result : JsonUtils.READER.readTree(body)) {
+                System.out.println("  " + result.path("id").asText("(no id)") + ": " + result.path("status").asText());
+            }
+        } catch (IOException ex) {
+            System.out.println("Invalid batch response: " + ex.getMessage());
+        }
+    }
+
+    // function to apply the server's Lamport time from a response (receive event)
+    private void updateClock(ClientConnection.Reply reply) {
+        try {
+            clock.updateAndIncrement(Long.parseLong(reply.headers.get("Lamport-Time")));
+        } catch (NumberFormatException ex) {
+            System.out.println("Server response has no valid Lamport-Time header");
+        }
     }
 
     /* function to handle failure to connect to server and provide option to enter new server address */
     private void handleConnectionError(Exception ex) {
         System.out.println("Server not found: " + ex.getMessage());
+        if (watching) {
+            retryCount++; // nobody to ask for new details, so give up after MAX_RETRY_COUNT attempts
+            return;
+        }
         System.out.println("Please enter new connection details or press enter to try again:");
         String input = scanner.nextLine().trim();
         if (input.equalsIgnoreCase("exit")) {
@@ -165,6 +435,8 @@ public class ContentServer {
         } else if (!input.isEmpty()) {
             try {
                 server = new ServerData(input);
+                connection.close();
+                connection = new ClientConnection(server);
             } catch (Exception e) {
                 System.out.println("Error parsing server data: " + e.getMessage());
             }
@@ -175,6 +447,7 @@ public class ContentServer {
     public void close() {
         System.out.println("Shutting down content server...");
         running = false;  // stop main loop
+        connection.close(); // close persistent connection
         scanner.close(); // close input scanner
         System.out.println("Successfully shut down server");
         System.exit(0);
@@ -184,30 +457,18 @@ public class ContentServer {
     public static void parseFileJSON(ObjectNode weatherData, String fileName) {
         // read file using a BufferedReader object with a 1KB buffer
         // https://www.baeldung.com/java-buffered-reader
-        try (BufferedReader reader = new BufferedReader(new FileReader(fileName), 1024)) {
+        // decode as UTF-8 regardless of platform default, station names may contain non-ASCII characters
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8), 1024)) {
             String line;
             // read line until reader buffer is empty
             while ((line = reader.readLine()) != null) {
-                // split each line at : char
-                String[] keyValuePair = line.split(":", 2);
-
-                if (keyValuePair.length == 2) {
-                    // remove any leading/trailing whitespace:
-                    String key = keyValuePair[0].trim();
-                    String value = keyValuePair[1].trim();
-
-                    // add key/value pair to weatherData object:
-                    try {
-                        // try parsing value as number
-                        if (value.contains(".")) {
-                            weatherData.put(key, Double.parseDouble(value));
-                        } else {
-                            weatherData.put(key, Integer.parseInt(value));
-                        }
-                    } catch (NumberFormatException e) {
-                        // if exception is thrown then parse as string
-                        weatherData.put(key, value);
-                    }
+                // split each line at the first : char
+                int colon = line.indexOf(':');
+
+                if (colon >= 0) {
+                    // remove any leading/trailing whitespace, and add the key/value pair to weatherData object
+                    // as a number if it is one (see RecordParser.putValue)
+                    RecordParser.putValue(weatherData, line.substring(0, colon).trim(), line.substring(colon + 1).trim());
                 }
             }
         } catch (FileNotFoundException ex) {
@@ -0,0 +1,148 @@
+package com.weatheraggregation.content;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.weatheraggregation.utils.ContentCoding;
+import com.weatheraggregation.utils.JsonUtils;
+import com.weatheraggregation.utils.ServerData;
+
+/* CLASS TO HOLD THE PUT PAYLOAD BUILT FROM ONE OR MORE WEATHER DATA FILES
+ * The files are parsed, serialised and (if large) compressed once, and the bytes reused for every upload
+ * until a file's modification time or size changes. Only the request head, which carries the Lamport time,
+ * is built per request. */
+class Payload {
+    static final int COMPRESSION_THRESHOLD = 1024; // payloads of at least this many bytes are sent gzipped
+
+    final String resource; // /weather/stationID, or /weather for a batch
+    final String description; // for progress output, e.g. "station IDS60901" or "3 stations"
+    final boolean batch;
+    final List<String> stationIDs;
+    private final byte[] body; // serialised JSON, gzipped if compressed
+    private final boolean compressed;
+    private final Path[] files;
+    private final long[] modified; // modification time and size of each file when it was read
+    private final long[] sizes;
+
+    private Payload(String[] fileNames, ArrayNode stations, byte[] body, boolean compressed, long[] modified, long[] sizes) {
+        this.batch = stations.size() > 1;
+        this.stationIDs = new ArrayList<>();
+        for (JsonNode station : stations) {
+            stationIDs.add(station.path("id").asText());
+        }
+        this.resource = batch ? "/weather" : "/weather/" + stationIDs.get(0);
+        this.description = batch ? stations.size() + " stations" : "station " + stationIDs.get(0);
+        this.body = body;
+        this.compressed = compressed;
+        this.files = new Path[fileNames.length];
+        for (int i = 0; i < fileNames.length; i++) {
+            files[i] = Paths.get(fileNames[i]);
+        }
+        this.modified = modified;
+        this.sizes = sizes;
+    }
+
+    /* function to parse the files into a payload: one station is PUT to /weather/stationID, several are sent
+     * as an array to /weather. Returns null (after printing why) if a file has no station ID or the data
+     * cannot be serialised. */
+    static Payload read(String... fileNames) {
+        // take modification times first, so a write during parsing makes the payload stale rather than lost
+        long[] modified = new long[fileNames.length];
+        long[] sizes = new long[fileNames.length];
+        for (int i = 0; i < fileNames.length; i++) {
+            modified[i] = lastModified(Paths.get(fileNames[i]));
+            sizes[i] = size(Paths.get(fileNames[i]));
+        }
+
+        // read weather data from each file and parse to JSON
+        ArrayNode stations = JsonUtils.createObjectNode().arrayNode();
+        for (String fileName : fileNames) {
+            ObjectNode weatherData = stations.addObject();
+            ContentServer.parseFileJSON(weatherData, fileName);
+            if (!weatherData.hasNonNull("id")) {
+                System.out.println("No station ID in " + fileName + ", not sending it");
+                return null;
+            }
+        }
+        return build(fileNames, stations, modified, sizes);
+    }
+
+    /* function to build a payload from records already parsed, e.g. a batch streamed from a large file. It is
+     * not read from files, so it is never stale. Returns null if the records cannot be serialised. */
+    static Payload of(ArrayNode stations) {
+        return build(new String[0], stations, new long[0], new long[0]);
+    }
+
+    private static Payload build(String[] fileNames, ArrayNode stations, long[] modified, long[] sizes) {
+        // serialise straight to UTF-8 bytes, Content-Length is the byte count
+        byte[] body;
+        try {
+            body = JsonUtils.WRITER.writeValueAsBytes(stations.size() > 1 ? stations : stations.get(0));
+        } catch (JsonProcessingException ex) {
+            System.out.println("Error serialising weather data: " + ex.getMessage());
+            return null;
+        }
+
+        // larger payloads (e.g. batches) are compressed, a single station is too small to gain much
+        boolean compressed = body.length >= COMPRESSION_THRESHOLD;
+        if (compressed) {
+            body = ContentCoding.GZIP.encode(body);
+        }
+        return new Payload(fileNames, stations, body, compressed, modified, sizes);
+    }
+
+    // whether any file has been modified (or replaced) since the payload was read
+    boolean isStale() {
+        for (int i = 0; i < files.length; i++) {
+            if (lastModified(files[i]) != modified[i] || size(files[i]) != sizes[i]) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* function to build the complete PUT request with the given Lamport time, head and body in one array so
+     * it is sent in one write */
+    byte[] request(ServerData server, long lamportTime) {
+        String head = "PUT " + resource + " HTTP/1.1\r\n" +
+                "Host: " + server.name + server.domain + "\r\n" +
+                "User-Agent: ATOMClient/1/0\r\n" +
+                "Content-Type: application/json\r\n" +
+                (compressed ? "Content-Encoding: gzip\r\n" : "") +
+                "Content-Length: " + body.length + "\r\n" +
+                "Connection: keep-alive\r\n" +
+                "Lamport-Time: " + lamportTime + "\r\n\r\n";
+        byte[] headBytes = head.getBytes(StandardCharsets.UTF_8);
+        byte[] request = new byte[headBytes.length + body.length];
+        System.arraycopy(headBytes, 0, request, 0, headBytes.length);
+        System.arraycopy(body, 0, request, headBytes.length, body.length);
+        return request;
+    }
+
+    // -1 if the file cannot be read, so it is read again (and the error reported) once it can
+    private static long lastModified(Path file) {
+        try {
+            return Files.getLastModifiedTime(file).toMillis();
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+
+    private static long size(Path file) {
+        try {
+            return Files.size(file);
+        } catch (IOException ex) {
+            return -1;
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package com.weatheraggregation.content;
+
+import java.io.BufferedReader;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.weatheraggregation.utils.JsonUtils;
+
+/* CLASS TO READ STATION RECORDS ONE AT A TIME FROM A KEY:VALUE WEATHER DATA FILE
+ * A file may hold any number of records, each a run of key:value lines ended by a blank line or by an id line
+ * when the record already has an id. Only the current line and the record being built are held, so a file of
+ * any size is read in constant memory; the caller decides how many records to keep.
+ * Values are classified by scanning their characters rather than by trying Integer.parseInt and Double.parseDouble
+ * and catching NumberFormatException, which for a text value would build and throw an exception every time. */
+public class RecordParser implements Iterator<ObjectNode>, Closeable {
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private final BufferedReader reader;
+    private ObjectNode next; // record to return from next(), null until read
+    private ObjectNode carried; // record started by a repeated id line, continued by the following read
+    private boolean finished = false;
+
+    public RecordParser(Reader reader) {
+        this.reader = new BufferedReader(reader, BUFFER_SIZE);
+    }
+
+    // function to open a data file, decoded as UTF-8 regardless of platform default
+    public static RecordParser open(String fileName) throws IOException {
+        return new RecordParser(new InputStreamReader(new FileInputStream(fileName), StandardCharsets.UTF_8));
+    }
+
+    @Override
+    public boolean hasNext() {
+        if (next == null && !finished) {
+            next = read();
+        }
+        return next != null;
+    }
+
+    @Override
+    public ObjectNode next() {
+        if (!hasNext()) {
+            throw new NoSuchElementException();
+        }
+        ObjectNode record = next;
+        next = null;
+        return record;
+    }
+
+    /* function to read lines up to the end of the next record, returns null once the file is finished */
+    private ObjectNode read() {
+        ObjectNode record = carried;
+        carried = null;
+        try {
+            String line;
+            while ((line = reader.readLine()) != null) {
+                int colon = line.indexOf(':');
+                if (colon < 0) {
+                    // a blank line ends the record, any other line without a key is ignored
+                    if (record != null && line.isBlank()) {
+                        return record;
+                    }
+                    continue;
+                }
+                String key = line.substring(0, colon).trim();
+                String value = line.substring(colon + 1).trim();
+                if (record != null && key.equals("id") && record.has("id")) {
+                    // a second id starts the next record
+                    carried = JsonUtils.createObjectNode();
+                    putValue(carried, key, value);
+                    return record;
+                }
+                if (record == null) {
+                    record = JsonUtils.createObjectNode();
+                }
+                putValue(record, key, value);
+            }
+        } catch (IOException ex) {
+            System.out.println("I/O error: " + ex.getMessage());
+        }
+        finished = true;
+        return record;
+    }
+
+    @Override
+    public void close() {
+        try {
+            reader.close();
+        } catch (IOException ex) {
+            System.out.println("I/O error: " + ex.getMessage());
+        }
+    }
+
+    /* function to add a value to a record: as an int if it is a whole number that fits one, as a double if it
+     * is a decimal number (digits with a '.', optionally an exponent), otherwise as text */
+    public static void putValue(ObjectNode record, String key, String value) {
+        int length = value.length();
+        int start = length > 0 && (value.charAt(0) == '-' || value.charAt(0) == '+') ? 1 : 0;
+        int digits = 0;
+        int point = -1;
+        int i = start;
+        for (; i < length; i++) {
+            char c = value.charAt(i);
+            if (c >= '0' && c <= '9') {
+                digits++;
+            } else if (c == '.' && point < 0) {
+                point = i;
+            } else {
+                break;
+            }
+        }
+        if (digits == 0) {
+            record.put(key, value);
+            return;
+        }
+
+        if (point < 0) {
+            // whole number: accumulated as a long, stopping once it is out of int range so it cannot overflow
+            if (i < length) {
+                record.put(key, value);
+                return;
+            }
+            long number = 0;
+            for (int j = start; j < length && number <= Integer.MAX_VALUE + 1L; j++) {
+                number = number * 10 + (value.charAt(j) - '0');
+            }
+            if (value.charAt(0) == '-') {
+                number = -number;
+            }
+            if (number < Integer.MIN_VALUE || number > Integer.MAX_VALUE) {
+                record.put(key, value);
+            } else {
+                record.put(key, (int) number);
+            }
+            return;
+        }
+
+        // decimal number, with an optional exponent of at least one digit
+        if (i < length && (value.charAt(i) == 'e' || value.charAt(i) == 'E')) {
+            int exponent = ++i;
+            if (i < length && (value.charAt(i) == '-' || value.charAt(i) == '+')) {
+                exponent = ++i;
+            }
+            while (i < length && value.charAt(i) >= '0' && value.charAt(i) <= '9') {
+                i++;
+            }
+            if (i == exponent) {
+                i = -1; // no exponent digits
+            }
+        }
+        if (i != length) {
+            record.put(key, value);
+            return;
+        }
+        record.put(key, Double.parseDouble(value)); // the syntax has been checked, so this cannot throw
+    }
+}
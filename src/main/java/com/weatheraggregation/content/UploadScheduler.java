@@ -0,0 +1,173 @@
+package com.weatheraggregation.content;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+import com.weatheraggregation.utils.ClientConnection;
+import com.weatheraggregation.utils.LamportClock;
+import com.weatheraggregation.utils.ServerData;
+
+/* CLASS TO UPLOAD MANY STATION FILES FROM ONE CONTENT SERVER PROCESS
+ * Each file is a feed with its own upload interval, run on a shared scheduler rather than a thread (or
+ * process) per station. Every run is moved by a random jitter, and the first runs are spread over the jitter,
+ * so feeds with the same interval do not all upload at once. At most maxConnections uploads are in flight:
+ * the scheduler has that many threads, each borrowing one of as many kept-alive connections.
+ * A feed keeps the payload of its last upload and only parses its file again when the file's modification time
+ * or size changes, so an unchanged station costs one stat and one write per interval. A failed upload is not
+ * retried straight away, it is simply sent again at the feed's next run. */
+public class UploadScheduler {
+    public static final int DEFAULT_CONNECTIONS = 4;
+    public static final long DEFAULT_INTERVAL = 15_000; // ms, half the server's 30 second expiry
+
+    private final ServerData server;
+    private final LamportClock clock = new LamportClock(); // shared by every feed, it is thread-safe
+    private final int maxConnections;
+    private final long jitter; // ms, -1 for a tenth of each feed's interval
+    private final BlockingQueue<ClientConnection> connections;
+    private final List<Feed> feeds = new ArrayList<>();
+    private ScheduledExecutorService scheduler;
+    private volatile boolean running = false;
+
+    public UploadScheduler(String serverInfo, int maxConnections, long jitter) {
+        this.server = new ServerData(serverInfo);
+        this.maxConnections = maxConnections;
+        this.jitter = jitter;
+        this.connections = new ArrayBlockingQueue<>(maxConnections);
+        for (int i = 0; i < maxConnections; i++) {
+            connections.add(new ClientConnection(server));
+        }
+    }
+
+    /* CLASS HOLDING ONE STATION FILE AND ITS SCHEDULE */
+    private final class Feed implements Runnable {
+        final String fileName;
+        final long interval; // ms between uploads
+        final long jitter; // ms, each run is moved by up to half of this either way
+        Payload payload; // last parsed, null until the first run (only used by the running upload)
+        volatile int parses = 0;
+        volatile int uploads = 0;
+
+        Feed(String fileName, long interval, long jitter) {
+            this.fileName = fileName;
+            this.interval = interval;
+            this.jitter = jitter;
+        }
+
+        @Override
+        public void run() {
+            try {
+                upload(this);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                return;
+            } catch (Exception ex) {
+                System.out.println("Error uploading " + fileName + ": " + ex.getMessage());
+            }
+            // rescheduled after each run, so a slow upload delays its own feed rather than piling up runs
+            if (running) {
+                long delay = interval + (jitter > 0 ? ThreadLocalRandom.current().nextLong(jitter + 1) - jitter / 2 : 0);
+                scheduler.schedule(this, Math.max(delay, 0), TimeUnit.MILLISECONDS);
+            }
+        }
+    }
+
+    /* function to add station files: a directory adds every file in it. Each fileName may end in @MS to
+     * give that file its own interval, otherwise interval is used. */
+    public void add(String fileName, long interval) {
+        int at = fileName.lastIndexOf('@');
+        if (at > 0) {
+            interval = Long.parseLong(fileName.substring(at + 1));
+            fileName = fileName.substring(0, at);
+        }
+        File file = new File(fileName);
+        if (file.isDirectory()) {
+            File[] files = file.listFiles(File::isFile);
+            if (files != null) {
+                Arrays.sort(files);
+                for (File child : files) {
+                    add(child.getPath(), interval);
+                }
+            }
+            return;
+        }
+        feeds.add(new Feed(fileName, interval, jitter < 0 ? interval / 10 : jitter));
+    }
+
+    /* function to start uploading, returns straight away. Each feed's first upload is at a random time
+     * within its jitter. */
+    public void start() {
+        if (feeds.isEmpty()) {
+            throw new IllegalStateException("No station files to upload.");
+        }
+        running = true;
+        scheduler = Executors.newScheduledThreadPool(maxConnections);
+        System.out.println("Uploading " + feeds.size() + " station file(s) over at most " + maxConnections + " connection(s)...");
+        for (Feed feed : feeds) {
+            long delay = feed.jitter > 0 ? ThreadLocalRandom.current().nextLong(feed.jitter) : 0;
+            scheduler.schedule(feed, delay, TimeUnit.MILLISECONDS);
+        }
+    }
+
+    // function to stop uploading and close the connections, waiting briefly for uploads in flight
+    public void stop() {
+        running = false;
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            try {
+                scheduler.awaitTermination(5, TimeUnit.SECONDS);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+        for (ClientConnection connection : connections) {
+            connection.close();
+        }
+    }
+
+    // number of times a file has been parsed, and uploaded successfully (0 for a file not added)
+    public int parses(String fileName) {
+        return feeds.stream().filter(feed -> feed.fileName.equals(fileName)).mapToInt(feed -> feed.parses).sum();
+    }
+
+    public int uploads(String fileName) {
+        return feeds.stream().filter(feed -> feed.fileName.equals(fileName)).mapToInt(feed -> feed.uploads).sum();
+    }
+
+    /* function to send one feed's data, parsing the file again only if it has changed */
+    private void upload(Feed feed) throws InterruptedException, IOException {
+        if (feed.payload == null || feed.payload.isStale()) {
+            feed.payload = Payload.read(feed.fileName);
+            feed.parses++;
+            if (feed.payload == null) {
+                return;
+            }
+        }
+
+        ClientConnection connection = connections.take();
+        try {
+            long requestTime = clock.increment(); // increment clock before sending request, and send that time
+            ClientConnection.Reply reply = connection.send(feed.payload.request(server, requestTime));
+            try {
+                clock.updateAndIncrement(Long.parseLong(reply.headers.get("Lamport-Time")));
+            } catch (NumberFormatException ex) {
+                System.out.println("Server response has no valid Lamport-Time header");
+            }
+            if (reply.status.startsWith("2") && !reply.status.equals("204")) {
+                feed.uploads++;
+            } else {
+                System.out.println("Upload of " + feed.payload.description + " failed: " + reply.statusLine);
+            }
+        } finally {
+            connections.add(connection);
+        }
+    }
+}
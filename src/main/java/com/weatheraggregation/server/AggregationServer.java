@@ -18,44 +18,109 @@ package com.weatheraggregation.server;
 
 import java.io.*;
 import java.net.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.concurrent.locks.*;
+import java.util.function.LongPredicate;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
+import com.weatheraggregation.utils.ContentCoding;
+import com.weatheraggregation.utils.JsonUtils;
 import com.weatheraggregation.utils.LamportClock;
 import com.weatheraggregation.utils.ParsingUtils;
 
 public class AggregationServer {
-    private static final boolean LIVE_UPDATES = true;
-    private static final int DEFAULT_PORT = 4567;
+    static final boolean LIVE_UPDATES = true;
+    static final int DEFAULT_PORT = 4567;
     private static final int EXPIRY_TIME = 30 * 1000; // 30 seconds
-    private static final int MAX_STATIONS = 20; // do not hold data for more than 20 stations
-    private static final String STATION_ID_STORAGE = "station_ids";
-
-    // store weather data in a concurrent hashmap. Concurrent hashmap is used over the
-    // traditional hashmap as it is optimised for multithreaded use.
-    final Map<String, ObjectNode> weatherDataMap = new ConcurrentHashMap<>();
-    private final Map<String, Long> timestamps = new ConcurrentHashMap<>();
-    private final Set<String> stations = new HashSet<>();
-    private final ReentrantLock lock = new ReentrantLock();
+    private static final int LOCK_STRIPES = 64; // station locks, a station always maps to the same one
+    private static final long DEFAULT_POLL_TIMEOUT = 30 * 1000; // ms a long poll waits for an event
+    private static final long MAX_POLL_TIMEOUT = 120 * 1000;
+    static final int MAX_STATION_ID_LENGTH = 128; // bytes of UTF-8
+    // names of routes and of files kept beside the station files, which a station cannot be called
+    private static final Set<String> RESERVED_STATION_IDS = Set.of("stream", "changes", "heartbeat", "station_ids");
+
+    // store weather data, with pre-serialised GET response bodies, in a versioned copy-on-write store. Every
+    // change swaps in a new immutable version, so a GET reads one consistent version without locking.
+    final StationStore weatherDataMap;
+    // LOCKING: a station's data and persisted record are updated under its striped station
+    // lock, so PUTs to unrelated stations run in parallel. indexLock guards only the truly global state
+    // (the expiry queue and capacity index) and is held briefly. Lock order: station lock, then indexLock.
+    private final ReentrantLock[] stationLocks = new ReentrantLock[LOCK_STRIPES];
+    private final ReentrantLock indexLock = new ReentrantLock();
+    // stations ordered by expiry deadline, and the reaper thread that removes them (guarded by indexLock)
+    private final ExpiryQueue expiry = new ExpiryQueue(EXPIRY_TIME);
+    private final Condition expiryChanged = indexLock.newCondition();
+    private boolean reaperStopped = false;
+    // stations in order of last PUT with their payload sizes, for capacity eviction (guarded by indexLock)
+    private final CapacityIndex capacity;
+    // stations removed for each reason since startup, printed by the 'stats' command
+    private final AtomicLong evictedForCount = new AtomicLong();
+    private final AtomicLong evictedForBytes = new AtomicLong();
+    private final AtomicLong expiredStations = new AtomicLong();
+    // recent readings of each station, only kept if --history is set (updated under the station lock)
+    private final Map<String, StationHistory> histories = new ConcurrentHashMap<>();
+    // every PUT and removal, published for GET /weather/stream subscribers (under the station lock, so each
+    // station's events are in order)
+    final SubscriptionHub subscriptions;
+    // recent PUTs and removals for GET /weather/changes, recorded under the station lock like subscriptions
+    private final ChangeJournal changes;
 
     private final LamportClock clock = new LamportClock(); // initialise clock
-
-    private final int port;
+    // start of every ETag, different for each run so a tag issued before a restart (when the clock restarts
+    // too) never matches
+    private final String etagPrefix = Long.toString(System.currentTimeMillis(), 36);
+
+    private final ServerConfig config;
+    private final WriteBehindPersistence persistence; // stores every change so data survives a restart
+    private final SnapshotStore snapshot; // null unless --snapshot is set
+    private ScheduledExecutorService snapshotWriter;
+    private long snapshotSequence = -1; // store version captured by the last snapshot
     private ServerSocket serverSocket;
+    private NioServer nioServer;
+    private ExecutorService handlerExecutor; // runs ConnectionHandlers for the blocking engine
+    // counted down once the server is accepting connections, so callers can wait for start() instead of sleeping
+    private final CountDownLatch listening = new CountDownLatch(1);
+    private volatile int localPort = -1; // port actually bound, which differs from config.port if that is 0
 
     public AggregationServer(int port) {
-        this.port = port;
+        this(new ServerConfig(port));
+    }
+
+    public AggregationServer(ServerConfig config) {
+        this(config, config.persistence == ServerConfig.PersistenceMode.LOG
+                ? new LogPersistence(new File(config.logDir), config.segmentSize, config.compactSegments, EXPIRY_TIME)
+                : new FilePersistence(new File(config.dataDir)));
+    }
+
+    // storage is the persistence engine behind the write-behind queue, given directly by tests
+    AggregationServer(ServerConfig config, Persistence storage) {
+        this.config = config;
+        this.weatherDataMap = new StationStore(config.versions, config.storage);
+        this.capacity = new CapacityIndex(config.maxStations, config.maxBytes);
+        this.subscriptions = new SubscriptionHub(config.eventBuffer);
+        this.changes = new ChangeJournal(config.journalSize, clock);
+        for (int i = 0; i < LOCK_STRIPES; i++) {
+            stationLocks[i] = new ReentrantLock();
+        }
+        this.persistence = new WriteBehindPersistence(storage, config.durability, config.flushWindow, config.writeQueue);
+        this.snapshot = config.snapshot != null ? new SnapshotStore(new File(config.snapshot)) : null;
     }
 
     public static void main(String[] args) {
-        int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
         // create server on default port unless one is provided
-        AggregationServer server = new AggregationServer(port);
+        AggregationServer server = new AggregationServer(ServerConfig.fromArgs(args));
 
+        // fork thread to listen for exit commands on stdin. Only a server run from the command line does this, an
+        // embedded one (e.g. in tests, where stdin belongs to the test runner) is stopped with shutdown()
+        server.listenForExit();
         try {
             server.start(); // start server
         } catch (IOException ex) {
@@ -65,25 +130,68 @@ public class AggregationServer {
 
     public void start() throws IOException {
         readLocalWD(); // read data from persistent storage
+        startReaper();
+        startSnapshots();
+
+        if (config.engine == ServerConfig.Engine.NIO) {
+            nioServer = new NioServer(this, config);
+            localPort = nioServer.bind();
+            printStartup();
+            listening.countDown();
+            nioServer.run(); // accept until closed
+            return;
+        }
 
-        serverSocket = new ServerSocket(port); // create socket
+        serverSocket = new ServerSocket(config.port); // create socket
+        localPort = serverSocket.getLocalPort();
+        handlerExecutor = HandlerExecutors.create(config);
+        printStartup();
+        listening.countDown();
 
-        System.out.println("Aggregation server running on port " + port);
+        // start listening on socket
+        while (!serverSocket.isClosed()) {
+            Socket clientSocket;
+            try {
+                clientSocket = serverSocket.accept();
+            } catch (SocketException ex) {
+                break; // socket closed by shutdown()
+            }
+            try {
+                handlerExecutor.execute(new ConnectionHandler(clientSocket)); // handle client on executor
+            } catch (RejectedExecutionException ex) {
+                rejectConnection(clientSocket);
+            }
+        }
+    }
+
+    /* function to answer 503 on the accepting thread when the bounded handler pool and its queue are full */
+    private void rejectConnection(Socket clientSocket) {
+        if (LIVE_UPDATES) {System.out.println("Handler pool full, rejecting connection...");}
+        try (Socket socket = clientSocket) {
+            socket.getOutputStream().write(errorResponse("503 Service Unavailable").toBytes(false));
+        } catch (IOException ex) {
+            System.out.println("Error rejecting connection: " + ex.getMessage());
+        }
+    }
+
+    private void printStartup() {
+        String mode = config.engine == ServerConfig.Engine.NIO ? "nio engine" : config.handler.name().toLowerCase() + " handler";
+        System.out.println("Aggregation server running on port " + localPort + " (" + mode + ")");
         System.out.println("Usage:");
         System.out.println("'exit' to shut down server and retain all weather data.");
         System.out.println("'exit -r' to shut down server and remove all weather data.");
-        listenForExit(); // fork thread to listen for exit commands on stdin
+    }
 
-        // start listening on socket
-        while (!serverSocket.isClosed()) {
-            Socket clientSocket = serverSocket.accept();
-            new Thread(new ConnectionHandler(clientSocket)).start(); // Handle client in a new thread
-        }
+    /* function to wait until start() is accepting connections. Returns the port bound, or -1 if the server has
+     * not started within timeoutMillis (e.g. the port was in use). */
+    int awaitListening(long timeoutMillis) throws InterruptedException {
+        return listening.await(timeoutMillis, TimeUnit.MILLISECONDS) ? localPort : -1;
     }
 
-    /* function to listen on stdin for exit command, and shut down server if received) */
+    /* function to listen on stdin for exit command, and shut down server if received). The thread is a daemon,
+     * as start() keeps the JVM running for as long as the server accepts connections. */
     private void listenForExit() {
-        new Thread(() -> {
+        Thread listener = new Thread(() -> {
             try (BufferedReader reader = new BufferedReader(new InputStreamReader(System.in))) {
                 String input;
                 while ((input = reader.readLine()) != null) {
@@ -93,17 +201,23 @@ public class AggregationServer {
                     } else if (input.trim().equals("exit -r")) {
                         close(true);  // exit and remove weather data
                         break;
+                    } else if (input.trim().equals("stats")) {
+                        System.out.println(persistence.stats());
+                        System.out.println(capacityStats());
                     } else {
                         System.out.println("Invalid command: " + input);
                         System.out.println("Usage:");
                         System.out.println("'exit' to shut down server and retain all weather data.");
                         System.out.println("'exit -r' to shut down server and remove all weather data.");
+                        System.out.println("'stats' to print persistence queue depth, flush latency and eviction counts.");
                     }
                 }
             } catch (IOException ex) {
                 System.out.println("Error reading shutdown commands: " + ex.getMessage());
             }
-        }).start();
+        }, "exit-listener");
+        listener.setDaemon(true);
+        listener.start();
     }
 
     /* function to close server. Will remove WD in persistent storage according to removeData bool */
@@ -112,23 +226,25 @@ public class AggregationServer {
 
         if (removeData) {
             System.out.println("Removing all persistent weather data from local storage...");
-            // delete stationIDs file
-            File stationIDFile = new File(STATION_ID_STORAGE);
-            if (stationIDFile.exists() && !stationIDFile.delete()) {
-                System.out.println("Error deleting station ID file");
-            }
-
-            // delete all local station files
-            for (String stationID : stations) {
-                File stationFile = new File(stationID);
-                if (stationFile.exists() && !stationFile.delete()) {
-                    System.out.println("Error deleting local file for station " + stationID);
-                }
+            stopSnapshots();
+            persistence.clear();
+            if (snapshot != null) {
+                snapshot.delete();
             }
+            shutdown();
         } else {
             System.out.println("Weather data will be retained");
+            shutdown();
+            // every change is on disk now, so this snapshot is newer than all of them and will be used on restart
+            writeSnapshot();
         }
 
+        System.out.println("Server shutdown complete");
+        System.exit(0);
+    }
+
+    /* function to stop accepting connections and release sockets and threads without exiting the JVM */
+    void shutdown() {
         // close server socket
         try {
             if (serverSocket != null && !serverSocket.isClosed()) {
@@ -137,175 +253,273 @@ public class AggregationServer {
         } catch (IOException ex) {
             System.out.println("Error closing server socket: " + ex.getMessage());
         }
+        if (nioServer != null) {
+            nioServer.close();
+        }
+        if (handlerExecutor != null) {
+            handlerExecutor.shutdown();
+        }
+        subscriptions.close(); // ends event streams held open by blocking handlers
+        stopReaper();
+        stopSnapshots();
+        persistence.close();
+    }
 
-        System.out.println("Server shutdown complete");
-        System.exit(0);
+    /* function to start writing a snapshot every snapshotInterval, if snapshots are enabled */
+    private void startSnapshots() {
+        if (snapshot == null) {
+            return;
+        }
+        snapshotWriter = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "snapshot-writer");
+            thread.setDaemon(true);
+            return thread;
+        });
+        snapshotWriter.scheduleWithFixedDelay(this::writeSnapshot, config.snapshotInterval, config.snapshotInterval, TimeUnit.MILLISECONDS);
     }
 
-    // function to remove any stations exceeding EXPIRY_TIME
-    void removeExpiredStations() {
-        if (LIVE_UPDATES) {System.out.println("Removing expired stations...");}
+    private void stopSnapshots() {
+        if (snapshotWriter != null) {
+            snapshotWriter.shutdown();
+            try {
+                snapshotWriter.awaitTermination(5, TimeUnit.SECONDS); // let a snapshot being written finish
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /* function to write one version of the store to the snapshot file. No lock is needed: every change
+     * persisted before takenAt was stored before takenAt, so is in the version, and anything persisted
+     * later makes the snapshot stale on load. */
+    private synchronized void writeSnapshot() {
+        if (snapshot == null) {
+            return;
+        }
+        long takenAt = System.currentTimeMillis();
+        StationStore.Version version = weatherDataMap.current(); // read after takenAt
+        if (version.sequence == snapshotSequence) {
+            return; // nothing has changed since the last snapshot
+        }
+        List<SnapshotStore.Entry> entries = new ArrayList<>();
+        version.forEach((stationID, station) ->
+                entries.add(new SnapshotStore.Entry(stationID, station.timestamp, station.value())));
+        snapshotSequence = version.sequence;
+        snapshot.write(takenAt, entries); // the captured byte arrays are never modified
+    }
 
-        // use a set to store stationIDs of expired data
-        Set<String> expiredStations = new HashSet<>();
+    private static int stripe(String stationID) {
+        return (stationID.hashCode() & 0x7fffffff) % LOCK_STRIPES;
+    }
 
-        // expiry checking and deletion loops are seperated to avoid a
-        // ConcurrentModificationException caused by modifying a map while
-        // iterating over it
+    private ReentrantLock stationLock(String stationID) {
+        return stationLocks[stripe(stationID)];
+    }
 
-        // loop through weatherDataMap keyset and check timestamps
-        long currentTime = System.currentTimeMillis();
-        for (String stationID : weatherDataMap.keySet()) {
-            Long stationTimestamp = timestamps.get(stationID);
-            if (stationTimestamp != null && (currentTime - stationTimestamp > EXPIRY_TIME)) {
-                expiredStations.add(stationID); // add stationID to expired set
-            }
+    /* function to lock every station of a batch. Stripes are always locked in ascending order, so two
+     * batches cannot deadlock. Returns the locks taken, to be released with unlockStations. */
+    private List<ReentrantLock> lockStations(Collection<String> stationIDs) {
+        TreeSet<Integer> stripes = new TreeSet<>();
+        for (String stationID : stationIDs) {
+            stripes.add(stripe(stationID));
+        }
+        List<ReentrantLock> locked = new ArrayList<>();
+        for (int stripe : stripes) {
+            stationLocks[stripe].lock();
+            locked.add(stationLocks[stripe]);
         }
+        return locked;
+    }
 
-        // loop through expired stations to update class variables and delete local files
-        for (String stationID : expiredStations) {
-            // remove from program memory
-            weatherDataMap.remove(stationID);
-            timestamps.remove(stationID);
-            stations.remove(stationID);
+    private static void unlockStations(List<ReentrantLock> locked) {
+        for (int i = locked.size() - 1; i >= 0; i--) {
+            locked.get(i).unlock();
+        }
+    }
 
-            // remove from persistent memory
-            File file = new File(stationID);
-            if (!(file.exists() && file.delete())) {
-                System.out.println("Error deleting expired local data for station " + stationID);
+    /* function to remove any stations exceeding EXPIRY_TIME. Called by the expiry reaper when the next
+     * deadline passes, so only the stations that have expired are visited. Must not be called while
+     * holding indexLock, as removing a station takes its station lock first. */
+    void removeExpiredStations() {
+        List<String> due;
+        indexLock.lock();
+        try {
+            due = expiry.pollExpired(System.currentTimeMillis());
+        } finally {
+            indexLock.unlock();
+        }
+        if (due.isEmpty()) {
+            return;
+        }
+        if (LIVE_UPDATES) {System.out.println("Removing expired stations " + due + "...");}
+
+        for (String stationID : due) {
+            // a PUT or heartbeat may have refreshed the station since it was polled, in which case it has been
+            // rescheduled
+            if (removeStation(stationID, "expire", timestamp -> System.currentTimeMillis() - timestamp > EXPIRY_TIME
+                    && !isScheduled(stationID))) {
+                expiredStations.incrementAndGet();
             }
         }
+    }
 
-        updateStationsFile();
+    private boolean isScheduled(String stationID) {
+        indexLock.lock();
+        try {
+            return expiry.isScheduled(stationID);
+        } finally {
+            indexLock.unlock();
+        }
     }
 
-    // function to remove oldest station if MAX_STATIONS is exceeded
+    /* function to remove the least recently updated stations while the station count or payload bytes
+     * exceed the configured capacity. Each victim is found in O(1) from the capacity index. */
     private void removeExcessStations() {
-        // This function is called after every PUT, so weatherDataMap.size() should
-        // never be more than 1 over MAX_STATIONS. Therefore, only the oldest station
-        // needs to be removed.
-        if (LIVE_UPDATES) {System.out.println("Removing excess stations...");}
-
-        if (stations.size() > MAX_STATIONS) {
-            long oldestTimestamp = Long.MAX_VALUE; // hold the smallest timestamp (oldest station)
-            String oldestStationID = ""; // hold the smallest timestamp (oldest station)
-            for (String stationID : weatherDataMap.keySet()) {
-                // use Long wrapper to allow direct assignment of null value
-                Long stationTimestamp = timestamps.get(stationID);
-                if (stationTimestamp != null && stationTimestamp < oldestTimestamp) {
-                    oldestTimestamp = stationTimestamp;
-                    oldestStationID = stationID;
-                }
+        while (true) {
+            CapacityIndex.Victim victim;
+            indexLock.lock();
+            try {
+                victim = capacity.victim();
+            } finally {
+                indexLock.unlock();
             }
-
-            // remove from program memory
-            weatherDataMap.remove(oldestStationID);
-            timestamps.remove(oldestStationID);
-            stations.remove(oldestStationID);
-
-            // remove from persistent memory
-            File file = new File(oldestStationID);
-            if (!(file.exists() && file.delete())) {
-                System.out.println("Error deleting expired local data for station " + oldestStationID);
+            if (victim == null) {
+                return;
+            }
+            if (LIVE_UPDATES) {System.out.println("Removing excess station " + victim.stationID + "...");}
+            // only remove it if no PUT has refreshed it since it was picked
+            if (removeStation(victim.stationID, "evict", timestamp -> timestamp == victim.timestamp)) {
+                (victim.forBytes ? evictedForBytes : evictedForCount).incrementAndGet();
             }
-
-            updateStationsFile();
         }
     }
 
-    /* function to update persistent storage of stations set */
-    private void updateStationsFile() {
-        if (LIVE_UPDATES) {System.out.println("Updating stations file...");}
-        File stationIDFile = new File(STATION_ID_STORAGE);
-        try (FileWriter writer = new FileWriter(stationIDFile)) {
-            for (String id : stations) {
-                writer.write(id + System.lineSeparator());
-            }
-        } catch (IOException ex) {
-            System.out.println("Error updating station ID file: " + ex.getMessage());
+    /* function to describe how many stations are held and how many have been removed, for sizing capacity */
+    String capacityStats() {
+        int stationCount;
+        long bytes;
+        indexLock.lock();
+        try {
+            stationCount = capacity.size();
+            bytes = capacity.totalBytes();
+        } finally {
+            indexLock.unlock();
         }
+        String maxBytes = config.maxBytes == Long.MAX_VALUE ? "unlimited" : String.valueOf(config.maxBytes);
+        return String.format("capacity: stations=%d/%d bytes=%d/%s evicted count=%d bytes=%d expired=%d",
+                stationCount, config.maxStations, bytes, maxBytes,
+                evictedForCount.get(), evictedForBytes.get(), expiredStations.get());
     }
 
-    /* function to overwrite local weather data file for provided station with current weatherDataMap */
-    private void writeLocalWD(String stationID) {
-        if (LIVE_UPDATES) {System.out.println("Writing local data for station " + stationID + "...");}
+    /* function to remove a station from memory and persistent storage, if its current timestamp still
+     * passes the check, and tell subscribers why ("expire" or "evict"). Takes the station lock, then
+     * indexLock. Returns true if the station was removed. */
+    private boolean removeStation(String stationID, String reason, LongPredicate stillRemovable) {
+        ReentrantLock stationLock = stationLock(stationID);
+        stationLock.lock();
+        try {
+            StationStore.Station station = weatherDataMap.current().get(stationID);
+            if (station == null) {
+                // already gone from the store (a failed PUT drops it), so drop its index entries too, or eviction
+                // would pick it again forever
+                unindexStation(stationID);
+                return false;
+            }
+            if (!stillRemovable.test(station.timestamp)) {
+                return false;
+            }
 
-        // retrieve station weatherdata from map
-        ObjectMapper mapper = new ObjectMapper();
-        ObjectNode weatherData = weatherDataMap.get(stationID);
+            // remove from program memory, a local event in Lamport time
+            long removedAt = clock.increment();
+            weatherDataMap.remove(stationID, removedAt);
+            histories.remove(stationID);
+            unindexStation(stationID);
 
-        if (weatherData != null) {
-            // open file for writing, file name is stationID
-            File file = new File(stationID);
-            try (FileWriter fileWriter = new FileWriter(file)) {
-                // write stationID timestamp to first line
-                fileWriter.write(timestamps.get(stationID).toString() + System.lineSeparator());
-                // write JSON object to rest of file
-                mapper.writeValue(fileWriter, weatherData);
-            } catch (IOException ex) {
-                System.out.println("Error writing to local file for station " + stationID + ": " + ex.getMessage());
-            }
-        } else {
-            System.out.println("Error: no weather data found for station: " + stationID);
+            // remove from persistent memory
+            persistence.recordRemove(Collections.singleton(stationID), removedAt);
+            changes.recordRemove(stationID, reason, removedAt);
+            subscriptions.publishRemove(stationID, reason, removedAt);
+            return true;
+        } finally {
+            stationLock.unlock();
         }
-
-        updateStationsFile();
     }
 
-    /* function to overwrite stationID data in map with contents of local file */
-    // this function was written with the assistance of AI
-    private void readLocalWD() {
-        if (LIVE_UPDATES) {System.out.println("Reading local data...");}
-
-        File stationIDFile = new File(STATION_ID_STORAGE);
-
-        // read stationIDs from STATION_ID_STORAGE
-        if (stationIDFile.exists()) {
-            try (BufferedReader reader = new BufferedReader(new FileReader(stationIDFile))) {
-                String line;
-                while ((line = reader.readLine()) != null) {
-                    stations.add(line.trim());  // Add each station ID to the set
-                }
-            } catch (IOException ex) {
-                System.out.println("Error reading station ID file: " + ex.getMessage());
-            }
-        } else {
-            System.out.println("No local station ID file found.");
-        }
-
-        // read each file corresponding to stationID, populate weatherDataMap and update timestamps
-        ObjectMapper mapper = new ObjectMapper();
-        for (String stationID : stations) {
-            File stationFile = new File(stationID);
-            if (stationFile.exists()) {
-                try (BufferedReader reader = new BufferedReader(new FileReader(stationFile))) {
-                    // first line is timestamp
-                    String timestamp = reader.readLine();
-                    if (timestamp != null) {
-                        Long stationTimestamp = Long.parseLong(timestamp.trim());
-                        timestamps.put(stationID, stationTimestamp);
+    /* function run by the expiry reaper thread: sleep until the next station's deadline, then expire it.
+     * Waiting on a condition of indexLock releases the lock while asleep. */
+    private void reapExpiredStations() {
+        indexLock.lock();
+        try {
+            while (!reaperStopped) {
+                long wait = expiry.nextDeadline() - System.currentTimeMillis();
+                if (wait <= 0) {
+                    // station locks come before indexLock, so release it while removing
+                    indexLock.unlock();
+                    try {
+                        removeExpiredStations();
+                    } finally {
+                        indexLock.lock();
                     }
-
-                    // rest of file is JSON weather data
-                    ObjectNode weatherData = (ObjectNode) mapper.readTree(reader);
-                    weatherDataMap.put(stationID, weatherData);
-                } catch (IOException ex) {
-                    System.out.println("Error reading weather data file for station " + stationID + ": " + ex.getMessage());
+                } else {
+                    expiryChanged.await(wait, TimeUnit.MILLISECONDS); // woken early when a deadline is added
                 }
-            } else {
-                System.out.println("Warning: Weather data file for station " + stationID + " not found.");
             }
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            indexLock.unlock();
         }
+    }
+
+    private void startReaper() {
+        Thread reaper = new Thread(this::reapExpiredStations, "expiry-reaper");
+        reaper.setDaemon(true);
+        reaper.start();
+    }
 
-        // remove expired data before handling request
-        lock.lock();
+    private void stopReaper() {
+        indexLock.lock();
         try {
-            removeExpiredStations();
+            reaperStopped = true;
+            expiryChanged.signalAll();
         } finally {
-            lock.unlock();
+            indexLock.unlock();
         }
     }
 
+    /* function to populate memory from persistent storage. Uses the snapshot if it is up to date, falling
+     * back to the persistence engine otherwise */
+    private void readLocalWD() {
+        // restored stations are tagged with Lamport time 0, before any request
+        boolean restored = snapshot != null && snapshot.load(persistence.lastModified(), (stationID, timestamp, weatherData) -> {
+            weatherDataMap.putSerialised(stationID, weatherData, timestamp, 0); // copied and parsed on first access
+            expiry.schedule(stationID, timestamp);
+            capacity.record(stationID, weatherData.remaining(), timestamp);
+        });
+        if (restored) {
+            if (LIVE_UPDATES) {System.out.println("Restored " + weatherDataMap.size() + " stations from snapshot");}
+            snapshotSequence = weatherDataMap.current().sequence; // identical to the file just read
+        } else {
+            persistence.load((stationID, timestamp, weatherData) -> {
+                byte[] value = weatherDataMap.put(stationID, weatherData, timestamp, 0);
+                if (value != null) {
+                    expiry.schedule(stationID, timestamp);
+                    capacity.record(stationID, value.length, timestamp);
+                }
+            });
+        }
+
+        // remove expired data and anything over capacity (which may have been lowered) before handling requests
+        removeExpiredStations();
+        removeExcessStations();
+    }
+
+    /* function to check whether accepted connections are queued for a handler thread, which only happens with
+     * --handler=pool (the other handlers start a thread per connection) */
+    private boolean connectionsWaiting() {
+        return handlerExecutor instanceof ThreadPoolExecutor && !((ThreadPoolExecutor) handlerExecutor).getQueue().isEmpty();
+    }
+
     private class ConnectionHandler implements Runnable {
         private final Socket socket;
 
@@ -317,32 +531,56 @@ public class AggregationServer {
         @Override
         public void run() {
             if (LIVE_UPDATES) {System.out.println("New connection accepted...");}
-            // use a outputsteam for writing to socket, and a bufferedreader for reading
+            // use a buffered input stream for reading so the payload can be read as raw bytes after the headers
             // declare outside of try block to allow socket closing in finally block
             OutputStream socketOut = null;
-            BufferedReader socketIn = null;
+            InputStream socketIn = null;
             try {
-                socketOut = socket.getOutputStream();
-                socketIn = new BufferedReader(new InputStreamReader(socket.getInputStream()));
-
-                // Confirm first line of request is one of the following and handle accordingly
-                // "GET /weather/station ..."
-                // "PUT /weather/station ..."
-                String requestLine = socketIn.readLine();
-                if (requestLine != null) {
-                    String[] request = requestLine.split(" ");
-
-                    if (request[0].equals("GET")) {
-                        handleGet(socketIn, socketOut, request[1]);
-                    } else if (request[0].equals("PUT")) {
-                        handlePut(socketIn, socketOut, request[1]);
-                    } else {
-                        // send 400 error code
-                        returnErrorCode("400 Bad Request", socketOut);
+                socket.setSoTimeout(config.keepAliveTimeout); // close connections idle for longer than this
+                socketOut = new BufferedOutputStream(socket.getOutputStream());
+                socketIn = new BufferedInputStream(socket.getInputStream());
+
+                // handle requests in order until the client closes the connection, asks for it to be closed,
+                // goes idle, or reaches the per-connection request limit
+                int handled = 0;
+                boolean keepAlive = true;
+                while (keepAlive) {
+                    Response response;
+                    try {
+                        Request request = Request.read(socketIn);
+                        if (request == null) {
+                            return; // client closed connection
+                        }
+                        handled++;
+                        // a pooled connection gives up its thread while other connections wait for one
+                        keepAlive = request.keepAlive() && handled < config.maxRequests && !connectionsWaiting();
+                        response = handleRequest(request);
+                    } catch (SocketTimeoutException ex) {
+                        if (LIVE_UPDATES) {System.out.println("Closing idle connection...");}
+                        return;
+                    } catch (IOException ex) {
+                        System.out.println("Malformed request: " + ex.getMessage());
+                        response = errorResponse("400 Bad Request");
+                        keepAlive = false;
+                    }
+
+                    if (response.subscription != null) {
+                        if (response.subscription.eventStream) {
+                            streamEvents(response, socketOut);
+                            return; // an event stream lasts until the client goes away or the server stops
+                        }
+                        response = awaitPoll(response.subscription);
+                    }
+
+                    // a streamed response is encoded one chunk at a time as it is written
+                    for (Iterator<byte[]> output = response.encode(keepAlive); output.hasNext(); ) {
+                        socketOut.write(output.next());
+                    }
+                    // responses to pipelined requests already waiting in the buffer are sent in one write
+                    if (!keepAlive || socketIn.available() == 0) {
+                        socketOut.flush();
                     }
                 }
-            } catch (UnknownHostException ex) {
-                System.out.println("Server not found: " + ex.getMessage());
             } catch (IOException ex) {
                 System.out.println("I/O error: " + ex.getMessage());
             } finally {
@@ -356,214 +594,617 @@ public class AggregationServer {
                 }
             }
         }
+    }
 
-        private void returnErrorCode(String errorCode, OutputStream socketOut) {
-            if (LIVE_UPDATES) {System.out.println("Returning error code " + errorCode + "...");}
-
-            String RESPONSE =
-                    "HTTP/1.1 " + errorCode + "\r\n" +
-                    "Content-Type: text/plain" + "\r\n" +
-                    "Content-Length: 0" + "\r\n" +
-                    "Lamport-Time: " + clock.getTime() + "\r\n\r\n";
-
-            try {
-                socketOut.write(RESPONSE.getBytes());
+    /* function to send an event stream's head, then each batch of events as it is published, on a blocking
+     * connection. A heartbeat comment is sent after HEARTBEAT_INTERVAL without events, so a client that has
+     * gone away is noticed when the write fails. */
+    private void streamEvents(Response response, OutputStream socketOut) throws IOException {
+        Subscription subscription = response.subscription;
+        if (LIVE_UPDATES) {System.out.println("Streaming events to subscriber...");}
+        try {
+            socketOut.write(response.toBytes(false));
+            List<SubscriptionHub.Event> events = subscription.poll(); // events after ?since= / Last-Event-ID
+            while (!subscription.isClosed()) {
+                socketOut.write(events.isEmpty() ? Subscription.HEARTBEAT : Subscription.frames(events));
                 socketOut.flush();
-            } catch (IOException e) {
-                System.out.println("Error writing to socket...");
+                events = subscription.await(Subscription.HEARTBEAT_INTERVAL);
             }
+            socketOut.write(Response.LAST_CHUNK);
+            socketOut.flush();
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        } finally {
+            subscription.close();
+        }
+    }
+
+    /* function to wait on a blocking connection until a long poll has events or reaches its deadline */
+    private Response awaitPoll(Subscription subscription) {
+        List<SubscriptionHub.Event> events = List.of();
+        try {
+            events = subscription.await(Math.max(0, subscription.deadline - System.currentTimeMillis()));
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
         }
+        return pollReply(subscription, events);
+    }
 
-        private void handleGet(BufferedReader socketIn, OutputStream socketOut, String resource) {
-            if (LIVE_UPDATES) {System.out.println("Handling GET request...");}
+    /* function to dispatch a fully read request. Shared by the blocking and non-blocking engines. */
+    Response handleRequest(Request request) {
+        // Confirm request is one of the following and handle accordingly
+        // "GET /weather/station ..."
+        // "PUT /weather/station ..."
+        if (request.method.equals("GET")) {
+            return handleGet(request);
+        } else if (request.method.equals("PUT")) {
+            return handlePut(request);
+        } else {
+            // send 400 error code
+            return errorResponse("400 Bad Request");
+        }
+    }
 
-            // remove expired data before building response
-            lock.lock();
-            try {
-                removeExpiredStations();
-            } finally {
-                lock.unlock();
-            }
+    Response errorResponse(String errorCode) {
+        if (LIVE_UPDATES) {System.out.println("Returning error code " + errorCode + "...");}
+        return new Response(errorCode, clock.getTime());
+    }
 
-            // check requested resource is /weather and isolate stationID if provided
-            String[] resourceParts = resource.split("/");
-            String stationID = ""; // default if no station is specified
-            if (!resourceParts[1].equals("weather")) {
-                // send 404 error code and exit
-                returnErrorCode("404 Not Found", socketOut);
-                return;
-            } else if (resourceParts.length == 3) {
-                stationID = resourceParts[2];
-            }
+    /* function to read Lamport-Time header. Returns -1 if missing or invalid. */
+    private static long parseLamportTime(Map<String, String> headers) {
+        try {
+            return Long.parseLong(headers.get("Lamport-Time"));
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
 
-            // parse headers and update lamport time
-            Map<String, String> headers;
-            try {
-                headers = ParsingUtils.parseHeaders(socketIn);
-            } catch (IOException ex) {
-                System.out.println("Error reading headers: " + ex.getMessage());
-                returnErrorCode("400 Bad Request", socketOut);
-                return;
+    /* function to read a non-negative number from the query string, or return absent if it is not given.
+     * Throws NumberFormatException if it is invalid. */
+    private static long queryNumber(Map<String, String> query, String name, long absent) {
+        String value = query.get(name);
+        if (value == null) {
+            return absent;
+        }
+        long number = Long.parseLong(value);
+        if (number < 0) {
+            throw new NumberFormatException("Negative " + name + ": " + value);
+        }
+        return number;
+    }
+
+    private Response handleGet(Request request) {
+        if (LIVE_UPDATES) {System.out.println("Handling GET request...");}
+
+        // check requested resource is /weather and isolate stationID if provided
+        String[] resourceParts = request.path.split("/");
+        String stationID = ""; // default if no station is specified
+        boolean history = false;
+        if (resourceParts.length < 2 || resourceParts.length > 4 || !resourceParts[1].equals("weather")) {
+            // send 404 error code and exit
+            return errorResponse("404 Not Found");
+        } else if (resourceParts.length == 4) {
+            // "/weather/stationID/history"
+            if (!resourceParts[3].equals("history")) {
+                return errorResponse("404 Not Found");
             }
-            int clientLamportTime = Integer.parseInt(headers.get("Lamport-Time"));
+            stationID = resourceParts[2];
+            history = true;
+        } else if (resourceParts.length == 3) {
+            stationID = resourceParts[2];
+        }
 
-            // confirm lamport-time was sent in request header
-            if (clientLamportTime < 0) {
-                returnErrorCode("400 Bad Request", socketOut);
-                return;
+        // update lamport time from request headers
+        long clientLamportTime = parseLamportTime(request.headers);
+
+        // confirm lamport-time was sent in request header
+        if (clientLamportTime < 0) {
+            return errorResponse("400 Bad Request");
+        }
+
+        clock.updateAndIncrement(clientLamportTime); // receive event, lock-free
+
+        if (history) {
+            return handleHistory(request, stationID);
+        }
+        if (stationID.equals("stream")) {
+            return handleSubscribe(request);
+        }
+        if (stationID.equals("changes")) {
+            return handleChanges(request);
+        }
+
+        long asOf; // serve the current version unless ?asOf= is given
+        try {
+            asOf = queryNumber(request.query, "asOf", -1);
+        } catch (NumberFormatException ex) {
+            return errorResponse("400 Bad Request");
+        }
+
+        // one immutable version answers the whole request, so it is never a mix of states
+        StationStore.Version version = asOf < 0 ? weatherDataMap.current() : weatherDataMap.asOf(asOf);
+        if (version == null || version.isEmpty()) {
+            return errorResponse("404 Not Found");
+        }
+
+        // the ETag is the Lamport time of the last change to the station (or any station), so a client which
+        // already has this version is answered before any payload is looked up or serialised
+        StationStore.Station station = null;
+        String etag;
+        if (stationID.isEmpty()) {
+            etag = collectionETag(version);
+        } else {
+            station = version.get(stationID);
+            // if station ID not in this version, return 404 error
+            if (station == null) {
+                if (LIVE_UPDATES) {System.out.println("Station " + stationID + " not found.");}
+                return errorResponse("404 Not Found");
             }
+            etag = stationETag(station);
+        }
+        if (etagMatches(request.headers.get("If-None-Match"), etag)) {
+            if (LIVE_UPDATES) {System.out.println("Client already has " + etag + ", sending 304...");}
+            return new Response("304 Not Modified", clock.increment()).withETag(etag);
+        }
 
-            lock.lock();
-            try {
-                boolean clientIsAhead = clock.update(clientLamportTime);
-            } finally {
-                lock.unlock();
+        // response bodies are serialised when data is stored, so building a response is a lookup
+        ContentCoding coding = ContentCoding.negotiate(request.headers.get("Accept-Encoding"));
+        byte[] responseJson = null;
+        Iterator<ByteBuffer> streamedJson = null;
+        if (stationID.isEmpty()) {
+            // no station ID specified, return all weather data stored in the AS. HTTP/1.1 clients are sent
+            // it chunked, one station at a time, so it is never assembled for them
+            if (request.acceptsChunked()) {
+                streamedJson = version.allStationsPieces();
+            } else {
+                responseJson = version.allStations();
             }
+        } else {
+            // station ID provided, retrieve corresponding weather data (wrapped in a set for parsing at client)
+            responseJson = station.body();
+        }
 
-            if (stations.isEmpty()) {
-                returnErrorCode("404 Not Found", socketOut);
-                return;
+        // compress the payload if the client accepts it and it is large enough to gain from it. Compressed
+        // bodies are cached beside the serialised ones, so each is compressed once
+        if (responseJson != null) {
+            if (coding != null && responseJson.length >= config.compressionThreshold) {
+                responseJson = station == null ? version.allStations(coding) : station.body(coding);
+            } else {
+                coding = null;
             }
+        }
 
-            try {
-                ObjectNode responseData = new ObjectMapper().createObjectNode(); // initialise JSON object to contain response
-                if (stationID.isEmpty()) {
-                    // no station ID specified, return all weather data stored in the AS
-                    weatherDataMap.forEach(responseData::set); // this line was provided by a LLM
-                    // deliberately not locking around forEach call, it is fine for other threads to modify the map
-                    // while building responseData. Removed/added stations will be reflected in responseData.
-                } else {
-                    // station ID provided, retrieve corresponding weather data
-                    // concurrent hashmap does not require locking for atomic actions
-                    ObjectNode stationData = weatherDataMap.get(stationID);
-                    // if station ID not in map, return 404 error
-                    if (stationData == null) {
-                        if (LIVE_UPDATES) {System.out.println("Station " + stationID + " not found.");}
-                        returnErrorCode("404 Not Found", socketOut);
-                        return;
-                    }
-                    responseData.set(stationID, stationData); // wrap response in set for parsing at client
-                }
+        // increment clock before sending response, the response carries exactly this time
+        long responseTime = clock.increment();
 
-                // parse response data to JSON string
-                String responseJson = new ObjectMapper().writeValueAsString(responseData);
+        if (LIVE_UPDATES) {System.out.println("GET request successfully handled, sending response...");}
 
-                // increment clock before sending response
-                lock.lock();
-                try {
-                    clock.increment();
-                } finally {
-                    lock.unlock();
-                }
+        // send response with payload
+        if (streamedJson != null) {
+            return new Response("200 OK", "application/json", streamedJson, coding, config.compressionThreshold,
+                    responseTime).withETag(etag);
+        }
+        return new Response("200 OK", "application/json", responseJson, coding, responseTime).withETag(etag);
+    }
 
-                if (LIVE_UPDATES) {System.out.println("GET request successfully handled, sending response...");}
+    /* ETags are weak, as the same version may be sent compressed or not. A station's ETag is the Lamport time
+     * of its PUT. The collection's is the Lamport time of the latest PUT or removal plus the store's change
+     * count, as the stations of one batch PUT share a Lamport time but are stored one at a time. */
+    private String stationETag(StationStore.Station station) {
+        return "W/\"" + etagPrefix + "-" + station.lamportTime + "\"";
+    }
 
-                // send response with payload
-                String RESPONSE =
-                        "HTTP/1.1 200 OK" + "\r\n" +
-                        "Content-Type: application/json" + "\r\n" +
-                        "Content-Length: " + responseJson.length() + "\r\n" +
-                        "Lamport-Time: " + clock.getTime() + "\r\n\r\n" +
-                        responseJson;
+    private String collectionETag(StationStore.Version version) {
+        return "W/\"" + etagPrefix + "-" + version.lamportTime + "." + version.sequence + "\"";
+    }
 
-                try {
-                    socketOut.write(RESPONSE.getBytes());
-                    socketOut.flush();
-                } catch (IOException e) {
-                    System.out.println("Error writing to socket...");
+    /* function to check whether an If-None-Match header (a list of ETags, or "*") names etag. Uses the weak
+     * comparison required for If-None-Match, ignoring any W/ prefix. */
+    static boolean etagMatches(String ifNoneMatch, String etag) {
+        if (ifNoneMatch == null) {
+            return false;
+        }
+        if (ifNoneMatch.trim().equals("*")) {
+            return true;
+        }
+        String opaqueTag = etag.startsWith("W/") ? etag.substring(2) : etag;
+        for (String candidate : ifNoneMatch.split(",")) {
+            candidate = candidate.trim();
+            if ((candidate.startsWith("W/") ? candidate.substring(2) : candidate).equals(opaqueTag)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /* function to handle GET /weather/stream, a subscription to station changes. Query parameters:
+     * ids=A,B (only those stations, all if absent), since=N (start after event N, also read from a
+     * Last-Event-ID header, otherwise only new events are sent) and timeout=MS (long poll only, default
+     * DEFAULT_POLL_TIMEOUT). Clients accepting text/event-stream over HTTP/1.1 are sent Server-Sent Events;
+     * others get a long poll, answered once there is an event or the timeout passes. The engine answers it,
+     * the response returned only carries the subscription. */
+    private Response handleSubscribe(Request request) {
+        long since;
+        long timeout;
+        try {
+            String lastEventID = request.headers.get("Last-Event-ID");
+            since = queryNumber(request.query, "since", lastEventID != null ? Long.parseLong(lastEventID.trim()) : -1);
+            timeout = Math.min(queryNumber(request.query, "timeout", DEFAULT_POLL_TIMEOUT), MAX_POLL_TIMEOUT);
+        } catch (NumberFormatException ex) {
+            return errorResponse("400 Bad Request");
+        }
+        List<String> stationIDs = new ArrayList<>();
+        String ids = request.query.get("ids");
+        if (ids != null) {
+            for (String id : ids.split(",")) {
+                if (!id.isBlank()) {
+                    stationIDs.add(id.trim());
                 }
-            } catch (IOException ex) {
-                System.out.println("Error handling GET request: " + ex.getMessage());
             }
         }
 
-        private void handlePut(BufferedReader socketIn, OutputStream socketOut, String resource) {
-            if (LIVE_UPDATES) {System.out.println("Handling PUT request...");}
+        String accept = request.headers.get("Accept");
+        boolean eventStream = accept != null && accept.contains("text/event-stream") && request.acceptsChunked();
+        Subscription subscription = subscriptions.subscribe(stationIDs, since, eventStream,
+                System.currentTimeMillis() + timeout);
+        if (LIVE_UPDATES) {System.out.println("New " + (eventStream ? "event stream" : "long poll") + " subscription...");}
+        return new Response(subscription, clock.increment());
+    }
 
-            // confirm resource follows format "/weather/stationID"
-            String[] resourceParts = resource.split("/");
-            if (resourceParts.length != 3 || !resourceParts[1].trim().equals("weather")) {
-                // send 404 error code for invalid resource
-                returnErrorCode("404 Not Found", socketOut);
-                return;
+    /* function to handle GET /weather/changes?since=N: the latest change of each station recorded after
+     * cursor N, with a new cursor to pass next time. PUTs carry the station's data and removals are
+     * tombstones. A cursor the journal no longer reaches back to (or since=0, or none) is answered with a
+     * resync holding every station instead. */
+    private Response handleChanges(Request request) {
+        long since;
+        try {
+            since = queryNumber(request.query, "since", 0);
+        } catch (NumberFormatException ex) {
+            return errorResponse("400 Bad Request");
+        }
+
+        ChangeJournal.Delta delta = changes.since(since);
+        byte[] body;
+        if (delta.resync) {
+            // read after the cursor was taken, so it holds every change at or below the cursor
+            if (LIVE_UPDATES) {System.out.println("Changes since " + since + " no longer held, sending resync...");}
+            body = ChangeJournal.resyncBody(delta, weatherDataMap.current().allStations());
+        } else {
+            body = ChangeJournal.body(delta);
+        }
+
+        ContentCoding coding = ContentCoding.negotiate(request.headers.get("Accept-Encoding"));
+        if (coding != null && body.length >= config.compressionThreshold) {
+            body = coding.encode(body);
+        } else {
+            coding = null;
+        }
+        if (LIVE_UPDATES) {System.out.println("Changes request successfully handled, sending response...");}
+        return new Response("200 OK", "application/json", body, coding, delta.lamportTime);
+    }
+
+    /* function to build the reply to a long poll from the events it was woken with (none if it timed out).
+     * The client resumes from last_seq with ?since=. */
+    Response pollReply(Subscription subscription, List<SubscriptionHub.Event> events) {
+        subscription.close();
+        return new Response("200 OK", "application/json", subscription.pollReply(events), clock.increment());
+    }
+
+    private Response handleHistory(Request request, String stationID) {
+        StationHistory stationHistory = histories.get(stationID);
+        if (stationHistory == null) {
+            if (LIVE_UPDATES) {System.out.println("No history for station " + stationID + ".");}
+            return errorResponse("404 Not Found");
+        }
+
+        long from, to, fromLamport, toLamport;
+        try {
+            from = queryNumber(request.query, "from", Long.MIN_VALUE);
+            to = queryNumber(request.query, "to", Long.MAX_VALUE);
+            fromLamport = queryNumber(request.query, "fromLamport", 0);
+            toLamport = queryNumber(request.query, "toLamport", Long.MAX_VALUE);
+        } catch (NumberFormatException ex) {
+            return errorResponse("400 Bad Request");
+        }
+        List<String> fields = StationHistory.FIELDS;
+        String requestedFields = request.query.get("fields");
+        if (requestedFields != null) {
+            fields = Arrays.asList(requestedFields.split(","));
+            if (!StationHistory.FIELDS.containsAll(fields)) {
+                return errorResponse("400 Bad Request"); // only numeric fields are kept
             }
+        }
+
+        // wrapped in the station ID, as for a single station GET
+        ObjectNode body = JsonUtils.createObjectNode();
+        body.set(stationID, stationHistory.query(from, to, fromLamport, toLamport, fields));
+        byte[] responseJson;
+        try {
+            responseJson = JsonUtils.WRITER.writeValueAsBytes(body);
+        } catch (JsonProcessingException ex) {
+            System.out.println("Error serialising history for station " + stationID + ": " + ex.getMessage());
+            return errorResponse("500 Internal Server Error");
+        }
+
+        long responseTime = clock.increment();
+        if (LIVE_UPDATES) {System.out.println("History request successfully handled, sending response...");}
+        return new Response("200 OK", "application/json", responseJson, responseTime);
+    }
+
+    private Response handlePut(Request request) {
+        if (LIVE_UPDATES) {System.out.println("Handling PUT request...");}
+
+        // confirm resource follows format "/weather/stationID", or "/weather" for a batch of stations
+        String[] resourceParts = request.path.split("/");
+        boolean batch = resourceParts.length == 2;
+        if ((!batch && resourceParts.length != 3) || !resourceParts[1].trim().equals("weather")) {
+            // send 404 error code for invalid resource
+            return errorResponse("404 Not Found");
+        }
+
+        // update lamport time from request headers
+        long clientLamportTime = parseLamportTime(request.headers);
 
-            String stationID = resourceParts[2].trim();
+        // confirm lamport-time was sent in request header
+        if (clientLamportTime < 0) {
+            return errorResponse("400 Bad Request");
+        }
+
+        if (LIVE_UPDATES) {System.out.println("Headers parsed successfully, updating clock");}
+
+        long receivedTime = clock.updateAndIncrement(clientLamportTime); // receive event, lock-free
+
+        if (!batch && resourceParts[2].equals("heartbeat")) {
+            return handleHeartbeat(request);
+        }
 
-            // read headers and update lamport time
-            // parse headers and update lamport time
-            Map<String, String> headers;
+        // a compressed payload is decompressed and then handled as if it had been sent as is
+        String contentEncoding = request.headers.get("Content-Encoding");
+        if (contentEncoding != null && !contentEncoding.equalsIgnoreCase("identity")) {
+            ContentCoding coding = ContentCoding.forToken(contentEncoding);
+            if (coding == null) {
+                return errorResponse("415 Unsupported Media Type");
+            }
             try {
-                headers = ParsingUtils.parseHeaders(socketIn);
+                request = request.withBody(coding.decode(request.body, Request.MAX_BODY_SIZE));
             } catch (IOException ex) {
-                System.out.println("Error reading headers: " + ex.getMessage());
-                returnErrorCode("400 Bad Request", socketOut);
-                return;
+                if (LIVE_UPDATES) {System.out.println("Invalid compressed payload: " + ex.getMessage());}
+                return errorResponse("400 Bad Request");
             }
+        }
 
-            int clientLamportTime = Integer.parseInt(headers.get("Lamport-Time"));
+        if (batch) {
+            return handleBatchPut(request, receivedTime);
+        }
+        String stationID = resourceParts[2].trim();
+        if (!isValidStationID(stationID)) {
+            return errorResponse("400 Bad Request");
+        }
 
-            // confirm lamport-time was sent in request header
-            if (clientLamportTime < 0) {
-                returnErrorCode("400 Bad Request", socketOut);
-                return;
+        if (LIVE_UPDATES) {System.out.println("Parsing JSON data");}
+        // parse payload to JSON
+        String[] jsonErrorCode = new String[2]; // string to hold error code
+        ObjectNode weatherData = ParsingUtils.parseJSON(request.body, jsonErrorCode, request.headers);
+        if (weatherData == null) {
+            if (LIVE_UPDATES) {System.out.println("JSON parsing returned null");}
+            return errorResponse(jsonErrorCode[0]);
+        }
+
+        if (LIVE_UPDATES) {System.out.println("JSON Parsed successfully");}
+
+        // lock this station only, PUTs to other stations proceed in parallel
+        boolean isNewStation;
+        long written = -1;
+        ReentrantLock stationLock = stationLock(stationID);
+        stationLock.lock();
+        try {
+            isNewStation = !weatherDataMap.containsKey(stationID);
+
+            // update data and persistent storage together so they always agree for this station
+            long timestamp = System.currentTimeMillis();
+            byte[] stationJson = storeStation(stationID, weatherData, receivedTime, timestamp);
+            if (stationJson == null) {
+                unindexStation(stationID); // the store dropped the station rather than keep a stale body
+                return errorResponse("500 Internal Server Error");
+            }
+            written = persistence.put(stationID, receivedTime, timestamp, stationJson);
+            indexStations(Map.of(stationID, stationJson), timestamp);
+        } finally {
+            stationLock.unlock();
+        }
+
+        removeExcessStations(); // after releasing the station lock, eviction locks the evicted station
+        long responseTime = clock.increment(); // increment clock before sending response
+
+        // wait outside the lock for the write to reach the disk, as the durability mode requires
+        if (!persistence.awaitDurable(written)) {
+            return errorResponse("500 Internal Server Error"); // held in memory, but not stored
+        }
+
+        if (LIVE_UPDATES) {System.out.println("PUT request successfully handled, sending response...");}
+
+        // send response (201 for new station, 200 for update)
+        return new Response(isNewStation ? "201 Created" : "200 OK", responseTime);
+    }
+
+    /* function to check a station ID before it is stored. The ID names the station's file with file
+     * persistence and is written to log records, so it must not be empty, longer than MAX_STATION_ID_LENGTH
+     * bytes, a path (separators, ".." or a leading "."), contain control characters, or be a reserved name. */
+    static boolean isValidStationID(String stationID) {
+        if (stationID.isEmpty() || stationID.getBytes(StandardCharsets.UTF_8).length > MAX_STATION_ID_LENGTH
+                || RESERVED_STATION_IDS.contains(stationID) || stationID.startsWith(".") || stationID.contains("..")) {
+            return false;
+        }
+        for (int i = 0; i < stationID.length(); i++) {
+            char c = stationID.charAt(i);
+            if (c == '/' || c == '\\' || Character.isISOControl(c)) {
+                return false;
             }
+        }
+        return true;
+    }
 
-            if (LIVE_UPDATES) {System.out.println("Headers parsed successfully, locking to update clock");}
+    /* function to handle PUT /weather/heartbeat?ids=A,B from a content server whose data has not changed:
+     * restarts each station's expiry time and makes it the most recently updated for capacity eviction, without
+     * a payload, and without a new version, journal entry or event, as nothing a client can see has changed.
+     * Heartbeats are not persisted, so after a restart a station's expiry and eviction order are as of its last
+     * PUT. Responds 200 if every station was refreshed, or 404 if
+     * any is no longer held (it expired or was evicted) so the content server sends its data again. */
+    private Response handleHeartbeat(Request request) {
+        String ids = request.query.get("ids");
+        if (ids == null || ids.isBlank()) {
+            return errorResponse("400 Bad Request");
+        }
 
-            lock.lock();
+        boolean allHeld = true;
+        long now = System.currentTimeMillis();
+        for (String stationID : ids.split(",")) {
+            stationID = stationID.trim();
+            if (stationID.isEmpty()) {
+                continue;
+            }
+            ReentrantLock stationLock = stationLock(stationID);
+            stationLock.lock();
             try {
-                boolean clientIsAhead = clock.update(clientLamportTime);
+                if (weatherDataMap.current().get(stationID) == null) {
+                    allHeld = false;
+                    continue;
+                }
+                indexLock.lock();
+                try {
+                    expiry.schedule(stationID, now); // later than its current deadline, so the reaper need not wake
+                    capacity.touch(stationID); // a live station is not the first evicted
+                } finally {
+                    indexLock.unlock();
+                }
             } finally {
-                lock.unlock();
+                stationLock.unlock();
             }
+        }
 
-            if (LIVE_UPDATES) {System.out.println("Parsing JSON data");}
-            // parse remainder of socketIn buffer (payload) to JSON
-            String[] jsonErrorCode = new String[2]; // string to hold error code
-            ObjectNode weatherData = ParsingUtils.parseJSON(socketIn, jsonErrorCode, headers);
-            if (weatherData == null) {
-                if (LIVE_UPDATES) {System.out.println("JSON parsing returned null");}
-                returnErrorCode(jsonErrorCode[0], socketOut);
-                return;
+        long responseTime = clock.increment();
+        if (LIVE_UPDATES) {System.out.println("Heartbeat for " + ids + (allHeld ? "" : ", some stations not held") + "...");}
+        return new Response(allHeld ? "200 OK" : "404 Not Found", responseTime);
+    }
+
+    /* function to store one station's data (and history) and publish it to subscribers. Must hold the
+     * station's lock. Returns the serialised station JSON to persist, or null on error. */
+    private byte[] storeStation(String stationID, ObjectNode weatherData, long receivedTime, long timestamp) {
+        byte[] stationJson = weatherDataMap.put(stationID, weatherData, timestamp, receivedTime);
+        if (stationJson != null) {
+            if (config.history > 0) {
+                histories.computeIfAbsent(stationID, id -> new StationHistory(config.history)).record(receivedTime, weatherData);
+            }
+            changes.recordPut(stationID, stationJson, receivedTime);
+            subscriptions.publishPut(stationID, stationJson, receivedTime);
+        }
+        return stationJson;
+    }
+
+    /* function to schedule expiry and record capacity for stations just stored, in one short global section.
+     * Must hold their station locks. */
+    private void indexStations(Map<String, byte[]> stored, long timestamp) {
+        indexLock.lock();
+        try {
+            for (Map.Entry<String, byte[]> station : stored.entrySet()) {
+                expiry.schedule(station.getKey(), timestamp);
+                capacity.record(station.getKey(), station.getValue().length, timestamp);
             }
+            expiryChanged.signal(); // reaper may be waiting with no deadline
+        } finally {
+            indexLock.unlock();
+        }
+    }
 
-            if (LIVE_UPDATES) {System.out.println("JSON Parsed successfully");}
+    /* function to drop a station from the expiry and capacity indexes, when it is no longer stored. Must hold
+     * the station's lock. */
+    private void unindexStation(String stationID) {
+        indexLock.lock();
+        try {
+            expiry.remove(stationID);
+            capacity.remove(stationID);
+        } finally {
+            indexLock.unlock();
+        }
+    }
 
-            boolean isNewStation = !weatherDataMap.containsKey(stationID);
-            // boolean isNewStation = !stations.contains(stationID);
+    /* function to handle PUT /weather with a JSON array or NDJSON stream of station objects, each identified
+     * by its "id" field. Every station is updated with the same Lamport time and persisted in one batch.
+     * Responds 200 with the result of each element in order: [{"id":"...","status":"201 Created"}, ...] */
+    private Response handleBatchPut(Request request, long receivedTime) {
+        if (LIVE_UPDATES) {System.out.println("Parsing JSON batch");}
+        String[] jsonErrorCode = new String[2]; // string to hold error code
+        List<JsonNode> elements = ParsingUtils.parseJSONBatch(request.body, jsonErrorCode, request.headers);
+        if (elements == null) {
+            if (LIVE_UPDATES) {System.out.println("JSON batch parsing returned null");}
+            return errorResponse(jsonErrorCode[0]);
+        }
 
-            // update data:
-            // concurrent hashmap does not require locking for atomic actions
-            weatherDataMap.put(stationID, weatherData);
-            timestamps.put(stationID, System.currentTimeMillis());
-            stations.add(stationID);
+        // station ID of each element, null if it is not a station object. A station may appear only once, as
+        // every element is stored with the same Lamport time and timestamp, so a later element would replace an
+        // earlier one under the same version and ETag
+        String[] stationIDs = new String[elements.size()];
+        boolean[] repeated = new boolean[stationIDs.length];
+        Set<String> batchStations = new HashSet<>();
+        for (int i = 0; i < stationIDs.length; i++) {
+            JsonNode id = elements.get(i).get("id");
+            if (elements.get(i).isObject() && id != null && id.isTextual() && isValidStationID(id.asText().trim())) {
+                stationIDs[i] = id.asText().trim();
+                repeated[i] = !batchStations.add(stationIDs[i]);
+            }
+        }
 
-            // lock to update persistent storage and remove expired/excess stations
-            lock.lock();
-            try {
-                writeLocalWD(stationID);
-                removeExpiredStations(); // remove expired stations BEFORE removing excess
-                removeExcessStations();
-                clock.increment(); // increment clock before sending response
-            } finally {
-                lock.unlock();
+        String[] statuses = new String[stationIDs.length];
+        Map<String, byte[]> stored = new LinkedHashMap<>(); // data of each station stored, to persist
+        long timestamp = System.currentTimeMillis();
+        long written;
+        List<ReentrantLock> locked = lockStations(batchStations);
+        try {
+            for (int i = 0; i < stationIDs.length; i++) {
+                String stationID = stationIDs[i];
+                if (stationID == null || repeated[i]) {
+                    statuses[i] = "400 Bad Request";
+                    continue;
+                }
+                boolean isNewStation = !weatherDataMap.containsKey(stationID);
+                byte[] stationJson = storeStation(stationID, (ObjectNode) elements.get(i), receivedTime, timestamp);
+                if (stationJson == null) {
+                    unindexStation(stationID); // the store dropped the station rather than keep a stale body
+                    statuses[i] = "500 Internal Server Error";
+                    continue;
+                }
+                stored.put(stationID, stationJson);
+                statuses[i] = isNewStation ? "201 Created" : "200 OK";
             }
+            written = persistence.putAll(stored, receivedTime, timestamp);
+            indexStations(stored, timestamp);
+        } finally {
+            unlockStations(locked);
+        }
 
-            if (LIVE_UPDATES) {System.out.println("PUT request successfully handled, sending response...");}
+        removeExcessStations(); // after releasing the station locks, eviction locks the evicted station
+        long responseTime = clock.increment(); // one tick for the whole batch
 
-            // send response (201 for new station, 200 for update)
-            String RESPONSE =
-                    (isNewStation ? "HTTP/1.1 201 Created" : "HTTP/1.1 200 OK") + "\r\n" +
-                    "Content-Type: text/plain" + "\r\n" +
-                    "Content-Length: 0" + "\r\n" +
-                    "Lamport-Time: " + clock.getTime() + "\r\n\r\n";
-            try {
-                socketOut.write(RESPONSE.getBytes());
-                socketOut.flush();
-            } catch (IOException e) {
-                System.out.println("Error writing to socket...");
-            }
+        // wait outside the locks for the batch to reach the disk, as the durability mode requires
+        if (!persistence.awaitDurable(written)) {
+            return errorResponse("500 Internal Server Error"); // held in memory, but not stored
         }
+
+        ArrayNode results = JsonUtils.createObjectNode().arrayNode();
+        for (int i = 0; i < statuses.length; i++) {
+            ObjectNode result = results.addObject();
+            result.put("id", stationIDs[i]);
+            result.put("status", statuses[i]);
+        }
+        byte[] responseJson;
+        try {
+            responseJson = JsonUtils.WRITER.writeValueAsBytes(results);
+        } catch (JsonProcessingException ex) {
+            System.out.println("Error serialising batch results: " + ex.getMessage());
+            return errorResponse("500 Internal Server Error");
+        }
+
+        if (LIVE_UPDATES) {System.out.println("Batch PUT of " + stored.size() + " stations successfully handled, sending response...");}
+        return new Response("200 OK", "application/json", responseJson, responseTime);
     }
 }
@@ -0,0 +1,85 @@
+package com.weatheraggregation.server;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/* CLASS TO TRACK STATION COUNT AND PAYLOAD BYTES FOR CAPACITY EVICTION
+ * An access-ordered LinkedHashMap of every station's payload size and PUT timestamp. Recording a PUT moves the
+ * station to the tail in O(1), so the head is always the least recently updated station and the eviction
+ * victim is found in O(1) however many stations are held. The running byte total is kept alongside.
+ * Not thread-safe: AggregationServer only uses it while holding its indexLock. */
+class CapacityIndex {
+    private final int maxStations;
+    private final long maxBytes;
+    private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes = 0;
+
+    CapacityIndex(int maxStations, long maxBytes) {
+        this.maxStations = maxStations;
+        this.maxBytes = maxBytes;
+    }
+
+    private static class Entry {
+        final int bytes;
+        final long timestamp;
+
+        Entry(int bytes, long timestamp) {
+            this.bytes = bytes;
+            this.timestamp = timestamp;
+        }
+    }
+
+    /* CLASS DESCRIBING THE STATION TO EVICT and which limit it is evicted for */
+    static class Victim {
+        final String stationID;
+        final long timestamp; // PUT timestamp when picked, so a refreshed station is not evicted
+        final boolean forBytes; // true if only the byte budget is exceeded
+
+        Victim(String stationID, long timestamp, boolean forBytes) {
+            this.stationID = stationID;
+            this.timestamp = timestamp;
+            this.forBytes = forBytes;
+        }
+    }
+
+    /* function to record a PUT, making the station the most recently updated */
+    void record(String stationID, int bytes, long timestamp) {
+        Entry previous = entries.put(stationID, new Entry(bytes, timestamp));
+        totalBytes += bytes - (previous == null ? 0 : previous.bytes);
+    }
+
+    /* function to record a heartbeat: the station becomes the most recently updated, keeping its size and PUT
+     * timestamp. A get on the access-ordered map is enough to move it to the tail. */
+    void touch(String stationID) {
+        entries.get(stationID);
+    }
+
+    void remove(String stationID) {
+        Entry previous = entries.remove(stationID);
+        if (previous != null) {
+            totalBytes -= previous.bytes;
+        }
+    }
+
+    /* function to return the least recently updated station if either limit is exceeded, or null. The most
+     * recently updated station is never evicted for bytes alone, so one oversized payload is still held. */
+    Victim victim() {
+        boolean overCount = entries.size() > maxStations;
+        boolean overBytes = totalBytes > maxBytes && entries.size() > 1;
+        if (!overCount && !overBytes) {
+            return null;
+        }
+        Iterator<Map.Entry<String, Entry>> eldest = entries.entrySet().iterator();
+        Map.Entry<String, Entry> head = eldest.next(); // iteration does not count as access
+        return new Victim(head.getKey(), head.getValue().timestamp, !overCount);
+    }
+
+    int size() {
+        return entries.size();
+    }
+
+    long totalBytes() {
+        return totalBytes;
+    }
+}
@@ -0,0 +1,156 @@
+package com.weatheraggregation.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import com.weatheraggregation.utils.JsonUtils;
+import com.weatheraggregation.utils.LamportClock;
+
+/* CLASS TO REMEMBER RECENT STATION CHANGES FOR DELTA SYNC (GET /weather/changes?since=)
+ * A bounded queue of the last CAPACITY PUTs and removals, each stamped with the server's Lamport time when it
+ * was recorded. The stamp, not the Lamport time of the PUT, orders the journal: a PUT's Lamport time is taken
+ * before its station lock, so concurrent PUTs can be recorded out of Lamport order, but stamps are read under
+ * the journal's lock and never go backwards.
+ * A read ticks the clock under the same lock and returns the tick minus one as the cursor, so every change
+ * recorded before the read has a stamp at or below the cursor and every change recorded after it a stamp
+ * above. Following cursors therefore never misses or repeats a change. Once the journal is full the oldest
+ * changes are dropped, and a cursor older than them is answered with a full resync instead. */
+class ChangeJournal {
+    private final int capacity;
+    private final LamportClock clock;
+    private final ArrayDeque<Change> changes = new ArrayDeque<>(); // oldest first (guarded by this)
+    // changes stamped at or below the horizon may have been dropped. Starts at 1, so since=0 always resyncs:
+    // stations restored at startup were never recorded
+    private long horizon = 1;
+
+    ChangeJournal(int capacity, LamportClock clock) {
+        this.capacity = capacity;
+        this.clock = clock;
+    }
+
+    /* CLASS HOLDING ONE RECORDED CHANGE */
+    static final class Change {
+        final String stationID;
+        final byte[] key; // the station ID quoted and escaped
+        final long lamportTime; // Lamport time of the PUT or removal
+        final byte[] data; // the station's serialised JSON, null for a removal
+        final String removed; // "expire" or "evict", null for a PUT
+        final long stamp; // server's Lamport time when recorded
+
+        private Change(String stationID, byte[] key, long lamportTime, byte[] data, String removed, long stamp) {
+            this.stationID = stationID;
+            this.key = key;
+            this.lamportTime = lamportTime;
+            this.data = data;
+            this.removed = removed;
+            this.stamp = stamp;
+        }
+    }
+
+    /* CLASS HOLDING THE ANSWER TO ONE READ */
+    static final class Delta {
+        final long cursor; // pass as since= to get the changes after this read
+        final long lamportTime; // the read's own tick, for the response
+        final boolean resync; // since was older than the journal, send every station instead
+        final List<Change> changes; // latest change of each station since, oldest first
+
+        private Delta(long cursor, long lamportTime, boolean resync, List<Change> changes) {
+            this.cursor = cursor;
+            this.lamportTime = lamportTime;
+            this.resync = resync;
+            this.changes = changes;
+        }
+    }
+
+    // function to record a PUT, data is the station's serialised JSON
+    void recordPut(String stationID, byte[] data, long lamportTime) {
+        record(stationID, lamportTime, data, null);
+    }
+
+    // function to record a removal, reason is "expire" or "evict"
+    void recordRemove(String stationID, String reason, long lamportTime) {
+        record(stationID, lamportTime, null, reason);
+    }
+
+    private void record(String stationID, long lamportTime, byte[] data, String removed) {
+        byte[] key;
+        try {
+            key = JsonUtils.WRITER.writeValueAsBytes(stationID);
+        } catch (JsonProcessingException ex) {
+            System.out.println("Error serialising change to station " + stationID + ": " + ex.getMessage());
+            return;
+        }
+        synchronized (this) {
+            // the stamp is read under the lock, so stamps never go backwards
+            changes.addLast(new Change(stationID, key, lamportTime, data, removed, clock.getTime()));
+            if (changes.size() > capacity) {
+                horizon = Math.max(horizon, changes.removeFirst().stamp);
+            }
+        }
+    }
+
+    /* function to return the latest change of each station recorded after the since cursor, or a resync if
+     * some of those changes have already been dropped. Ticks the clock once, for the response. */
+    synchronized Delta since(long since) {
+        long lamportTime = clock.increment();
+        long cursor = lamportTime - 1;
+        if (since < horizon) {
+            return new Delta(cursor, lamportTime, true, List.of());
+        }
+
+        // newest first, keeping only the first (latest) change seen for each station
+        Map<String, Change> latest = new LinkedHashMap<>();
+        for (Iterator<Change> newest = changes.descendingIterator(); newest.hasNext(); ) {
+            Change change = newest.next();
+            if (change.stamp <= since) {
+                break;
+            }
+            latest.putIfAbsent(change.stationID, change);
+        }
+        List<Change> ordered = new ArrayList<>(latest.values());
+        Collections.reverse(ordered);
+        return new Delta(cursor, lamportTime, false, ordered);
+    }
+
+    /* function to serialise a delta that is not a resync, e.g.
+     * {"cursor":42,"resync":false,"changes":[{"id":"A","lamport_time":40,"data":{...}},
+     *                                        {"id":"B","lamport_time":41,"removed":"expire"}]} */
+    static byte[] body(Delta delta) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(("{\"cursor\":" + delta.cursor + ",\"resync\":false,\"changes\":[").getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < delta.changes.size(); i++) {
+            Change change = delta.changes.get(i);
+            body.writeBytes((i == 0 ? "{\"id\":" : ",{\"id\":").getBytes(StandardCharsets.UTF_8));
+            body.writeBytes(change.key);
+            body.writeBytes((",\"lamport_time\":" + change.lamportTime).getBytes(StandardCharsets.UTF_8));
+            if (change.data != null) {
+                body.writeBytes(",\"data\":".getBytes(StandardCharsets.UTF_8));
+                body.writeBytes(change.data);
+            } else {
+                body.writeBytes((",\"removed\":\"" + change.removed + "\"").getBytes(StandardCharsets.UTF_8));
+            }
+            body.write('}');
+        }
+        body.writeBytes("]}".getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+
+    /* function to serialise a resync around the all-stations document of the current version:
+     * {"cursor":42,"resync":true,"stations":{...}} */
+    static byte[] resyncBody(Delta delta, byte[] allStations) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream(allStations.length + 48);
+        body.writeBytes(("{\"cursor\":" + delta.cursor + ",\"resync\":true,\"stations\":").getBytes(StandardCharsets.UTF_8));
+        body.writeBytes(allStations);
+        body.write('}');
+        return body.toByteArray();
+    }
+}
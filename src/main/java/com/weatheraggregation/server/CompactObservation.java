@@ -0,0 +1,137 @@
+package com.weatheraggregation.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.io.JsonStringEncoder;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.weatheraggregation.utils.JsonUtils;
+
+/* CLASS TO HOLD ONE STATION'S WEATHER DATA IN A COMPACT PRIMITIVE LAYOUT
+ * An ObjectNode carries a LinkedHashMap, a boxed node per value and its own key strings for the same ~17
+ * fields in every station. Here the known fields are held in primitive arrays (double[] for decimals,
+ * int[] for whole numbers) and interned Strings for text, with the field names and their order shared
+ * between stations through an interned layout string. Any field that is not known, or does not have its
+ * expected type, goes to an overflow area holding its JSON as bytes. Never modified once built.
+ * The JSON is written by hand from the fields, and is the same as Jackson would write for the original
+ * ObjectNode, except that overflow fields are written together where the first of them appeared. */
+final class CompactObservation {
+    private static final String[] TEXT_FIELDS = {"id", "name", "state", "time_zone", "local_date_time",
+            "local_date_time_full", "cloud", "wind_dir"};
+    private static final String[] DOUBLE_FIELDS = {"lat", "lon", "air_temp", "apparent_t", "dewpt", "press"};
+    private static final String[] INT_FIELDS = {"rel_hum", "wind_spd_kmh", "wind_spd_kt"};
+
+    // a layout is a string with one char per field in order: the field's index in FIELD_NAMES, or OVERFLOW
+    private static final char OVERFLOW = 0xffff;
+    private static final String[] FIELD_NAMES = new String[TEXT_FIELDS.length + DOUBLE_FIELDS.length + INT_FIELDS.length];
+    private static final byte[][] FIELD_PREFIXES = new byte[FIELD_NAMES.length][]; // "name": as UTF-8
+    private static final Map<String, Integer> FIELD_INDEX = new HashMap<>();
+    private static final int FIRST_DOUBLE = TEXT_FIELDS.length;
+    private static final int FIRST_INT = FIRST_DOUBLE + DOUBLE_FIELDS.length;
+
+    static {
+        System.arraycopy(TEXT_FIELDS, 0, FIELD_NAMES, 0, TEXT_FIELDS.length);
+        System.arraycopy(DOUBLE_FIELDS, 0, FIELD_NAMES, FIRST_DOUBLE, DOUBLE_FIELDS.length);
+        System.arraycopy(INT_FIELDS, 0, FIELD_NAMES, FIRST_INT, INT_FIELDS.length);
+        for (int i = 0; i < FIELD_NAMES.length; i++) {
+            FIELD_INDEX.put(FIELD_NAMES[i], i);
+            FIELD_PREFIXES[i] = ("\"" + FIELD_NAMES[i] + "\":").getBytes(StandardCharsets.UTF_8);
+        }
+    }
+
+    private final String layout; // interned, shared by every station with the same fields in the same order
+    private final String[] texts; // null if the station has no text field
+    private final double[] doubles;
+    private final int[] ints;
+    private final byte[] overflow; // "key":value,... of the overflow fields, or null if there are none
+
+    private CompactObservation(String layout, String[] texts, double[] doubles, int[] ints, byte[] overflow) {
+        this.layout = layout;
+        this.texts = texts;
+        this.doubles = doubles;
+        this.ints = ints;
+        this.overflow = overflow;
+    }
+
+    /* function to convert a parsed station into the compact layout */
+    static CompactObservation of(ObjectNode weatherData) throws JsonProcessingException {
+        StringBuilder layout = new StringBuilder(weatherData.size());
+        String[] texts = null;
+        double[] doubles = null;
+        int[] ints = null;
+        ObjectNode overflowFields = null;
+
+        Iterator<Map.Entry<String, JsonNode>> fields = weatherData.fields();
+        while (fields.hasNext()) {
+            Map.Entry<String, JsonNode> field = fields.next();
+            Integer index = FIELD_INDEX.get(field.getKey());
+            JsonNode value = field.getValue();
+            if (index != null && index < FIRST_DOUBLE && value.isTextual()) {
+                texts = texts == null ? new String[TEXT_FIELDS.length] : texts;
+                texts[index] = value.textValue().intern(); // e.g. names and states repeat on every PUT
+            } else if (index != null && index >= FIRST_DOUBLE && index < FIRST_INT && value.isDouble()) {
+                doubles = doubles == null ? new double[DOUBLE_FIELDS.length] : doubles;
+                doubles[index - FIRST_DOUBLE] = value.doubleValue();
+            } else if (index != null && index >= FIRST_INT && value.isInt()) {
+                ints = ints == null ? new int[INT_FIELDS.length] : ints;
+                ints[index - FIRST_INT] = value.intValue();
+            } else {
+                // unknown field or unexpected type, kept exactly as JSON
+                if (overflowFields == null) {
+                    overflowFields = JsonUtils.createObjectNode();
+                    layout.append(OVERFLOW);
+                }
+                overflowFields.set(field.getKey(), value);
+                continue;
+            }
+            layout.append((char) index.intValue());
+        }
+
+        byte[] overflow = null;
+        if (overflowFields != null) {
+            byte[] object = JsonUtils.WRITER.writeValueAsBytes(overflowFields);
+            overflow = new byte[object.length - 2]; // strip the braces
+            System.arraycopy(object, 1, overflow, 0, overflow.length);
+        }
+        return new CompactObservation(layout.toString().intern(), texts, doubles, ints, overflow);
+    }
+
+    /* function to write the station's JSON object, {...} */
+    void writeTo(ByteArrayOutputStream out) {
+        JsonStringEncoder encoder = JsonStringEncoder.getInstance();
+        out.write('{');
+        for (int i = 0; i < layout.length(); i++) {
+            if (i > 0) {
+                out.write(',');
+            }
+            char index = layout.charAt(i);
+            if (index == OVERFLOW) {
+                out.writeBytes(overflow);
+                continue;
+            }
+            out.writeBytes(FIELD_PREFIXES[index]);
+            if (index < FIRST_DOUBLE) {
+                out.write('"');
+                out.writeBytes(encoder.quoteAsUTF8(texts[index]));
+                out.write('"');
+            } else if (index < FIRST_INT) {
+                out.writeBytes(Double.toString(doubles[index - FIRST_DOUBLE]).getBytes(StandardCharsets.US_ASCII));
+            } else {
+                out.writeBytes(Integer.toString(ints[index - FIRST_INT]).getBytes(StandardCharsets.US_ASCII));
+            }
+        }
+        out.write('}');
+    }
+
+    byte[] toBytes() {
+        ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+        writeTo(out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,80 @@
+package com.weatheraggregation.server;
+
+import java.util.*;
+
+/* CLASS TO ORDER STATIONS BY THE TIME OF THEIR LAST PUT
+ * A sorted set of (timestamp, stationID) plus each station's current timestamp, so the server can find
+ * expired stations, the next expiry deadline and the oldest station without scanning every station.
+ * A PUT reschedules its station in O(log n); expiring k stations costs O(k log n).
+ * Not thread-safe: AggregationServer only uses it while holding its lock. */
+class ExpiryQueue {
+    private final long expiryTime; // ms after its last PUT that a station expires
+    private final Map<String, Long> timestamps = new HashMap<>();
+    private final TreeSet<Entry> order = new TreeSet<>();
+
+    ExpiryQueue(long expiryTime) {
+        this.expiryTime = expiryTime;
+    }
+
+    private static class Entry implements Comparable<Entry> {
+        final long timestamp;
+        final String stationID;
+
+        Entry(long timestamp, String stationID) {
+            this.timestamp = timestamp;
+            this.stationID = stationID;
+        }
+
+        @Override
+        public int compareTo(Entry other) {
+            int byTime = Long.compare(timestamp, other.timestamp);
+            return byTime != 0 ? byTime : stationID.compareTo(other.stationID);
+        }
+    }
+
+    /* function to (re)schedule a station's expiry from the timestamp of its latest PUT */
+    void schedule(String stationID, long timestamp) {
+        Long previous = timestamps.put(stationID, timestamp);
+        if (previous != null) {
+            order.remove(new Entry(previous, stationID));
+        }
+        order.add(new Entry(timestamp, stationID));
+    }
+
+    void remove(String stationID) {
+        Long previous = timestamps.remove(stationID);
+        if (previous != null) {
+            order.remove(new Entry(previous, stationID));
+        }
+    }
+
+    // whether the station is waiting to expire, i.e. has been (re)scheduled since it was last polled
+    boolean isScheduled(String stationID) {
+        return timestamps.containsKey(stationID);
+    }
+
+    /* function to remove and return every station that has expired by now */
+    List<String> pollExpired(long now) {
+        List<String> expired = new ArrayList<>();
+        while (!order.isEmpty() && now - order.first().timestamp > expiryTime) {
+            Entry entry = order.pollFirst();
+            timestamps.remove(entry.stationID);
+            expired.add(entry.stationID);
+        }
+        return expired;
+    }
+
+    // time at which the next station expires, or Long.MAX_VALUE if there are none
+    long nextDeadline() {
+        return order.isEmpty() ? Long.MAX_VALUE : order.first().timestamp + expiryTime + 1;
+    }
+
+    // station with the oldest PUT, or null if there are none
+    String oldest() {
+        return order.isEmpty() ? null : order.first().stationID;
+    }
+
+    int size() {
+        return timestamps.size();
+    }
+}
@@ -0,0 +1,200 @@
+package com.weatheraggregation.server;
+
+import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.weatheraggregation.utils.JsonUtils;
+import com.weatheraggregation.utils.ParsingUtils;
+
+/* ORIGINAL PERSISTENCE FORMAT: ONE FILE PER STATION
+ * Each station is stored in a file named after its station ID, holding the timestamp of the last PUT on the
+ * first line followed by the JSON weather data. The set of stored station IDs is kept in STATION_ID_STORAGE.
+ * All files are kept in the data directory (--data-dir, the working directory by default).
+ * Every PUT rewrites the station's file and then the whole station ID file. */
+class FilePersistence implements Persistence {
+    private static final String STATION_ID_STORAGE = "station_ids";
+
+    private final File directory; // where station files are kept, the working directory by default
+
+    private final Set<String> stations = ConcurrentHashMap.newKeySet(); // station IDs with a file on disk
+    private final Set<String> unsynced = ConcurrentHashMap.newKeySet(); // files written since the last sync
+    private boolean indexRead = false; // guarded by this
+
+    FilePersistence(File directory) {
+        this.directory = directory;
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            System.out.println("Error creating data directory " + directory);
+        }
+    }
+
+    /* function to read station IDs from STATION_ID_STORAGE, then each station's file */
+    // this function was written with the assistance of AI
+    @Override
+    public void load(StationLoader loader) {
+        if (AggregationServer.LIVE_UPDATES) {System.out.println("Reading local data...");}
+
+        readIndex();
+
+        // read each file corresponding to stationID
+        for (String stationID : stations) {
+            File stationFile = new File(directory, stationID);
+            if (stationFile.exists()) {
+                try (InputStream fileIn = new BufferedInputStream(new FileInputStream(stationFile))) {
+                    // first line is timestamp
+                    String timestamp = ParsingUtils.readLine(fileIn);
+                    long stationTimestamp = timestamp != null ? Long.parseLong(timestamp.trim()) : 0;
+
+                    // rest of file is JSON weather data, parsed straight from the byte stream
+                    ObjectNode weatherData = (ObjectNode) JsonUtils.READER.readTree(fileIn);
+                    loader.load(stationID, stationTimestamp, weatherData);
+                } catch (IOException ex) {
+                    System.out.println("Error reading weather data file for station " + stationID + ": " + ex.getMessage());
+                }
+            } else {
+                System.out.println("Warning: Weather data file for station " + stationID + " not found.");
+            }
+        }
+    }
+
+    /* function to read the station IDs with a file on disk, once. Needed before the first change even when
+     * the stations themselves were restored from a snapshot, or rewriting the ID file would drop them. */
+    private synchronized void readIndex() {
+        if (indexRead) {
+            return;
+        }
+        indexRead = true;
+
+        File stationIDFile = new File(directory, STATION_ID_STORAGE);
+
+        // read stationIDs from STATION_ID_STORAGE
+        if (stationIDFile.exists()) {
+            try (BufferedReader reader = new BufferedReader(new FileReader(stationIDFile))) {
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    stations.add(line.trim());  // Add each station ID to the set
+                }
+            } catch (IOException ex) {
+                System.out.println("Error reading station ID file: " + ex.getMessage());
+            }
+        } else {
+            System.out.println("No local station ID file found.");
+        }
+    }
+
+    /* function to overwrite local weather data file for provided station */
+    @Override
+    public void recordPut(String stationID, long lamportTime, long timestamp, byte[] weatherData) {
+        if (AggregationServer.LIVE_UPDATES) {System.out.println("Writing local data for station " + stationID + "...");}
+        readIndex();
+
+        // open file for writing, file name is stationID. Written as bytes so the JSON is always UTF-8
+        File file = new File(directory, stationID);
+        try (OutputStream fileOut = new BufferedOutputStream(new FileOutputStream(file))) {
+            // write stationID timestamp to first line
+            fileOut.write((timestamp + System.lineSeparator()).getBytes(StandardCharsets.UTF_8));
+            // write JSON object to rest of file
+            fileOut.write(weatherData);
+        } catch (IOException ex) {
+            System.out.println("Error writing to local file for station " + stationID + ": " + ex.getMessage());
+            throw new UncheckedIOException(ex);
+        }
+
+        unsynced.add(stationID);
+        stations.add(stationID);
+        updateStationsFile();
+    }
+
+    /* function to delete local files of removed stations */
+    @Override
+    public void recordRemove(Collection<String> stationIDs, long lamportTime) {
+        readIndex();
+        for (String stationID : stationIDs) {
+            stations.remove(stationID);
+
+            // remove from persistent memory
+            File file = new File(directory, stationID);
+            if (!(file.exists() && file.delete())) {
+                System.out.println("Error deleting expired local data for station " + stationID);
+            }
+        }
+
+        updateStationsFile();
+    }
+
+    /* function to fsync every file written since the last sync. Every file is tried, then the first failure is
+     * thrown. A file that failed is not retried: after a failed fsync the kernel may already have dropped the
+     * dirty pages, so a later fsync succeeding would not mean the data is stored. */
+    @Override
+    public void sync() {
+        IOException failure = null;
+        for (String name : unsynced) {
+            unsynced.remove(name);
+            try (FileChannel channel = FileChannel.open(new File(directory, name).toPath(), StandardOpenOption.WRITE)) {
+                channel.force(true);
+            } catch (NoSuchFileException ex) {
+                // removed since it was written, nothing to sync
+            } catch (IOException ex) {
+                System.out.println("Error syncing local file " + name + ": " + ex.getMessage());
+                if (failure == null) {
+                    failure = ex;
+                }
+            }
+        }
+        if (failure != null) {
+            throw new UncheckedIOException(failure);
+        }
+    }
+
+    /* the station ID file is rewritten after every change, so its modification time is the last change */
+    @Override
+    public long lastModified() {
+        return new File(directory, STATION_ID_STORAGE).lastModified();
+    }
+
+    @Override
+    public void clear() {
+        readIndex();
+        // delete stationIDs file
+        File stationIDFile = new File(directory, STATION_ID_STORAGE);
+        if (stationIDFile.exists() && !stationIDFile.delete()) {
+            System.out.println("Error deleting station ID file");
+        }
+
+        // delete all local station files
+        for (String stationID : stations) {
+            File stationFile = new File(directory, stationID);
+            if (stationFile.exists() && !stationFile.delete()) {
+                System.out.println("Error deleting local file for station " + stationID);
+            }
+        }
+        stations.clear();
+    }
+
+    @Override
+    public void close() {
+        // every write is complete when recordPut/recordRemove return, nothing to release
+    }
+
+    /* function to update persistent storage of stations set */
+    private void updateStationsFile() {
+        if (AggregationServer.LIVE_UPDATES) {System.out.println("Updating stations file...");}
+        File stationIDFile = new File(directory, STATION_ID_STORAGE);
+        try (FileWriter writer = new FileWriter(stationIDFile)) {
+            for (String id : stations) {
+                writer.write(id + System.lineSeparator());
+            }
+            unsynced.add(STATION_ID_STORAGE);
+        } catch (IOException ex) {
+            System.out.println("Error updating station ID file: " + ex.getMessage());
+            throw new UncheckedIOException(ex); // the station would not be found after a restart
+        }
+    }
+}
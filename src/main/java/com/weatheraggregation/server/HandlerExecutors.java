@@ -0,0 +1,67 @@
+package com.weatheraggregation.server;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* FACTORY FOR THE EXECUTOR THAT RUNS ConnectionHandler TASKS IN THE BLOCKING ENGINE
+ * - THREAD:  a new platform thread per connection, as the server has always done
+ * - POOL:    a fixed number of platform threads with a bounded queue. When both are full the task is
+ *            rejected and the accepting thread answers 503 instead of queueing without limit.
+ * - VIRTUAL: a virtual thread per connection. Blocking socket reads park the virtual thread rather than
+ *            an OS thread, so tens of thousands of open connections cost little more than their buffers. */
+final class HandlerExecutors {
+    private HandlerExecutors() {
+    }
+
+    static ExecutorService create(ServerConfig config) {
+        switch (config.handler) {
+            case POOL:
+                return new ThreadPoolExecutor(config.poolThreads, config.poolThreads,
+                        60, TimeUnit.SECONDS,
+                        new ArrayBlockingQueue<>(config.poolQueue),
+                        namedThreads("connection-handler-"),
+                        new ThreadPoolExecutor.AbortPolicy());
+            case VIRTUAL:
+                ExecutorService virtual = virtualThreadPerTask();
+                if (virtual != null) {
+                    return virtual;
+                }
+                System.out.println("Virtual threads need Java 21+, using a thread per connection instead.");
+                return threadPerTask();
+            default:
+                return threadPerTask();
+        }
+    }
+
+    // unbounded executor which starts a new platform thread for every task. Keep-alive of zero means
+    // threads exit as soon as their task finishes rather than being reused.
+    private static ExecutorService threadPerTask() {
+        return new ThreadPoolExecutor(0, Integer.MAX_VALUE,
+                0, TimeUnit.SECONDS,
+                new SynchronousQueue<>(),
+                namedThreads("connection-handler-"));
+    }
+
+    /* function to create Executors.newVirtualThreadPerTaskExecutor() if the running JVM provides it.
+     * Looked up reflectively so the project still compiles for and runs on older JVMs. */
+    private static ExecutorService virtualThreadPerTask() {
+        try {
+            Method factory = Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+            return (ExecutorService) factory.invoke(null);
+        } catch (ReflectiveOperationException ex) {
+            return null;
+        }
+    }
+
+    // daemon threads, as the accepting thread keeps the JVM running while the server is up, and a handler waiting
+    // on a kept-alive connection should not keep it running after shutdown()
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger count = new AtomicInteger();
+        return task -> {
+            Thread thread = new Thread(task, prefix + count.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        };
+    }
+}
@@ -0,0 +1,382 @@
+package com.weatheraggregation.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.channels.FileChannel;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.CRC32;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.weatheraggregation.utils.JsonUtils;
+
+/* LOG-STRUCTURED PERSISTENCE
+ * Every PUT and removal is appended as a record to the active segment file in the log directory, so the
+ * disk cost of a PUT is one sequential append rather than rewriting the station's file and the station ID
+ * file. Segments are named segment-<number>.log; once the active segment reaches the size limit a new one
+ * is started and the old one is sealed.
+ *
+ * Record layout (big-endian):
+ *   int length | byte type | long lamportTime | long timestamp | UTF stationID | int payloadLength | payload | int crc32
+ * length counts the bytes from type to the end of the payload, and the CRC covers the same bytes. A record
+ * cut short by a crash, or failing its CRC, ends replay of that segment.
+ * The station ID is written with DataOutputStream.writeUTF, whose two-byte length cannot describe more than
+ * 65535 bytes. PUTs never store an ID longer than AggregationServer.MAX_STATION_ID_LENGTH, and encode refuses
+ * one (or a record longer than MAX_RECORD_SIZE) with an IllegalArgumentException rather than writing a record
+ * that replay would reject.
+ *
+ * Recovery replays all segments in order, keeping the latest record per station. A background thread
+ * compacts the sealed segments once there are enough of them: only the latest record for each station is
+ * kept, written to a new file which atomically replaces the newest sealed segment, and the older sealed
+ * segments are deleted. Removal records (tombstones) are kept until EXPIRY_TIME has passed, after which
+ * any PUT they superseded would be expired on load anyway, so a crash part way through compaction can
+ * never bring a removed station back. */
+class LogPersistence implements Persistence {
+    private static final byte PUT = 1;
+    private static final byte REMOVE = 2;
+    private static final String SEGMENT_PREFIX = "segment-";
+    private static final String SEGMENT_SUFFIX = ".log";
+    private static final int MAX_RECORD_SIZE = Request.MAX_BODY_SIZE + 1024;
+    private static final int COMPACTION_INTERVAL = 10; // seconds between checks for segments to compact
+
+    private final File directory;
+    private final long segmentSize;
+    private final int compactSegments;
+    private final long tombstoneRetention;
+
+    // append state, guarded by this
+    private FileChannel active;
+    private long activeNumber = -1;
+    private long activeSize = 0;
+    private long nextSegment;
+
+    private final Object compactionLock = new Object();
+    private final ScheduledExecutorService compactor;
+
+    LogPersistence(File directory, long segmentSize, int compactSegments, long tombstoneRetention) {
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        this.compactSegments = compactSegments;
+        this.tombstoneRetention = tombstoneRetention;
+
+        if (!directory.isDirectory() && !directory.mkdirs()) {
+            System.out.println("Error creating log directory " + directory);
+        }
+        List<Long> segments = listSegments();
+        this.nextSegment = segments.isEmpty() ? 1 : segments.get(segments.size() - 1) + 1;
+
+        compactor = Executors.newSingleThreadScheduledExecutor(task -> {
+            Thread thread = new Thread(task, "log-compactor");
+            thread.setDaemon(true);
+            return thread;
+        });
+        compactor.scheduleWithFixedDelay(this::compactIfNeeded, COMPACTION_INTERVAL, COMPACTION_INTERVAL, TimeUnit.SECONDS);
+    }
+
+    /* CLASS TO HOLD ONE DECODED LOG RECORD */
+    static class Record {
+        final byte type;
+        final long lamportTime;
+        final long timestamp;
+        final String stationID;
+        final byte[] payload;
+
+        Record(byte type, long lamportTime, long timestamp, String stationID, byte[] payload) {
+            this.type = type;
+            this.lamportTime = lamportTime;
+            this.timestamp = timestamp;
+            this.stationID = stationID;
+            this.payload = payload;
+        }
+    }
+
+    /* function to replay every segment and hand the latest data for each live station to loader */
+    @Override
+    public void load(StationLoader loader) {
+        if (AggregationServer.LIVE_UPDATES) {System.out.println("Replaying weather data log...");}
+
+        Map<String, Record> latest = replay(listSegments());
+        for (Record record : latest.values()) {
+            if (record.type != PUT) {
+                continue; // station was removed
+            }
+            try {
+                ObjectNode weatherData = (ObjectNode) JsonUtils.READER.readTree(record.payload);
+                loader.load(record.stationID, record.timestamp, weatherData);
+            } catch (IOException | ClassCastException ex) {
+                System.out.println("Error reading logged data for station " + record.stationID + ": " + ex.getMessage());
+            }
+        }
+    }
+
+    @Override
+    public void recordPut(String stationID, long lamportTime, long timestamp, byte[] weatherData) {
+        append(encode(new Record(PUT, lamportTime, timestamp, stationID, weatherData)));
+    }
+
+    @Override
+    public void recordRemove(Collection<String> stationIDs, long lamportTime) {
+        if (stationIDs.isEmpty()) {
+            return;
+        }
+        // all removals go to disk in a single append
+        long now = System.currentTimeMillis();
+        ByteArrayOutputStream records = new ByteArrayOutputStream();
+        for (String stationID : stationIDs) {
+            records.writeBytes(encode(new Record(REMOVE, lamportTime, now, stationID, new byte[0])));
+        }
+        append(records.toByteArray());
+    }
+
+    @Override
+    public synchronized void sync() {
+        if (active != null) {
+            try {
+                active.force(false);
+            } catch (IOException ex) {
+                System.out.println("Error syncing weather data log: " + ex.getMessage());
+                closeActive(); // the unsynced records may be lost, so never append after them
+                throw new UncheckedIOException(ex);
+            }
+        }
+    }
+
+    @Override
+    public long lastModified() {
+        long lastModified = 0;
+        for (long segment : listSegments()) {
+            lastModified = Math.max(lastModified, segmentFile(segment).lastModified());
+        }
+        return lastModified;
+    }
+
+    @Override
+    public void clear() {
+        synchronized (compactionLock) {
+            synchronized (this) {
+                closeActive();
+                for (long segment : listSegments()) {
+                    File file = segmentFile(segment);
+                    if (!file.delete()) {
+                        System.out.println("Error deleting log segment " + file);
+                    }
+                }
+            }
+        }
+    }
+
+    @Override
+    public void close() {
+        compactor.shutdown();
+        synchronized (this) {
+            closeActive();
+        }
+    }
+
+    /* function to append encoded records to the active segment, starting a new segment if needed */
+    private synchronized void append(byte[] records) {
+        try {
+            if (active == null) {
+                activeNumber = nextSegment++;
+                active = FileChannel.open(segmentFile(activeNumber).toPath(),
+                        StandardOpenOption.CREATE_NEW, StandardOpenOption.WRITE);
+                activeSize = 0;
+            }
+
+            ByteBuffer buffer = ByteBuffer.wrap(records);
+            while (buffer.hasRemaining()) {
+                active.write(buffer);
+            }
+            activeSize += records.length;
+
+            if (activeSize >= segmentSize) {
+                active.force(false); // a sealed segment is never synced again, so a failure must be reported now
+                closeActive(); // seal segment, the next append starts a new one
+                compactor.execute(this::compactIfNeeded);
+            }
+        } catch (IOException ex) {
+            System.out.println("Error appending to weather data log: " + ex.getMessage());
+            closeActive(); // never append after a partial write, start a fresh segment next time
+            throw new UncheckedIOException(ex);
+        }
+    }
+
+    private synchronized void closeActive() {
+        if (active != null) {
+            try {
+                active.force(false); // a sealed segment is never synced again
+                active.close();
+            } catch (IOException ex) {
+                System.out.println("Error closing log segment: " + ex.getMessage());
+            }
+            active = null;
+            activeNumber = -1;
+        }
+    }
+
+    /* function to merge sealed segments into one holding only the latest record per station */
+    void compactIfNeeded() {
+        synchronized (compactionLock) {
+            List<Long> sealed = new ArrayList<>();
+            synchronized (this) {
+                for (long segment : listSegments()) {
+                    if (segment != activeNumber) {
+                        sealed.add(segment);
+                    }
+                }
+            }
+            if (sealed.size() < compactSegments) {
+                return;
+            }
+            if (AggregationServer.LIVE_UPDATES) {System.out.println("Compacting " + sealed.size() + " log segments...");}
+
+            Map<String, Record> latest = replay(sealed);
+            long newest = sealed.get(sealed.size() - 1);
+            File compacted = new File(directory, SEGMENT_PREFIX + newest + ".compact");
+            long now = System.currentTimeMillis();
+            try (FileChannel out = FileChannel.open(compacted.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+                for (Record record : latest.values()) {
+                    if (record.type == REMOVE && now - record.timestamp > tombstoneRetention) {
+                        continue; // anything this tombstone superseded has expired
+                    }
+                    ByteBuffer buffer = ByteBuffer.wrap(encode(record));
+                    while (buffer.hasRemaining()) {
+                        out.write(buffer);
+                    }
+                }
+                out.force(true);
+            } catch (IOException ex) {
+                System.out.println("Error compacting weather data log: " + ex.getMessage());
+                compacted.delete();
+                return;
+            }
+
+            try {
+                // replace the newest sealed segment first; replaying older segments before it gives the same state
+                Files.move(compacted.toPath(), segmentFile(newest).toPath(),
+                        StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            } catch (IOException ex) {
+                System.out.println("Error replacing compacted log segment: " + ex.getMessage());
+                compacted.delete();
+                return;
+            }
+            for (long segment : sealed) {
+                if (segment != newest && !segmentFile(segment).delete()) {
+                    System.out.println("Error deleting compacted log segment " + segment);
+                }
+            }
+        }
+    }
+
+    /* function to read segments in order, returning the latest record (PUT or REMOVE) per station */
+    private Map<String, Record> replay(List<Long> segments) {
+        Map<String, Record> latest = new LinkedHashMap<>();
+        for (long segment : segments) {
+            File file = segmentFile(segment);
+            try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)))) {
+                Record record;
+                while ((record = decode(in, file)) != null) {
+                    latest.put(record.stationID, record);
+                }
+            } catch (IOException ex) {
+                System.out.println("Error reading log segment " + file + ": " + ex.getMessage());
+            }
+        }
+        return latest;
+    }
+
+    static byte[] encode(Record record) {
+        int idLength = record.stationID.getBytes(StandardCharsets.UTF_8).length;
+        if (idLength > AggregationServer.MAX_STATION_ID_LENGTH) {
+            throw new IllegalArgumentException("station ID of " + idLength + " bytes is too long to log");
+        }
+        if (record.payload.length > MAX_RECORD_SIZE - AggregationServer.MAX_STATION_ID_LENGTH - 64) {
+            throw new IllegalArgumentException("payload of " + record.payload.length + " bytes is too long to log");
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(record.payload.length + 64);
+        try (DataOutputStream out = new DataOutputStream(bytes)) {
+            out.writeInt(0); // length placeholder
+            out.writeByte(record.type);
+            out.writeLong(record.lamportTime);
+            out.writeLong(record.timestamp);
+            out.writeUTF(record.stationID);
+            out.writeInt(record.payload.length);
+            out.write(record.payload);
+            out.writeInt(0); // crc placeholder
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // cannot happen writing to memory
+        }
+
+        byte[] encoded = bytes.toByteArray();
+        int length = encoded.length - 8;
+        CRC32 crc = new CRC32();
+        crc.update(encoded, 4, length);
+        ByteBuffer.wrap(encoded).putInt(0, length).putInt(encoded.length - 4, (int) crc.getValue());
+        return encoded;
+    }
+
+    /* function to read the next record. Returns null at the end of the segment or at a torn/corrupt record. */
+    static Record decode(DataInputStream in, File file) throws IOException {
+        int length;
+        try {
+            length = in.readInt();
+        } catch (EOFException ex) {
+            return null; // clean end of segment
+        }
+
+        try {
+            if (length < 0 || length > MAX_RECORD_SIZE) {
+                throw new IOException("invalid record length " + length);
+            }
+            byte[] body = new byte[length];
+            in.readFully(body);
+            int expected = in.readInt();
+            CRC32 crc = new CRC32();
+            crc.update(body);
+            if ((int) crc.getValue() != expected) {
+                throw new IOException("checksum mismatch");
+            }
+
+            DataInputStream record = new DataInputStream(new ByteArrayInputStream(body));
+            byte type = record.readByte();
+            long lamportTime = record.readLong();
+            long timestamp = record.readLong();
+            String stationID = record.readUTF();
+            byte[] payload = new byte[record.readInt()];
+            record.readFully(payload);
+            return new Record(type, lamportTime, timestamp, stationID, payload);
+        } catch (IOException ex) {
+            System.out.println("Ignoring incomplete record at end of " + file + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    private File segmentFile(long segment) {
+        return new File(directory, String.format("%s%08d%s", SEGMENT_PREFIX, segment, SEGMENT_SUFFIX));
+    }
+
+    // segment numbers in the log directory, oldest first
+    private List<Long> listSegments() {
+        List<Long> segments = new ArrayList<>();
+        String[] names = directory.list();
+        if (names != null) {
+            for (String name : names) {
+                if (name.startsWith(SEGMENT_PREFIX) && name.endsWith(SEGMENT_SUFFIX)) {
+                    try {
+                        segments.add(Long.parseLong(name.substring(SEGMENT_PREFIX.length(), name.length() - SEGMENT_SUFFIX.length())));
+                    } catch (NumberFormatException ignored) {
+                        // not a segment file
+                    }
+                }
+            }
+        }
+        Collections.sort(segments);
+        return segments;
+    }
+}
@@ -0,0 +1,482 @@
+package com.weatheraggregation.server;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Queue;
+import java.util.Set;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/* NON-BLOCKING CONNECTION ENGINE
+ * Alternative to the thread-per-connection loop in AggregationServer.start(). The calling thread
+ * accepts connections on a ServerSocketChannel and hands them round-robin to a small, fixed pool of
+ * event loops. Each event loop owns a Selector, reads into a ByteBuffer per connection, parses requests
+ * incrementally with RequestParser and dispatches complete requests to AggregationServer.handleRequest,
+ * so status codes and the Lamport-Time header are identical to the blocking engine. Connections are kept
+ * alive between requests, pipelined requests are answered in order, and idle connections are closed by a
+ * periodic sweep. Subscriptions (GET /weather/stream) stay on their event loop, which the subscription hub
+ * wakes whenever an event is published.
+ * GETs only read the current version of the store, so they are handled on the event loop. Every other request
+ * (PUTs, which wait for their change to reach the disk in SYNC and GROUP_COMMIT durability) is handed to a pool
+ * of --nio-workers threads, so a disk flush never stalls the other connections of a loop. The response is
+ * passed back to the loop to be written, and the connection reads no further requests until then, so
+ * pipelined responses stay in order. */
+class NioServer {
+    private static final int BUFFER_SIZE = 8 * 1024;
+    private static final int SWEEP_INTERVAL = 1000; // ms between checks for idle connections
+
+    private final AggregationServer server;
+    private final ServerConfig config;
+    private final EventLoop[] loops;
+    private final ExecutorService workers; // handles requests that may block, see handleRequests
+    private ServerSocketChannel serverChannel;
+    private volatile boolean running = true;
+
+    NioServer(AggregationServer server, ServerConfig config) {
+        this.server = server;
+        this.config = config;
+        this.loops = new EventLoop[config.eventLoops];
+        // at most one request per connection is handed over at a time, so the queue is bounded by the connections
+        AtomicInteger count = new AtomicInteger();
+        this.workers = new ThreadPoolExecutor(config.nioWorkers, config.nioWorkers, 60, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<>(), task -> {
+                    Thread thread = new Thread(task, "nio-worker-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                });
+    }
+
+    /* function to open the server channel, returning the port it is bound to (chosen by the system if the
+     * configured port is 0) */
+    int bind() throws IOException {
+        serverChannel = ServerSocketChannel.open();
+        serverChannel.bind(new InetSocketAddress(config.port));
+        return serverChannel.socket().getLocalPort();
+    }
+
+    /* function to start event loops and accept connections until closed. bind() must have been called. */
+    void run() throws IOException {
+        for (int i = 0; i < loops.length; i++) {
+            loops[i] = new EventLoop(Selector.open());
+            Thread thread = new Thread(loops[i], "nio-event-loop-" + i);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        int next = 0;
+        while (running) {
+            SocketChannel channel;
+            try {
+                channel = serverChannel.accept(); // server channel is left in blocking mode
+            } catch (ClosedChannelException ex) {
+                break; // closed by close()
+            }
+            loops[next].register(channel);
+            next = (next + 1) % loops.length;
+        }
+    }
+
+    /* function to stop accepting connections and shut down event loops */
+    void close() {
+        running = false;
+        try {
+            if (serverChannel != null) serverChannel.close();
+        } catch (IOException ex) {
+            System.out.println("Error closing server channel: " + ex.getMessage());
+        }
+        for (EventLoop loop : loops) {
+            if (loop != null) loop.selector.wakeup();
+        }
+        workers.shutdownNow();
+    }
+
+    private class EventLoop implements Runnable {
+        private final Selector selector;
+        private final Queue<SocketChannel> pending = new ConcurrentLinkedQueue<>();
+        private final Set<Connection> subscribed = new HashSet<>(); // connections holding a subscription
+        private final AtomicBoolean published = new AtomicBoolean(); // set by the hub, cleared by the loop
+        private final Queue<Runnable> completed = new ConcurrentLinkedQueue<>(); // responses from the workers
+
+        EventLoop(Selector selector) {
+            this.selector = selector;
+            // run on the publishing thread, so only wake the selector once per batch of events
+            server.subscriptions.addListener(() -> {
+                if (!published.getAndSet(true)) {
+                    selector.wakeup();
+                }
+            });
+        }
+
+        // called from the accepting thread; registration happens on the loop thread
+        void register(SocketChannel channel) {
+            pending.add(channel);
+            selector.wakeup();
+        }
+
+        // called from a worker once a request has been handled; the response is written by the loop thread
+        void complete(Runnable task) {
+            completed.add(task);
+            selector.wakeup();
+        }
+
+        @Override
+        public void run() {
+            long lastSweep = System.currentTimeMillis();
+            while (running) {
+                try {
+                    selector.select(SWEEP_INTERVAL);
+                    registerPending();
+                    Runnable task;
+                    while ((task = completed.poll()) != null) {
+                        task.run();
+                    }
+
+                    Iterator<SelectionKey> keys = selector.selectedKeys().iterator();
+                    while (keys.hasNext()) {
+                        SelectionKey key = keys.next();
+                        keys.remove();
+                        Connection connection = (Connection) key.attachment();
+                        if (!key.isValid()) {
+                            continue;
+                        }
+                        if (key.isReadable()) {
+                            connection.onReadable();
+                        }
+                        if (key.isValid() && key.isWritable()) {
+                            connection.flush();
+                        }
+                    }
+                    if (published.getAndSet(false)) {
+                        for (Connection connection : new ArrayList<>(subscribed)) {
+                            connection.onEvents();
+                        }
+                    }
+                } catch (IOException ex) {
+                    System.out.println("Event loop error: " + ex.getMessage());
+                }
+
+                long now = System.currentTimeMillis();
+                if (now - lastSweep >= SWEEP_INTERVAL) {
+                    closeIdle(now);
+                    for (Connection connection : new ArrayList<>(subscribed)) {
+                        connection.onSweep(now);
+                    }
+                    lastSweep = now;
+                }
+            }
+
+            // close any connections still open on shutdown
+            for (SelectionKey key : selector.keys()) {
+                ((Connection) key.attachment()).close();
+            }
+            try {
+                selector.close();
+            } catch (IOException ex) {
+                System.out.println("Error closing selector: " + ex.getMessage());
+            }
+        }
+
+        /* function to close keep-alive connections which have been idle longer than the keep-alive timeout */
+        private void closeIdle(long now) {
+            for (SelectionKey key : selector.keys()) {
+                Connection connection = (Connection) key.attachment();
+                if (connection.isIdleSince(now - config.keepAliveTimeout)) {
+                    if (AggregationServer.LIVE_UPDATES) {System.out.println("Closing idle connection...");}
+                    connection.close();
+                }
+            }
+        }
+
+        private void registerPending() {
+            SocketChannel channel;
+            while ((channel = pending.poll()) != null) {
+                try {
+                    channel.configureBlocking(false);
+                    Connection connection = new Connection(channel, this);
+                    connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+                    if (AggregationServer.LIVE_UPDATES) {System.out.println("New connection accepted...");}
+                } catch (IOException ex) {
+                    System.out.println("Error registering connection: " + ex.getMessage());
+                    try {
+                        channel.close();
+                    } catch (IOException ignored) {
+                        // channel is unusable either way
+                    }
+                }
+            }
+        }
+    }
+
+    /* per-connection state, only ever touched by the owning event loop thread */
+    private class Connection {
+        private final SocketChannel channel;
+        private final EventLoop loop;
+        private final ByteBuffer readBuffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final RequestParser parser = new RequestParser();
+        private final Queue<Iterator<byte[]>> writeQueue = new ArrayDeque<>(); // encoded responses, in order
+        private ByteBuffer writing; // part of the first response currently being written
+        private SelectionKey key;
+        private boolean closeAfterWrite = false;
+        private int handled = 0; // requests handled on this connection
+        private long lastActive = System.currentTimeMillis();
+        // subscription this connection is answering, null if none. While a long poll waits, further
+        // pipelined requests are left unread; an event stream lasts as long as the connection
+        private Subscription subscription;
+        private boolean pollKeepAlive; // whether the connection stays open after the long poll's reply
+        private boolean handling = false; // a request is being handled by a worker
+        private boolean closed = false;
+
+        Connection(SocketChannel channel, EventLoop loop) {
+            this.channel = channel;
+            this.loop = loop;
+        }
+
+        void onReadable() {
+            int read;
+            try {
+                read = channel.read(readBuffer);
+            } catch (IOException ex) {
+                close();
+                return;
+            }
+            if (read == -1) {
+                close(); // client closed connection
+                return;
+            }
+
+            lastActive = System.currentTimeMillis();
+            if (subscription != null && subscription.eventStream) {
+                readBuffer.clear(); // nothing more is read from an event stream's client, only its close
+                return;
+            }
+            handleRequests();
+            flush();
+        }
+
+        /* function to handle the complete requests in the read buffer */
+        private void handleRequests() {
+            readBuffer.flip();
+            try {
+                Request request;
+                // pipelined requests are handled in the order received and their responses queued in the same order
+                while (!closeAfterWrite && subscription == null && !handling && (request = parser.parse(readBuffer)) != null) {
+                    handled++;
+                    boolean keepAlive = request.keepAlive() && handled < config.maxRequests;
+                    if (!request.method.equals("GET")) {
+                        handOff(request, keepAlive);
+                        break;
+                    }
+                    Response response = server.handleRequest(request);
+                    if (response.subscription != null) {
+                        subscribe(response, keepAlive);
+                    } else {
+                        queue(response, keepAlive);
+                        closeAfterWrite = !keepAlive;
+                    }
+                }
+            } catch (IOException ex) {
+                System.out.println("Malformed request: " + ex.getMessage());
+                queue(server.errorResponse("400 Bad Request"), false);
+                closeAfterWrite = true;
+            }
+            readBuffer.compact();
+        }
+
+        /* function to handle a request on a worker, as it may block (e.g. a PUT waiting for the disk). Further
+         * requests wait in the read buffer until its response has been queued on the loop thread. */
+        private void handOff(Request request, boolean keepAlive) {
+            handling = true;
+            try {
+                workers.execute(() -> {
+                    Response response;
+                    try {
+                        response = server.handleRequest(request);
+                    } catch (RuntimeException ex) {
+                        System.out.println("Error handling request: " + ex.getMessage());
+                        response = server.errorResponse("500 Internal Server Error");
+                    }
+                    Response handledResponse = response;
+                    loop.complete(() -> onHandled(handledResponse, keepAlive));
+                });
+            } catch (RejectedExecutionException ex) {
+                close(); // shutting down
+            }
+        }
+
+        // called on the loop thread with the response of a request handed to a worker
+        private void onHandled(Response response, boolean keepAlive) {
+            handling = false;
+            if (closed) {
+                return;
+            }
+            queue(response, keepAlive);
+            closeAfterWrite = !keepAlive;
+            handleRequests(); // requests pipelined behind it
+            flush();
+        }
+
+        /* function to start answering a subscription. An event stream's head is queued and flush() sends
+         * events after it; a long poll with events already waiting is answered at once. */
+        private void subscribe(Response response, boolean keepAlive) {
+            subscription = response.subscription;
+            if (subscription.eventStream) {
+                queue(response, false);
+                loop.subscribed.add(this);
+                return;
+            }
+            pollKeepAlive = keepAlive;
+            List<SubscriptionHub.Event> events = subscription.poll();
+            if (events.isEmpty()) {
+                loop.subscribed.add(this);
+            } else {
+                finishPoll(events);
+            }
+        }
+
+        private void finishPoll(List<SubscriptionHub.Event> events) {
+            queue(server.pollReply(subscription, events), pollKeepAlive);
+            closeAfterWrite = !pollKeepAlive;
+            loop.subscribed.remove(this);
+            subscription = null;
+        }
+
+        // called by the event loop after events have been published
+        void onEvents() {
+            if (subscription == null) {
+                return;
+            }
+            if (subscription.eventStream) {
+                flush(); // sends events if everything before them has been written
+                return;
+            }
+            List<SubscriptionHub.Event> events = subscription.poll();
+            if (!events.isEmpty() || subscription.isClosed()) {
+                finishPoll(events);
+                handleRequests(); // requests pipelined behind the long poll
+                flush();
+            }
+        }
+
+        // called by the event loop's sweep: heartbeats for event streams, deadlines for long polls
+        void onSweep(long now) {
+            if (subscription == null) {
+                return;
+            }
+            if (subscription.eventStream) {
+                if (now - lastActive >= Subscription.HEARTBEAT_INTERVAL && isWritten()) {
+                    writeQueue.add(List.of(Subscription.HEARTBEAT).iterator());
+                    flush();
+                }
+            } else if (now >= subscription.deadline) {
+                finishPoll(List.of());
+                handleRequests();
+                flush();
+            }
+        }
+
+        /* function to queue the events an event stream has not been sent, or its end once the hub has closed.
+         * Only called once everything queued before has been written, so a slow client holds at most one batch
+         * here and the rest waits in the hub, coalesced if it falls far behind. Returns false if there is
+         * nothing to send. */
+        private boolean queueEvents() {
+            if (subscription == null || !subscription.eventStream) {
+                return false;
+            }
+            List<SubscriptionHub.Event> events = subscription.poll();
+            if (!events.isEmpty()) {
+                writeQueue.add(List.of(Subscription.frames(events)).iterator());
+                return true;
+            }
+            if (subscription.isClosed()) {
+                writeQueue.add(List.of(Response.LAST_CHUNK).iterator());
+                closeAfterWrite = true;
+                loop.subscribed.remove(this);
+                subscription = null;
+                return true;
+            }
+            return false;
+        }
+
+        private void queue(Response response, boolean keepAlive) {
+            writeQueue.add(response.encode(keepAlive));
+        }
+
+        // returns the next bytes to write, encoding the next chunk of a streamed response only now, or null
+        private ByteBuffer nextOutput() {
+            while (!writeQueue.isEmpty()) {
+                Iterator<byte[]> output = writeQueue.peek();
+                if (output.hasNext()) {
+                    return ByteBuffer.wrap(output.next());
+                }
+                writeQueue.poll();
+            }
+            return null;
+        }
+
+        private boolean isWritten() {
+            return writeQueue.isEmpty() && (writing == null || !writing.hasRemaining());
+        }
+
+        // idle means waiting for the next request with nothing left to write
+        boolean isIdleSince(long time) {
+            return subscription == null && !handling && isWritten() && lastActive < time;
+        }
+
+        /* function to write as much of the queued output as the socket accepts without blocking */
+        void flush() {
+            try {
+                do {
+                    while ((writing != null && writing.hasRemaining()) || (writing = nextOutput()) != null) {
+                        channel.write(writing);
+                        if (writing.hasRemaining()) {
+                            // socket full, stop reading further pipelined requests until the client catches up
+                            key.interestOps(SelectionKey.OP_WRITE);
+                            return;
+                        }
+                    }
+                } while (queueEvents());
+            } catch (IOException ex) {
+                System.out.println("Error writing to socket...");
+                close();
+                return;
+            }
+
+            lastActive = System.currentTimeMillis();
+            if (closeAfterWrite) {
+                close();
+            } else if (handling || (subscription != null && !subscription.eventStream)) {
+                key.interestOps(0); // read nothing more until the worker's response or the long poll's reply
+            } else {
+                key.interestOps(SelectionKey.OP_READ);
+            }
+        }
+
+        void close() {
+            closed = true;
+            if (subscription != null) {
+                subscription.close();
+                loop.subscribed.remove(this);
+                subscription = null;
+            }
+            key.cancel();
+            try {
+                channel.close();
+            } catch (IOException ex) {
+                System.out.println("Error closing socket: " + ex.getMessage());
+            }
+        }
+    }
+}
@@ -0,0 +1,43 @@
+package com.weatheraggregation.server;
+
+import java.util.Collection;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/* INTERFACE FOR PERSISTENT STORAGE OF WEATHER DATA
+ * The aggregation server records every change through this interface so stored data survives a restart.
+ * Implementations:
+ * - FilePersistence: one file per station plus a station ID index file (--persistence=files, default)
+ * - LogPersistence:  append-only segment files with background compaction (--persistence=log)
+ * recordPut, recordRemove and sync throw UncheckedIOException if the change could not be written or synced, so
+ * WriteBehindPersistence can fail the PUTs waiting on it rather than acknowledge data that is not stored. */
+interface Persistence {
+    // callback used to hand each recovered station back to the server
+    interface StationLoader {
+        void load(String stationID, long timestamp, ObjectNode weatherData);
+    }
+
+    /* function to read all stored stations, calling loader once per station */
+    void load(StationLoader loader);
+
+    /* function to store the latest data for a station. weatherData is the serialised JSON object and
+     * timestamp is the wall clock time of the PUT, used for expiry after a restart. */
+    void recordPut(String stationID, long lamportTime, long timestamp, byte[] weatherData);
+
+    /* function to record that stations were removed (expired or evicted) */
+    void recordRemove(Collection<String> stationIDs, long lamportTime);
+
+    /* function to force everything written so far onto the disk (fsync). Until then, recorded changes may
+     * only be in the OS page cache and could be lost if the machine (not just the server) crashes. */
+    void sync();
+
+    /* function to return the wall clock time (ms) of the last change written to disk, or 0 if nothing is
+     * stored. Used to tell whether a snapshot is up to date. */
+    long lastModified();
+
+    /* function to delete all stored data */
+    void clear();
+
+    /* function to release files and background threads */
+    void close();
+}
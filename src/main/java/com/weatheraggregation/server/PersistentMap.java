@@ -0,0 +1,342 @@
+package com.weatheraggregation.server;
+
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.function.BiConsumer;
+
+/* IMMUTABLE HASH ARRAY MAPPED TRIE (HAMT)
+ * A persistent map: plus() and minus() return a new map and never modify the old one, sharing every node
+ * off the changed path. Each level consumes 5 bits of the key's hash, so a change copies at most
+ * log32(n) small nodes. Keys whose full hashes are equal are kept together in a collision node.
+ * Because a map never changes once built, any number of readers can use it without locking. */
+final class PersistentMap<K, V> {
+    private static final Object NOT_FOUND = new Object();
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<>(BitmapNode.EMPTY, 0);
+
+    private final Node root;
+    private final int size;
+
+    private PersistentMap(Node root, int size) {
+        this.root = root;
+        this.size = size;
+    }
+
+    @SuppressWarnings("unchecked")
+    static <K, V> PersistentMap<K, V> empty() {
+        return (PersistentMap<K, V>) EMPTY;
+    }
+
+    @SuppressWarnings("unchecked")
+    V get(K key) {
+        Object value = root.get(0, key.hashCode(), key);
+        return value == NOT_FOUND ? null : (V) value;
+    }
+
+    boolean containsKey(K key) {
+        return root.get(0, key.hashCode(), key) != NOT_FOUND;
+    }
+
+    // returns a map with key set to value
+    PersistentMap<K, V> plus(K key, V value) {
+        boolean[] added = new boolean[1];
+        Node newRoot = root.plus(0, key.hashCode(), key, value, added);
+        return newRoot == root ? this : new PersistentMap<>(newRoot, added[0] ? size + 1 : size);
+    }
+
+    // returns a map without key
+    PersistentMap<K, V> minus(K key) {
+        Node newRoot = root.minus(0, key.hashCode(), key);
+        if (newRoot == root) {
+            return this;
+        }
+        return new PersistentMap<>(newRoot == null ? BitmapNode.EMPTY : newRoot, size - 1);
+    }
+
+    int size() {
+        return size;
+    }
+
+    boolean isEmpty() {
+        return size == 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    void forEach(BiConsumer<K, V> action) {
+        root.forEach((BiConsumer<Object, Object>) action);
+    }
+
+    // returns an iterator over the values, in the same order as forEach, that walks the trie in place
+    Iterator<V> values() {
+        return new ValueIterator<>(root);
+    }
+
+    private interface Node {
+        Object get(int shift, int hash, Object key);
+
+        Node plus(int shift, int hash, Object key, Object value, boolean[] added);
+
+        // returns this if key is absent, null if the node is left empty
+        Node minus(int shift, int hash, Object key);
+
+        void forEach(BiConsumer<Object, Object> action);
+
+        // the node's (key, value) pairs, a null key marking a child node
+        Object[] array();
+    }
+
+    /* node with up to 32 slots, only occupied slots are stored. array holds a (key, value) pair per slot,
+     * or (null, child node) for a slot holding a subtree */
+    private static final class BitmapNode implements Node {
+        static final BitmapNode EMPTY = new BitmapNode(0, new Object[0]);
+
+        final int bitmap;
+        final Object[] array;
+
+        BitmapNode(int bitmap, Object[] array) {
+            this.bitmap = bitmap;
+            this.array = array;
+        }
+
+        private int index(int bit) {
+            return Integer.bitCount(bitmap & (bit - 1));
+        }
+
+        @Override
+        public Object get(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & 31);
+            if ((bitmap & bit) == 0) {
+                return NOT_FOUND;
+            }
+            int i = index(bit);
+            Object slotKey = array[2 * i];
+            Object slotValue = array[2 * i + 1];
+            if (slotKey == null) {
+                return ((Node) slotValue).get(shift + 5, hash, key);
+            }
+            return key.equals(slotKey) ? slotValue : NOT_FOUND;
+        }
+
+        @Override
+        public Node plus(int shift, int hash, Object key, Object value, boolean[] added) {
+            int bit = 1 << ((hash >>> shift) & 31);
+            int i = index(bit);
+            if ((bitmap & bit) == 0) {
+                // free slot: insert the pair
+                Object[] copy = new Object[array.length + 2];
+                System.arraycopy(array, 0, copy, 0, 2 * i);
+                copy[2 * i] = key;
+                copy[2 * i + 1] = value;
+                System.arraycopy(array, 2 * i, copy, 2 * i + 2, array.length - 2 * i);
+                added[0] = true;
+                return new BitmapNode(bitmap | bit, copy);
+            }
+
+            Object slotKey = array[2 * i];
+            Object slotValue = array[2 * i + 1];
+            if (slotKey == null) {
+                Node child = ((Node) slotValue).plus(shift + 5, hash, key, value, added);
+                return child == slotValue ? this : withSlot(i, null, child);
+            }
+            if (key.equals(slotKey)) {
+                return slotValue == value ? this : withSlot(i, slotKey, value);
+            }
+            // two keys share this slot: push both down a level
+            added[0] = true;
+            Node child = pair(shift + 5, slotKey, slotValue, hash, key, value);
+            return withSlot(i, null, child);
+        }
+
+        @Override
+        public Node minus(int shift, int hash, Object key) {
+            int bit = 1 << ((hash >>> shift) & 31);
+            if ((bitmap & bit) == 0) {
+                return this;
+            }
+            int i = index(bit);
+            Object slotKey = array[2 * i];
+            Object slotValue = array[2 * i + 1];
+            if (slotKey == null) {
+                Node child = ((Node) slotValue).minus(shift + 5, hash, key);
+                if (child == slotValue) {
+                    return this;
+                }
+                if (child != null) {
+                    return withSlot(i, null, child);
+                }
+            } else if (!key.equals(slotKey)) {
+                return this;
+            }
+
+            // remove the slot
+            if (bitmap == bit) {
+                return null;
+            }
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, 2 * i);
+            System.arraycopy(array, 2 * i + 2, copy, 2 * i, array.length - 2 * i - 2);
+            return new BitmapNode(bitmap & ~bit, copy);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (array[i] == null) {
+                    ((Node) array[i + 1]).forEach(action);
+                } else {
+                    action.accept(array[i], array[i + 1]);
+                }
+            }
+        }
+
+        @Override
+        public Object[] array() {
+            return array;
+        }
+
+        private BitmapNode withSlot(int i, Object key, Object value) {
+            Object[] copy = array.clone();
+            copy[2 * i] = key;
+            copy[2 * i + 1] = value;
+            return new BitmapNode(bitmap, copy);
+        }
+
+        private static Node pair(int shift, Object key1, Object value1, int hash2, Object key2, Object value2) {
+            int hash1 = key1.hashCode();
+            if (hash1 == hash2) {
+                return new CollisionNode(hash1, new Object[] {key1, value1, key2, value2});
+            }
+            boolean[] ignored = new boolean[1];
+            return EMPTY.plus(shift, hash1, key1, value1, ignored).plus(shift, hash2, key2, value2, ignored);
+        }
+    }
+
+    /* node holding keys whose full 32-bit hashes are equal, searched linearly */
+    private static final class CollisionNode implements Node {
+        final int hash;
+        final Object[] array; // key, value pairs
+
+        CollisionNode(int hash, Object[] array) {
+            this.hash = hash;
+            this.array = array;
+        }
+
+        private int find(Object key) {
+            for (int i = 0; i < array.length; i += 2) {
+                if (key.equals(array[i])) {
+                    return i;
+                }
+            }
+            return -1;
+        }
+
+        @Override
+        public Object get(int shift, int hash, Object key) {
+            int i = hash == this.hash ? find(key) : -1;
+            return i < 0 ? NOT_FOUND : array[i + 1];
+        }
+
+        @Override
+        public Node plus(int shift, int hash, Object key, Object value, boolean[] added) {
+            if (hash != this.hash) {
+                // different hash: put this node under a bitmap node and add the new key beside it
+                BitmapNode parent = new BitmapNode(1 << ((this.hash >>> shift) & 31), new Object[] {null, this});
+                return parent.plus(shift, hash, key, value, added);
+            }
+            int i = find(key);
+            if (i >= 0) {
+                if (array[i + 1] == value) {
+                    return this;
+                }
+                Object[] copy = array.clone();
+                copy[i + 1] = value;
+                return new CollisionNode(hash, copy);
+            }
+            Object[] copy = new Object[array.length + 2];
+            System.arraycopy(array, 0, copy, 0, array.length);
+            copy[array.length] = key;
+            copy[array.length + 1] = value;
+            added[0] = true;
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        public Node minus(int shift, int hash, Object key) {
+            int i = hash == this.hash ? find(key) : -1;
+            if (i < 0) {
+                return this;
+            }
+            if (array.length == 2) {
+                return null;
+            }
+            Object[] copy = new Object[array.length - 2];
+            System.arraycopy(array, 0, copy, 0, i);
+            System.arraycopy(array, i + 2, copy, i, array.length - i - 2);
+            return new CollisionNode(hash, copy);
+        }
+
+        @Override
+        public void forEach(BiConsumer<Object, Object> action) {
+            for (int i = 0; i < array.length; i += 2) {
+                action.accept(array[i], array[i + 1]);
+            }
+        }
+
+        @Override
+        public Object[] array() {
+            return array;
+        }
+    }
+
+    /* iterator holding the path from the root to the current pair, one array and position per level */
+    private static final class ValueIterator<V> implements Iterator<V> {
+        private static final int MAX_DEPTH = 8; // 7 bitmap levels use up the 32-bit hash, then a collision node
+
+        private final Object[][] arrays = new Object[MAX_DEPTH][];
+        private final int[] positions = new int[MAX_DEPTH];
+        private int depth = 0;
+        private Object next;
+
+        ValueIterator(Node root) {
+            arrays[0] = root.array();
+            advance();
+        }
+
+        // function to move to the next pair holding a value, descending into child nodes on the way
+        private void advance() {
+            while (depth >= 0) {
+                Object[] array = arrays[depth];
+                int i = positions[depth];
+                if (i >= array.length) {
+                    depth--; // level finished, continue with the parent
+                    continue;
+                }
+                positions[depth] = i + 2;
+                if (array[i] == null) {
+                    depth++;
+                    arrays[depth] = ((Node) array[i + 1]).array();
+                    positions[depth] = 0;
+                } else {
+                    next = array[i + 1];
+                    return;
+                }
+            }
+            next = NOT_FOUND;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next != NOT_FOUND;
+        }
+
+        @Override
+        @SuppressWarnings("unchecked")
+        public V next() {
+            if (next == NOT_FOUND) {
+                throw new NoSuchElementException();
+            }
+            V value = (V) next;
+            advance();
+            return value;
+        }
+    }
+}
@@ -0,0 +1,123 @@
+package com.weatheraggregation.server;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URLDecoder;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.weatheraggregation.utils.ParsingUtils;
+
+/* CLASS TO HOLD A SINGLE PARSED HTTP REQUEST
+ * Requests are read in full (request line, headers and Content-Length bytes of payload) before being
+ * handled, so the same GET/PUT handling can be used by both the blocking and the non-blocking engine. */
+class Request {
+    static final int MAX_BODY_SIZE = 16 * 1024 * 1024; // reject payloads larger than 16MB
+
+    final String method;
+    final String resource;
+    final String path; // resource without its query string
+    final Map<String, String> query; // query string parameters, e.g. ?asOf=12
+    final String version;
+    final Map<String, String> headers;
+    final byte[] body;
+
+    Request(String requestLine, Map<String, String> headers, byte[] body) throws IOException {
+        // request line is in the form "GET /weather/station HTTP/1.1"
+        String[] request = requestLine.split(" ");
+        if (request.length < 2) {
+            throw new IOException("Invalid request line: " + requestLine);
+        }
+        this.method = request[0];
+        this.resource = request[1];
+        int queryStart = resource.indexOf('?');
+        this.path = queryStart < 0 ? resource : resource.substring(0, queryStart);
+        this.query = queryStart < 0 ? Map.of() : parseQuery(resource.substring(queryStart + 1));
+        this.version = request.length > 2 ? request[2] : "HTTP/1.0";
+        this.headers = headers;
+        this.body = body;
+    }
+
+    private Request(Request request, Map<String, String> headers, byte[] body) {
+        this.method = request.method;
+        this.resource = request.resource;
+        this.path = request.path;
+        this.query = request.query;
+        this.version = request.version;
+        this.headers = headers;
+        this.body = body;
+    }
+
+    /* function to return this request with its payload replaced by body, e.g. once decompressed. Content-Length
+     * is set to the new length and Content-Encoding removed, so the payload is parsed as if sent as is. */
+    Request withBody(byte[] body) {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.putAll(this.headers);
+        headers.remove("Content-Encoding");
+        headers.put("Content-Length", String.valueOf(body.length));
+        return new Request(this, headers, body);
+    }
+
+    /* function to split a query string into decoded parameters. A repeated parameter keeps its first value. */
+    static Map<String, String> parseQuery(String query) throws IOException {
+        Map<String, String> parameters = new HashMap<>();
+        for (String parameter : query.split("&")) {
+            if (parameter.isEmpty()) {
+                continue;
+            }
+            int split = parameter.indexOf('=');
+            try {
+                String name = URLDecoder.decode(split < 0 ? parameter : parameter.substring(0, split), StandardCharsets.UTF_8);
+                String value = split < 0 ? "" : URLDecoder.decode(parameter.substring(split + 1), StandardCharsets.UTF_8);
+                parameters.putIfAbsent(name, value);
+            } catch (IllegalArgumentException ex) {
+                throw new IOException("Invalid query string: " + query);
+            }
+        }
+        return parameters;
+    }
+
+    /* function to check whether the client wants the connection kept open after this request.
+     * Persistent connections are the default for HTTP/1.1 and opt-in for HTTP/1.0. */
+    boolean keepAlive() {
+        String connection = headers.get("Connection");
+        if (version.equals("HTTP/1.1")) {
+            return !"close".equalsIgnoreCase(connection);
+        }
+        return "keep-alive".equalsIgnoreCase(connection);
+    }
+
+    // chunked responses are only understood by HTTP/1.1 clients
+    boolean acceptsChunked() {
+        return version.equals("HTTP/1.1");
+    }
+
+    /* function to read one request from a blocking stream. Returns null if the stream is closed before
+     * a request line is received. A payload cut short by the client is returned truncated, and is
+     * rejected when parsed. */
+    static Request read(InputStream in) throws IOException {
+        String requestLine = ParsingUtils.readLine(in);
+        // ignore empty lines preceding a request (e.g. a trailing CRLF sent after the previous payload)
+        while (requestLine != null && requestLine.isEmpty()) {
+            requestLine = ParsingUtils.readLine(in);
+        }
+        if (requestLine == null) {
+            return null;
+        }
+
+        Map<String, String> headers = ParsingUtils.parseHeaders(in);
+        byte[] body = in.readNBytes(contentLength(headers));
+        return new Request(requestLine, headers, body);
+    }
+
+    /* function to validate the Content-Length header before the payload is read */
+    static int contentLength(Map<String, String> headers) throws IOException {
+        int contentLength = ParsingUtils.parseContentLength(headers);
+        if (contentLength < 0 || contentLength > MAX_BODY_SIZE) {
+            throw new IOException("Invalid Content-Length: " + headers.get("Content-Length"));
+        }
+        return contentLength;
+    }
+}
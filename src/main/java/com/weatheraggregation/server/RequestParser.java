@@ -0,0 +1,95 @@
+package com.weatheraggregation.server;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Map;
+
+import com.weatheraggregation.utils.ParsingUtils;
+
+/* CLASS TO PARSE REQUESTS INCREMENTALLY FROM BYTEBUFFERS
+ * Used by the non-blocking engine, where a request may arrive split across any number of reads.
+ * The head (request line and headers) is accumulated until an empty line is seen, then exactly
+ * Content-Length bytes of payload are collected. Bytes belonging to the next request are left in
+ * the buffer. The payload buffer starts small and doubles as bytes arrive, up to Content-Length, so a
+ * client declaring a large payload holds no more memory than it has actually sent. */
+class RequestParser {
+    private static final int MAX_HEAD_SIZE = 16 * 1024;
+    private static final int INITIAL_BODY_SIZE = 8 * 1024;
+
+    private final ByteArrayOutputStream head = new ByteArrayOutputStream(512);
+    private int newlines = 0; // consecutive line endings seen, 2 marks the end of the head
+
+    // set once the head has been parsed
+    private String requestLine;
+    private Map<String, String> headers;
+    private byte[] body;
+    private int bodyLength; // declared Content-Length
+    private int bodyRead;
+
+    /* function to consume bytes from buffer. Returns the request once complete, or null if more bytes
+     * are needed. Throws IOException if the request is malformed. */
+    Request parse(ByteBuffer buffer) throws IOException {
+        if (headers == null) {
+            while (buffer.hasRemaining() && newlines < 2) {
+                byte b = buffer.get();
+                if (head.size() == 0 && (b == '\r' || b == '\n')) {
+                    continue; // ignore empty lines preceding a request
+                }
+                head.write(b);
+                if (b == '\n') {
+                    newlines++;
+                } else if (b != '\r') {
+                    newlines = 0;
+                }
+                if (head.size() > MAX_HEAD_SIZE) {
+                    throw new IOException("Request head exceeds " + MAX_HEAD_SIZE + " bytes");
+                }
+            }
+            if (newlines < 2) {
+                return null; // head incomplete
+            }
+
+            ByteArrayInputStream headIn = new ByteArrayInputStream(head.toByteArray());
+            requestLine = ParsingUtils.readLine(headIn);
+            headers = ParsingUtils.parseHeaders(headIn);
+            bodyLength = Request.contentLength(headers);
+            body = new byte[Math.min(bodyLength, INITIAL_BODY_SIZE)];
+            bodyRead = 0;
+        }
+
+        int count = Math.min(buffer.remaining(), bodyLength - bodyRead);
+        if (bodyRead + count > body.length) {
+            // double, or more if this read alone needs it, but never past the declared length
+            int size = (int) Math.min(bodyLength, Math.max(2L * body.length, bodyRead + count));
+            body = Arrays.copyOf(body, size);
+        }
+        buffer.get(body, bodyRead, count);
+        bodyRead += count;
+        if (bodyRead < bodyLength) {
+            return null; // payload incomplete
+        }
+
+        Request request = new Request(requestLine, headers, body);
+        reset();
+        return request;
+    }
+
+    // function to prepare parser for the next request on the same connection
+    private void reset() {
+        head.reset();
+        newlines = 0;
+        requestLine = null;
+        headers = null;
+        body = null;
+        bodyLength = 0;
+        bodyRead = 0;
+    }
+
+    // bytes held for the payload of the request being parsed, for tests
+    int bodyCapacity() {
+        return body == null ? 0 : body.length;
+    }
+}
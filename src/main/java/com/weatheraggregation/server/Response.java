@@ -0,0 +1,257 @@
+package com.weatheraggregation.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import com.weatheraggregation.utils.ContentCoding;
+
+/* CLASS TO HOLD AN HTTP RESPONSE UNTIL IT IS WRITTEN TO THE CLIENT
+ * Every response carries the server's Lamport time at the moment the response was built.
+ * The payload is either held in full, sent with Content-Length, or streamed: produced piece by piece as it is
+ * written and sent with Transfer-Encoding: chunked, so the whole payload is never held in memory at once.
+ * A streamed response can only be written once. A subscription's response is answered by the engine: its
+ * head starts an event stream, or it is replaced by the reply to a long poll. */
+class Response {
+    private static final byte[] NO_CONTENT = new byte[0];
+    static final int CHUNK_SIZE = 8 * 1024; // pieces are grouped into chunks of about this many bytes
+    static final byte[] LAST_CHUNK = "0\r\n\r\n".getBytes(StandardCharsets.US_ASCII);
+
+    final String status;
+    final String contentType;
+    final byte[] body; // null if the payload is streamed
+    final Iterator<ByteBuffer> stream; // null unless the payload is streamed, pieces backed by arrays
+    // held payload: the coding body is compressed with, or null if it is not compressed.
+    // streamed payload: the coding accepted by the client, used if the payload reaches compressionThreshold
+    final ContentCoding coding;
+    private final int compressionThreshold;
+    final String etag; // version of the resource sent, null if it has none
+    final Subscription subscription; // null unless this answers GET /weather/stream
+    final long lamportTime;
+
+    Response(String status, String contentType, byte[] body, long lamportTime) {
+        this(status, contentType, body, null, lamportTime);
+    }
+
+    // response whose held payload has already been compressed with coding
+    Response(String status, String contentType, byte[] body, ContentCoding coding, long lamportTime) {
+        this(status, contentType, body, null, coding, Integer.MAX_VALUE, null, null, lamportTime);
+    }
+
+    // response whose payload is streamed from pieces, e.g. the all-stations document of a version. It is
+    // compressed with coding (if not null) unless it turns out to be shorter than compressionThreshold bytes
+    Response(String status, String contentType, Iterator<ByteBuffer> stream, ContentCoding coding,
+             int compressionThreshold, long lamportTime) {
+        this(status, contentType, null, stream, coding, compressionThreshold, null, null, lamportTime);
+    }
+
+    // response without a payload, e.g. error codes and PUT acknowledgements
+    Response(String status, long lamportTime) {
+        this(status, "text/plain", NO_CONTENT, lamportTime);
+    }
+
+    // response to a subscription, whose payload the engine writes as events are published
+    Response(Subscription subscription, long lamportTime) {
+        this("200 OK", subscription.eventStream ? "text/event-stream" : "application/json", NO_CONTENT, null, null,
+                Integer.MAX_VALUE, null, subscription, lamportTime);
+    }
+
+    private Response(String status, String contentType, byte[] body, Iterator<ByteBuffer> stream, ContentCoding coding,
+                     int compressionThreshold, String etag, Subscription subscription, long lamportTime) {
+        this.status = status;
+        this.contentType = contentType;
+        this.body = body;
+        this.stream = stream;
+        this.coding = coding;
+        this.compressionThreshold = compressionThreshold;
+        this.etag = etag;
+        this.subscription = subscription;
+        this.lamportTime = lamportTime;
+    }
+
+    // returns this response with an ETag header
+    Response withETag(String etag) {
+        return new Response(status, contentType, body, stream, coding, compressionThreshold, etag, subscription,
+                lamportTime);
+    }
+
+    boolean isStreamed() {
+        return stream != null;
+    }
+
+    // the head of an event stream is followed by chunks of events, written by the engine
+    private boolean isEventStream() {
+        return subscription != null && subscription.eventStream;
+    }
+
+    /* function to serialise status line and headers. keepAlive tells the client whether the connection stays
+     * open for further requests, applied is the coding the payload is sent with (null if none). */
+    private byte[] head(boolean keepAlive, ContentCoding applied) {
+        String head =
+                "HTTP/1.1 " + status + "\r\n" +
+                "Content-Type: " + contentType + "\r\n" +
+                (applied != null ? "Content-Encoding: " + applied.token + "\r\nVary: Accept-Encoding\r\n" : "") +
+                (etag != null ? "ETag: " + etag + "\r\n" : "") +
+                (isStreamed() || isEventStream() ? "Transfer-Encoding: chunked\r\n" : "") +
+                (isEventStream() ? "Cache-Control: no-cache\r\n" : "") +
+                // a 304 has no payload, and a Content-Length would describe the payload it stands for
+                (isStreamed() || isEventStream() || status.startsWith("304") ? "" : "Content-Length: " + body.length + "\r\n") +
+                "Connection: " + (keepAlive ? "keep-alive" : "close") + "\r\n" +
+                "Lamport-Time: " + lamportTime + "\r\n\r\n";
+        return head.getBytes(StandardCharsets.UTF_8);
+    }
+
+    /* function to return the bytes to write to the socket, in order. A held payload is a single array of
+     * head and payload; a streamed payload is the head followed by one chunk at a time, each encoded only
+     * when the writer asks for it. */
+    Iterator<byte[]> encode(boolean keepAlive) {
+        if (!isStreamed()) {
+            return List.of(toBytes(keepAlive)).iterator();
+        }
+        return new ChunkedOutput(keepAlive);
+    }
+
+    /* CLASS TO ENCODE A STREAMED PAYLOAD ONE CHUNK AT A TIME
+     * Each chunk is its size in hex, CRLF, the data, CRLF, and a zero-size chunk ends the payload. The head is
+     * only written with the first chunk, once it is known whether the payload reaches the compression
+     * threshold. A compressed payload is compressed as it is read, so the compressor's window is all that is
+     * held beyond the current chunk. */
+    private class ChunkedOutput implements Iterator<byte[]> {
+        private final boolean keepAlive;
+        private boolean headSent = false;
+        private boolean lastSent = false;
+        private ByteArrayOutputStream compressed; // compressor output waiting to be sent
+        private OutputStream compressor; // null unless the payload is compressed
+
+        ChunkedOutput(boolean keepAlive) {
+            this.keepAlive = keepAlive;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return !lastSent;
+        }
+
+        @Override
+        public byte[] next() {
+            if (lastSent) {
+                throw new NoSuchElementException();
+            }
+
+            // group pieces into about one chunk of data
+            List<ByteBuffer> pieces = new ArrayList<>();
+            int size = 0;
+            while (size < CHUNK_SIZE && stream.hasNext()) {
+                ByteBuffer piece = stream.next();
+                pieces.add(piece);
+                size += piece.remaining();
+            }
+
+            byte[] head = NO_CONTENT;
+            if (!headSent) {
+                headSent = true;
+                if (coding != null && size >= compressionThreshold) {
+                    compressed = new ByteArrayOutputStream(CHUNK_SIZE);
+                    try {
+                        compressor = coding.compressor(compressed);
+                    } catch (IOException ex) {
+                        throw new UncheckedIOException(ex); // not thrown when writing to memory
+                    }
+                }
+                head = head(keepAlive, compressor != null ? coding : null);
+            }
+
+            byte[] data = compressor == null ? concat(pieces, size) : compress(pieces);
+            byte[] chunk;
+            if (data.length == 0) {
+                chunk = LAST_CHUNK;
+                lastSent = true;
+            } else {
+                chunk = chunk(data);
+            }
+            if (head.length == 0) {
+                return chunk;
+            }
+            return join(List.of(head, chunk), head.length + chunk.length);
+        }
+
+        // function to compress pieces, reading further pieces until the compressor outputs something or the
+        // payload ends. Returns no bytes once everything has been sent.
+        private byte[] compress(List<ByteBuffer> pieces) {
+            try {
+                for (ByteBuffer piece : pieces) {
+                    write(compressor, piece);
+                }
+                while (compressed.size() == 0 && stream.hasNext()) {
+                    write(compressor, stream.next());
+                }
+                if (!stream.hasNext()) {
+                    compressor.close(); // writes the end of the compressed data, does nothing if already closed
+                }
+            } catch (IOException ex) {
+                throw new UncheckedIOException(ex);
+            }
+            byte[] data = compressed.toByteArray();
+            compressed.reset();
+            return data;
+        }
+    }
+
+    private static byte[] join(List<byte[]> pieces, int size) {
+        byte[] joined = new byte[size];
+        int position = 0;
+        for (byte[] piece : pieces) {
+            System.arraycopy(piece, 0, joined, position, piece.length);
+            position += piece.length;
+        }
+        return joined;
+    }
+
+    // joins streamed pieces, leaving their positions unchanged
+    private static byte[] concat(List<ByteBuffer> pieces, int size) {
+        byte[] joined = new byte[size];
+        int position = 0;
+        for (ByteBuffer piece : pieces) {
+            System.arraycopy(piece.array(), piece.arrayOffset() + piece.position(), joined, position, piece.remaining());
+            position += piece.remaining();
+        }
+        return joined;
+    }
+
+    private static void write(OutputStream out, ByteBuffer piece) throws IOException {
+        out.write(piece.array(), piece.arrayOffset() + piece.position(), piece.remaining());
+    }
+
+    static byte[] chunk(byte[] data) {
+        byte[] sizeLine = (Integer.toHexString(data.length) + "\r\n").getBytes(StandardCharsets.US_ASCII);
+        byte[] chunk = new byte[sizeLine.length + data.length + 2];
+        System.arraycopy(sizeLine, 0, chunk, 0, sizeLine.length);
+        System.arraycopy(data, 0, chunk, sizeLine.length, data.length);
+        chunk[chunk.length - 2] = '\r';
+        chunk[chunk.length - 1] = '\n';
+        return chunk;
+    }
+
+    /* function to serialise status line, headers and payload ready to be written to a socket in one go.
+     * keepAlive tells the client whether the connection stays open for further requests. */
+    byte[] toBytes(boolean keepAlive) {
+        if (isStreamed()) {
+            ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+            encode(keepAlive).forEachRemaining(bytes::writeBytes);
+            return bytes.toByteArray();
+        }
+
+        byte[] headBytes = head(keepAlive, coding);
+        byte[] bytes = new byte[headBytes.length + body.length];
+        System.arraycopy(headBytes, 0, bytes, 0, headBytes.length);
+        System.arraycopy(body, 0, bytes, headBytes.length, body.length);
+        return bytes;
+    }
+}
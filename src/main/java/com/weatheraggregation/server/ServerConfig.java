@@ -0,0 +1,191 @@
+package com.weatheraggregation.server;
+
+/* CLASS TO HOLD AGGREGATION SERVER STARTUP OPTIONS
+ * Parsed from the command line in the form: [port] [--option=value ...]
+ * Any option not provided keeps its default value. */
+public class ServerConfig {
+    // connection handling engine
+    public enum Engine {
+        BLOCKING, // one thread per connection (default)
+        NIO       // ServerSocketChannel/Selector with a small pool of event loops
+    }
+
+    // executor used by the blocking engine to run each ConnectionHandler
+    public enum Handler {
+        THREAD,  // new platform thread per connection (default)
+        POOL,    // bounded platform thread pool with a bounded queue, excess connections get 503
+        VIRTUAL  // virtual thread per connection (requires Java 21+)
+    }
+
+    // how weather data is stored on disk
+    public enum PersistenceMode {
+        FILES, // one file per station plus a station ID file (default)
+        LOG    // append-only log segments with background compaction
+    }
+
+    // how each station is held in memory
+    public enum Storage {
+        BYTES,  // pre-serialised response bytes (default)
+        COMPACT // primitive fields, serialised on GET
+    }
+
+    // when a PUT is acknowledged relative to its data reaching the disk
+    public enum Durability {
+        SYNC,         // after the change is written and synced on its own
+        GROUP_COMMIT, // after the batch it was written in is synced (default)
+        ASYNC         // immediately, the change is written and synced in the background
+    }
+
+    int port = AggregationServer.DEFAULT_PORT;
+    Engine engine = Engine.BLOCKING;
+    int eventLoops = Math.max(1, Runtime.getRuntime().availableProcessors() / 2);
+    int nioWorkers = 16; // threads handling the NIO engine's PUTs, which may wait for the disk
+    Handler handler = Handler.THREAD;
+    int poolThreads = 64;
+    int poolQueue = 1024;
+    int keepAliveTimeout = 5000; // ms a persistent connection may sit idle before the server closes it
+    int maxRequests = 100; // requests served on one connection before it is closed
+    PersistenceMode persistence = PersistenceMode.FILES;
+    String dataDir = "."; // directory for station files with files persistence
+    String logDir = "weather_log";
+    long segmentSize = 4 * 1024 * 1024; // bytes before the active log segment is sealed
+    int compactSegments = 4; // sealed segments needed before they are compacted
+    Durability durability = Durability.GROUP_COMMIT;
+    int flushWindow = 5; // ms the persistence writer collects changes into one batch
+    int writeQueue = 1024; // changes waiting for the persistence writer before PUTs block
+    String snapshot = null; // snapshot file, snapshots are disabled unless set
+    int snapshotInterval = 10000; // ms between snapshots (only written if anything changed)
+    int versions = 100; // past versions of the station store kept for ?asOf= GETs
+    int maxStations = 20; // least recently updated stations are evicted beyond this
+    long maxBytes = Long.MAX_VALUE; // total payload bytes before evicting, unlimited unless set
+    Storage storage = Storage.BYTES; // in-memory layout of each station
+    int history = 0; // readings kept per station for history queries, none unless set
+    int compressionThreshold = 1024; // bytes below which GET payloads are sent uncompressed
+    int eventBuffer = 1024; // recent station changes held for subscribers to catch up from
+    int journalSize = 4096; // recent station changes held for GET /weather/changes before a resync is needed
+
+    public ServerConfig() {
+    }
+
+    public ServerConfig(int port) {
+        this.port = port;
+    }
+
+    // function to parse command line arguments into a config object
+    public static ServerConfig fromArgs(String[] args) {
+        ServerConfig config = new ServerConfig();
+        for (String arg : args) {
+            if (!arg.startsWith("--")) {
+                config.port = Integer.parseInt(arg); // a bare argument is the port, as before
+                continue;
+            }
+
+            String[] option = arg.substring(2).split("=", 2);
+            if (option.length != 2) {
+                throw new IllegalArgumentException("Expected --option=value, got: " + arg);
+            }
+            String value = option[1].trim();
+            switch (option[0]) {
+                case "engine":
+                    config.engine = Engine.valueOf(value.toUpperCase());
+                    break;
+                case "event-loops":
+                    config.eventLoops = positive(option[0], value);
+                    break;
+                case "nio-workers":
+                    config.nioWorkers = positive(option[0], value);
+                    break;
+                case "handler":
+                    config.handler = Handler.valueOf(value.toUpperCase());
+                    break;
+                case "pool-threads":
+                    config.poolThreads = positive(option[0], value);
+                    break;
+                case "pool-queue":
+                    config.poolQueue = positive(option[0], value);
+                    break;
+                case "keep-alive-timeout":
+                    config.keepAliveTimeout = positive(option[0], value);
+                    break;
+                case "max-requests":
+                    config.maxRequests = positive(option[0], value);
+                    break;
+                case "persistence":
+                    config.persistence = PersistenceMode.valueOf(value.toUpperCase());
+                    break;
+                case "data-dir":
+                    config.dataDir = value;
+                    break;
+                case "log-dir":
+                    config.logDir = value;
+                    break;
+                case "segment-size":
+                    config.segmentSize = positiveLong(option[0], value);
+                    break;
+                case "compact-segments":
+                    config.compactSegments = positive(option[0], value);
+                    break;
+                case "durability":
+                    config.durability = Durability.valueOf(value.toUpperCase().replace('-', '_'));
+                    break;
+                case "flush-window":
+                    config.flushWindow = positive(option[0], value);
+                    break;
+                case "write-queue":
+                    config.writeQueue = positive(option[0], value);
+                    break;
+                case "snapshot":
+                    config.snapshot = value;
+                    break;
+                case "snapshot-interval":
+                    config.snapshotInterval = positive(option[0], value);
+                    break;
+                case "versions":
+                    config.versions = positive(option[0], value);
+                    break;
+                case "max-stations":
+                    config.maxStations = positive(option[0], value);
+                    break;
+                case "max-bytes":
+                    config.maxBytes = positiveLong(option[0], value);
+                    break;
+                case "storage":
+                    config.storage = Storage.valueOf(value.toUpperCase());
+                    break;
+                case "history":
+                    config.history = positive(option[0], value);
+                    break;
+                case "compression-threshold":
+                    config.compressionThreshold = positive(option[0], value);
+                    break;
+                case "event-buffer":
+                    config.eventBuffer = positive(option[0], value);
+                    break;
+                case "journal-size":
+                    config.journalSize = positive(option[0], value);
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown option: " + arg);
+            }
+        }
+        return config;
+    }
+
+    // function to parse an option value which must be a positive integer
+    static int positive(String name, String value) {
+        int parsed = Integer.parseInt(value);
+        if (parsed < 1) {
+            throw new IllegalArgumentException(name + " must be a positive integer.");
+        }
+        return parsed;
+    }
+
+    // function to parse a byte count option, which may be more than an int holds
+    static long positiveLong(String name, String value) {
+        long parsed = Long.parseLong(value);
+        if (parsed < 1) {
+            throw new IllegalArgumentException(name + " must be a positive integer.");
+        }
+        return parsed;
+    }
+}
@@ -0,0 +1,213 @@
+package com.weatheraggregation.server;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/* SINGLE-FILE BINARY SNAPSHOT OF EVERY STATION
+ * Written periodically (and on shutdown) so a restart can restore the whole store from one file instead of
+ * reading and parsing one file per station. The snapshot is loaded with FileChannel.map and each station's
+ * JSON is handed over as a slice of the mapping, so nothing is copied or parsed until it is needed.
+ *
+ * Layout (big-endian):
+ *   int MAGIC | int VERSION | long takenAt | int count
+ *   count x { short idLength | id (UTF-8) | long timestamp | int payloadLength | payload (JSON) }
+ *
+ * takenAt is the wall clock time at which the station data was captured. Every change after that is
+ * written to the persistence engine later, so a snapshot is only used when the engine has not been
+ * modified since takenAt; otherwise the server falls back to loading from the engine.
+ *
+ * Each snapshot is written to a new generation, <file>.1, <file>.2, ..., and the latest is loaded. A file is
+ * never replaced, because restored stations keep slices of the mapped file until they are first used, and on
+ * Windows a file cannot be replaced or deleted while it is mapped. Older generations are deleted after each
+ * write; one that is still mapped there stays behind until the mapping is released (once every station from
+ * it has been copied out and the buffer collected), and its deletion is retried on later writes. */
+class SnapshotStore {
+    private static final int MAGIC = 0x57534e50; // "WSNP"
+    private static final int VERSION = 1;
+
+    private final File file; // generations are named after it
+    private long generation; // latest generation written or found
+
+    SnapshotStore(File file) {
+        this.file = file;
+        File[] generations = generations();
+        this.generation = generations.length == 0 ? 0 : generationOf(generations[generations.length - 1]);
+    }
+
+    // existing generations of this snapshot, oldest first
+    private File[] generations() {
+        File dir = file.getAbsoluteFile().getParentFile();
+        File[] found = dir.listFiles((parent, name) -> generationOf(new File(parent, name)) > 0);
+        if (found == null) {
+            return new File[0];
+        }
+        Arrays.sort(found, Comparator.comparingLong(this::generationOf));
+        return found;
+    }
+
+    // generation number of a file of this snapshot, or 0 if it is not one
+    private long generationOf(File candidate) {
+        String prefix = file.getName() + ".";
+        String name = candidate.getName();
+        if (!name.startsWith(prefix) || name.length() == prefix.length() || name.length() - prefix.length() > 18) {
+            return 0;
+        }
+        for (int i = prefix.length(); i < name.length(); i++) {
+            if (!Character.isDigit(name.charAt(i))) {
+                return 0;
+            }
+        }
+        return Long.parseLong(name.substring(prefix.length()));
+    }
+
+    /* CLASS TO HOLD ONE STATION'S DATA FOR A SNAPSHOT */
+    static class Entry {
+        final String stationID;
+        final long timestamp;
+        final ByteBuffer weatherData; // backed by an array, never modified
+
+        Entry(String stationID, long timestamp, ByteBuffer weatherData) {
+            this.stationID = stationID;
+            this.timestamp = timestamp;
+            this.weatherData = weatherData;
+        }
+    }
+
+    // callback used to hand each station in the snapshot back to the server, payload is a read-only slice
+    interface SnapshotLoader {
+        void load(String stationID, long timestamp, ByteBuffer weatherData);
+    }
+
+    // the file of a generation. Generation 0 is the file itself, as written before generations were used
+    private File generationFile(long number) {
+        return number == 0 ? file : new File(file.getPath() + "." + number);
+    }
+
+    /* function to write a new snapshot as the next generation, then delete the older ones */
+    synchronized void write(long takenAt, List<Entry> entries) {
+        if (AggregationServer.LIVE_UPDATES) {System.out.println("Writing snapshot of " + entries.size() + " stations...");}
+
+        File target = generationFile(generation + 1);
+        File temp = new File(target.getPath() + ".tmp");
+        try (FileOutputStream fileOut = new FileOutputStream(temp)) {
+            DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fileOut));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeLong(takenAt);
+            out.writeInt(entries.size());
+            for (Entry entry : entries) {
+                byte[] id = entry.stationID.getBytes(StandardCharsets.UTF_8);
+                out.writeShort(id.length);
+                out.write(id);
+                out.writeLong(entry.timestamp);
+                ByteBuffer weatherData = entry.weatherData;
+                out.writeInt(weatherData.remaining());
+                out.write(weatherData.array(), weatherData.arrayOffset() + weatherData.position(), weatherData.remaining());
+            }
+            out.flush();
+            fileOut.getFD().sync(); // never supersede a good snapshot with one that is not fully on disk
+        } catch (IOException ex) {
+            System.out.println("Error writing snapshot: " + ex.getMessage());
+            temp.delete();
+            return;
+        }
+
+        try {
+            // a new name, so no file (and no mapping of it) is ever replaced
+            Files.move(temp.toPath(), target.toPath(), StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException ex) {
+            System.out.println("Error saving snapshot: " + ex.getMessage());
+            temp.delete();
+            return;
+        }
+        generation++;
+        deleteBefore(generation);
+    }
+
+    // function to delete every generation older than number. One still mapped may fail to delete on Windows,
+    // and is tried again after the next snapshot
+    private void deleteBefore(long number) {
+        for (File old : generations()) {
+            if (generationOf(old) < number && !old.delete() && AggregationServer.LIVE_UPDATES) {
+                System.out.println("Could not delete old snapshot " + old + " yet");
+            }
+        }
+        if (number > 0 && file.exists() && !file.delete() && AggregationServer.LIVE_UPDATES) {
+            System.out.println("Could not delete old snapshot " + file + " yet");
+        }
+    }
+
+    /* function to map the snapshot and hand every station to loader. Returns false, having loaded nothing,
+     * if there is no usable snapshot or it is older than modifiedAt (the last change to the persistence
+     * engine), in which case the caller should load from the engine instead. */
+    synchronized boolean load(long modifiedAt, SnapshotLoader loader) {
+        File latest = generationFile(generation);
+        if (!latest.exists()) {
+            return false;
+        }
+
+        MappedByteBuffer mapped;
+        try (FileChannel channel = FileChannel.open(latest.toPath(), StandardOpenOption.READ)) {
+            mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size()); // stays valid after close
+        } catch (IOException ex) {
+            System.out.println("Error mapping snapshot: " + ex.getMessage());
+            return false;
+        }
+
+        try {
+            if (mapped.getInt() != MAGIC || mapped.getInt() != VERSION) {
+                System.out.println("Ignoring snapshot with unknown format");
+                return false;
+            }
+            long takenAt = mapped.getLong();
+            if (modifiedAt >= takenAt) {
+                if (AggregationServer.LIVE_UPDATES) {System.out.println("Snapshot is older than stored data, ignoring it");}
+                return false;
+            }
+
+            // check the whole index before loading anything, so a damaged file loads nothing
+            int count = mapped.getInt();
+            int start = mapped.position();
+            for (int i = 0; i < count; i++) {
+                int idLength = mapped.getShort() & 0xffff;
+                mapped.position(mapped.position() + idLength + Long.BYTES);
+                int length = mapped.getInt();
+                mapped.position(mapped.position() + length);
+            }
+
+            mapped.position(start);
+            for (int i = 0; i < count; i++) {
+                byte[] id = new byte[mapped.getShort() & 0xffff];
+                mapped.get(id);
+                long timestamp = mapped.getLong();
+                int length = mapped.getInt();
+                ByteBuffer weatherData = mapped.slice().limit(length).asReadOnlyBuffer();
+                mapped.position(mapped.position() + length);
+                loader.load(new String(id, StandardCharsets.UTF_8), timestamp, weatherData);
+            }
+            return true;
+        } catch (RuntimeException ex) { // BufferUnderflowException or IllegalArgumentException on a truncated file
+            System.out.println("Ignoring damaged snapshot: " + ex);
+            return false;
+        }
+    }
+
+    // function to delete every generation, e.g. when all weather data is removed
+    synchronized void delete() {
+        for (File old : generations()) {
+            if (!old.delete()) {
+                System.out.println("Error deleting snapshot " + old);
+            }
+        }
+        if (file.exists() && !file.delete()) {
+            System.out.println("Error deleting snapshot " + file);
+        }
+    }
+}
@@ -0,0 +1,97 @@
+package com.weatheraggregation.server;
+
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.weatheraggregation.utils.JsonUtils;
+
+/* CLASS TO HOLD THE RECENT READINGS OF ONE STATION
+ * A fixed-size ring of the station's last CAPACITY PUTs, each keyed by its local_date_time_full and the Lamport
+ * time it was received at, with the numeric weather fields held in primitive arrays (NaN where a PUT did not
+ * have the field). Every array is allocated when the history is created, so recording a PUT allocates nothing,
+ * and each station's history is the same size however many PUTs it receives.
+ * Recording is serialised by AggregationServer's station lock; queries may run concurrently, so both
+ * synchronise on the history itself. */
+class StationHistory {
+    static final List<String> FIELDS = List.of("lat", "lon", "air_temp", "apparent_t", "dewpt", "press",
+            "rel_hum", "wind_spd_kmh", "wind_spd_kt");
+    private static final List<String> INTEGER_FIELDS = List.of("rel_hum", "wind_spd_kmh", "wind_spd_kt");
+    static final String TIME_FIELD = "local_date_time_full";
+
+    private final long[] lamportTimes;
+    private final long[] observedAt; // local_date_time_full as a number, e.g. 20230715160000, or -1 if missing
+    private final double[][] readings; // readings[field][slot]
+    private int next = 0; // slot written by the next PUT
+    private int count = 0;
+
+    StationHistory(int capacity) {
+        lamportTimes = new long[capacity];
+        observedAt = new long[capacity];
+        readings = new double[FIELDS.size()][capacity];
+    }
+
+    /* function to record a PUT, overwriting the oldest reading once the ring is full */
+    synchronized void record(long lamportTime, ObjectNode weatherData) {
+        lamportTimes[next] = lamportTime;
+        observedAt[next] = observedAt(weatherData.get(TIME_FIELD));
+        for (int field = 0; field < readings.length; field++) {
+            JsonNode value = weatherData.get(FIELDS.get(field));
+            readings[field][next] = value != null && value.isNumber() ? value.doubleValue() : Double.NaN;
+        }
+        next = (next + 1) % lamportTimes.length;
+        count = Math.min(count + 1, lamportTimes.length);
+    }
+
+    private static long observedAt(JsonNode time) {
+        if (time == null) {
+            return -1;
+        }
+        if (time.isIntegralNumber()) {
+            return time.longValue();
+        }
+        try {
+            return Long.parseLong(time.asText());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+
+    /* function to return the readings, oldest first, observed between from and to and received between
+     * fromLamport and toLamport (all inclusive), with only the requested fields. Each reading is an object
+     * holding lamport_time, local_date_time_full and every requested field the PUT had. */
+    synchronized ArrayNode query(long from, long to, long fromLamport, long toLamport, List<String> fields) {
+        int[] selected = new int[fields.size()];
+        for (int i = 0; i < selected.length; i++) {
+            selected[i] = FIELDS.indexOf(fields.get(i));
+        }
+
+        ArrayNode result = JsonUtils.createObjectNode().arrayNode();
+        for (int i = 0; i < count; i++) {
+            int slot = (next - count + i + lamportTimes.length) % lamportTimes.length;
+            if (observedAt[slot] < from || observedAt[slot] > to
+                    || lamportTimes[slot] < fromLamport || lamportTimes[slot] > toLamport) {
+                continue;
+            }
+            ObjectNode reading = result.addObject();
+            reading.put("lamport_time", lamportTimes[slot]);
+            if (observedAt[slot] >= 0) {
+                reading.put(TIME_FIELD, String.valueOf(observedAt[slot]));
+            }
+            for (int field : selected) {
+                double value = readings[field][slot];
+                if (Double.isNaN(value)) {
+                    continue;
+                }
+                if (INTEGER_FIELDS.contains(FIELDS.get(field)) && value == Math.rint(value)) {
+                    reading.put(FIELDS.get(field), (long) value);
+                } else {
+                    reading.put(FIELDS.get(field), value);
+                }
+            }
+        }
+        return result;
+    }
+}
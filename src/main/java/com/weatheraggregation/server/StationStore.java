@@ -0,0 +1,527 @@
+package com.weatheraggregation.server;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.BiConsumer;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.weatheraggregation.utils.ContentCoding;
+import com.weatheraggregation.utils.JsonUtils;
+
+/* CLASS TO HOLD THE WEATHER DATA OF EVERY STATION AS IMMUTABLE VERSIONS
+ * Every change builds a new Version (a PersistentMap sharing all untouched stations with the previous one)
+ * and swaps it in with compare-and-set. Readers take the current Version with a single volatile read and see
+ * one consistent state for the rest of the request, however many PUTs and removals happen meanwhile, without
+ * ever waiting on a writer.
+ * By default each station is serialised once when it is stored, as its single-station response body
+ * {"ID":{...}}, so a GET never re-serialises anything. Its value {...} (for persistence and snapshots) and its
+ * member "ID":{...} (to assemble or stream the all-stations document) are slices of that one array.
+ * With compact storage each station is instead held as a CompactObservation, trading a little serialising
+ * on GET for a much smaller heap per station.
+ * Each Version is tagged with the Lamport time of the change that made it, and the last few Versions are
+ * retained so a GET can ask for the state as of an earlier Lamport time.
+ * Callers must serialise changes to the same station (AggregationServer holds its station lock); changes to
+ * different stations may run concurrently. */
+class StationStore {
+    private final AtomicReference<Version> current;
+    private final AtomicReferenceArray<Version> retained; // ring of recent versions, indexed by sequence
+    private final boolean compact; // hold stations in the compact primitive layout rather than as bytes
+
+    StationStore(int versions) {
+        this(versions, ServerConfig.Storage.BYTES);
+    }
+
+    StationStore(int versions, ServerConfig.Storage storage) {
+        this.compact = storage == ServerConfig.Storage.COMPACT;
+        Version initial = new Version(0, 0, PersistentMap.empty());
+        this.current = new AtomicReference<>(initial);
+        this.retained = new AtomicReferenceArray<>(versions);
+        retain(initial);
+    }
+
+    /* CLASS HOLDING ONE STORED STATION, never modified once stored */
+    abstract static class Station {
+        final long timestamp; // time of the PUT, for expiry
+        final long lamportTime; // Lamport time of the PUT, the station's version
+
+        Station(long timestamp, long lamportTime) {
+            this.timestamp = timestamp;
+            this.lamportTime = lamportTime;
+        }
+
+        // the station's JSON alone, {...}, used for persistence and snapshots. Must not be modified.
+        abstract ByteBuffer value();
+
+        // the single-station response body, {"ID":{...}}
+        abstract byte[] body();
+
+        // the single-station response body compressed with coding
+        byte[] body(ContentCoding coding) {
+            return coding.encode(body());
+        }
+
+        // the station's member of the all-stations document, "ID":{...}. Must not be modified.
+        abstract ByteBuffer member();
+
+        // appends the station's member of the all-stations document
+        abstract void writeMember(ByteArrayOutputStream out);
+
+        // returns the station's weather data as a tree, or null if it cannot be decoded
+        abstract ObjectNode weatherData(String stationID);
+    }
+
+    /* station held as serialised bytes, so GETs copy bytes without serialising anything. Only the response body
+     * is held; the value and member are slices of it. Stations stored by a PUT keep the parsed tree as well,
+     * restored stations parse their JSON the first time it is needed. */
+    private static class SerialisedStation extends Station {
+        private final byte[] body; // {"ID":{...}}
+        private final int valueOffset; // where {...} starts, after "ID":
+        private volatile ObjectNode weatherData; // decoded from value on first access if restored
+        private volatile Compressed compressed; // body compressed on the first GET accepting compression
+
+        SerialisedStation(byte[] key, ByteBuffer value, long timestamp, long lamportTime, ObjectNode weatherData) {
+            super(timestamp, lamportTime);
+            this.valueOffset = 1 + key.length + 1;
+            this.body = new byte[valueOffset + value.remaining() + 1];
+            body[0] = '{';
+            System.arraycopy(key, 0, body, 1, key.length);
+            body[valueOffset - 1] = ':';
+            value.duplicate().get(body, valueOffset, value.remaining()); // duplicate, so concurrent copies do not share a position
+            body[body.length - 1] = '}';
+            this.weatherData = weatherData;
+        }
+
+        @Override
+        ByteBuffer value() {
+            return ByteBuffer.wrap(body, valueOffset, body.length - 1 - valueOffset).slice();
+        }
+
+        @Override
+        byte[] body() {
+            return body;
+        }
+
+        @Override
+        byte[] body(ContentCoding coding) {
+            Compressed result = Compressed.of(compressed, coding, body);
+            compressed = result;
+            return result.bytes;
+        }
+
+        @Override
+        ByteBuffer member() {
+            return ByteBuffer.wrap(body, 1, body.length - 2).slice();
+        }
+
+        @Override
+        void writeMember(ByteArrayOutputStream out) {
+            out.write(body, 1, body.length - 2);
+        }
+
+        @Override
+        ObjectNode weatherData(String stationID) {
+            ObjectNode decoded = weatherData;
+            if (decoded == null) {
+                decoded = decode(stationID, body, valueOffset, body.length - 1 - valueOffset);
+                weatherData = decoded; // another reader may decode it too, either copy is equal
+            }
+            return decoded;
+        }
+    }
+
+    /* station restored from a snapshot, held as a read-only slice of the mapping so startup copies nothing. Its
+     * bytes are copied into a SerialisedStation the first time it is used (a GET, or the next snapshot), and
+     * pages of a station that is never used are never read. The slice is dropped once copied, so after the
+     * next snapshot has copied every station the mapping can be released (see SnapshotStore). */
+    private static class MappedStation extends Station {
+        private final byte[] key;
+        private ByteBuffer mapped; // null once loaded
+        private volatile SerialisedStation loaded;
+
+        MappedStation(byte[] key, ByteBuffer mapped, long timestamp, long lamportTime) {
+            super(timestamp, lamportTime);
+            this.key = key;
+            this.mapped = mapped;
+        }
+
+        static byte[] copy(ByteBuffer buffer) {
+            byte[] bytes = new byte[buffer.remaining()];
+            buffer.duplicate().get(bytes); // duplicate, so concurrent copies do not share a position
+            return bytes;
+        }
+
+        private SerialisedStation loaded() {
+            SerialisedStation station = loaded;
+            if (station == null) {
+                synchronized (this) { // copied once, as the slice is dropped afterwards
+                    station = loaded;
+                    if (station == null) {
+                        station = new SerialisedStation(key, mapped, timestamp, lamportTime, null);
+                        loaded = station;
+                        mapped = null;
+                    }
+                }
+            }
+            return station;
+        }
+
+        @Override
+        ByteBuffer value() {
+            return loaded().value();
+        }
+
+        @Override
+        byte[] body() {
+            return loaded().body();
+        }
+
+        @Override
+        byte[] body(ContentCoding coding) {
+            return loaded().body(coding);
+        }
+
+        @Override
+        ByteBuffer member() {
+            return loaded().member();
+        }
+
+        @Override
+        void writeMember(ByteArrayOutputStream out) {
+            loaded().writeMember(out);
+        }
+
+        @Override
+        ObjectNode weatherData(String stationID) {
+            return loaded().weatherData(stationID);
+        }
+    }
+
+    /* station held in the compact primitive layout. Holds no bytes or tree, so its JSON is written on each
+     * use: once per version for the all-stations document, and on every single-station GET. */
+    private static class CompactStation extends Station {
+        private final byte[] key;
+        private final CompactObservation observation;
+
+        CompactStation(byte[] key, CompactObservation observation, long timestamp, long lamportTime) {
+            super(timestamp, lamportTime);
+            this.key = key;
+            this.observation = observation;
+        }
+
+        @Override
+        ByteBuffer value() {
+            return ByteBuffer.wrap(observation.toBytes());
+        }
+
+        @Override
+        byte[] body() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            out.write('{');
+            writeMember(out);
+            out.write('}');
+            return out.toByteArray();
+        }
+
+        @Override
+        ByteBuffer member() {
+            ByteArrayOutputStream out = new ByteArrayOutputStream(256);
+            writeMember(out);
+            return ByteBuffer.wrap(out.toByteArray());
+        }
+
+        @Override
+        void writeMember(ByteArrayOutputStream out) {
+            out.writeBytes(key);
+            out.write(':');
+            observation.writeTo(out);
+        }
+
+        @Override
+        ObjectNode weatherData(String stationID) {
+            return decode(stationID, observation.toBytes());
+        }
+    }
+
+    /* CLASS HOLDING A RESPONSE BODY COMPRESSED WITH ONE CODING, cached beside the body it was made from.
+     * Only the most recently requested coding is kept; clients rarely differ in the coding they prefer. */
+    private static final class Compressed {
+        final ContentCoding coding;
+        final byte[] bytes;
+
+        private Compressed(ContentCoding coding, byte[] bytes) {
+            this.coding = coding;
+            this.bytes = bytes;
+        }
+
+        // returns cached if it was made with coding, otherwise compresses body. Racing readers may both
+        // compress, with identical results
+        static Compressed of(Compressed cached, ContentCoding coding, byte[] body) {
+            if (cached != null && cached.coding == coding) {
+                return cached;
+            }
+            return new Compressed(coding, coding.encode(body));
+        }
+    }
+
+    private static ObjectNode decode(String stationID, byte[] value) {
+        return decode(stationID, value, 0, value.length);
+    }
+
+    private static ObjectNode decode(String stationID, byte[] value, int offset, int length) {
+        try {
+            return (ObjectNode) JsonUtils.READER.readTree(value, offset, length);
+        } catch (IOException | ClassCastException ex) {
+            System.out.println("Error decoding stored data for station " + stationID + ": " + ex.getMessage());
+            return null;
+        }
+    }
+
+    /* CLASS HOLDING ONE IMMUTABLE STATE OF THE STORE */
+    static class Version {
+        private static final byte[] OPEN = {'{'};
+        private static final byte[] COMMA = {','};
+        private static final byte[] CLOSE = {'}'};
+
+        final long sequence; // incremented by every change
+        final long lamportTime; // Lamport time of the latest change included, never decreases
+        private final PersistentMap<String, Station> stations;
+        private volatile byte[] allStations; // assembled on first use
+        private volatile Compressed compressedAllStations;
+
+        private Version(long sequence, long lamportTime, PersistentMap<String, Station> stations) {
+            this.sequence = sequence;
+            this.lamportTime = lamportTime;
+            this.stations = stations;
+        }
+
+        Station get(String stationID) {
+            return stations.get(stationID);
+        }
+
+        int size() {
+            return stations.size();
+        }
+
+        boolean isEmpty() {
+            return stations.isEmpty();
+        }
+
+        void forEach(BiConsumer<String, Station> action) {
+            stations.forEach(action);
+        }
+
+        // returns the response body for one station, or null if the station is not in this version
+        byte[] station(String stationID) {
+            Station station = stations.get(stationID);
+            return station == null ? null : station.body();
+        }
+
+        // returns the all-stations document compressed with coding, compressed at most once per coding
+        byte[] allStations(ContentCoding coding) {
+            Compressed result = Compressed.of(compressedAllStations, coding, allStations());
+            compressedAllStations = result;
+            return result.bytes;
+        }
+
+        /* function to return the all-stations document of this version, assembling it from member bytes the
+         * first time it is needed. A version never changes, so the document is built at most once (or twice
+         * if two readers race, with identical results). */
+        byte[] allStations() {
+            byte[] cached = allStations;
+            if (cached != null) {
+                return cached;
+            }
+
+            ByteArrayOutputStream body = new ByteArrayOutputStream();
+            body.write('{');
+            boolean[] first = {true};
+            stations.forEach((stationID, station) -> {
+                if (!first[0]) {
+                    body.write(',');
+                }
+                station.writeMember(body);
+                first[0] = false;
+            });
+            body.write('}');
+
+            cached = body.toByteArray();
+            allStations = cached;
+            return cached;
+        }
+
+        /* function to return the all-stations document as a sequence of pieces ("{", each station's member
+         * with "," between them, then "}") produced as they are consumed. Nothing is assembled, so a response
+         * streamed from it holds one station at a time however many the version has. */
+        Iterator<ByteBuffer> allStationsPieces() {
+            Iterator<Station> remaining = stations.values();
+            return new Iterator<>() {
+                private boolean opened = false;
+                private boolean closed = false;
+                private boolean first = true;
+                private ByteBuffer afterComma; // member to return once the "," before it has been
+
+                @Override
+                public boolean hasNext() {
+                    return !closed;
+                }
+
+                @Override
+                public ByteBuffer next() {
+                    if (closed) {
+                        throw new NoSuchElementException();
+                    }
+                    if (!opened) {
+                        opened = true;
+                        return ByteBuffer.wrap(OPEN);
+                    }
+                    if (afterComma != null) {
+                        ByteBuffer member = afterComma;
+                        afterComma = null;
+                        return member;
+                    }
+                    if (!remaining.hasNext()) {
+                        closed = true;
+                        return ByteBuffer.wrap(CLOSE);
+                    }
+                    ByteBuffer member = remaining.next().member();
+                    if (first) {
+                        first = false;
+                        return member;
+                    }
+                    afterComma = member;
+                    return ByteBuffer.wrap(COMMA);
+                }
+            };
+        }
+    }
+
+    /* function to serialise and store the current data for a station. Returns the serialised station
+     * JSON (without the ID wrapper) so it can be persisted without serialising again, or null on error. */
+    byte[] put(String stationID, ObjectNode weatherData, long timestamp, long lamportTime) {
+        Station station;
+        byte[] value;
+        try {
+            byte[] key = JsonUtils.WRITER.writeValueAsBytes(stationID); // quoted and escaped
+            if (compact) {
+                CompactObservation observation = CompactObservation.of(weatherData);
+                station = new CompactStation(key, observation, timestamp, lamportTime);
+                value = observation.toBytes();
+            } else {
+                value = JsonUtils.WRITER.writeValueAsBytes(weatherData);
+                station = new SerialisedStation(key, ByteBuffer.wrap(value), timestamp, lamportTime, weatherData);
+            }
+        } catch (JsonProcessingException ex) {
+            // cannot happen for a parsed tree, but never leave a stale body behind
+            System.out.println("Error serialising station " + stationID + ": " + ex.getMessage());
+            remove(stationID, lamportTime);
+            return null;
+        }
+        store(stationID, station, lamportTime);
+        return value;
+    }
+
+    /* function to store a station from its already serialised JSON (e.g. a slice of a mapped snapshot), which
+     * is neither copied nor parsed until first access. In compact mode it is parsed now, to be converted. */
+    void putSerialised(String stationID, ByteBuffer value, long timestamp, long lamportTime) {
+        if (compact) {
+            ObjectNode weatherData = decode(stationID, MappedStation.copy(value));
+            if (weatherData != null) {
+                put(stationID, weatherData, timestamp, lamportTime);
+            }
+            return;
+        }
+        try {
+            byte[] key = JsonUtils.WRITER.writeValueAsBytes(stationID);
+            store(stationID, new MappedStation(key, value, timestamp, lamportTime), lamportTime);
+        } catch (JsonProcessingException ex) {
+            System.out.println("Error serialising station ID " + stationID + ": " + ex.getMessage());
+            remove(stationID, lamportTime);
+        }
+    }
+
+    private void store(String stationID, Station station, long lamportTime) {
+        Version previous;
+        Version next;
+        do {
+            previous = current.get();
+            next = new Version(previous.sequence + 1, Math.max(previous.lamportTime, lamportTime),
+                    previous.stations.plus(stationID, station));
+        } while (!current.compareAndSet(previous, next));
+        retain(next);
+    }
+
+    /* function to remove a station. Returns false if it was not stored */
+    boolean remove(String stationID, long lamportTime) {
+        Version previous;
+        Version next;
+        do {
+            previous = current.get();
+            PersistentMap<String, Station> stations = previous.stations.minus(stationID);
+            if (stations == previous.stations) {
+                return false;
+            }
+            next = new Version(previous.sequence + 1, Math.max(previous.lamportTime, lamportTime), stations);
+        } while (!current.compareAndSet(previous, next));
+        retain(next);
+        return true;
+    }
+
+    // keep a version in the ring, unless a newer version has already taken its slot
+    private void retain(Version version) {
+        int slot = (int) (version.sequence % retained.length());
+        Version existing;
+        do {
+            existing = retained.get(slot);
+            if (existing != null && existing.sequence >= version.sequence) {
+                return;
+            }
+        } while (!retained.compareAndSet(slot, existing, version));
+    }
+
+    // the latest version, a consistent snapshot of every station
+    Version current() {
+        return current.get();
+    }
+
+    /* function to return the latest retained version at or before the given Lamport time, or null if every
+     * retained version is later */
+    Version asOf(long lamportTime) {
+        Version latest = current.get();
+        if (latest.lamportTime <= lamportTime) {
+            return latest;
+        }
+        Version best = null;
+        for (int i = 0; i < retained.length(); i++) {
+            Version version = retained.get(i);
+            if (version != null && version.lamportTime <= lamportTime && (best == null || version.sequence > best.sequence)) {
+                best = version;
+            }
+        }
+        return best;
+    }
+
+    // returns the station's weather data in the current version, or null if it is not stored
+    ObjectNode get(String stationID) {
+        Station station = current.get().get(stationID);
+        return station == null ? null : station.weatherData(stationID);
+    }
+
+    boolean containsKey(String stationID) {
+        return current.get().get(stationID) != null;
+    }
+
+    int size() {
+        return current.get().size();
+    }
+
+    boolean isEmpty() {
+        return current.get().isEmpty();
+    }
+}
@@ -0,0 +1,76 @@
+package com.weatheraggregation.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Set;
+
+/* CLASS TO HOLD ONE CLIENT'S SUBSCRIPTION TO STATION CHANGES
+ * Answered by the engine rather than handleRequest: either as Server-Sent Events, one chunk of frames per batch
+ * of events until the client goes away, or as a long poll, a single JSON reply sent once there is at least
+ * one event or the deadline passes. Only used by one connection's thread at a time. */
+class Subscription {
+    static final long HEARTBEAT_INTERVAL = 15_000; // ms without events before an event stream sends a comment
+    static final byte[] HEARTBEAT = Response.chunk(": heartbeat\n\n".getBytes(StandardCharsets.UTF_8));
+
+    private final SubscriptionHub hub;
+    private final Set<String> stationIDs; // empty for every station
+    long cursor; // sequence of the last event sent (or skipped)
+    final boolean eventStream; // Server-Sent Events rather than a long poll
+    final long deadline; // long poll: time (ms) at which it is answered without events
+    private boolean closed = false;
+
+    Subscription(SubscriptionHub hub, List<String> stationIDs, long cursor, boolean eventStream, long deadline) {
+        this.hub = hub;
+        this.stationIDs = Set.copyOf(stationIDs);
+        this.cursor = cursor;
+        this.eventStream = eventStream;
+        this.deadline = deadline;
+    }
+
+    boolean wants(String stationID) {
+        return stationIDs.isEmpty() || stationIDs.contains(stationID);
+    }
+
+    // function to return the events not yet sent, empty if there are none
+    List<SubscriptionHub.Event> poll() {
+        return hub.poll(this);
+    }
+
+    // function to wait up to timeout ms for events, returns an empty list on timeout or once closed
+    List<SubscriptionHub.Event> await(long timeout) throws InterruptedException {
+        return hub.await(this, timeout);
+    }
+
+    boolean isClosed() {
+        return closed || hub.isClosed();
+    }
+
+    void close() {
+        closed = true;
+    }
+
+    /* function to encode events as one chunk of Server-Sent Event frames */
+    static byte[] frames(List<SubscriptionHub.Event> events) {
+        ByteArrayOutputStream frames = new ByteArrayOutputStream();
+        for (SubscriptionHub.Event event : events) {
+            frames.writeBytes(event.frame);
+        }
+        return Response.chunk(frames.toByteArray());
+    }
+
+    /* function to build a long poll's reply body: the sequence to resume from and the events, e.g.
+     * {"last_seq":42,"events":[{"seq":42,"type":"put",...}]} */
+    byte[] pollReply(List<SubscriptionHub.Event> events) {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        body.writeBytes(("{\"last_seq\":" + cursor + ",\"events\":[").getBytes(StandardCharsets.UTF_8));
+        for (int i = 0; i < events.size(); i++) {
+            if (i > 0) {
+                body.write(',');
+            }
+            body.writeBytes(events.get(i).json);
+        }
+        body.writeBytes("]}".getBytes(StandardCharsets.UTF_8));
+        return body.toByteArray();
+    }
+}
@@ -0,0 +1,196 @@
+package com.weatheraggregation.server;
+
+import java.io.ByteArrayOutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.fasterxml.jackson.core.JsonProcessingException;
+
+import com.weatheraggregation.utils.JsonUtils;
+
+/* CLASS TO DELIVER STATION CHANGES TO SUBSCRIBED CLIENTS
+ * Every PUT and removal (expiry or eviction) is published once as an Event, serialised once, into a ring of
+ * the last CAPACITY events shared by every subscriber. A Subscription holds only its station filter and a
+ * cursor (the sequence number of the last event it has been sent), so publishing costs the same however many
+ * clients subscribe and each subscriber's buffer is bounded by the ring.
+ * A subscriber that falls behind is caught up with only the latest event of each station it missed
+ * (coalesced), and one that falls further behind than the ring holds is sent a single resync event telling it
+ * to fetch the current state with a GET.
+ * Readers never lock: an event is written to its slot before the latest sequence is published, and a slot
+ * overwritten while being read is detected by its sequence number. Blocking-engine subscribers wait on a
+ * condition; the NIO engine registers one listener per event loop, run after every publish. */
+class SubscriptionHub {
+    static final int MAX_BATCH = 64; // events sent to a lagging subscriber at once before they are coalesced
+
+    private final AtomicReferenceArray<Event> ring;
+    private volatile long latest = 0; // sequence of the newest event, 0 before the first
+    private volatile boolean closed = false;
+    private final ReentrantLock publishLock = new ReentrantLock(); // orders publishers and guards waiting
+    private final Condition published = publishLock.newCondition();
+    private final List<Runnable> listeners = new CopyOnWriteArrayList<>();
+
+    SubscriptionHub(int capacity) {
+        this.ring = new AtomicReferenceArray<>(capacity);
+    }
+
+    /* CLASS HOLDING ONE PUBLISHED CHANGE, serialised once for every subscriber */
+    static final class Event {
+        final long sequence;
+        final String stationID; // null for a resync
+        final byte[] json; // {"seq":..,"type":"put","id":"..","lamport_time":..,"data":{...}}
+        final byte[] frame; // the same as a Server-Sent Event: id, event and data lines and a blank line
+
+        private Event(long sequence, String type, String stationID, byte[] json) {
+            this.sequence = sequence;
+            this.stationID = stationID;
+            this.json = json;
+            ByteArrayOutputStream frame = new ByteArrayOutputStream(json.length + 32);
+            frame.writeBytes(("id: " + sequence + "\nevent: " + type + "\ndata: ").getBytes(StandardCharsets.UTF_8));
+            frame.writeBytes(json); // compact JSON is a single line
+            frame.writeBytes("\n\n".getBytes(StandardCharsets.UTF_8));
+            this.frame = frame.toByteArray();
+        }
+    }
+
+    // function to publish a PUT, data is the station's serialised JSON
+    void publishPut(String stationID, byte[] data, long lamportTime) {
+        publish("put", stationID, lamportTime, data);
+    }
+
+    // function to publish a removal, type is "expire" or "evict"
+    void publishRemove(String stationID, String type, long lamportTime) {
+        publish(type, stationID, lamportTime, null);
+    }
+
+    private void publish(String type, String stationID, long lamportTime, byte[] data) {
+        byte[] id;
+        try {
+            id = JsonUtils.WRITER.writeValueAsBytes(stationID); // quoted and escaped
+        } catch (JsonProcessingException ex) {
+            System.out.println("Error serialising event for station " + stationID + ": " + ex.getMessage());
+            return;
+        }
+
+        publishLock.lock();
+        try {
+            long sequence = latest + 1;
+            ByteArrayOutputStream json = new ByteArrayOutputStream(64 + (data == null ? 0 : data.length));
+            json.writeBytes(("{\"seq\":" + sequence + ",\"type\":\"" + type + "\",\"id\":").getBytes(StandardCharsets.UTF_8));
+            json.writeBytes(id);
+            json.writeBytes((",\"lamport_time\":" + lamportTime).getBytes(StandardCharsets.UTF_8));
+            if (data != null) {
+                json.writeBytes(",\"data\":".getBytes(StandardCharsets.UTF_8));
+                json.writeBytes(data);
+            }
+            json.write('}');
+
+            ring.set((int) (sequence % ring.length()), new Event(sequence, type, stationID, json.toByteArray()));
+            latest = sequence; // readers only look at slots up to latest
+            published.signalAll();
+        } finally {
+            publishLock.unlock();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+
+    // function to add a listener run (on the publishing thread) after every event, e.g. to wake an event loop
+    void addListener(Runnable listener) {
+        listeners.add(listener);
+    }
+
+    /* function to start a subscription to the given stations (all if empty). It is sent the events after
+     * sequence since, or only new events if since is negative. */
+    Subscription subscribe(List<String> stationIDs, long since, boolean eventStream, long deadline) {
+        long cursor = since < 0 ? latest : Math.min(since, latest);
+        return new Subscription(this, stationIDs, cursor, eventStream, deadline);
+    }
+
+    long latestSequence() {
+        return latest;
+    }
+
+    boolean isClosed() {
+        return closed;
+    }
+
+    /* function to return the events the subscription has not yet been sent, advancing its cursor. Returns an
+     * empty list if there are none. More than MAX_BATCH events are coalesced to the latest of each station,
+     * and a subscriber whose cursor has left the ring is sent one resync event instead. */
+    List<Event> poll(Subscription subscription) {
+        long newest = latest;
+        if (subscription.cursor >= newest) {
+            return List.of();
+        }
+
+        List<Event> pending = new ArrayList<>();
+        if (newest - subscription.cursor <= ring.length()) {
+            for (long sequence = subscription.cursor + 1; sequence <= newest; sequence++) {
+                Event event = ring.get((int) (sequence % ring.length()));
+                if (event == null || event.sequence != sequence) {
+                    pending = null; // overwritten by a newer event while being read
+                    break;
+                }
+                if (subscription.wants(event.stationID)) {
+                    pending.add(event);
+                }
+            }
+        } else {
+            pending = null;
+        }
+        subscription.cursor = newest;
+
+        if (pending == null) {
+            byte[] json = ("{\"seq\":" + newest + ",\"type\":\"resync\"}").getBytes(StandardCharsets.UTF_8);
+            return List.of(new Event(newest, "resync", null, json));
+        }
+        if (pending.size() > MAX_BATCH) {
+            // keep the latest event of each station, in the order of those events
+            Map<String, Event> latestByStation = new LinkedHashMap<>();
+            for (Event event : pending) {
+                latestByStation.remove(event.stationID);
+                latestByStation.put(event.stationID, event);
+            }
+            pending = new ArrayList<>(latestByStation.values());
+        }
+        return pending;
+    }
+
+    /* function to wait up to timeout ms for events the subscription has not been sent. Returns an empty list
+     * on timeout or once the hub is closed. */
+    List<Event> await(Subscription subscription, long timeout) throws InterruptedException {
+        long remaining = TimeUnit.MILLISECONDS.toNanos(timeout);
+        publishLock.lock();
+        try {
+            while (!closed && subscription.cursor >= latest && remaining > 0) {
+                remaining = published.awaitNanos(remaining);
+            }
+        } finally {
+            publishLock.unlock();
+        }
+        return poll(subscription);
+    }
+
+    // function to end every subscription, waking all waiting subscribers
+    void close() {
+        publishLock.lock();
+        try {
+            closed = true;
+            published.signalAll();
+        } finally {
+            publishLock.unlock();
+        }
+        for (Runnable listener : listeners) {
+            listener.run();
+        }
+    }
+}
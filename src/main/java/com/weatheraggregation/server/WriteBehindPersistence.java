@@ -0,0 +1,335 @@
+package com.weatheraggregation.server;
+
+import java.util.*;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/* WRITE-BEHIND PIPELINE IN FRONT OF A PERSISTENCE ENGINE
+ * PUTs and removals are placed on a bounded queue and written by a dedicated writer thread, so disk I/O is
+ * no longer done while holding the server lock. The writer collects everything queued within the flush
+ * window into one batch, keeping only the latest change for each station, writes the batch and then syncs
+ * once for the whole batch.
+ *
+ * Every queued change gets a sequence number. awaitDurable(sequence) blocks until that change has been
+ * synced, according to the durability mode:
+ * - SYNC:         each change is written and synced on its own, the PUT is acknowledged after its fsync
+ * - GROUP_COMMIT: changes are batched over the flush window, the PUT is acknowledged after the batch fsync
+ * - ASYNC:        changes are batched as above, but the PUT is acknowledged immediately
+ * A batch queued by putAll() is always written and synced together, in every mode.
+ * If the queue is full, callers block until the writer catches up.
+ * An exception from the delegate (an UncheckedIOException for a failed write or fsync) fails the flush it
+ * happened in rather than the writer thread: the error is printed, the other changes of the flush are still
+ * written, and awaitDurable returns false for every change of that flush so the PUT is not acknowledged as
+ * stored. The writer then carries on with the next flush. A change that could not be queued at all (the caller
+ * was interrupted) gets NOT_STARTED, for which awaitDurable also returns false. */
+class WriteBehindPersistence implements Persistence {
+    static final long NOT_STARTED = -1; // the change was not queued, so it will never be stored
+    static final long NOTHING_QUEUED = 0; // there was no change to queue, so there is nothing to wait for
+    private static final long CLOSE_POLL = 100; // ms between checks for close by an idle writer
+    private static final int FAILED_FLUSHES_KEPT = 64; // waiters are woken at once, so only recent ones matter
+
+    private final Persistence delegate;
+    private final ServerConfig.Durability durability;
+    private final long flushWindowNanos;
+    private final BlockingQueue<Change> queue;
+    private final Thread writer;
+
+    private final Object enqueueLock = new Object(); // keeps the queue in sequence order
+    private long nextSequence = 1; // guarded by enqueueLock
+    private long durableSequence = 0; // guarded by this, every change up to here has been synced (or failed)
+    // first and last sequence of recent flushes that failed, oldest first (guarded by this)
+    private final Deque<long[]> failedFlushes = new ArrayDeque<>();
+    private volatile boolean closed = false;
+
+    // metrics, guarded by this
+    private long flushes = 0;
+    private long changesWritten = 0;
+    private long changesCoalesced = 0;
+    private long lastFlushNanos = 0;
+    private long maxFlushNanos = 0;
+    private long totalFlushNanos = 0;
+    private long writeErrors = 0;
+
+    WriteBehindPersistence(Persistence delegate, ServerConfig.Durability durability, int flushWindow, int queueCapacity) {
+        this.delegate = delegate;
+        this.durability = durability;
+        this.flushWindowNanos = TimeUnit.MILLISECONDS.toNanos(flushWindow);
+        this.queue = new ArrayBlockingQueue<>(queueCapacity);
+
+        writer = new Thread(this::writeLoop, "persistence-writer");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    /* CLASS TO HOLD ONE QUEUED CHANGE (weatherData is null for a removal) */
+    private static class Change {
+        final long sequence;
+        final String stationID;
+        final long lamportTime;
+        final long timestamp;
+        final byte[] weatherData;
+        final boolean more; // more changes of the same batch follow this one
+
+        Change(long sequence, String stationID, long lamportTime, long timestamp, byte[] weatherData, boolean more) {
+            this.sequence = sequence;
+            this.stationID = stationID;
+            this.lamportTime = lamportTime;
+            this.timestamp = timestamp;
+            this.weatherData = weatherData;
+            this.more = more;
+        }
+    }
+
+    @Override
+    public void load(StationLoader loader) {
+        delegate.load(loader);
+    }
+
+    @Override
+    public void recordPut(String stationID, long lamportTime, long timestamp, byte[] weatherData) {
+        put(stationID, lamportTime, timestamp, weatherData);
+    }
+
+    @Override
+    public void recordRemove(Collection<String> stationIDs, long lamportTime) {
+        remove(stationIDs, lamportTime);
+    }
+
+    /* function to queue a PUT, returning the sequence number to pass to awaitDurable */
+    long put(String stationID, long lamportTime, long timestamp, byte[] weatherData) {
+        return enqueue(stationID, lamportTime, timestamp, weatherData, false);
+    }
+
+    /* function to queue PUTs for several stations as one batch, written and synced together. Returns the
+     * sequence number of the last one, NOTHING_QUEUED if there are none, or NOT_STARTED if any could not be
+     * queued */
+    long putAll(Map<String, byte[]> weatherData, long lamportTime, long timestamp) {
+        long sequence = NOTHING_QUEUED;
+        synchronized (enqueueLock) { // no other change can be queued inside the batch
+            int remaining = weatherData.size();
+            for (Map.Entry<String, byte[]> station : weatherData.entrySet()) {
+                sequence = enqueue(station.getKey(), lamportTime, timestamp, station.getValue(), --remaining > 0);
+                if (sequence == NOT_STARTED) {
+                    return NOT_STARTED;
+                }
+            }
+        }
+        return sequence;
+    }
+
+    /* function to queue removals, returning the sequence number of the last one, NOTHING_QUEUED if there are
+     * none, or NOT_STARTED if any could not be queued */
+    long remove(Collection<String> stationIDs, long lamportTime) {
+        long sequence = NOTHING_QUEUED;
+        for (String stationID : stationIDs) {
+            sequence = enqueue(stationID, lamportTime, System.currentTimeMillis(), null, false);
+            if (sequence == NOT_STARTED) {
+                return NOT_STARTED;
+            }
+        }
+        return sequence;
+    }
+
+    private long enqueue(String stationID, long lamportTime, long timestamp, byte[] weatherData, boolean more) {
+        // sequence numbers must reach the queue in order, so numbering and queueing happen together
+        synchronized (enqueueLock) {
+            Change change = new Change(nextSequence, stationID, lamportTime, timestamp, weatherData, more);
+            try {
+                queue.put(change);
+            } catch (InterruptedException ex) {
+                Thread.currentThread().interrupt();
+                System.out.println("Interrupted queueing change for station " + stationID);
+                return NOT_STARTED; // the sequence number is not used, so no later flush covers this change
+            }
+            nextSequence++;
+            return change.sequence;
+        }
+    }
+
+    /* function to block until the change with the given sequence number has been synced to disk. Returns
+     * false if it was never queued, if writing or syncing it failed, or if the wait was interrupted. Otherwise
+     * returns true immediately in ASYNC mode. */
+    boolean awaitDurable(long sequence) {
+        if (sequence == NOT_STARTED) {
+            return false;
+        }
+        if (durability == ServerConfig.Durability.ASYNC || sequence == NOTHING_QUEUED) {
+            return true;
+        }
+        synchronized (this) {
+            while (durableSequence < sequence && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return false;
+                }
+            }
+            for (long[] failed : failedFlushes) {
+                if (sequence >= failed[0] && sequence <= failed[1]) {
+                    return false;
+                }
+            }
+            return true;
+        }
+    }
+
+    /* function to block until everything queued so far has been synced, whatever the mode */
+    @Override
+    public void sync() {
+        long sequence;
+        synchronized (enqueueLock) {
+            sequence = nextSequence - 1;
+        }
+        synchronized (this) {
+            while (durableSequence < sequence && !closed) {
+                try {
+                    wait();
+                } catch (InterruptedException ex) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+            }
+        }
+    }
+
+    @Override
+    public long lastModified() {
+        return delegate.lastModified();
+    }
+
+    @Override
+    public void clear() {
+        sync(); // let queued writes finish so none recreate a file after it is deleted
+        delegate.clear();
+    }
+
+    @Override
+    public void close() {
+        sync();
+        closed = true;
+        try {
+            writer.join(CLOSE_POLL * 10);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+        synchronized (this) {
+            notifyAll(); // release anyone still waiting
+        }
+        delegate.close();
+    }
+
+    int queueDepth() {
+        return queue.size();
+    }
+
+    /* function to summarise queue depth and flush latency for the stats command */
+    synchronized String stats() {
+        return String.format("persistence: mode=%s queued=%d flushes=%d written=%d coalesced=%d errors=%d " +
+                        "flush ms last=%.3f avg=%.3f max=%.3f",
+                durability.toString().toLowerCase(), queue.size(), flushes, changesWritten, changesCoalesced, writeErrors,
+                lastFlushNanos / 1e6, flushes == 0 ? 0 : totalFlushNanos / 1e6 / flushes, maxFlushNanos / 1e6);
+    }
+
+    /* function run by the writer thread: collect a batch, write it, sync, then release waiters */
+    private void writeLoop() {
+        List<Change> drained = new ArrayList<>();
+        while (!closed) {
+            Change first;
+            try {
+                first = queue.poll(CLOSE_POLL, TimeUnit.MILLISECONDS);
+            } catch (InterruptedException ex) {
+                return;
+            }
+            if (first == null) {
+                continue; // idle, check for close
+            }
+
+            drained.clear();
+            drained.add(first);
+            if (durability != ServerConfig.Durability.SYNC) {
+                // gather everything arriving within the flush window
+                long deadline = System.nanoTime() + flushWindowNanos;
+                long remaining;
+                while ((remaining = deadline - System.nanoTime()) > 0) {
+                    Change next;
+                    try {
+                        next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+                    } catch (InterruptedException ex) {
+                        break; // write what we have
+                    }
+                    if (next == null) {
+                        break;
+                    }
+                    drained.add(next);
+                    queue.drainTo(drained);
+                }
+            }
+            // never split a batch between flushes, its remaining changes are being queued now
+            try {
+                while (drained.get(drained.size() - 1).more) {
+                    drained.add(queue.take());
+                }
+            } catch (InterruptedException ex) {
+                return;
+            }
+            flush(drained);
+        }
+    }
+
+    private void flush(List<Change> drained) {
+        // coalesce: only the latest change for each station needs writing
+        Map<String, Change> latest = new LinkedHashMap<>();
+        for (Change change : drained) {
+            latest.remove(change.stationID); // re-insert so write order follows the latest change
+            latest.put(change.stationID, change);
+        }
+
+        long start = System.nanoTime();
+        List<String> removed = new ArrayList<>();
+        long removeLamportTime = 0;
+        int errors = 0;
+        for (Change change : latest.values()) {
+            if (change.weatherData != null) {
+                try {
+                    delegate.recordPut(change.stationID, change.lamportTime, change.timestamp, change.weatherData);
+                } catch (RuntimeException ex) {
+                    System.out.println("Error persisting station " + change.stationID + ": " + ex.getMessage());
+                    errors++;
+                }
+            } else {
+                removed.add(change.stationID);
+                removeLamportTime = Math.max(removeLamportTime, change.lamportTime);
+            }
+        }
+        try {
+            if (!removed.isEmpty()) {
+                delegate.recordRemove(removed, removeLamportTime);
+            }
+            delegate.sync();
+        } catch (RuntimeException ex) {
+            System.out.println("Error persisting changes: " + ex.getMessage());
+            errors++;
+        }
+        long elapsed = System.nanoTime() - start;
+
+        synchronized (this) {
+            durableSequence = drained.get(drained.size() - 1).sequence; // the queue is in sequence order
+            if (errors > 0) {
+                failedFlushes.addLast(new long[] {drained.get(0).sequence, durableSequence});
+                if (failedFlushes.size() > FAILED_FLUSHES_KEPT) {
+                    failedFlushes.removeFirst();
+                }
+                writeErrors += errors;
+            }
+            flushes++;
+            changesWritten += latest.size();
+            changesCoalesced += drained.size() - latest.size();
+            lastFlushNanos = elapsed;
+            maxFlushNanos = Math.max(maxFlushNanos, elapsed);
+            totalFlushNanos += elapsed;
+            notifyAll();
+        }
+    }
+}
@@ -0,0 +1,121 @@
+package com.weatheraggregation.utils;
+
+import java.io.*;
+import java.net.InetSocketAddress;
+import java.net.Socket;
+import java.util.Map;
+
+/* CLASS TO HOLD A PERSISTENT (KEEP-ALIVE) CONNECTION FROM A CLIENT TO THE AGGREGATION SERVER
+ * The socket is opened on first use and reused for every following request, so repeated updates do not
+ * each pay for a new TCP handshake. If the server has since closed the connection (idle timeout or
+ * request limit) the request is sent again once on a fresh connection. This is safe because GET and PUT
+ * are both idempotent. */
+public class ClientConnection implements Closeable {
+    private static final int MAX_DECODED_SIZE = 64 * 1024 * 1024; // largest decompressed reply accepted
+
+    private final ServerData server;
+    private final int timeout; // ms to connect or wait for a read, 0 to wait indefinitely
+    private Socket socket;
+    private InputStream socketIn;
+    private OutputStream socketOut;
+
+    public ClientConnection(ServerData server) {
+        this(server, 0);
+    }
+
+    // connection that gives up with a SocketTimeoutException if connecting or any read takes longer than timeout ms
+    public ClientConnection(ServerData server, int timeout) {
+        this.server = server;
+        this.timeout = timeout;
+    }
+
+    /* CLASS TO HOLD A RESPONSE READ FROM THE SERVER */
+    public static class Reply {
+        public final String statusLine;
+        public final String status; // status code, e.g. "200"
+        public final Map<String, String> headers;
+        public final byte[] body;
+
+        Reply(String statusLine, Map<String, String> headers, byte[] body) throws IOException {
+            String[] statusSplit = statusLine.split(" ");
+            if (statusSplit.length < 2) {
+                throw new IOException("Invalid status line: " + statusLine);
+            }
+            this.statusLine = statusLine;
+            this.status = statusSplit[1];
+            this.headers = headers;
+            this.body = body;
+        }
+    }
+
+    /* function to send a complete request and read the response */
+    public Reply send(byte[] request) throws IOException {
+        boolean reused = socket != null;
+        try {
+            return exchange(request);
+        } catch (IOException ex) {
+            close();
+            if (!reused) {
+                throw ex; // fresh connection failed, let the caller handle it
+            }
+            return exchange(request); // server closed the kept-alive connection, retry once on a new one
+        }
+    }
+
+    private Reply exchange(byte[] request) throws IOException {
+        if (socket == null) {
+            socket = new Socket();
+            socket.connect(new InetSocketAddress(server.name, server.port), timeout);
+            socket.setSoTimeout(timeout);
+            socketIn = new BufferedInputStream(socket.getInputStream());
+            socketOut = socket.getOutputStream();
+        }
+
+        socketOut.write(request);
+        socketOut.flush();
+
+        String statusLine = ParsingUtils.readLine(socketIn);
+        if (statusLine == null) {
+            throw new EOFException("Connection closed by server");
+        }
+        Map<String, String> headers = ParsingUtils.parseHeaders(socketIn);
+        byte[] body;
+        if ("chunked".equalsIgnoreCase(headers.get("Transfer-Encoding"))) {
+            // large payloads (e.g. all stations) are streamed. Once joined the reply is handled as if it had been
+            // sent with Content-Length, so callers need not care how it was sent
+            body = ParsingUtils.readChunkedBody(socketIn);
+            headers.remove("Transfer-Encoding");
+            headers.put("Content-Length", String.valueOf(body.length));
+        } else {
+            body = socketIn.readNBytes(ParsingUtils.parseContentLength(headers));
+        }
+        // compressed replies are likewise decompressed here. A coding the client does not know is left as is
+        String contentEncoding = headers.get("Content-Encoding");
+        ContentCoding coding = contentEncoding == null ? null : ContentCoding.forToken(contentEncoding);
+        if (coding != null) {
+            body = coding.decode(body, MAX_DECODED_SIZE);
+            headers.remove("Content-Encoding");
+            headers.put("Content-Length", String.valueOf(body.length));
+        }
+
+        if ("close".equalsIgnoreCase(headers.get("Connection"))) {
+            close(); // server will not accept further requests on this connection
+        }
+        return new Reply(statusLine, headers, body);
+    }
+
+    // function to close the underlying socket. The next request opens a new one.
+    @Override
+    public void close() {
+        if (socket != null) {
+            try {
+                socket.close();
+            } catch (IOException ex) {
+                System.out.println("Error closing socket: " + ex.getMessage());
+            }
+        }
+        socket = null;
+        socketIn = null;
+        socketOut = null;
+    }
+}
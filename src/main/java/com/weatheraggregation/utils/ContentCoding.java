@@ -0,0 +1,114 @@
+package com.weatheraggregation.utils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/* ENUM OF THE HTTP CONTENT CODINGS UNDERSTOOD BY THE SERVER AND CLIENTS
+ * gzip, and deflate in the zlib format that HTTP's "deflate" means. Used to pick a coding from a client's
+ * Accept-Encoding, to compress payloads and to decompress payloads sent with Content-Encoding. */
+public enum ContentCoding {
+    GZIP("gzip"),
+    DEFLATE("deflate");
+
+    public final String token; // name used in Accept-Encoding and Content-Encoding headers
+
+    ContentCoding(String token) {
+        this.token = token;
+    }
+
+    /* function to return the coding with the given name, or null if it is not supported */
+    public static ContentCoding forToken(String token) {
+        for (ContentCoding coding : values()) {
+            if (coding.token.equalsIgnoreCase(token.trim())) {
+                return coding;
+            }
+        }
+        return null;
+    }
+
+    /* Function to choose the coding for a response from an Accept-Encoding header, e.g. "gzip;q=0.8, deflate".
+     * Returns the supported coding with the highest q value, gzip if they are equal, or null if the client
+     * accepts none of them (or sent no header) and the payload should be sent as is. "*" stands for any
+     * coding the client did not name. */
+    public static ContentCoding negotiate(String acceptEncoding) {
+        if (acceptEncoding == null) {
+            return null;
+        }
+
+        double[] quality = new double[values().length];
+        boolean[] named = new boolean[values().length];
+        double wildcard = 0;
+        for (String element : acceptEncoding.split(",")) {
+            String[] parameters = element.split(";");
+            double q = 1;
+            for (int i = 1; i < parameters.length; i++) {
+                String parameter = parameters[i].trim();
+                if (parameter.startsWith("q=")) {
+                    try {
+                        q = Double.parseDouble(parameter.substring(2));
+                    } catch (NumberFormatException ex) {
+                        q = 0; // an unreadable preference is treated as a refusal
+                    }
+                }
+            }
+            String token = parameters[0].trim();
+            if (token.equals("*")) {
+                wildcard = q;
+                continue;
+            }
+            ContentCoding coding = forToken(token);
+            if (coding != null) {
+                quality[coding.ordinal()] = q;
+                named[coding.ordinal()] = true;
+            }
+        }
+
+        ContentCoding best = null;
+        double bestQuality = 0;
+        for (ContentCoding coding : values()) {
+            double q = named[coding.ordinal()] ? quality[coding.ordinal()] : wildcard;
+            if (q > bestQuality) {
+                best = coding;
+                bestQuality = q;
+            }
+        }
+        return best;
+    }
+
+    /* function to wrap out in a stream compressing everything written to it. Closing the returned stream
+     * writes the end of the compressed data and closes out. */
+    public OutputStream compressor(OutputStream out) throws IOException {
+        return this == GZIP ? new GZIPOutputStream(out) : new DeflaterOutputStream(out);
+    }
+
+    public byte[] encode(byte[] data) {
+        ByteArrayOutputStream compressed = new ByteArrayOutputStream(data.length / 4 + 64);
+        try (OutputStream out = compressor(compressed)) {
+            out.write(data);
+        } catch (IOException ex) {
+            throw new UncheckedIOException(ex); // not thrown when writing to memory
+        }
+        return compressed.toByteArray();
+    }
+
+    /* Function to decompress data. Throws IOException if the data is not valid for this coding, or would
+     * decompress to more than maxSize bytes (so a small payload cannot expand to exhaust the heap). */
+    public byte[] decode(byte[] data, int maxSize) throws IOException {
+        InputStream compressed = new ByteArrayInputStream(data);
+        try (InputStream in = this == GZIP ? new GZIPInputStream(compressed) : new InflaterInputStream(compressed)) {
+            byte[] decoded = in.readNBytes(maxSize);
+            if (in.read() != -1) {
+                throw new IOException("Decompressed payload exceeds " + maxSize + " bytes");
+            }
+            return decoded;
+        }
+    }
+}
@@ -0,0 +1,34 @@
+package com.weatheraggregation.utils;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.json.JsonMapper;
+import com.fasterxml.jackson.databind.node.JsonNodeFactory;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/* SHARED JACKSON INSTANCES
+ * Creating an ObjectMapper is expensive (it builds serializer/deserializer caches on first use), so one
+ * is configured here and shared. ObjectReader and ObjectWriter are immutable and thread-safe, so the same
+ * instances can be used concurrently by every connection handler and client. */
+public final class JsonUtils {
+    private static final ObjectMapper MAPPER = JsonMapper.builder()
+            // streams passed in belong to the caller (often a socket), never close them
+            .disable(JsonParser.Feature.AUTO_CLOSE_SOURCE)
+            .disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)
+            .build();
+
+    // reads any JSON document into a tree (readTree), from bytes, streams or readers
+    public static final ObjectReader READER = MAPPER.reader();
+    // compact writer used for responses, persistence and PUT payloads
+    public static final ObjectWriter WRITER = MAPPER.writer();
+
+    private JsonUtils() {
+    }
+
+    public static ObjectNode createObjectNode() {
+        return JsonNodeFactory.instance.objectNode();
+    }
+}
@@ -1,32 +1,37 @@
 package com.weatheraggregation.utils;
 
-/* CLASS TO MANAGE LAMPORT TIME */
+import java.util.concurrent.atomic.AtomicLong;
+
+/* CLASS TO MANAGE LAMPORT TIME
+ * Lock-free: the time is an AtomicLong updated with compare-and-set, so concurrent request handlers never
+ * block each other on the clock. 64-bit so it cannot overflow on a long-running node. Each method that
+ * changes the clock returns the time it assigned, which callers should send rather than reading getTime()
+ * afterwards (another thread may have moved the clock on in between). */
 public class LamportClock {
-    private int time;
+    private final AtomicLong time = new AtomicLong(0); // initialise with time = 0
 
-    // initialise with time = 0
-    public LamportClock() {
-        this.time = 0;
+    // increment clock for a local or send event, returning the new time
+    public long increment() {
+        return time.incrementAndGet();
     }
 
-    // increment clock
-    public synchronized void increment() {
-        this.time++;
+    // receive event: set clock to max(current, received) + 1, returning the new time
+    public long updateAndIncrement(long receivedTime) {
+        return time.accumulateAndGet(receivedTime, (current, received) -> Math.max(current, received) + 1);
     }
 
-    // update clock with greatest time. Returns TRUE if receivedTime > current time
-    public synchronized boolean update(int receivedTime) {
-        boolean updated = false;
-        if (receivedTime > this.time) {
-            this.time = receivedTime;
-            updated = true;
+    // update clock with greatest time and increment. Returns TRUE if receivedTime > current time
+    public boolean update(long receivedTime) {
+        while (true) {
+            long current = time.get();
+            if (time.compareAndSet(current, Math.max(current, receivedTime) + 1)) {
+                return receivedTime > current;
+            }
         }
-        this.increment();
-        return updated;
     }
 
     // get clock time
-    public synchronized int getTime() {
-        return this.time;
+    public long getTime() {
+        return time.get();
     }
 }
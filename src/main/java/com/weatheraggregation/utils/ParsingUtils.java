@@ -1,14 +1,24 @@
 package com.weatheraggregation.utils;
 
-import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 
 import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.CharArrayReader;
+import java.io.EOFException;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.TreeMap;
 
 public class ParsingUtils {
+    private static final int MAX_LINE_LENGTH = 8 * 1024; // longest request/header line accepted
+
     /* Function to read from socketIn buffer until empty line (signalling start of
      * payload) or end of message is reached. Returns headers parsed into a hashmap.
      * Note: assumes request/status line has already been read. */
@@ -27,8 +37,10 @@ public class ParsingUtils {
         return headers;
     }
 
-    /* Function to read socketIn to a string, then parse string to JSON.
-     * errorCode[0] holds server error message, errorCode[1] holds client error message. */
+    /* Function to read Content-Length chars from socketIn and parse them to JSON.
+     * errorCode[0] holds server error message, errorCode[1] holds client error message.
+     * Note: a reader can only count chars, while Content-Length is a byte count, so this is only exact for
+     * ASCII payloads. Sockets should read the payload as bytes and use parseJSON(byte[], ...) instead. */
     public static ObjectNode parseJSON(BufferedReader socketIn, String[] errorCode, Map<String, String> headers) {
         int contentLength = Integer.parseInt(headers.get("Content-Length"));
 
@@ -56,14 +68,214 @@ public class ParsingUtils {
                 return null;
             }
 
-            String jsonContent = new String(buffer);
+            // Try to parse the chars into a JSON ObjectNode
+            return (ObjectNode) JsonUtils.READER.readTree(new CharArrayReader(buffer));
+        } catch (Exception ex) {
+            errorCode[0] = "500 Internal Server Error";
+            errorCode[1] = "Invalid JSON: " + ex.getMessage();
+            return null;
+        }
+    }
+
+    /* Function to read a single line from a byte stream, up to and excluding the LF (and any CR before it).
+     * Reading bytes rather than chars means the payload following the headers can still be read as raw
+     * bytes from the same stream. Returns null if the stream ends before any bytes are read. */
+    public static String readLine(InputStream in) throws IOException {
+        ByteArrayOutputStream line = new ByteArrayOutputStream(128);
+        int b;
+        while ((b = in.read()) != -1 && b != '\n') {
+            if (line.size() >= MAX_LINE_LENGTH) {
+                throw new IOException("Line exceeds " + MAX_LINE_LENGTH + " bytes");
+            }
+            line.write(b);
+        }
+        if (b == -1 && line.size() == 0) {
+            return null;
+        }
+
+        byte[] bytes = line.toByteArray();
+        int length = bytes.length;
+        if (length > 0 && bytes[length - 1] == '\r') {
+            length--; // strip CR of CRLF line ending
+        }
+        return new String(bytes, 0, length, StandardCharsets.UTF_8);
+    }
+
+    /* Byte stream equivalent of parseHeaders(BufferedReader). Header names are case-insensitive and
+     * values may contain ':' (e.g. "Host: localhost:4567"), so each line is only split at the first ':'. */
+    public static Map<String, String> parseHeaders(InputStream socketIn) throws IOException {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        String line = readLine(socketIn);
+        while (line != null && !line.isEmpty()) {
+            int split = line.indexOf(':');
+            if (split > 0) {
+                headers.put(line.substring(0, split).trim(), line.substring(split + 1).trim());
+            } else {
+                throw new IOException("Invalid header line: " + line);
+            }
+            line = readLine(socketIn);
+        }
+        return headers;
+    }
+
+    /* Function to read a payload sent with Transfer-Encoding: chunked. Each chunk is a line holding its size
+     * in hex (any ";extension" after it is ignored), that many bytes, then CRLF. A chunk of size 0 ends the
+     * payload and is followed by optional trailer lines and an empty line, which are read and discarded.
+     * Returns the payload joined back together. */
+    public static byte[] readChunkedBody(InputStream socketIn) throws IOException {
+        ByteArrayOutputStream body = new ByteArrayOutputStream();
+        byte[] chunk;
+        while ((chunk = readChunk(socketIn)) != null) {
+            body.writeBytes(chunk);
+        }
+        return body.toByteArray();
+    }
+
+    /* Function to read the next chunk of a chunked payload, for payloads handled as they arrive (e.g. an
+     * event stream). Returns null once the last chunk and trailers have been read. */
+    public static byte[] readChunk(InputStream socketIn) throws IOException {
+        String sizeLine = readLine(socketIn);
+        if (sizeLine == null) {
+            throw new EOFException("Connection closed inside chunked payload");
+        }
+        int extension = sizeLine.indexOf(';');
+        int size;
+        try {
+            size = Integer.parseInt((extension < 0 ? sizeLine : sizeLine.substring(0, extension)).trim(), 16);
+        } catch (NumberFormatException ex) {
+            throw new IOException("Invalid chunk size: " + sizeLine);
+        }
+        if (size < 0) {
+            throw new IOException("Invalid chunk size: " + sizeLine);
+        }
+        if (size == 0) {
+            parseHeaders(socketIn); // trailers
+            return null;
+        }
 
-            // Try to parse the string into a JSON ObjectNode
-            return (ObjectNode) new ObjectMapper().readTree(jsonContent);
+        byte[] chunk = socketIn.readNBytes(size);
+        if (chunk.length < size) {
+            throw new EOFException("Connection closed inside chunked payload");
+        }
+        if (!"".equals(readLine(socketIn))) {
+            throw new IOException("Chunk not followed by CRLF");
+        }
+        return chunk;
+    }
+
+    /* Function to parse a payload read from the socket as exactly Content-Length bytes. Follows the same
+     * rules as parseJSON(BufferedReader, ...), but Content-Length is compared as a byte count, so multi-byte
+     * UTF-8 text (e.g. station names) is handled correctly, and the bytes are parsed without first being
+     * decoded to a String. */
+    public static ObjectNode parseJSON(byte[] body, String[] errorCode, Map<String, String> headers) {
+        int contentLength = parseContentLength(headers);
+
+        // check content length is not 0
+        if (contentLength < 1) {
+            errorCode[0] = "204 No Content";
+            errorCode[1] = "Empty payload";
+            return null;
+        }
+
+        // check Content-Type is application/json
+        if (!"application/json".equals(headers.get("Content-Type"))) {
+            errorCode[0] = "400 Bad Request";
+            errorCode[1] = "Content-Type is not application/json";
+            return null;
+        }
+
+        if (body.length != contentLength) {
+            errorCode[0] = "400 Bad Request";
+            errorCode[1] = "Incomplete payload received";
+            return null;
+        }
+
+        try {
+            return (ObjectNode) JsonUtils.READER.readTree(body);
         } catch (Exception ex) {
             errorCode[0] = "500 Internal Server Error";
             errorCode[1] = "Invalid JSON: " + ex.getMessage();
             return null;
         }
     }
-}
\ No newline at end of file
+
+    /* Function to parse the payload of a batch PUT into its elements, checked as for parseJSON(byte[], ...).
+     * Accepts a JSON array (Content-Type application/json) or one JSON value per line (application/x-ndjson).
+     * Elements are returned as parsed, the caller checks each is a station object. Returns null on error. */
+    public static List<JsonNode> parseJSONBatch(byte[] body, String[] errorCode, Map<String, String> headers) {
+        int contentLength = parseContentLength(headers);
+
+        // check content length is not 0
+        if (contentLength < 1) {
+            errorCode[0] = "204 No Content";
+            errorCode[1] = "Empty payload";
+            return null;
+        }
+
+        String contentType = headers.get("Content-Type");
+        boolean ndjson = "application/x-ndjson".equals(contentType);
+        if (!ndjson && !"application/json".equals(contentType)) {
+            errorCode[0] = "400 Bad Request";
+            errorCode[1] = "Content-Type is not application/json or application/x-ndjson";
+            return null;
+        }
+
+        if (body.length != contentLength) {
+            errorCode[0] = "400 Bad Request";
+            errorCode[1] = "Incomplete payload received";
+            return null;
+        }
+
+        List<JsonNode> elements = new ArrayList<>();
+        try {
+            if (ndjson) {
+                int start = 0;
+                for (int i = 0; i <= body.length; i++) {
+                    if (i == body.length || body[i] == '\n') {
+                        if (!isBlank(body, start, i)) {
+                            elements.add(JsonUtils.READER.readTree(body, start, i - start));
+                        }
+                        start = i + 1;
+                    }
+                }
+            } else {
+                JsonNode array = JsonUtils.READER.readTree(body);
+                if (!array.isArray()) {
+                    errorCode[0] = "400 Bad Request";
+                    errorCode[1] = "Batch payload is not a JSON array";
+                    return null;
+                }
+                array.forEach(elements::add);
+            }
+        } catch (Exception ex) {
+            errorCode[0] = "500 Internal Server Error";
+            errorCode[1] = "Invalid JSON: " + ex.getMessage();
+            return null;
+        }
+        return elements;
+    }
+
+    // function to check that bytes from start to end (exclusive) are only JSON whitespace, without decoding them
+    private static boolean isBlank(byte[] bytes, int start, int end) {
+        for (int i = start; i < end; i++) {
+            byte b = bytes[i];
+            if (b != ' ' && b != '\t' && b != '\r' && b != '\n') {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /* Function to read Content-Length from headers. Returns 0 if not present, -1 if not a valid number. */
+    public static int parseContentLength(Map<String, String> headers) {
+        String value = headers.get("Content-Length");
+        if (value == null) {
+            return 0;
+        }
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException ex) {
+            return -1;
+        }
+    }
+}
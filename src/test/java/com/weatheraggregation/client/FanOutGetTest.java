@@ -0,0 +1,75 @@
+package com.weatheraggregation.client;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.net.ServerSocket;
+import java.util.List;
+
+import com.weatheraggregation.server.TestServer;
+
+/* the GET client fetching several stations from several servers at once */
+public class FanOutGetTest {
+    @TempDir
+    File dataDir;
+
+    private TestServer serverA;
+    private TestServer serverB;
+
+    @BeforeEach
+    public void startServers() throws Exception {
+        serverA = TestServer.start(new File(dataDir, "a"));
+        serverB = TestServer.start(new File(dataDir, "b"));
+        serverA.put("IDS60901", "{\"id\":\"IDS60901\",\"air_temp\":1.5}");
+        serverA.put("IDS60902", "{\"id\":\"IDS60902\",\"air_temp\":2.5}");
+        serverB.put("IDS60901", "{\"id\":\"IDS60901\",\"air_temp\":11.5}");
+    }
+
+    @AfterEach
+    public void stopServers() {
+        serverA.close();
+        serverB.close();
+    }
+
+    @Test
+    public void testResultsMergedInRequestOrder() {
+        GETClient client = new GETClient(serverA.address() + "," + serverB.address());
+        List<GETClient.FetchResult> results = client.fetch(List.of("IDS60901", "IDS60902"), 4, 2000);
+
+        assertEquals(4, results.size(), "One result per station and server");
+        assertEquals(serverA.port(), results.get(0).server.port);
+        assertEquals(1.5, results.get(0).weatherData.get("IDS60901").get("air_temp").asDouble());
+        assertEquals(serverB.port(), results.get(1).server.port);
+        assertEquals(11.5, results.get(1).weatherData.get("IDS60901").get("air_temp").asDouble());
+        assertEquals("IDS60902", results.get(2).stationID);
+        assertEquals(2.5, results.get(2).weatherData.get("IDS60902").get("air_temp").asDouble());
+        assertNull(results.get(3).weatherData, "A station the server does not hold has no data");
+        assertTrue(results.get(3).statusLine.contains("404"));
+    }
+
+    @Test
+    public void testSlowServerTimesOutConcurrently() throws Exception {
+        // accepts connections (into its backlog) but never answers
+        try (ServerSocket silent = new ServerSocket(0)) {
+            GETClient client = new GETClient(serverA.address() + ",localhost:" + silent.getLocalPort());
+            long start = System.currentTimeMillis();
+            List<GETClient.FetchResult> results = client.fetch(List.of("IDS60901", "IDS60902", ""), 6, 500);
+            long elapsed = System.currentTimeMillis() - start;
+
+            assertEquals(6, results.size());
+            for (GETClient.FetchResult result : results) {
+                if (result.server.port == serverA.port()) {
+                    assertNotNull(result.weatherData, "The answering server's results should not be held up");
+                } else {
+                    assertNull(result.weatherData);
+                    assertNotNull(result.error);
+                }
+            }
+            assertTrue(elapsed < 1400, "The requests to the silent server should time out together, took " + elapsed + "ms");
+        }
+    }
+}
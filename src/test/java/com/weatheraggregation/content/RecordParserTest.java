@@ -0,0 +1,60 @@
+package com.weatheraggregation.content;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.weatheraggregation.utils.JsonUtils;
+
+/* reading multi-record weather data files */
+public class RecordParserTest {
+    private static List<ObjectNode> parse(String data) {
+        List<ObjectNode> records = new ArrayList<>();
+        try (RecordParser parser = new RecordParser(new StringReader(data))) {
+            parser.forEachRemaining(records::add);
+        }
+        return records;
+    }
+
+    @Test
+    public void testRecordsEndAtBlankLinesAndRepeatedIDs() {
+        List<ObjectNode> records = parse("id:A\nair_temp:1.5\n\n\n  \nid:B\nname:Adelaide: West Terrace\nid:C\nno key here\ndewpt:5\n");
+        assertEquals(3, records.size());
+        assertEquals("A", records.get(0).get("id").asText());
+        assertEquals("Adelaide: West Terrace", records.get(1).get("name").asText(), "Only the first : separates the key");
+        assertEquals(5, records.get(2).get("dewpt").asInt());
+        assertFalse(records.get(2).has("no key here"));
+
+        assertTrue(parse("").isEmpty());
+        assertTrue(parse("\n\n").isEmpty());
+    }
+
+    @Test
+    public void testValuesAreClassifiedWithoutParsingAttempts() {
+        ObjectNode record = JsonUtils.createObjectNode();
+        String[][] values = {
+                {"int", "-42"}, {"plus", "+7"}, {"max", "2147483647"}, {"overflow", "2147483648"},
+                {"double", "13.3"}, {"exponent", "-1.5e3"}, {"point", "5."}, {"text", "SA"},
+                {"time", "15/04:00pm"}, {"date", "2023-07-15"}, {"dots", "1.2.3"}, {"bad_exponent", "1.5e"},
+                {"sign", "-"}, {"empty", ""}};
+        for (String[] value : values) {
+            RecordParser.putValue(record, value[0], value[1]);
+        }
+        assertEquals(-42, record.get("int").intValue());
+        assertEquals(7, record.get("plus").intValue());
+        assertTrue(record.get("max").isInt());
+        assertEquals("2147483648", record.get("overflow").asText(), "A whole number out of int range stays text");
+        assertTrue(record.get("overflow").isTextual());
+        assertEquals(13.3, record.get("double").doubleValue());
+        assertEquals(-1500.0, record.get("exponent").doubleValue());
+        assertEquals(5.0, record.get("point").doubleValue());
+        for (String text : new String[] {"text", "time", "date", "dots", "bad_exponent", "sign", "empty"}) {
+            assertTrue(record.get(text).isTextual(), text + " should stay text");
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.weatheraggregation.content;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
+
+import com.weatheraggregation.server.TestServer;
+
+/* a content server streaming a multi-record export to the server in batches */
+public class StreamUploadTest {
+    @TempDir
+    File dataDir;
+
+    private TestServer server;
+
+    @BeforeEach
+    public void startServer() throws InterruptedException {
+        server = TestServer.start(new File(dataDir, "server"), "--max-stations=2000");
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void testStreamRecordsInBatches() throws Exception {
+        // more than two batches of 500, separated by repeated ids only, after a record that has no id
+        int count = 1017;
+        File export = new File(dataDir, "export.txt");
+        try (PrintWriter writer = new PrintWriter(export, StandardCharsets.UTF_8)) {
+            writer.print("air_temp:0.5\n\n");
+            for (int i = 0; i < count; i++) {
+                writer.print("id:IDS" + i + "\nname:Station " + i + "\nair_temp:" + (i % 40) + ".5\n");
+            }
+        }
+
+        ContentServer contentServer = new ContentServer(server.address(), export.getPath());
+        assertEquals(count, contentServer.streamRecords(), "Every record with an id should be stored");
+        assertEquals(count, server.stationCount());
+        assertEquals(16.5, server.station("IDS1016").get("air_temp").asDouble());
+        assertEquals("Station 1016", server.station("IDS1016").get("name").asText());
+    }
+
+    @Test
+    public void testRepeatedStationStartsNextBatch() throws Exception {
+        File export = new File(dataDir, "readings.txt");
+        try (PrintWriter writer = new PrintWriter(export, StandardCharsets.UTF_8)) {
+            for (int i = 0; i < 3; i++) {
+                writer.print("id:IDS60901\nair_temp:" + i + ".5\n\nid:IDS60902\nair_temp:" + i + ".5\n\n");
+            }
+        }
+
+        ContentServer contentServer = new ContentServer(server.address(), export.getPath());
+        assertEquals(6, contentServer.streamRecords(), "Every reading should be stored, one batch per repeat");
+        assertEquals(2.5, server.station("IDS60901").get("air_temp").asDouble(), "The last reading should be kept");
+    }
+}
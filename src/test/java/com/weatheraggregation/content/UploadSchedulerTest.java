@@ -0,0 +1,69 @@
+package com.weatheraggregation.content;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import com.weatheraggregation.server.TestServer;
+
+/* one content server process uploading a directory of station files on a shared scheduler */
+public class UploadSchedulerTest {
+    @TempDir
+    File dataDir;
+
+    private TestServer server;
+
+    @BeforeEach
+    public void startServer() throws InterruptedException {
+        server = TestServer.start(new File(dataDir, "server"));
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.close();
+    }
+
+    @Test
+    public void testUploadsEveryStationAndParsesOnlyChangedFiles() throws Exception {
+        File stations = new File(dataDir, "stations");
+        assertTrue(stations.mkdir());
+        for (int i = 0; i < 6; i++) {
+            Files.writeString(new File(stations, "station" + i).toPath(), "id:IDS6090" + i + "\nair_temp:1.5\n");
+        }
+        File changing = new File(stations, "station0");
+
+        UploadScheduler scheduler = new UploadScheduler(server.address(), 2, 20);
+        scheduler.add(stations.getPath(), 100);
+        scheduler.start();
+        try {
+            for (int i = 0; i < 50 && server.stationCount() < 6; i++) {
+                Thread.sleep(100);
+            }
+            assertEquals(6, server.stationCount(), "Every file in the directory should be uploaded");
+
+            Thread.sleep(500);
+            File unchanged = new File(stations, "station1");
+            assertTrue(scheduler.uploads(unchanged.getPath()) >= 3, "Each file should be uploaded on its interval");
+            assertEquals(1, scheduler.parses(unchanged.getPath()), "An unchanged file should not be parsed again");
+
+            Files.writeString(changing.toPath(), "id:IDS60900\nair_temp:22.5\n");
+            boolean uploaded = false;
+            for (int i = 0; i < 50 && !uploaded; i++) {
+                Thread.sleep(100);
+                JsonNode station = server.station("IDS60900");
+                uploaded = station != null && station.get("air_temp").asDouble() == 22.5;
+            }
+            assertTrue(uploaded, "A changed file should be parsed and uploaded again");
+            assertEquals(2, scheduler.parses(changing.getPath()));
+        } finally {
+            scheduler.stop();
+        }
+    }
+}
@@ -0,0 +1,76 @@
+package com.weatheraggregation.content;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import com.weatheraggregation.server.TestServer;
+
+/* the content server's watch mode: uploading changes and sending heartbeats in between */
+public class WatchTest {
+    @TempDir
+    File dataDir;
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private TestServer server;
+
+    @BeforeEach
+    public void startServer() throws InterruptedException {
+        server = TestServer.start(new File(dataDir, "server"));
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.close();
+        executor.shutdownNow();
+    }
+
+    @Test
+    public void testWatchUploadsChangesAndSendsHeartbeats() throws Exception {
+        File dataFile = new File(dataDir, "station.txt");
+        Files.writeString(dataFile.toPath(), "id:IDS60901\nair_temp:1.5\n");
+        ContentServer contentServer = new ContentServer(server.address(), dataFile.getPath());
+        executor.submit(() -> contentServer.watch(300, 50));
+        try {
+            assertTrue(waitForAirTemp(1.5), "The data should be uploaded when watching starts");
+
+            Files.writeString(dataFile.toPath(), "id:IDS60901\nair_temp:2.5\n");
+            assertTrue(waitForAirTemp(2.5), "A change to the file should be uploaded");
+
+            long uploadedAt = server.stationLamportTime("IDS60901");
+            long before = server.clockTime();
+            Thread.sleep(1000);
+            long after = server.clockTime();
+            assertEquals(uploadedAt, server.stationLamportTime("IDS60901"), "Without changes the data should not be sent again");
+            assertTrue(after - before >= 4, "Heartbeats should have been received in the meantime");
+        } finally {
+            contentServer.stopWatching();
+        }
+    }
+
+    @Test
+    public void testHeartbeatMustBeWithinExpiry() {
+        String[] args = {server.address(), "station.txt", "--watch", "--heartbeat=30000"};
+        assertThrows(IllegalArgumentException.class, () -> ContentServer.main(args));
+    }
+
+    private boolean waitForAirTemp(double airTemp) throws InterruptedException {
+        for (int i = 0; i < 50; i++) {
+            JsonNode station = server.station("IDS60901");
+            if (station != null && station.get("air_temp").asDouble() == airTemp) {
+                return true;
+            }
+            Thread.sleep(100);
+        }
+        return false;
+    }
+}
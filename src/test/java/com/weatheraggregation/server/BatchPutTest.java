@@ -0,0 +1,97 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import com.weatheraggregation.utils.JsonUtils;
+
+/* batch PUTs to /weather through handleRequest */
+public class BatchPutTest {
+    @TempDir
+    File dataDir;
+
+    private AggregationServer server;
+
+    @BeforeEach
+    public void startServer() {
+        server = TestRequests.server(dataDir);
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.shutdown();
+    }
+
+    private static Request put(String resource, String contentType, String body) throws Exception {
+        return TestRequests.request("PUT " + resource + " HTTP/1.1", body, "Lamport-Time", "5", "Content-Type", contentType);
+    }
+
+    @Test
+    public void testArrayBatchReportsEachStation() throws Exception {
+        server.handleRequest(put("/weather/IDS60901", "application/json", "{\"id\":\"IDS60901\",\"air_temp\":1.5}"));
+        long before = server.handleRequest(put("/weather/IDS60901", "application/json", "{\"id\":\"IDS60901\"}")).lamportTime;
+
+        Response response = server.handleRequest(put("/weather", "application/json",
+                "[{\"id\":\"IDS60901\",\"air_temp\":13.3},{\"id\":\"IDS60902\",\"air_temp\":23.3},{\"air_temp\":1},"
+                + "{\"id\":\"IDS60903\"}]"));
+        assertEquals("200 OK", response.status);
+        assertEquals(before + 2, response.lamportTime, "The whole batch should be received and answered with one tick each");
+
+        JsonNode results = JsonUtils.READER.readTree(response.body);
+        assertEquals(4, results.size(), "Every element should have a result");
+        assertEquals("200 OK", results.get(0).get("status").asText());
+        assertEquals("201 Created", results.get(1).get("status").asText());
+        assertEquals("400 Bad Request", results.get(2).get("status").asText(), "An element without an ID is rejected");
+        assertTrue(results.get(2).get("id").isNull());
+        assertEquals("201 Created", results.get(3).get("status").asText());
+
+        assertEquals(3, server.weatherDataMap.size());
+        assertEquals(13.3, server.weatherDataMap.get("IDS60901").get("air_temp").asDouble());
+        assertEquals(23.3, server.weatherDataMap.get("IDS60902").get("air_temp").asDouble());
+    }
+
+    @Test
+    public void testNdjsonBatch() throws Exception {
+        Response response = server.handleRequest(put("/weather", "application/x-ndjson",
+                "{\"id\":\"IDS60901\",\"air_temp\":1.0}\n{\"id\":\"IDS60901\",\"air_temp\":2.0}\n{\"id\":\"IDS60902\"}\n"));
+        assertEquals("200 OK", response.status);
+
+        JsonNode results = JsonUtils.READER.readTree(response.body);
+        assertEquals("201 Created", results.get(0).get("status").asText());
+        assertEquals("400 Bad Request", results.get(1).get("status").asText(), "A station may appear once per batch");
+        assertEquals("IDS60901", results.get(1).get("id").asText());
+        assertEquals("201 Created", results.get(2).get("status").asText());
+        assertEquals(1.0, server.weatherDataMap.get("IDS60901").get("air_temp").asDouble(), "The first element is kept");
+        assertEquals(server.weatherDataMap.current().get("IDS60901").lamportTime,
+                server.weatherDataMap.current().get("IDS60902").lamportTime);
+
+        assertEquals("500 Internal Server Error", server.handleRequest(put("/weather", "application/x-ndjson", "{\"id\":")).status);
+        assertEquals("400 Bad Request", server.handleRequest(put("/weather", "text/plain", "[]")).status);
+    }
+
+    @Test
+    public void testUnsafeStationIDsAreRejected() throws Exception {
+        String longID = "X".repeat(AggregationServer.MAX_STATION_ID_LENGTH + 1);
+        Response response = server.handleRequest(put("/weather", "application/json",
+                "[{\"id\":\"../escaped\"},{\"id\":\"station_ids\"},{\"id\":\"a\\\\b\"},{\"id\":\"" + longID + "\"},"
+                + "{\"id\":\"IDS60901\"}]"));
+        JsonNode results = JsonUtils.READER.readTree(response.body);
+        for (int i = 0; i < 4; i++) {
+            assertEquals("400 Bad Request", results.get(i).get("status").asText(), "Element " + i + " should be rejected");
+        }
+        assertEquals("201 Created", results.get(4).get("status").asText());
+        assertEquals(1, server.weatherDataMap.size());
+        assertFalse(new File(dataDir.getParentFile(), "escaped").exists(), "Nothing may be written outside the data directory");
+
+        assertEquals("400 Bad Request", server.handleRequest(put("/weather/..", "application/json", "{\"id\":\"..\"}")).status);
+        assertEquals("400 Bad Request", server.handleRequest(put("/weather/station_ids", "application/json", "{\"id\":\"station_ids\"}")).status);
+        assertEquals("400 Bad Request", server.handleRequest(put("/weather/" + longID, "application/json", "{}")).status);
+    }
+}
@@ -0,0 +1,68 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CapacityIndexTest {
+    @Test
+    public void testLeastRecentlyUpdatedEvictedForCount() {
+        CapacityIndex capacity = new CapacityIndex(2, Long.MAX_VALUE);
+        capacity.record("IDS60901", 10, 1000);
+        capacity.record("IDS60902", 10, 2000);
+        assertNull(capacity.victim(), "Nothing should be evicted within capacity");
+
+        capacity.record("IDS60901", 10, 3000); // refreshed, now the most recent
+        capacity.record("IDS60903", 10, 4000);
+        CapacityIndex.Victim victim = capacity.victim();
+        assertEquals("IDS60902", victim.stationID);
+        assertEquals(2000, victim.timestamp);
+        assertFalse(victim.forBytes);
+
+        capacity.remove("IDS60902");
+        assertNull(capacity.victim());
+    }
+
+    @Test
+    public void testTouchRefreshesWithoutChangingSize() {
+        CapacityIndex capacity = new CapacityIndex(2, Long.MAX_VALUE);
+        capacity.record("IDS60901", 10, 1000);
+        capacity.record("IDS60902", 10, 2000);
+        capacity.touch("IDS60901");
+        capacity.touch("IDS60999"); // not held, ignored
+        capacity.record("IDS60903", 10, 3000);
+        assertEquals("IDS60902", capacity.victim().stationID);
+        assertEquals(30, capacity.totalBytes());
+        assertEquals(3, capacity.size());
+    }
+
+    @Test
+    public void testEvictedForBytes() {
+        CapacityIndex capacity = new CapacityIndex(100, 25);
+        capacity.record("IDS60901", 10, 1000);
+        capacity.record("IDS60902", 10, 2000);
+        assertEquals(20, capacity.totalBytes());
+        assertNull(capacity.victim());
+
+        capacity.record("IDS60902", 20, 3000); // a larger payload replaces the old one
+        assertEquals(30, capacity.totalBytes());
+        CapacityIndex.Victim victim = capacity.victim();
+        assertEquals("IDS60901", victim.stationID);
+        assertTrue(victim.forBytes);
+    }
+
+    @Test
+    public void testLastStationNotEvictedForBytes() {
+        CapacityIndex capacity = new CapacityIndex(100, 5);
+        capacity.record("IDS60901", 10, 1000);
+        assertNull(capacity.victim(), "A single oversized station should still be held");
+        assertEquals(1, capacity.size());
+    }
+
+    @Test
+    public void testByteLimitsBeyondIntRangeAreAccepted() {
+        ServerConfig config = ServerConfig.fromArgs(new String[] {"--max-bytes=4294967296", "--segment-size=3000000000"});
+        assertEquals(4294967296L, config.maxBytes);
+        assertEquals(3000000000L, config.segmentSize);
+        assertThrows(IllegalArgumentException.class, () -> ServerConfig.fromArgs(new String[] {"--max-bytes=0"}));
+    }
+}
@@ -0,0 +1,107 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import com.weatheraggregation.utils.JsonUtils;
+import com.weatheraggregation.utils.LamportClock;
+
+public class ChangeJournalTest {
+    @TempDir
+    File dataDir;
+
+    private static byte[] data(int value) {
+        return ("{\"air_temp\":" + value + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testLatestChangePerStationAfterCursor() throws Exception {
+        LamportClock clock = new LamportClock();
+        ChangeJournal journal = new ChangeJournal(16, clock);
+        assertTrue(journal.since(0).resync, "since=0 always resyncs, restored stations are never recorded");
+
+        long cursor = journal.since(5).cursor;
+        journal.recordPut("IDS60901", data(1), clock.increment());
+        journal.recordPut("IDS60902", data(2), clock.increment());
+        journal.recordPut("IDS60901", data(3), clock.increment());
+        journal.recordRemove("IDS60902", "evict", clock.increment());
+
+        ChangeJournal.Delta delta = journal.since(cursor);
+        assertFalse(delta.resync);
+        assertEquals(2, delta.changes.size(), "Only the latest change of each station is sent");
+        assertEquals("IDS60901", delta.changes.get(0).stationID);
+        assertEquals("IDS60902", delta.changes.get(1).stationID, "Changes are in the order they were recorded");
+
+        JsonNode body = JsonUtils.READER.readTree(ChangeJournal.body(delta));
+        assertEquals(delta.cursor, body.get("cursor").asLong());
+        assertEquals(3, body.get("changes").get(0).get("data").get("air_temp").asInt());
+        assertEquals("evict", body.get("changes").get(1).get("removed").asText());
+        assertFalse(body.get("changes").get(1).has("data"));
+
+        // a change recorded with a Lamport time from before the cursor (a PUT received earlier but stored
+        // later) is still after the cursor
+        long late = clock.getTime() - 2;
+        journal.recordPut("IDS60903", data(4), late);
+        ChangeJournal.Delta next = journal.since(delta.cursor);
+        assertEquals(1, next.changes.size());
+        assertEquals(late, next.changes.get(0).lamportTime);
+        assertTrue(journal.since(next.cursor).changes.isEmpty(), "Following the cursor repeats nothing");
+    }
+
+    @Test
+    public void testResyncOnceCursorDropped() {
+        LamportClock clock = new LamportClock();
+        ChangeJournal journal = new ChangeJournal(4, clock);
+        long cursor = journal.since(1).cursor;
+        for (int i = 0; i < 10; i++) {
+            journal.recordPut("IDS" + i, data(i), clock.increment());
+        }
+        assertTrue(journal.since(cursor).resync, "Changes after the cursor have been dropped");
+        ChangeJournal.Delta recent = journal.since(clock.getTime() - 3);
+        assertFalse(recent.resync);
+        assertEquals(2, recent.changes.size());
+    }
+
+    @Test
+    public void testChangesEndpoint() throws Exception {
+        AggregationServer server = TestRequests.server(dataDir, "--max-stations=2");
+        try {
+            put(server, "IDS60901", 1.5);
+            JsonNode resync = JsonUtils.READER.readTree(get(server, "/weather/changes").body);
+            assertTrue(resync.get("resync").asBoolean());
+            assertEquals(1.5, resync.get("stations").get("IDS60901").get("air_temp").asDouble());
+            long cursor = resync.get("cursor").asLong();
+
+            put(server, "IDS60902", 2.5);
+            put(server, "IDS60903", 3.5); // evicts IDS60901
+            JsonNode delta = JsonUtils.READER.readTree(get(server, "/weather/changes?since=" + cursor).body);
+            assertFalse(delta.get("resync").asBoolean());
+            JsonNode changes = delta.get("changes");
+            assertEquals(3, changes.size());
+            assertEquals("IDS60902", changes.get(0).get("id").asText());
+            assertEquals(3.5, changes.get(1).get("data").get("air_temp").asDouble());
+            assertEquals("IDS60901", changes.get(2).get("id").asText());
+            assertEquals("evict", changes.get(2).get("removed").asText());
+
+            assertEquals("400 Bad Request", get(server, "/weather/changes?since=x").status);
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    private static Response get(AggregationServer server, String resource) throws Exception {
+        return server.handleRequest(TestRequests.request("GET " + resource + " HTTP/1.1", ""));
+    }
+
+    private static void put(AggregationServer server, String stationID, double airTemp) throws Exception {
+        Request request = TestRequests.request("PUT /weather/" + stationID + " HTTP/1.1",
+                "{\"id\":\"" + stationID + "\",\"air_temp\":" + airTemp + "}");
+        assertTrue(server.handleRequest(request).status.startsWith("20"));
+    }
+}
@@ -0,0 +1,104 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import com.weatheraggregation.utils.ClientConnection;
+import com.weatheraggregation.utils.JsonUtils;
+import com.weatheraggregation.utils.ParsingUtils;
+import com.weatheraggregation.utils.ServerData;
+
+/* all-stations GETs streamed with Transfer-Encoding: chunked */
+public class ChunkedResponseTest {
+    private static final int STATIONS = 20;
+
+    @TempDir
+    File dataDir;
+
+    private AggregationServer server;
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        server = TestRequests.server(dataDir, "0", "--engine=nio"); // an ephemeral port, if the test listens
+
+        // stations with long names, so the document spans several chunks
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < STATIONS; i++) {
+            batch.append(i == 0 ? "" : ",").append("{\"id\":\"IDS").append(60900 + i).append("\",\"name\":\"")
+                    .append("x".repeat(1000)).append("\",\"air_temp\":").append(i).append(".5}");
+        }
+        byte[] body = batch.append("]").toString().getBytes(StandardCharsets.UTF_8);
+        assertEquals("200 OK", server.handleRequest(TestRequests.request("PUT /weather HTTP/1.1", body)).status);
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.shutdown();
+    }
+
+    @Test
+    public void testAllStationsStreamedInChunks() throws Exception {
+        JsonNode expected = JsonUtils.READER.readTree(server.weatherDataMap.current().allStations());
+        assertEquals(STATIONS, expected.size());
+
+        Response response = server.handleRequest(TestRequests.request("GET /weather HTTP/1.1", ""));
+        assertTrue(response.isStreamed(), "HTTP/1.1 clients should be sent all stations chunked");
+        List<byte[]> output = new ArrayList<>();
+        response.encode(true).forEachRemaining(output::add);
+        assertTrue(output.size() > 3, "Head, more than one data chunk and the last chunk should be written separately");
+
+        InputStream in = new ByteArrayInputStream(output.stream().reduce(new byte[0], ChunkedResponseTest::concat));
+        assertEquals("HTTP/1.1 200 OK", ParsingUtils.readLine(in));
+        Map<String, String> headers = ParsingUtils.parseHeaders(in);
+        assertEquals("chunked", headers.get("Transfer-Encoding"));
+        assertNull(headers.get("Content-Length"));
+        assertEquals(expected, JsonUtils.READER.readTree(ParsingUtils.readChunkedBody(in)));
+
+        Response http10 = server.handleRequest(TestRequests.request("GET /weather HTTP/1.0", ""));
+        assertFalse(http10.isStreamed(), "HTTP/1.0 clients cannot decode chunked payloads");
+        assertEquals(expected, JsonUtils.READER.readTree(http10.body));
+    }
+
+    @Test
+    public void testClientReadsChunkedReplyFromNioEngine() throws Exception {
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+        executor.submit(() -> {
+            try {
+                server.start();
+            } catch (Exception ex) {
+                System.out.println("Failed to start AS server for testing: " + ex.getMessage());
+            }
+        });
+        int port = server.awaitListening(10_000);
+        assertTrue(port > 0, "The server should start listening");
+
+        try (ClientConnection connection = new ClientConnection(new ServerData("localhost:" + port))) {
+            byte[] get = "GET /weather HTTP/1.1\r\nLamport-Time: 1\r\n\r\n".getBytes(StandardCharsets.UTF_8);
+            for (int i = 0; i < 2; i++) { // the connection should still be usable after a chunked reply
+                ClientConnection.Reply reply = connection.send(get);
+                assertEquals("200", reply.status);
+                assertEquals(String.valueOf(reply.body.length), reply.headers.get("Content-Length"));
+                assertEquals(STATIONS, JsonUtils.READER.readTree(reply.body).size());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    private static byte[] concat(byte[] a, byte[] b) {
+        byte[] joined = Arrays.copyOf(a, a.length + b.length);
+        System.arraycopy(b, 0, joined, a.length, b.length);
+        return joined;
+    }
+}
@@ -0,0 +1,54 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.weatheraggregation.content.ContentServer;
+import com.weatheraggregation.utils.JsonUtils;
+
+public class CompactObservationTest {
+    @Test
+    public void testKnownFieldsWrittenAsJacksonWould() throws Exception {
+        ObjectNode weatherData = JsonUtils.createObjectNode();
+        ContentServer.parseFileJSON(weatherData, "data/data1");
+        assertTrue(weatherData.size() > 10, "Sample data should have been read");
+
+        byte[] expected = JsonUtils.WRITER.writeValueAsBytes(weatherData);
+        assertEquals(new String(expected, StandardCharsets.UTF_8),
+                new String(CompactObservation.of(weatherData).toBytes(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testUnknownFieldsAndTypesKeptInOverflow() throws Exception {
+        String json = "{\"id\":\"IDS60901\",\"air_temp\":13,\"gusts\":[1.5,2],\"name\":\"Quote \\\" \\u00e9\","
+                + "\"uv\":null,\"rel_hum\":60}";
+        ObjectNode weatherData = (ObjectNode) JsonUtils.READER.readTree(json);
+
+        byte[] compact = CompactObservation.of(weatherData).toBytes();
+        // air_temp is an integer here, not the expected decimal, so it is kept in the overflow area
+        assertEquals(weatherData, JsonUtils.READER.readTree(compact), "No field or type should be lost");
+        assertEquals("{\"id\":\"IDS60901\",\"air_temp\":13,\"gusts\":[1.5,2],\"uv\":null,"
+                + "\"name\":\"Quote \\\" \u00e9\",\"rel_hum\":60}", new String(compact, StandardCharsets.UTF_8),
+                "Overflow fields should be written together where the first appeared");
+    }
+
+    @Test
+    public void testCompactStoreServesSameDocuments() throws Exception {
+        StationStore bytes = new StationStore(10, ServerConfig.Storage.BYTES);
+        StationStore compact = new StationStore(10, ServerConfig.Storage.COMPACT);
+        for (String file : new String[] {"data/data1", "data/data2", "data/data3"}) {
+            ObjectNode weatherData = JsonUtils.createObjectNode();
+            ContentServer.parseFileJSON(weatherData, file);
+            String stationID = weatherData.get("id").asText();
+            assertArrayEquals(bytes.put(stationID, weatherData, 1000, 1), compact.put(stationID, weatherData, 1000, 1));
+            assertArrayEquals(bytes.current().station(stationID), compact.current().station(stationID));
+            assertEquals(bytes.get(stationID), compact.get(stationID));
+        }
+        assertEquals(JsonUtils.READER.readTree(bytes.current().allStations()),
+                JsonUtils.READER.readTree(compact.current().allStations()));
+    }
+}
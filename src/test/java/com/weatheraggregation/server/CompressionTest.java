@@ -0,0 +1,87 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import com.weatheraggregation.utils.ContentCoding;
+import com.weatheraggregation.utils.JsonUtils;
+import com.weatheraggregation.utils.ParsingUtils;
+
+/* Accept-Encoding negotiation for GETs and compressed PUT payloads */
+public class CompressionTest {
+    private static final int STATIONS = 10;
+
+    @TempDir
+    File dataDir;
+
+    private AggregationServer server;
+
+    @BeforeEach
+    public void startServer() throws Exception {
+        server = TestRequests.server(dataDir, "--compression-threshold=512");
+
+        // a gzipped batch PUT, as sent by the Content Server
+        StringBuilder batch = new StringBuilder("[");
+        for (int i = 0; i < STATIONS; i++) {
+            batch.append(i == 0 ? "" : ",").append("{\"id\":\"IDS").append(60900 + i)
+                    .append("\",\"name\":\"Adelaide (West Terrace / ngayirdapira)\",\"air_temp\":").append(i).append(".5}");
+        }
+        byte[] body = ContentCoding.GZIP.encode(batch.append("]").toString().getBytes(StandardCharsets.UTF_8));
+        assertEquals("200 OK", server.handleRequest(
+                TestRequests.request("PUT /weather HTTP/1.1", body, "Content-Encoding", "gzip")).status);
+        assertEquals(STATIONS, server.weatherDataMap.size(), "The compressed batch should have been stored");
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.shutdown();
+    }
+
+    private Response get(String requestLine, String acceptEncoding) throws IOException {
+        return server.handleRequest(TestRequests.request(requestLine, "", "Accept-Encoding", acceptEncoding));
+    }
+
+    @Test
+    public void testGetsNegotiateCompression() throws Exception {
+        JsonNode expected = JsonUtils.READER.readTree(server.weatherDataMap.current().allStations());
+
+        // held payload, above the threshold: compressed once and cached
+        Response held = get("GET /weather HTTP/1.0", "deflate");
+        assertEquals(ContentCoding.DEFLATE, held.coding);
+        assertEquals(expected, JsonUtils.READER.readTree(ContentCoding.DEFLATE.decode(held.body, 1 << 20)));
+        assertSame(held.body, get("GET /weather HTTP/1.0", "deflate").body, "The compressed body should be cached");
+
+        // streamed payload, compressed as it is chunked
+        InputStream in = new ByteArrayInputStream(get("GET /weather HTTP/1.1", "gzip").toBytes(true));
+        assertEquals("HTTP/1.1 200 OK", ParsingUtils.readLine(in));
+        Map<String, String> headers = ParsingUtils.parseHeaders(in);
+        assertEquals("gzip", headers.get("Content-Encoding"));
+        assertEquals("chunked", headers.get("Transfer-Encoding"));
+        byte[] decoded = ContentCoding.GZIP.decode(ParsingUtils.readChunkedBody(in), 1 << 20);
+        assertEquals(expected, JsonUtils.READER.readTree(decoded));
+
+        // a single station is below the threshold, and a client not asking for compression never gets it
+        assertNull(get("GET /weather/IDS60901 HTTP/1.1", "gzip").coding);
+        assertNull(get("GET /weather HTTP/1.0", "identity").coding);
+    }
+
+    @Test
+    public void testInvalidCompressedPuts() throws Exception {
+        byte[] body = "{\"id\":\"IDS60901\"}".getBytes(StandardCharsets.UTF_8);
+        assertEquals("415 Unsupported Media Type", server.handleRequest(
+                TestRequests.request("PUT /weather/IDS60901 HTTP/1.1", body, "Content-Encoding", "br")).status);
+
+        assertEquals("400 Bad Request", server.handleRequest(
+                TestRequests.request("PUT /weather/IDS60901 HTTP/1.1", body, "Content-Encoding", "gzip")).status,
+                "A payload that is not valid gzip should be rejected");
+    }
+}
@@ -0,0 +1,92 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+
+import com.weatheraggregation.utils.ParsingUtils;
+
+/* ETags and If-None-Match */
+public class ConditionalGetTest {
+    @TempDir
+    File dataDir;
+
+    private AggregationServer server;
+
+    @BeforeEach
+    public void startServer() {
+        server = TestRequests.server(dataDir);
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.shutdown();
+    }
+
+    private Response request(String method, String resource, String ifNoneMatch, String body) throws IOException {
+        String requestLine = method + " " + resource + " HTTP/1.1";
+        if (ifNoneMatch != null) {
+            return server.handleRequest(TestRequests.request(requestLine, body, "If-None-Match", ifNoneMatch));
+        }
+        return server.handleRequest(TestRequests.request(requestLine, body));
+    }
+
+    private void put(String stationID, double airTemp) throws IOException {
+        request("PUT", "/weather/" + stationID, null, "{\"id\":\"" + stationID + "\",\"air_temp\":" + airTemp + "}");
+    }
+
+    @Test
+    public void testUnchangedStationAnswered304() throws Exception {
+        put("IDS60901", 1.5);
+        put("IDS60902", 2.5);
+
+        Response first = request("GET", "/weather/IDS60901", null, "");
+        assertEquals("200 OK", first.status);
+        assertNotNull(first.etag);
+
+        Response unchanged = request("GET", "/weather/IDS60901", first.etag, "");
+        assertEquals("304 Not Modified", unchanged.status);
+        assertEquals(first.etag, unchanged.etag);
+        assertEquals(0, unchanged.body.length);
+        String head = new String(unchanged.toBytes(true), StandardCharsets.UTF_8);
+        assertTrue(head.contains("ETag: " + first.etag + "\r\n"));
+        assertFalse(head.contains("Content-Length"), "A 304 should not describe a payload");
+
+        // a PUT to another station leaves this station's version alone, but not the collection's
+        Response all = request("GET", "/weather", null, "");
+        put("IDS60902", 3.5);
+        assertEquals("304 Not Modified", request("GET", "/weather/IDS60901", first.etag, "").status);
+        assertEquals("200 OK", request("GET", "/weather", all.etag, "").status);
+
+        put("IDS60901", 4.5);
+        Response changed = request("GET", "/weather/IDS60901", "\"other\", " + first.etag, "");
+        assertEquals("200 OK", changed.status, "A changed station should be sent again");
+        assertNotEquals(first.etag, changed.etag);
+    }
+
+    @Test
+    public void testCollectionETagAndMatching() throws Exception {
+        put("IDS60901", 1.5);
+        Response all = request("GET", "/weather", null, "");
+        assertTrue(all.isStreamed());
+        assertEquals("304 Not Modified", request("GET", "/weather", all.etag, "").status);
+
+        // a batch changes the collection ETag even though its stations share one Lamport time
+        request("PUT", "/weather", null, "[{\"id\":\"IDS60902\"},{\"id\":\"IDS60903\"}]");
+        Response afterBatch = request("GET", "/weather", all.etag, "");
+        assertEquals("200 OK", afterBatch.status);
+        InputStream in = new ByteArrayInputStream(afterBatch.toBytes(true));
+        ParsingUtils.readLine(in);
+        assertEquals(afterBatch.etag, ParsingUtils.parseHeaders(in).get("ETag"), "Streamed responses carry the ETag too");
+
+        assertTrue(AggregationServer.etagMatches("*", "W/\"a-1\""));
+        assertTrue(AggregationServer.etagMatches("\"a-1\"", "W/\"a-1\""), "If-None-Match uses weak comparison");
+        assertFalse(AggregationServer.etagMatches("W/\"a-12\"", "W/\"a-1\""));
+        assertFalse(AggregationServer.etagMatches(null, "W/\"a-1\""));
+    }
+}
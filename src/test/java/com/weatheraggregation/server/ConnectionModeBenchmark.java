@@ -0,0 +1,119 @@
+package com.weatheraggregation.server;
+
+import com.weatheraggregation.utils.ParsingUtils;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/* BENCHMARK COMPARING CONNECTION HANDLING MODES
+ * Not a unit test (not picked up by surefire). Starts a server per mode, seeds one station with a PUT,
+ * then has CLIENTS concurrent clients each send REQUESTS GETs, opening a new connection per request to
+ * stress connection handling. Reports throughput and latency percentiles per mode.
+ * Run from an empty directory as the server writes its station files to the working directory:
+ *   java -cp <classpath> com.weatheraggregation.server.ConnectionModeBenchmark [clients] [requests] */
+public class ConnectionModeBenchmark {
+    private static final String BODY = "{\"id\":\"IDS60901\",\"name\":\"Adelaide\",\"air_temp\":13.3}";
+
+    public static void main(String[] args) throws Exception {
+        int clients = args.length > 0 ? Integer.parseInt(args[0]) : 200;
+        int requests = args.length > 1 ? Integer.parseInt(args[1]) : 50;
+
+        String[][] modes = {
+                {"--handler=thread"},
+                {"--handler=pool", "--pool-threads=16", "--pool-queue=4096"},
+                {"--handler=virtual"},
+                {"--engine=nio"},
+        };
+
+        System.out.printf("%d clients x %d requests, %d cores, Java %s%n",
+                clients, requests, Runtime.getRuntime().availableProcessors(), System.getProperty("java.version"));
+        System.out.printf("%-52s %12s %10s %10s %10s%n", "mode", "req/s", "p50 ms", "p99 ms", "errors");
+
+        int port = 4600;
+        for (String[] mode : modes) {
+            port++;
+            String[] serverArgs = new String[mode.length + 1];
+            serverArgs[0] = String.valueOf(port);
+            System.arraycopy(mode, 0, serverArgs, 1, mode.length);
+            run(String.join(" ", mode), ServerConfig.fromArgs(serverArgs), clients, requests);
+        }
+    }
+
+    private static void run(String name, ServerConfig config, int clients, int requests) throws Exception {
+        AggregationServer server = new AggregationServer(config);
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException ex) {
+                System.out.println("Server failed: " + ex.getMessage());
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        if (server.awaitListening(10_000) < 0) {
+            throw new IllegalStateException("Server did not start on port " + config.port);
+        }
+
+        send(config.port, "PUT /weather/IDS60901 HTTP/1.1\r\n" +
+                "Content-Type: application/json\r\n" +
+                "Content-Length: " + BODY.length() + "\r\n" +
+                "Lamport-Time: 0\r\n\r\n" + BODY);
+
+        String get = "GET /weather/IDS60901 HTTP/1.1\r\nLamport-Time: 1\r\n\r\n";
+        long[] latencies = new long[clients * requests];
+        int[] errors = new int[1];
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService pool = Executors.newFixedThreadPool(clients);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int c = 0; c < clients; c++) {
+            int offset = c * requests;
+            futures.add(pool.submit(() -> {
+                start.await();
+                for (int r = 0; r < requests; r++) {
+                    long begin = System.nanoTime();
+                    try {
+                        if (!send(config.port, get).contains(" 200 ")) {
+                            synchronized (errors) { errors[0]++; }
+                        }
+                    } catch (IOException ex) {
+                        synchronized (errors) { errors[0]++; }
+                    }
+                    latencies[offset + r] = System.nanoTime() - begin;
+                }
+                return null;
+            }));
+        }
+
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Future<?> future : futures) {
+            future.get();
+        }
+        double seconds = (System.nanoTime() - begin) / 1e9;
+        pool.shutdown();
+        server.shutdown();
+
+        Arrays.sort(latencies);
+        System.out.printf("%-52s %12.0f %10.2f %10.2f %10d%n", name, latencies.length / seconds,
+                percentile(latencies, 0.50), percentile(latencies, 0.99), errors[0]);
+    }
+
+    private static double percentile(long[] sorted, double p) {
+        return sorted[(int) Math.min(sorted.length - 1, Math.ceil(p * sorted.length) - 1)] / 1e6;
+    }
+
+    // send one request on a new connection and return the status line
+    private static String send(int port, String request) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String statusLine = ParsingUtils.readLine(in);
+            Map<String, String> headers = ParsingUtils.parseHeaders(in);
+            in.readNBytes(ParsingUtils.parseContentLength(headers));
+            return statusLine == null ? "" : statusLine;
+        }
+    }
+}
@@ -0,0 +1,55 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.time.Duration;
+
+public class EvictionTest {
+    @TempDir
+    File dataDir;
+
+    private AggregationServer server;
+
+    @BeforeEach
+    public void setup() {
+        server = TestRequests.server(dataDir, "--max-stations=2");
+    }
+
+    @AfterEach
+    public void tearDown() {
+        server.shutdown();
+    }
+
+    private Response put(String stationID) throws Exception {
+        return server.handleRequest(TestRequests.request("PUT /weather/" + stationID + " HTTP/1.1",
+                "{\"id\":\"" + stationID + "\",\"air_temp\":1.5}"));
+    }
+
+    @Test
+    public void testEvictsLeastRecentlyUpdated() throws Exception {
+        put("IDS60901");
+        put("IDS60902");
+        put("IDS60903");
+        assertNull(server.weatherDataMap.current().get("IDS60901"));
+        assertNotNull(server.weatherDataMap.current().get("IDS60903"));
+    }
+
+    @Test
+    public void testEvictionSkipsStationNoLongerStored() throws Exception {
+        put("IDS60901");
+        put("IDS60902");
+        // dropped from the store but still indexed, as a PUT that failed to serialise leaves it
+        server.weatherDataMap.remove("IDS60901", 10);
+
+        assertTimeoutPreemptively(Duration.ofSeconds(5), () -> put("IDS60903"),
+                "Eviction must not keep picking a station that is no longer stored");
+        assertEquals(2, server.weatherDataMap.size());
+        assertNotNull(server.weatherDataMap.current().get("IDS60902"));
+        assertNotNull(server.weatherDataMap.current().get("IDS60903"));
+    }
+}
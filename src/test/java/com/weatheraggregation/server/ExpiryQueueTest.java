@@ -0,0 +1,47 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.List;
+
+public class ExpiryQueueTest {
+    @Test
+    public void testExpiresOnlyStationsPastDeadline() {
+        ExpiryQueue expiry = new ExpiryQueue(30000);
+        expiry.schedule("IDS60901", 1000);
+        expiry.schedule("IDS60902", 2000);
+        expiry.schedule("IDS60903", 3000);
+
+        assertEquals(31001, expiry.nextDeadline());
+        assertTrue(expiry.pollExpired(31000).isEmpty(), "Station expires once more than 30s have passed");
+        assertEquals(List.of("IDS60901", "IDS60902"), expiry.pollExpired(32001));
+        assertEquals(1, expiry.size());
+        assertEquals(33001, expiry.nextDeadline());
+    }
+
+    @Test
+    public void testRescheduleMovesStation() {
+        ExpiryQueue expiry = new ExpiryQueue(30000);
+        expiry.schedule("IDS60901", 1000);
+        expiry.schedule("IDS60902", 2000);
+        assertEquals("IDS60901", expiry.oldest());
+
+        expiry.schedule("IDS60901", 5000); // new PUT
+        assertEquals("IDS60902", expiry.oldest());
+        assertEquals(List.of("IDS60902"), expiry.pollExpired(33000));
+        assertEquals(1, expiry.size());
+    }
+
+    @Test
+    public void testRemove() {
+        ExpiryQueue expiry = new ExpiryQueue(30000);
+        expiry.schedule("IDS60901", 1000);
+        expiry.remove("IDS60901");
+        expiry.remove("IDS60902"); // unknown station is ignored
+
+        assertNull(expiry.oldest());
+        assertEquals(Long.MAX_VALUE, expiry.nextDeadline());
+        assertTrue(expiry.pollExpired(Long.MAX_VALUE).isEmpty());
+    }
+}
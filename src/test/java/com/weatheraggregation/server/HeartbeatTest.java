@@ -0,0 +1,57 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+
+/* heartbeats refreshing expiry and eviction order, sent to handleRequest directly. The content server's watch
+ * mode, which sends them, is tested in content.WatchTest. */
+public class HeartbeatTest {
+    @TempDir
+    File dataDir;
+
+    private AggregationServer server;
+
+    @BeforeEach
+    public void createServer() {
+        server = TestRequests.server(new File(dataDir, "server"));
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.shutdown();
+    }
+
+    private Response request(String requestLine, String body) throws Exception {
+        return server.handleRequest(TestRequests.request(requestLine, body));
+    }
+
+    @Test
+    public void testHeartbeatEndpoint() throws Exception {
+        request("PUT /weather/IDS60901 HTTP/1.1", "{\"id\":\"IDS60901\",\"air_temp\":1.5}");
+        long sequence = server.weatherDataMap.current().sequence;
+
+        assertEquals("200 OK", request("PUT /weather/heartbeat?ids=IDS60901 HTTP/1.1", "").status);
+        assertEquals(sequence, server.weatherDataMap.current().sequence, "A heartbeat changes no data");
+        assertEquals("404 Not Found", request("PUT /weather/heartbeat?ids=IDS60901,IDS60999 HTTP/1.1", "").status,
+                "A station that is not held must be sent again");
+        assertEquals("400 Bad Request", request("PUT /weather/heartbeat HTTP/1.1", "").status);
+    }
+
+    @Test
+    public void testHeartbeatDelaysEviction() throws Exception {
+        server.shutdown();
+        server = TestRequests.server(new File(dataDir, "capacity"), "--max-stations=2");
+        request("PUT /weather/IDS60901 HTTP/1.1", "{\"id\":\"IDS60901\",\"air_temp\":1.5}");
+        request("PUT /weather/IDS60902 HTTP/1.1", "{\"id\":\"IDS60902\",\"air_temp\":1.5}");
+        assertEquals("200 OK", request("PUT /weather/heartbeat?ids=IDS60901 HTTP/1.1", "").status);
+        request("PUT /weather/IDS60903 HTTP/1.1", "{\"id\":\"IDS60903\",\"air_temp\":1.5}");
+
+        assertNotNull(server.weatherDataMap.current().get("IDS60901"), "A heartbeating station should be kept");
+        assertNull(server.weatherDataMap.current().get("IDS60902"), "The least recently refreshed station is evicted");
+    }
+}
@@ -0,0 +1,159 @@
+package com.weatheraggregation.server;
+
+import com.weatheraggregation.utils.ParsingUtils;
+
+import org.junit.jupiter.api.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class KeepAliveTest {
+    private static final int BLOCKING_PORT = 4571;
+    private static final int NIO_PORT = 4572;
+    private static final int[] PORTS = {BLOCKING_PORT, NIO_PORT}; // each test runs against both engines
+
+    @BeforeAll
+    public static void setup() {
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        startServer(executor, String.valueOf(BLOCKING_PORT), "--max-requests=3", "--keep-alive-timeout=500");
+        startServer(executor, String.valueOf(NIO_PORT), "--engine=nio", "--max-requests=3", "--keep-alive-timeout=500");
+
+        // allow time for servers to start up before running tests
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException ex) {
+            System.out.println("Error waiting for AS to start up: " + ex.getMessage());
+        }
+    }
+
+    private static void startServer(ExecutorService executor, String... args) {
+        AggregationServer server = new AggregationServer(ServerConfig.fromArgs(args));
+        executor.submit(() -> {
+            try {
+                server.start();
+            } catch (Exception ex) {
+                System.out.println("Failed to start AS server for testing: " + ex.getMessage());
+            }
+        });
+    }
+
+    // read one response from the stream, returning the status line and Connection header
+    private static String[] readResponse(InputStream in) throws IOException {
+        String statusLine = ParsingUtils.readLine(in);
+        Map<String, String> headers = ParsingUtils.parseHeaders(in);
+        in.readNBytes(ParsingUtils.parseContentLength(headers));
+        return new String[] {statusLine, headers.get("Connection")};
+    }
+
+    @Test
+    public void testPipelinedRequestsAnsweredInOrder() throws Exception {
+        for (int port : PORTS) {
+            pipelinedRequestsAnsweredInOrder(port);
+        }
+    }
+
+    private void pipelinedRequestsAnsweredInOrder(int port) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            // send three requests in a single write: invalid method, invalid resource, invalid method
+            String pipelined =
+                    "DELETE /weather HTTP/1.1\r\nLamport-Time: 1\r\n\r\n" +
+                    "PUT /invalid HTTP/1.1\r\nLamport-Time: 2\r\n\r\n" +
+                    "DELETE /weather HTTP/1.1\r\nLamport-Time: 3\r\n\r\n";
+            socket.getOutputStream().write(pipelined.getBytes(StandardCharsets.UTF_8));
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String[] first = readResponse(in);
+            String[] second = readResponse(in);
+            String[] third = readResponse(in);
+
+            assertEquals("HTTP/1.1 400 Bad Request", first[0]);
+            assertEquals("keep-alive", first[1]);
+            assertEquals("HTTP/1.1 404 Not Found", second[0], "Responses should be in request order");
+            assertEquals("HTTP/1.1 400 Bad Request", third[0]);
+            assertEquals("close", third[1], "Connection should close after --max-requests requests");
+            assertEquals(-1, in.read(), "Server should have closed the connection");
+        }
+    }
+
+    @Test
+    public void testConnectionCloseHeader() throws Exception {
+        for (int port : PORTS) {
+            connectionCloseHeader(port);
+        }
+    }
+
+    private void connectionCloseHeader(int port) throws IOException {
+        try (Socket socket = new Socket("localhost", port)) {
+            String request = "DELETE /weather HTTP/1.1\r\nConnection: close\r\nLamport-Time: 1\r\n\r\n";
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            assertEquals("close", readResponse(in)[1]);
+            assertEquals(-1, in.read(), "Server should have closed the connection");
+        }
+    }
+
+    @Test
+    public void testIdleConnectionClosed() throws Exception {
+        for (int port : PORTS) {
+            idleConnectionClosed(port);
+        }
+    }
+
+    private void idleConnectionClosed(int port) throws Exception {
+        try (Socket socket = new Socket("localhost", port)) {
+            socket.setSoTimeout(5000);
+            String request = "DELETE /weather HTTP/1.1\r\nLamport-Time: 1\r\n\r\n";
+            socket.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            assertEquals("keep-alive", readResponse(in)[1]);
+            // idle timeout is 500ms, the NIO sweep runs every second
+            assertEquals(-1, in.read(), "Server should close the connection once idle");
+        }
+    }
+
+    @Test
+    public void testPooledConnectionYieldsToWaitingConnection() throws Exception {
+        AggregationServer server = new AggregationServer(ServerConfig.fromArgs(new String[] {
+                "0", "--handler=pool", "--pool-threads=1", "--pool-queue=4", "--keep-alive-timeout=5000"}));
+        Thread serverThread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (IOException ex) {
+                System.out.println("Failed to start AS server for testing: " + ex.getMessage());
+            }
+        });
+        serverThread.setDaemon(true);
+        serverThread.start();
+        int port = server.awaitListening(5000);
+        String request = "DELETE /weather HTTP/1.1\r\nLamport-Time: 1\r\n\r\n";
+        try (Socket holding = new Socket("localhost", port)) {
+            holding.setSoTimeout(5000);
+            InputStream holdingIn = new BufferedInputStream(holding.getInputStream());
+            holding.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+            assertEquals("keep-alive", readResponse(holdingIn)[1], "Nothing is waiting, so the connection is kept");
+
+            // a second connection is queued behind the first, which holds the only thread
+            try (Socket waiting = new Socket("localhost", port)) {
+                waiting.setSoTimeout(5000);
+                waiting.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+                Thread.sleep(200);
+                holding.getOutputStream().write(request.getBytes(StandardCharsets.UTF_8));
+                assertEquals("close", readResponse(holdingIn)[1], "A connection should give up its thread to a waiting one");
+                assertEquals(-1, holdingIn.read());
+
+                String[] response = readResponse(new BufferedInputStream(waiting.getInputStream()));
+                assertEquals("HTTP/1.1 400 Bad Request", response[0], "The waiting connection should then be served");
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+}
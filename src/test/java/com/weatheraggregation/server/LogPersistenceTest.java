@@ -0,0 +1,114 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class LogPersistenceTest {
+    private static final long RETENTION = 30 * 1000;
+
+    @TempDir
+    File logDir;
+
+    private static byte[] json(String id, double airTemp) {
+        return ("{\"id\":\"" + id + "\",\"air_temp\":" + airTemp + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static Map<String, ObjectNode> load(LogPersistence persistence) {
+        Map<String, ObjectNode> loaded = new HashMap<>();
+        persistence.load((stationID, timestamp, weatherData) -> loaded.put(stationID, weatherData));
+        return loaded;
+    }
+
+    private int segmentCount() {
+        return Objects.requireNonNull(logDir.list((dir, name) -> name.endsWith(".log"))).length;
+    }
+
+    @Test
+    public void testReplayKeepsLatestAndDropsRemoved() {
+        LogPersistence persistence = new LogPersistence(logDir, 1024 * 1024, 4, RETENTION);
+        persistence.recordPut("IDS60901", 1, System.currentTimeMillis(), json("IDS60901", 13.3));
+        persistence.recordPut("IDS60902", 2, System.currentTimeMillis(), json("IDS60902", 23.3));
+        persistence.recordPut("IDS60901", 3, System.currentTimeMillis(), json("IDS60901", 15.0));
+        persistence.recordRemove(Collections.singleton("IDS60902"), 4);
+        persistence.close();
+
+        Map<String, ObjectNode> loaded = load(new LogPersistence(logDir, 1024 * 1024, 4, RETENTION));
+        assertEquals(1, loaded.size(), "Removed station should not be loaded");
+        assertEquals(15.0, loaded.get("IDS60901").get("air_temp").asDouble(), "Latest PUT should win");
+    }
+
+    @Test
+    public void testCompactionPreservesState() {
+        // tiny segments so every record seals a segment, with a threshold too high to compact in the background
+        LogPersistence writer = new LogPersistence(logDir, 1, 100, RETENTION);
+        for (int i = 0; i < 10; i++) {
+            writer.recordPut("IDS6090" + (i % 3), i, System.currentTimeMillis(), json("IDS6090" + (i % 3), i));
+        }
+        writer.recordRemove(Collections.singleton("IDS60902"), 10);
+        writer.close();
+        assertEquals(11, segmentCount());
+
+        LogPersistence persistence = new LogPersistence(logDir, 1, 3, RETENTION);
+        persistence.compactIfNeeded();
+        assertEquals(1, segmentCount(), "Sealed segments should be merged into one");
+        persistence.recordPut("IDS60903", 11, System.currentTimeMillis(), json("IDS60903", 11));
+        persistence.close();
+
+        Map<String, ObjectNode> loaded = load(new LogPersistence(logDir, 1, 3, RETENTION));
+        assertEquals(Set.of("IDS60900", "IDS60901", "IDS60903"), loaded.keySet());
+        assertEquals(9.0, loaded.get("IDS60900").get("air_temp").asDouble());
+        assertEquals(7.0, loaded.get("IDS60901").get("air_temp").asDouble());
+    }
+
+    @Test
+    public void testTornRecordIgnored() throws Exception {
+        LogPersistence persistence = new LogPersistence(logDir, 1024 * 1024, 4, RETENTION);
+        persistence.recordPut("IDS60901", 1, System.currentTimeMillis(), json("IDS60901", 13.3));
+        persistence.recordPut("IDS60902", 2, System.currentTimeMillis(), json("IDS60902", 23.3));
+        persistence.close();
+
+        // cut the last record short, as a crash mid-append would
+        File segment = Objects.requireNonNull(logDir.listFiles())[0];
+        try (RandomAccessFile file = new RandomAccessFile(segment, "rw")) {
+            file.setLength(file.length() - 5);
+        }
+
+        Map<String, ObjectNode> loaded = load(new LogPersistence(logDir, 1024 * 1024, 4, RETENTION));
+        assertEquals(Set.of("IDS60901"), loaded.keySet(), "Records before the torn one should survive");
+    }
+
+    @Test
+    public void testClearRemovesSegments() {
+        LogPersistence persistence = new LogPersistence(logDir, 1024 * 1024, 4, RETENTION);
+        persistence.recordPut("IDS60901", 1, System.currentTimeMillis(), json("IDS60901", 13.3));
+        persistence.clear();
+        persistence.close();
+
+        assertEquals(0, segmentCount());
+        assertTrue(load(new LogPersistence(logDir, 1024 * 1024, 4, RETENTION)).isEmpty());
+    }
+
+    @Test
+    public void testOverlongStationIDIsRefusedNotTruncated() {
+        String accented = "Mél".repeat(32); // 128 bytes but 96 chars, so bytes rather than chars are counted
+        String overlong = "A".repeat(70000);
+        LogPersistence persistence = new LogPersistence(logDir, 1024 * 1024, 4, RETENTION);
+        persistence.recordPut(accented, 1, System.currentTimeMillis(), json("M", 1.5));
+        assertThrows(IllegalArgumentException.class,
+                () -> persistence.recordPut(accented + "x", 2, System.currentTimeMillis(), json("M", 2.5)));
+        assertThrows(IllegalArgumentException.class,
+                () -> persistence.recordPut(overlong, 3, System.currentTimeMillis(), json("A", 3.5)));
+        persistence.close();
+
+        Map<String, ObjectNode> loaded = load(new LogPersistence(logDir, 1024 * 1024, 4, RETENTION));
+        assertEquals(Set.of(accented), loaded.keySet(), "A refused record should not be in the log");
+    }
+}
@@ -0,0 +1,116 @@
+package com.weatheraggregation.server;
+
+import com.weatheraggregation.utils.ParsingUtils;
+
+import org.junit.jupiter.api.*;
+import org.junit.jupiter.api.io.TempDir;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.*;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+public class NioServerTest {
+    private static final int PORT = 4570;
+
+    @TempDir
+    static File dataDir; // the pipelining test stores a station, which should not be left in the working directory
+
+    @BeforeAll
+    public static void setup() {
+        ServerConfig config = ServerConfig.fromArgs(new String[] {String.valueOf(PORT), "--engine=nio", "--event-loops=2",
+                "--data-dir=" + dataDir.getPath()});
+        AggregationServer server = new AggregationServer(config);
+        ExecutorService executor = Executors.newSingleThreadExecutor();
+
+        // start AS server in executor
+        executor.submit(() -> {
+            try {
+                server.start();
+            } catch (Exception ex) {
+                System.out.println("Failed to start NIO AS server for testing: " + ex.getMessage());
+            }
+        });
+
+        // allow time for server to start up before running tests
+        try {
+            Thread.sleep(500);
+        } catch (InterruptedException ex) {
+            System.out.println("Error waiting for AS to start up: " + ex.getMessage());
+        }
+    }
+
+    /* function to send raw request bytes, optionally in two parts, and return status line and headers */
+    private static String[] send(String request, int splitAt) throws IOException {
+        try (Socket socket = new Socket("localhost", PORT)) {
+            OutputStream out = socket.getOutputStream();
+            byte[] bytes = request.getBytes(StandardCharsets.UTF_8);
+            out.write(bytes, 0, splitAt);
+            out.flush();
+            out.write(bytes, splitAt, bytes.length - splitAt);
+            out.flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String statusLine = ParsingUtils.readLine(in);
+            Map<String, String> headers = ParsingUtils.parseHeaders(in);
+            return new String[] {statusLine, headers.get("Lamport-Time")};
+        }
+    }
+
+    @Test
+    public void testInvalidMethodReturns400() throws IOException {
+        String[] response = send("DELETE /weather HTTP/1.1\r\nLamport-Time: 1\r\n\r\n", 10);
+        assertEquals("HTTP/1.1 400 Bad Request", response[0]);
+        assertNotNull(response[1], "Response should carry a Lamport-Time header");
+    }
+
+    @Test
+    public void testInvalidResourceReturns404() throws IOException {
+        String body = "{\"id\":\"IDS60901\"}";
+        String request = "PUT /invalid HTTP/1.1\r\n" +
+                "Content-Type: application/json\r\n" +
+                "Content-Length: " + body.length() + "\r\n" +
+                "Lamport-Time: 1\r\n\r\n" + body;
+
+        // split request part way through the headers to exercise incremental parsing
+        String[] response = send(request, 20);
+        assertEquals("HTTP/1.1 404 Not Found", response[0]);
+    }
+
+    @Test
+    public void testMalformedRequestReturns400() throws IOException {
+        String[] response = send("PUT /weather/IDS60901 HTTP/1.1\r\nContent-Length: -5\r\n\r\n", 5);
+        assertEquals("HTTP/1.1 400 Bad Request", response[0]);
+    }
+
+    @Test
+    public void testPipelinedPutsAndGetsAnsweredInOrder() throws IOException {
+        // PUTs are handled on a worker, GETs on the event loop: each GET must still see the PUT sent before it
+        StringBuilder request = new StringBuilder();
+        for (String airTemp : new String[] {"1.5", "2.5"}) {
+            String body = "{\"id\":\"IDS60911\",\"air_temp\":" + airTemp + "}";
+            request.append("PUT /weather/IDS60911 HTTP/1.1\r\nContent-Type: application/json\r\nContent-Length: ")
+                    .append(body.length()).append("\r\nLamport-Time: 1\r\n\r\n").append(body)
+                    .append("GET /weather/IDS60911 HTTP/1.1\r\nLamport-Time: 1\r\n\r\n");
+        }
+        try (Socket socket = new Socket("localhost", PORT)) {
+            socket.getOutputStream().write(request.toString().getBytes(StandardCharsets.UTF_8));
+            socket.getOutputStream().flush();
+
+            InputStream in = new BufferedInputStream(socket.getInputStream());
+            String[] airTemps = {"1.5", "2.5"};
+            for (String airTemp : airTemps) {
+                assertTrue(ParsingUtils.readLine(in).matches("HTTP/1.1 20[01] .*"), "PUT should succeed");
+                in.readNBytes(ParsingUtils.parseContentLength(ParsingUtils.parseHeaders(in)));
+                assertEquals("HTTP/1.1 200 OK", ParsingUtils.readLine(in));
+                byte[] body = in.readNBytes(ParsingUtils.parseContentLength(ParsingUtils.parseHeaders(in)));
+                assertTrue(new String(body, StandardCharsets.UTF_8).contains("\"air_temp\":" + airTemp),
+                        "The GET should follow the PUT before it");
+            }
+        }
+    }
+}
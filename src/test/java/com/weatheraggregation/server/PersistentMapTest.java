@@ -0,0 +1,61 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.util.*;
+
+public class PersistentMapTest {
+    @Test
+    public void testMatchesHashMapAndLeavesOldVersionsUnchanged() {
+        Random random = new Random(42);
+        Map<String, Integer> expected = new HashMap<>();
+        PersistentMap<String, Integer> map = PersistentMap.empty();
+        for (int i = 0; i < 5000; i++) {
+            String key = "STATION" + random.nextInt(500);
+            PersistentMap<String, Integer> before = map;
+            int beforeSize = before.size();
+            Integer beforeValue = before.get(key);
+            if (random.nextInt(3) == 0) {
+                expected.remove(key);
+                map = map.minus(key);
+            } else {
+                expected.put(key, i);
+                map = map.plus(key, i);
+            }
+            assertEquals(expected.size(), map.size());
+            assertEquals(expected.get(key), map.get(key));
+            assertEquals(beforeSize, before.size(), "Previous version should not change");
+            assertEquals(beforeValue, before.get(key), "Previous version should not change");
+        }
+
+        Map<String, Integer> contents = new HashMap<>();
+        map.forEach(contents::put);
+        assertEquals(expected, contents);
+
+        List<Integer> forEachOrder = new ArrayList<>();
+        map.forEach((key, value) -> forEachOrder.add(value));
+        List<Integer> iterated = new ArrayList<>();
+        map.values().forEachRemaining(iterated::add);
+        assertEquals(forEachOrder, iterated, "values() should visit every value in forEach order");
+        assertFalse(PersistentMap.empty().values().hasNext());
+    }
+
+    @Test
+    public void testKeysWithEqualHashes() {
+        assertEquals("Aa".hashCode(), "BB".hashCode());
+        PersistentMap<String, Integer> map = PersistentMap.<String, Integer>empty().plus("Aa", 1).plus("BB", 2).plus("C", 3);
+        assertEquals(3, map.size());
+        assertEquals(1, map.get("Aa"));
+        assertEquals(2, map.get("BB"));
+        Set<Integer> values = new HashSet<>();
+        map.values().forEachRemaining(values::add);
+        assertEquals(Set.of(1, 2, 3), values, "values() should include keys held in a collision node");
+
+        PersistentMap<String, Integer> removed = map.minus("Aa");
+        assertNull(removed.get("Aa"));
+        assertEquals(2, removed.get("BB"));
+        assertTrue(removed.minus("BB").minus("C").isEmpty());
+        assertSame(map, map.minus("missing"), "Removing an absent key should return the same map");
+    }
+}
@@ -0,0 +1,111 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import com.weatheraggregation.utils.JsonUtils;
+
+/* concurrent PUTs to many stations through handleRequest, checking that striped station locks keep each
+ * station's data, cache and clock consistent. Throughput is measured by PutThroughputBenchmark, not here, as
+ * wall-clock timings on a shared test machine are too noisy to assert on. */
+public class PutStressTest {
+    private static final int STATIONS = 16; // below MAX_STATIONS so nothing is evicted
+    static final int PUTS_PER_THREAD = 2000;
+
+    @TempDir
+    File dataDir;
+
+    private static Request put(String stationID, int value) throws Exception {
+        return TestRequests.request("PUT /weather/" + stationID + " HTTP/1.1",
+                "{\"id\":\"" + stationID + "\",\"air_temp\":" + value + "}");
+    }
+
+    /* function to send PUTS_PER_THREAD PUTs from each thread, checking that every PUT succeeds and that each
+     * thread sees strictly increasing Lamport times in its responses */
+    static void run(AggregationServer server, int threads) throws Exception {
+        run(server::handleRequest, threads);
+    }
+
+    // as above, sending each request to handler (e.g. handleRequest under a lock, for comparison)
+    static void run(Function<Request, Response> handler, int threads) throws Exception {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        AtomicInteger failures = new AtomicInteger();
+        AtomicInteger reordered = new AtomicInteger();
+        CountDownLatch start = new CountDownLatch(1);
+        List<Future<?>> futures = new ArrayList<>();
+        for (int t = 0; t < threads; t++) {
+            int thread = t;
+            futures.add(executor.submit(() -> {
+                start.await();
+                long previous = 0;
+                for (int i = 0; i < PUTS_PER_THREAD; i++) {
+                    Response response = handler.apply(put("STRESS" + ((thread + i) % STATIONS), i));
+                    if (!response.status.equals("200 OK") && !response.status.equals("201 Created")) {
+                        failures.incrementAndGet();
+                    }
+                    if (response.lamportTime <= previous) {
+                        reordered.incrementAndGet();
+                    }
+                    previous = response.lamportTime;
+                }
+                return null;
+            }));
+        }
+
+        start.countDown();
+        try {
+            for (Future<?> future : futures) {
+                future.get();
+            }
+        } finally {
+            executor.shutdown();
+        }
+
+        assertEquals(0, failures.get(), "Every PUT should succeed");
+        assertEquals(0, reordered.get(), "Each client should see its Lamport times increase");
+    }
+
+    @Test
+    public void testConcurrentPutsStayConsistent() throws Exception {
+        AggregationServer server = TestRequests.server(dataDir, "--durability=async");
+        try {
+            run(server, 1); // every station exists before the concurrent run
+            int threads = Math.max(4, Runtime.getRuntime().availableProcessors() * 2);
+            long before = server.weatherDataMap.current().sequence;
+            run(server, threads);
+
+            // no PUT was lost: each made exactly one new version
+            StationStore.Version version = server.weatherDataMap.current();
+            assertEquals(before + (long) threads * PUTS_PER_THREAD, version.sequence, "Every PUT should make one version");
+
+            // each station holds a different Lamport time, the latest of which is the version's
+            Set<Long> lamportTimes = new HashSet<>();
+            for (int s = 0; s < STATIONS; s++) {
+                lamportTimes.add(version.get("STRESS" + s).lamportTime);
+            }
+            assertEquals(STATIONS, lamportTimes.size(), "Two PUTs should never share a Lamport time");
+            assertEquals(version.lamportTime, Collections.max(lamportTimes).longValue());
+
+            // the cached GET body must match the stored data for every station
+            assertEquals(STATIONS, server.weatherDataMap.size());
+            for (int s = 0; s < STATIONS; s++) {
+                String stationID = "STRESS" + s;
+                Response response = server.handleRequest(TestRequests.request("GET /weather/" + stationID + " HTTP/1.1", ""));
+                assertEquals("200 OK", response.status);
+                JsonNode cached = JsonUtils.READER.readTree(response.body).get(stationID);
+                assertEquals(server.weatherDataMap.get(stationID), cached, "Cache and data disagree for " + stationID);
+            }
+        } finally {
+            server.shutdown();
+        }
+    }
+}
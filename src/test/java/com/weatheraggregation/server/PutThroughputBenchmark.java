@@ -0,0 +1,71 @@
+package com.weatheraggregation.server;
+
+import java.io.File;
+import java.nio.file.Files;
+import java.util.TreeSet;
+import java.util.function.Function;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* BENCHMARK FOR PUT THROUGHPUT BY THREAD COUNT
+ * Not a unit test (not picked up by surefire). Sends PutStressTest's PUTs through handleRequest from 1, 2, 4 and
+ * 2 x cores threads, and reports PUTs per second for each with the striped station locks and with every request
+ * under one global lock, as PUTs were handled before the locks were striped. The best of ROUNDS runs is kept.
+ * Station data is written to a temporary directory.
+ *   java -cp <classpath> com.weatheraggregation.server.PutThroughputBenchmark */
+public class PutThroughputBenchmark {
+    private static final int ROUNDS = 3;
+    private static final int WARM_UP_ROUNDS = 10;
+
+    public static void main(String[] args) throws Exception {
+        File dataDir = Files.createTempDirectory("put-benchmark").toFile();
+        AggregationServer server = new AggregationServer(ServerConfig.fromArgs(new String[] {
+                "--data-dir=" + dataDir.getPath(), "--durability=async"}));
+        ReentrantLock global = new ReentrantLock();
+        try {
+            for (int round = 0; round < WARM_UP_ROUNDS; round++) {
+                PutStressTest.run(server, 4); // warm up, so later thread counts are not measured on hotter code
+            }
+            int cores = Runtime.getRuntime().availableProcessors();
+            TreeSet<Integer> threadCounts = new TreeSet<>();
+            threadCounts.add(1);
+            threadCounts.add(2);
+            threadCounts.add(4);
+            threadCounts.add(cores * 2);
+
+            System.out.printf("PUT throughput (%d cores, Java %s)%n", cores, System.getProperty("java.version"));
+            System.out.println("threads  global lock/s  striped/s");
+            for (int threads : threadCounts) {
+                double locked = measure(request -> {
+                    global.lock();
+                    try {
+                        return server.handleRequest(request);
+                    } finally {
+                        global.unlock();
+                    }
+                }, threads);
+                double striped = measure(server, threads);
+                System.out.printf("%7d  %13.0f  %9.0f%n", threads, locked, striped);
+            }
+        } finally {
+            server.shutdown();
+        }
+        System.exit(0);
+    }
+
+    // returns PUTs per second with the striped locks
+    private static double measure(AggregationServer server, int threads) throws Exception {
+        return measure(server::handleRequest, threads);
+    }
+
+    // returns PUTs per second, the best of ROUNDS runs
+    private static double measure(Function<Request, Response> handler, int threads) throws Exception {
+        double best = 0;
+        for (int round = 0; round < ROUNDS; round++) {
+            long begin = System.nanoTime();
+            PutStressTest.run(handler, threads);
+            long elapsed = System.nanoTime() - begin;
+            best = Math.max(best, (double) threads * PutStressTest.PUTS_PER_THREAD / (elapsed / 1e9));
+        }
+        return best;
+    }
+}
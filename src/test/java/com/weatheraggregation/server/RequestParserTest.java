@@ -0,0 +1,107 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+public class RequestParserTest {
+    private static final String PUT_REQUEST =
+            "PUT /weather/IDS60901 HTTP/1.1\r\n" +
+            "Content-Type: application/json\r\n" +
+            "Content-Length: 15\r\n" +
+            "Lamport-Time: 3\r\n\r\n" +
+            "{\"id\":\"IDS601\"}";
+
+    @Test
+    public void testParseCompleteRequest() throws IOException {
+        RequestParser parser = new RequestParser();
+        Request request = parser.parse(ByteBuffer.wrap(PUT_REQUEST.getBytes(StandardCharsets.UTF_8)));
+
+        assertNotNull(request, "Complete request should be returned");
+        assertEquals("PUT", request.method);
+        assertEquals("/weather/IDS60901", request.resource);
+        assertEquals("3", request.headers.get("Lamport-Time"));
+        assertEquals("{\"id\":\"IDS601\"}", new String(request.body, StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testParseRequestSplitAcrossReads() throws IOException {
+        RequestParser parser = new RequestParser();
+        byte[] bytes = PUT_REQUEST.getBytes(StandardCharsets.UTF_8);
+
+        // feed one byte at a time, request should only be returned after the final byte
+        Request request = null;
+        for (int i = 0; i < bytes.length; i++) {
+            request = parser.parse(ByteBuffer.wrap(bytes, i, 1));
+            if (i < bytes.length - 1) {
+                assertNull(request, "Request should not be complete after " + (i + 1) + " bytes");
+            }
+        }
+        assertNotNull(request, "Request should be complete after final byte");
+        assertEquals(15, request.body.length);
+    }
+
+    @Test
+    public void testBodyBufferGrowsAsBytesArrive() throws IOException {
+        RequestParser parser = new RequestParser();
+        int length = 1 << 20;
+        String head = "PUT /weather HTTP/1.1\r\nContent-Type: application/json\r\nContent-Length: " + length + "\r\n\r\n";
+        assertNull(parser.parse(ByteBuffer.wrap(head.getBytes(StandardCharsets.UTF_8))));
+        assertTrue(parser.bodyCapacity() < 64 * 1024, "A declared length should not be allocated before it is sent");
+
+        byte[] body = new byte[length];
+        for (int i = 0; i < length; i++) {
+            body[i] = (byte) ('a' + i % 26);
+        }
+        Request request = null;
+        for (int offset = 0; offset < length; offset += 1000) {
+            request = parser.parse(ByteBuffer.wrap(body, offset, Math.min(1000, length - offset)));
+            if (request == null) {
+                assertTrue(parser.bodyCapacity() <= Math.max(16 * 1024, 2 * (offset + 1000)),
+                        "The buffer should grow with the bytes received");
+            }
+        }
+        assertNotNull(request);
+        assertArrayEquals(body, request.body);
+    }
+
+    @Test
+    public void testLeavesNextRequestInBuffer() throws IOException {
+        RequestParser parser = new RequestParser();
+        String next = "GET /weather HTTP/1.1\r\nLamport-Time: 4\r\n\r\n";
+        ByteBuffer buffer = ByteBuffer.wrap((PUT_REQUEST + "\r\n" + next).getBytes(StandardCharsets.UTF_8));
+
+        Request first = parser.parse(buffer);
+        assertEquals("PUT", first.method);
+        assertTrue(buffer.hasRemaining(), "Bytes of the second request should be left in the buffer");
+
+        Request second = parser.parse(buffer);
+        assertNotNull(second, "Second request should be parsed, ignoring the blank line before it");
+        assertEquals("GET", second.method);
+        assertEquals(0, second.body.length);
+    }
+
+    @Test
+    public void testInvalidContentLength() {
+        RequestParser parser = new RequestParser();
+        String request = "PUT /weather/IDS60901 HTTP/1.1\r\nContent-Length: abc\r\n\r\n";
+
+        assertThrows(IOException.class, () -> parser.parse(ByteBuffer.wrap(request.getBytes(StandardCharsets.UTF_8))),
+                "Invalid Content-Length should be rejected");
+    }
+
+    @Test
+    public void testQueryStringSeparatedFromPath() throws IOException {
+        RequestParser parser = new RequestParser();
+        String request = "GET /weather/IDS60901/history?fields=air_temp%2Cpress&from=1&from=2 HTTP/1.1\r\n\r\n";
+        Request parsed = parser.parse(ByteBuffer.wrap(request.getBytes(StandardCharsets.UTF_8)));
+
+        assertEquals("/weather/IDS60901/history", parsed.path);
+        assertEquals("air_temp,press", parsed.query.get("fields"), "Parameters should be decoded");
+        assertEquals("1", parsed.query.get("from"), "A repeated parameter should keep its first value");
+        assertTrue(parser.parse(ByteBuffer.wrap("GET /weather HTTP/1.1\r\n\r\n".getBytes(StandardCharsets.UTF_8))).query.isEmpty());
+    }
+}
@@ -0,0 +1,86 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+public class SnapshotStoreTest {
+    @TempDir
+    File dir;
+
+    private static SnapshotStore.Entry entry(String id, double airTemp) {
+        byte[] json = ("{\"id\":\"" + id + "\",\"air_temp\":" + airTemp + "}").getBytes(StandardCharsets.UTF_8);
+        return new SnapshotStore.Entry(id, 1000, ByteBuffer.wrap(json));
+    }
+
+    @Test
+    public void testRestoredStationsDecodedLazily() {
+        SnapshotStore snapshot = new SnapshotStore(new File(dir, "weather.snapshot"));
+        snapshot.write(5000, List.of(entry("IDS60901", 13.3), entry("IDS60902", 23.3)));
+
+        StationStore stations = new StationStore(10);
+        assertTrue(snapshot.load(4000, (stationID, timestamp, weatherData) ->
+                stations.putSerialised(stationID, weatherData, timestamp, 0)));
+
+        assertEquals(2, stations.size());
+        assertEquals(1000L, stations.current().get("IDS60901").timestamp);
+        assertEquals(23.3, stations.get("IDS60902").get("air_temp").asDouble());
+        assertSame(stations.get("IDS60902"), stations.get("IDS60902"), "Station should only be decoded once");
+        assertEquals("{\"IDS60901\":" + StandardCharsets.UTF_8.decode(entry("IDS60901", 13.3).weatherData) + "}",
+                new String(stations.current().get("IDS60901").body(), StandardCharsets.UTF_8));
+    }
+
+    @Test
+    public void testStaleSnapshotIgnored() {
+        SnapshotStore snapshot = new SnapshotStore(new File(dir, "weather.snapshot"));
+        snapshot.write(5000, List.of(entry("IDS60901", 13.3)));
+
+        // persistence engine was modified after the snapshot was taken
+        assertFalse(snapshot.load(5000, (stationID, timestamp, weatherData) -> fail("Nothing should be loaded")));
+    }
+
+    @Test
+    public void testEachSnapshotWrittenToNewGeneration() {
+        File file = new File(dir, "weather.snapshot");
+        SnapshotStore snapshot = new SnapshotStore(file);
+        snapshot.write(5000, List.of(entry("IDS60901", 13.3)));
+
+        // restart: the stations restored keep slices of generation 1 while generation 2 is written
+        StationStore stations = new StationStore(10);
+        SnapshotStore restarted = new SnapshotStore(file);
+        assertTrue(restarted.load(0, (stationID, timestamp, weatherData) ->
+                stations.putSerialised(stationID, weatherData, timestamp, 0)));
+        restarted.write(6000, List.of(entry("IDS60901", 13.3), entry("IDS60902", 23.3)));
+
+        assertTrue(new File(dir, "weather.snapshot.2").exists());
+        assertFalse(new File(dir, "weather.snapshot.1").exists(), "The older generation should be deleted");
+        assertFalse(file.exists());
+        assertEquals(13.3, stations.get("IDS60901").get("air_temp").asDouble());
+
+        List<String> loaded = new ArrayList<>();
+        assertTrue(new SnapshotStore(file).load(0, (stationID, timestamp, weatherData) -> loaded.add(stationID)));
+        assertEquals(List.of("IDS60901", "IDS60902"), loaded, "The latest generation should be loaded");
+
+        restarted.delete();
+        assertEquals(0, dir.listFiles().length);
+    }
+
+    @Test
+    public void testTruncatedSnapshotIgnored() throws Exception {
+        File file = new File(dir, "weather.snapshot");
+        SnapshotStore snapshot = new SnapshotStore(file);
+        snapshot.write(5000, List.of(entry("IDS60901", 13.3), entry("IDS60902", 23.3)));
+        try (RandomAccessFile raf = new RandomAccessFile(new File(dir, "weather.snapshot.1"), "rw")) {
+            raf.setLength(raf.length() - 10);
+        }
+
+        assertFalse(snapshot.load(0, (stationID, timestamp, weatherData) -> fail("Nothing should be loaded")));
+        assertFalse(new SnapshotStore(new File(dir, "missing")).load(0, (stationID, timestamp, weatherData) -> fail()));
+    }
+}
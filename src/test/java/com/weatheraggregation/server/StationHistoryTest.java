@@ -0,0 +1,89 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.weatheraggregation.utils.JsonUtils;
+
+public class StationHistoryTest {
+    @TempDir
+    File dataDir;
+
+    private static ObjectNode reading(long time, double airTemp, int relHum) {
+        ObjectNode weatherData = JsonUtils.createObjectNode();
+        weatherData.put("id", "IDS60901");
+        weatherData.put("local_date_time_full", String.valueOf(time));
+        weatherData.put("air_temp", airTemp);
+        weatherData.put("rel_hum", relHum);
+        return weatherData;
+    }
+
+    @Test
+    public void testRingKeepsLatestReadingsOldestFirst() {
+        StationHistory history = new StationHistory(3);
+        for (int i = 1; i <= 5; i++) {
+            history.record(i * 10, reading(20230715160000L + i, 10 + i, 50 + i));
+        }
+
+        ArrayNode all = history.query(Long.MIN_VALUE, Long.MAX_VALUE, 0, Long.MAX_VALUE, StationHistory.FIELDS);
+        assertEquals(3, all.size(), "Only the last 3 readings should be kept");
+        assertEquals(30, all.get(0).get("lamport_time").asLong());
+        assertEquals(50, all.get(2).get("lamport_time").asLong());
+        assertEquals("20230715160005", all.get(2).get("local_date_time_full").asText());
+        assertEquals(15.0, all.get(2).get("air_temp").asDouble());
+        assertTrue(all.get(2).get("rel_hum").isIntegralNumber(), "Whole number fields should stay integers");
+        assertNull(all.get(2).get("press"), "Fields the PUT did not have should be left out");
+    }
+
+    @Test
+    public void testRangeAndFieldSelection() {
+        StationHistory history = new StationHistory(10);
+        for (int i = 1; i <= 5; i++) {
+            history.record(i * 10, reading(20230715160000L + i, 10 + i, 50 + i));
+        }
+
+        ArrayNode byTime = history.query(20230715160002L, 20230715160003L, 0, Long.MAX_VALUE, List.of("air_temp"));
+        assertEquals(2, byTime.size());
+        assertEquals(12.0, byTime.get(0).get("air_temp").asDouble());
+        assertNull(byTime.get(0).get("rel_hum"), "Only requested fields should be returned");
+
+        ArrayNode byLamport = history.query(Long.MIN_VALUE, Long.MAX_VALUE, 35, 50, List.of("rel_hum"));
+        assertEquals(2, byLamport.size());
+        assertEquals(54, byLamport.get(0).get("rel_hum").asInt());
+    }
+
+    private static Request request(String method, String resource, String body) throws Exception {
+        return TestRequests.request(method + " " + resource + " HTTP/1.1", body);
+    }
+
+    @Test
+    public void testHistoryEndpoint() throws Exception {
+        AggregationServer server = TestRequests.server(dataDir, "--history=2");
+        try {
+            for (int i = 1; i <= 3; i++) {
+                String json = JsonUtils.WRITER.writeValueAsString(reading(20230715160000L + i, 10 + i, 50));
+                server.handleRequest(request("PUT", "/weather/IDS60901", json));
+            }
+
+            Response response = server.handleRequest(request("GET", "/weather/IDS60901/history?fields=air_temp", ""));
+            assertEquals("200 OK", response.status);
+            JsonNode readings = JsonUtils.READER.readTree(response.body).get("IDS60901");
+            assertEquals(2, readings.size(), "History should be bounded by --history");
+            assertEquals(13.0, readings.get(1).get("air_temp").asDouble());
+
+            assertEquals("400 Bad Request", server.handleRequest(request("GET", "/weather/IDS60901/history?fields=name", "")).status);
+            assertEquals("400 Bad Request", server.handleRequest(request("GET", "/weather/IDS60901/history?from=x", "")).status);
+            assertEquals("404 Not Found", server.handleRequest(request("GET", "/weather/IDS60902/history", "")).status);
+        } finally {
+            server.shutdown();
+        }
+    }
+}
@@ -0,0 +1,74 @@
+package com.weatheraggregation.server;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+import com.weatheraggregation.content.ContentServer;
+import com.weatheraggregation.utils.JsonUtils;
+
+/* BENCHMARK FOR HEAP USED PER STATION
+ * Not a unit test (not picked up by surefire). Stores STATIONS stations built from data/data1, each with its
+ * own ID and readings, and reports the retained heap per station for:
+ * - tree: a HashMap of ObjectNodes, the layout before StationStore
+ * - bytes: StationStore with the default storage (pre-serialised bytes and the PUT's tree)
+ * - compact: StationStore with --storage=compact
+ * Run from the repository root with a heap large enough for the tree layout, e.g. -Xmx2g:
+ *   java -Xmx2g -cp <classpath> com.weatheraggregation.server.StationStorageBenchmark [stations] */
+public class StationStorageBenchmark {
+    private static ObjectNode template;
+
+    // a station with the sample's fields but its own ID, time and readings, as if sent by a separate PUT
+    private static ObjectNode station(int i) {
+        ObjectNode weatherData = template.deepCopy();
+        weatherData.put("id", "IDS" + (100000 + i));
+        weatherData.put("local_date_time_full", String.valueOf(20230715160000L + i));
+        weatherData.put("air_temp", 10 + (i % 200) / 10.0);
+        weatherData.put("press", 1000 + (i % 300) / 10.0);
+        weatherData.put("rel_hum", i % 100);
+        return weatherData;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 5; i++) {
+            System.gc();
+            Thread.sleep(100);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+
+    public static void main(String[] args) throws Exception {
+        int stations = args.length > 0 ? Integer.parseInt(args[0]) : 100_000;
+        template = JsonUtils.createObjectNode();
+        ContentServer.parseFileJSON(template, "data/data1");
+        System.out.println("stations: " + stations + ", fields per station: " + template.size());
+        System.out.printf("%8s %16s%n", "layout", "bytes/station");
+
+        long before = usedHeap();
+        Map<String, ObjectNode> tree = new HashMap<>();
+        for (int i = 0; i < stations; i++) {
+            ObjectNode weatherData = station(i);
+            tree.put(weatherData.get("id").asText(), weatherData);
+        }
+        System.out.printf("%8s %16d%n", "tree", (usedHeap() - before) / stations);
+        if (tree.size() != stations) { // also keeps the map reachable until measured
+            throw new IllegalStateException("Map lost stations");
+        }
+        tree = null;
+
+        for (ServerConfig.Storage storage : ServerConfig.Storage.values()) {
+            before = usedHeap();
+            StationStore store = new StationStore(1, storage); // no older versions kept alive
+            for (int i = 0; i < stations; i++) {
+                ObjectNode weatherData = station(i);
+                store.put(weatherData.get("id").asText(), weatherData, i, i);
+            }
+            System.out.printf("%8s %16d%n", storage.name().toLowerCase(), (usedHeap() - before) / stations);
+            if (store.size() != stations) {
+                throw new IllegalStateException("Store lost stations");
+            }
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+public class StationStoreTest {
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    private ObjectNode station(String id, double airTemp) {
+        ObjectNode node = mapper.createObjectNode();
+        node.put("id", id);
+        node.put("name", "Adelaide (West Terrace /  ngayirdapira)");
+        node.put("air_temp", airTemp);
+        return node;
+    }
+
+    @Test
+    public void testStationBodyWrapsData() throws Exception {
+        StationStore store = new StationStore(10);
+        store.put("IDS60901", station("IDS60901", 13.3), 1000, 1);
+
+        JsonNode body = mapper.readTree(store.current().station("IDS60901"));
+        assertEquals(13.3, body.get("IDS60901").get("air_temp").asDouble(), "Body should be wrapped in station ID");
+        assertNull(store.current().station("IDS60902"), "Unknown station should not have a body");
+    }
+
+    @Test
+    public void testAllStationsReusedUntilChange() throws Exception {
+        StationStore store = new StationStore(10);
+        store.put("IDS60901", station("IDS60901", 13.3), 1000, 1);
+        store.put("IDS60902", station("IDS60902", 23.3), 1000, 2);
+
+        byte[] first = store.current().allStations();
+        assertSame(first, store.current().allStations(), "Document should be reused while nothing changes");
+        assertEquals(2, mapper.readTree(first).size());
+
+        store.put("IDS60902", station("IDS60902", 25.0), 1000, 3);
+        JsonNode updated = mapper.readTree(store.current().allStations());
+        assertEquals(25.0, updated.get("IDS60902").get("air_temp").asDouble(), "PUT should invalidate document");
+
+        store.remove("IDS60901", 4);
+        JsonNode removed = mapper.readTree(store.current().allStations());
+        assertEquals(1, removed.size(), "Removal should invalidate document");
+        assertNull(store.current().station("IDS60901"));
+    }
+
+    @Test
+    public void testEmptyStore() throws Exception {
+        StationStore store = new StationStore(10);
+        assertEquals(0, mapper.readTree(store.current().allStations()).size());
+        assertFalse(store.remove("IDS60901", 1), "Removing an unknown station should not create a version");
+        assertEquals(0, store.current().sequence);
+    }
+
+    @Test
+    public void testVersionUnaffectedByLaterChanges() throws Exception {
+        StationStore store = new StationStore(10);
+        store.put("IDS60901", station("IDS60901", 13.3), 1000, 1);
+        StationStore.Version version = store.current();
+
+        store.put("IDS60901", station("IDS60901", 30.0), 1000, 2);
+        store.put("IDS60902", station("IDS60902", 23.3), 1000, 3);
+
+        JsonNode all = mapper.readTree(version.allStations());
+        assertEquals(1, all.size(), "A version should not see stations added later");
+        assertEquals(13.3, all.get("IDS60901").get("air_temp").asDouble(), "A version should not see later PUTs");
+        assertEquals(2, store.size());
+    }
+
+    @Test
+    public void testAsOfServesLatestVersionAtOrBeforeLamportTime() throws Exception {
+        StationStore store = new StationStore(3);
+        store.put("IDS60901", station("IDS60901", 10.0), 1000, 5);
+        store.put("IDS60901", station("IDS60901", 20.0), 1000, 8);
+        store.put("IDS60901", station("IDS60901", 30.0), 1000, 12);
+
+        assertEquals(20.0, airTemp(store.asOf(10)), "Lamport time 10 should see the PUT at 8");
+        assertEquals(20.0, airTemp(store.asOf(8)), "A version at exactly the Lamport time should be served");
+        assertEquals(30.0, airTemp(store.asOf(100)), "A later Lamport time should see the current version");
+        assertEquals(10.0, airTemp(store.asOf(5)));
+
+        // only 3 versions are retained: the empty initial version and the PUT at 5 are gone
+        store.put("IDS60901", station("IDS60901", 40.0), 1000, 15);
+        assertNull(store.asOf(6), "Versions no longer retained should not be served");
+        assertEquals(20.0, airTemp(store.asOf(9)));
+    }
+
+    private double airTemp(StationStore.Version version) throws Exception {
+        return mapper.readTree(version.station("IDS60901")).get("IDS60901").get("air_temp").asDouble();
+    }
+}
@@ -0,0 +1,87 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import com.weatheraggregation.utils.JsonUtils;
+
+public class SubscriptionHubTest {
+    private static byte[] data(String stationID, int value) {
+        return ("{\"id\":\"" + stationID + "\",\"air_temp\":" + value + "}").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testEventsFilteredAndInOrder() throws Exception {
+        SubscriptionHub hub = new SubscriptionHub(16);
+        Subscription all = hub.subscribe(List.of(), -1, true, 0);
+        Subscription one = hub.subscribe(List.of("IDS60902"), -1, true, 0);
+        assertTrue(all.poll().isEmpty());
+
+        hub.publishPut("IDS60901", data("IDS60901", 1), 5);
+        hub.publishPut("IDS60902", data("IDS60902", 2), 6);
+        hub.publishRemove("IDS60901", "expire", 7);
+
+        List<SubscriptionHub.Event> events = all.poll();
+        assertEquals(3, events.size());
+        JsonNode put = JsonUtils.READER.readTree(events.get(0).json);
+        assertEquals("put", put.get("type").asText());
+        assertEquals("IDS60901", put.get("id").asText());
+        assertEquals(5, put.get("lamport_time").asLong());
+        assertEquals(1, put.get("data").get("air_temp").asInt());
+        assertEquals("expire", JsonUtils.READER.readTree(events.get(2).json).get("type").asText());
+        assertTrue(new String(events.get(2).frame, StandardCharsets.UTF_8).startsWith("id: 3\nevent: expire\ndata: {"));
+        assertTrue(all.poll().isEmpty(), "Events are only sent once");
+
+        events = one.poll();
+        assertEquals(1, events.size(), "Only the subscribed station's events are sent");
+        assertEquals("IDS60902", events.get(0).stationID);
+
+        Subscription resumed = hub.subscribe(List.of(), 2, true, 0);
+        assertEquals(3, resumed.poll().get(0).sequence, "A subscription can resume after a given event");
+    }
+
+    @Test
+    public void testSlowSubscriberCoalescedThenResynced() {
+        SubscriptionHub hub = new SubscriptionHub(200);
+        Subscription slow = hub.subscribe(List.of(), -1, true, 0);
+        for (int i = 0; i < 100; i++) {
+            hub.publishPut("IDS" + (i % 3), data("IDS" + (i % 3), i), i);
+        }
+        List<SubscriptionHub.Event> events = slow.poll();
+        assertEquals(3, events.size(), "More than MAX_BATCH events are coalesced to the latest of each station");
+        assertEquals(98, events.get(0).sequence);
+        assertEquals(100, events.get(2).sequence);
+
+        for (int i = 0; i < 300; i++) {
+            hub.publishPut("IDS0", data("IDS0", i), i);
+        }
+        events = slow.poll();
+        assertEquals(1, events.size(), "Events no longer held are replaced by a resync");
+        assertNull(events.get(0).stationID);
+        assertEquals(400, events.get(0).sequence);
+        assertTrue(slow.poll().isEmpty());
+    }
+
+    @Test
+    public void testAwaitWokenByPublishAndClose() throws Exception {
+        SubscriptionHub hub = new SubscriptionHub(16);
+        Subscription subscription = hub.subscribe(List.of(), -1, false, 0);
+        assertTrue(subscription.await(50).isEmpty(), "Times out without events");
+
+        Thread publisher = new Thread(() -> hub.publishPut("IDS60901", data("IDS60901", 1), 1));
+        publisher.start();
+        assertEquals(1, subscription.await(10_000).size());
+        publisher.join();
+
+        hub.close();
+        long start = System.currentTimeMillis();
+        assertTrue(subscription.await(10_000).isEmpty());
+        assertTrue(subscription.isClosed());
+        assertTrue(System.currentTimeMillis() - start < 5_000, "Closing the hub ends waiting subscriptions");
+    }
+}
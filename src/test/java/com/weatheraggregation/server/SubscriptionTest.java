@@ -0,0 +1,101 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+import com.weatheraggregation.client.GETClient;
+import com.weatheraggregation.utils.ClientConnection;
+import com.weatheraggregation.utils.JsonUtils;
+import com.weatheraggregation.utils.ServerData;
+
+/* GET /weather/stream subscriptions, as Server-Sent Events and long polls on both engines */
+public class SubscriptionTest {
+    @TempDir
+    File dataDir;
+
+    private final ExecutorService executor = Executors.newCachedThreadPool();
+    private AggregationServer server;
+
+    // starts a server on an ephemeral port, returning the port once it is listening
+    private int startServer(String engine) throws Exception {
+        server = TestRequests.server(dataDir, "0", "--engine=" + engine);
+        executor.submit(() -> {
+            try {
+                server.start();
+            } catch (Exception ex) {
+                System.out.println("Failed to start AS server for testing: " + ex.getMessage());
+            }
+        });
+        int port = server.awaitListening(10_000);
+        assertTrue(port > 0, "The server should start listening");
+        return port;
+    }
+
+    @AfterEach
+    public void stopServer() {
+        server.shutdown();
+        executor.shutdownNow();
+    }
+
+    private void put(String stationID, double airTemp) throws Exception {
+        Response response = server.handleRequest(TestRequests.request("PUT /weather/" + stationID + " HTTP/1.1",
+                "{\"id\":\"" + stationID + "\",\"air_temp\":" + airTemp + "}"));
+        assertTrue(response.status.startsWith("20"));
+    }
+
+    private static byte[] get(String resource) {
+        return ("GET " + resource + " HTTP/1.1\r\nLamport-Time: 1\r\n\r\n").getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testEventStreamOnNioEngine() throws Exception {
+        int port = startServer("nio");
+        GETClient client = new GETClient("localhost:" + port);
+        Future<Integer> received = executor.submit(() -> client.subscribe("IDS60901,IDS60902", 3));
+        Thread.sleep(500);
+
+        put("IDS60901", 1.5);
+        put("IDS60903", 2.5); // not subscribed to
+        put("IDS60902", 3.5);
+        put("IDS60901", 4.5);
+        assertEquals(3, received.get(10, TimeUnit.SECONDS), "Each PUT to a subscribed station should be delivered");
+    }
+
+    @Test
+    public void testLongPollOnBlockingEngine() throws Exception {
+        int port = startServer("blocking");
+        try (ClientConnection connection = new ClientConnection(new ServerData("localhost:" + port))) {
+            ClientConnection.Reply reply = connection.send(get("/weather/stream?timeout=100"));
+            assertEquals("200", reply.status);
+            JsonNode timedOut = JsonUtils.READER.readTree(reply.body);
+            assertEquals(0, timedOut.get("events").size(), "A long poll without events is answered at its timeout");
+
+            Future<?> putLater = executor.submit(() -> {
+                Thread.sleep(300);
+                put("IDS60901", 1.5);
+                return null;
+            });
+            JsonNode woken = JsonUtils.READER.readTree(connection.send(get("/weather/stream?timeout=10000")).body);
+            putLater.get();
+            assertEquals(1, woken.get("events").size(), "A PUT should answer a waiting long poll");
+            assertEquals("put", woken.get("events").get(0).get("type").asText());
+
+            put("IDS60902", 2.5);
+            JsonNode resumed = JsonUtils.READER.readTree(
+                    connection.send(get("/weather/stream?since=" + woken.get("last_seq").asLong())).body);
+            assertEquals("IDS60902", resumed.get("events").get(0).get("id").asText(),
+                    "Events since last_seq should be returned at once");
+        }
+    }
+}
@@ -0,0 +1,39 @@
+package com.weatheraggregation.server;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+/* servers and requests for tests that call AggregationServer.handleRequest directly, without a connection */
+final class TestRequests {
+    private TestRequests() {
+    }
+
+    /* function to create a server storing its data under dataDir, with any further --option=value arguments.
+     * Its listener is not started, so no port is needed. */
+    static AggregationServer server(File dataDir, String... options) {
+        String[] args = new String[options.length + 1];
+        args[0] = "--data-dir=" + dataDir.getPath();
+        System.arraycopy(options, 0, args, 1, options.length);
+        return new AggregationServer(ServerConfig.fromArgs(args));
+    }
+
+    /* function to build a request sent at Lamport time 1 with a JSON body. headers are further name, value
+     * pairs, which replace these defaults (e.g. "Content-Type", "application/x-ndjson"). */
+    static Request request(String requestLine, byte[] body, String... headers) throws IOException {
+        Map<String, String> fields = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        fields.put("Lamport-Time", "1");
+        fields.put("Content-Type", "application/json");
+        fields.put("Content-Length", String.valueOf(body.length));
+        for (int i = 0; i + 1 < headers.length; i += 2) {
+            fields.put(headers[i], headers[i + 1]);
+        }
+        return new Request(requestLine, fields, body);
+    }
+
+    static Request request(String requestLine, String body, String... headers) throws IOException {
+        return request(requestLine, body.getBytes(StandardCharsets.UTF_8), headers);
+    }
+}
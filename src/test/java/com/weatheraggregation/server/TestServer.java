@@ -0,0 +1,105 @@
+package com.weatheraggregation.server;
+
+import java.io.File;
+import java.nio.charset.StandardCharsets;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/* AGGREGATION SERVER FIXTURE FOR TESTS OF THE CONTENT SERVER AND GET CLIENT
+ * Starts a server with the NIO engine on an ephemeral port, so tests never collide over ports, and returns once
+ * it is accepting connections rather than after a fixed sleep. Station data is read through the server's own
+ * store, which is not visible outside this package. */
+public class TestServer implements AutoCloseable {
+    private static final long START_TIMEOUT = 10_000; // ms
+
+    private final AggregationServer server;
+    private final Thread thread;
+    private final int port;
+
+    private TestServer(AggregationServer server, Thread thread, int port) {
+        this.server = server;
+        this.thread = thread;
+        this.port = port;
+    }
+
+    /* function to start a server storing its data under dataDir, with any further --option=value arguments */
+    public static TestServer start(File dataDir, String... options) throws InterruptedException {
+        String[] args = new String[options.length + 3];
+        args[0] = "0";
+        args[1] = "--engine=nio";
+        args[2] = "--data-dir=" + dataDir.getPath();
+        System.arraycopy(options, 0, args, 3, options.length);
+        AggregationServer server = new AggregationServer(ServerConfig.fromArgs(args));
+
+        Thread thread = new Thread(() -> {
+            try {
+                server.start();
+            } catch (Exception ex) {
+                System.out.println("Failed to start AS server for testing: " + ex.getMessage());
+            }
+        }, "test-server");
+        thread.setDaemon(true);
+        thread.start();
+
+        int port = server.awaitListening(START_TIMEOUT);
+        if (port < 0) {
+            server.shutdown();
+            throw new IllegalStateException("Test server did not start within " + START_TIMEOUT + " ms");
+        }
+        return new TestServer(server, thread, port);
+    }
+
+    public int port() {
+        return port;
+    }
+
+    // connection information as given to the content server and GET client
+    public String address() {
+        return "localhost:" + port;
+    }
+
+    public int stationCount() {
+        return server.weatherDataMap.size();
+    }
+
+    // a station's weather data, or null if it is not held
+    public JsonNode station(String stationID) {
+        return server.weatherDataMap.get(stationID);
+    }
+
+    // Lamport time of a station's last PUT, or -1 if it is not held
+    public long stationLamportTime(String stationID) {
+        StationStore.Station station = server.weatherDataMap.current().get(stationID);
+        return station == null ? -1 : station.lamportTime;
+    }
+
+    /* function to read the server's Lamport time, by handling a GET that is not sent over a connection. Each
+     * call advances the clock, as does every request the server receives in between. */
+    public long clockTime() throws Exception {
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("Lamport-Time", "0");
+        return server.handleRequest(new Request("GET /weather HTTP/1.1", headers, new byte[0])).lamportTime;
+    }
+
+    /* function to store a station's data directly, returning the response status */
+    public String put(String stationID, String json) throws Exception {
+        byte[] body = json.getBytes(StandardCharsets.UTF_8);
+        Map<String, String> headers = new TreeMap<>(String.CASE_INSENSITIVE_ORDER);
+        headers.put("Lamport-Time", "1");
+        headers.put("Content-Type", "application/json");
+        headers.put("Content-Length", String.valueOf(body.length));
+        return server.handleRequest(new Request("PUT /weather/" + stationID + " HTTP/1.1", headers, body)).status;
+    }
+
+    @Override
+    public void close() {
+        server.shutdown();
+        try {
+            thread.join(START_TIMEOUT);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.weatheraggregation.server;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class WriteBehindPersistenceTest {
+    // in-memory persistence recording what the writer thread hands it
+    private static class RecordingPersistence implements Persistence {
+        final Map<String, String> stored = Collections.synchronizedMap(new HashMap<>());
+        final List<String> writes = Collections.synchronizedList(new ArrayList<>());
+        volatile int syncs = 0;
+        volatile CountDownLatch blockWrites = new CountDownLatch(0);
+        volatile String failingStation; // recordPut throws for this station, as LogPersistence does for a bad record
+        volatile boolean failSync = false; // sync throws, as the engines do when fsync fails
+
+        @Override
+        public void load(StationLoader loader) {
+        }
+
+        @Override
+        public void recordPut(String stationID, long lamportTime, long timestamp, byte[] weatherData) {
+            try {
+                blockWrites.await();
+            } catch (InterruptedException ignored) {
+            }
+            if (stationID.equals(failingStation)) {
+                throw new IllegalStateException("cannot write " + stationID);
+            }
+            writes.add(stationID);
+            stored.put(stationID, new String(weatherData, StandardCharsets.UTF_8));
+        }
+
+        @Override
+        public void recordRemove(Collection<String> stationIDs, long lamportTime) {
+            for (String stationID : stationIDs) {
+                writes.add("-" + stationID);
+                stored.remove(stationID);
+            }
+        }
+
+        @Override
+        public void sync() {
+            syncs++;
+            if (failSync) {
+                throw new UncheckedIOException(new IOException("fsync failed"));
+            }
+        }
+
+        @Override
+        public long lastModified() {
+            return 0;
+        }
+
+        @Override
+        public void clear() {
+            stored.clear();
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+
+    private static byte[] data(int value) {
+        return String.valueOf(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Test
+    public void testSyncAcknowledgesAfterWriteAndSync() {
+        RecordingPersistence storage = new RecordingPersistence();
+        WriteBehindPersistence persistence = new WriteBehindPersistence(storage, ServerConfig.Durability.SYNC, 5, 16);
+
+        long sequence = persistence.put("IDS60901", 1, 0, data(1));
+        persistence.awaitDurable(sequence);
+        assertEquals("1", storage.stored.get("IDS60901"), "PUT should be written before it is acknowledged");
+        assertTrue(storage.syncs >= 1, "PUT should be synced before it is acknowledged");
+        persistence.close();
+    }
+
+    @Test
+    public void testGroupCommitCoalescesUpdates() {
+        RecordingPersistence storage = new RecordingPersistence();
+        WriteBehindPersistence persistence = new WriteBehindPersistence(storage, ServerConfig.Durability.GROUP_COMMIT, 200, 1024);
+
+        long last = 0;
+        for (int i = 0; i < 100; i++) {
+            last = persistence.put("IDS6090" + (i % 2), i, 0, data(i));
+        }
+        persistence.remove(Collections.singleton("IDS60900"), 100);
+        persistence.awaitDurable(last);
+        persistence.sync();
+
+        assertEquals(Map.of("IDS60901", "99"), storage.stored);
+        assertTrue(storage.writes.size() < 100, "Repeated updates within the window should be coalesced, wrote " + storage.writes.size());
+        assertTrue(persistence.stats().contains("coalesced="));
+        persistence.close();
+    }
+
+    @Test
+    public void testAsyncAcknowledgesImmediately() throws Exception {
+        RecordingPersistence storage = new RecordingPersistence();
+        storage.blockWrites = new CountDownLatch(1); // disk is stalled
+        WriteBehindPersistence persistence = new WriteBehindPersistence(storage, ServerConfig.Durability.ASYNC, 5, 16);
+
+        long sequence = persistence.put("IDS60901", 1, 0, data(1));
+        persistence.awaitDurable(sequence); // must not wait for the stalled write
+        persistence.put("IDS60902", 2, 0, data(2));
+        assertTrue(storage.stored.isEmpty(), "Nothing should have been written yet");
+
+        storage.blockWrites.countDown();
+        persistence.sync();
+        assertEquals(2, storage.stored.size(), "Queued writes should complete once the disk recovers");
+        assertEquals(0, persistence.queueDepth());
+        persistence.close();
+    }
+
+    @Test
+    public void testFullQueueBlocksProducer() throws Exception {
+        RecordingPersistence storage = new RecordingPersistence();
+        storage.blockWrites = new CountDownLatch(1);
+        // SYNC mode takes one change at a time, so the stalled writer holds a single change
+        WriteBehindPersistence persistence = new WriteBehindPersistence(storage, ServerConfig.Durability.SYNC, 1, 2);
+
+        CountDownLatch queued = new CountDownLatch(1);
+        Thread producer = new Thread(() -> {
+            for (int i = 0; i < 10; i++) {
+                persistence.put("IDS6090" + i, i, 0, data(i));
+            }
+            queued.countDown();
+        });
+        producer.start();
+        assertFalse(queued.await(300, TimeUnit.MILLISECONDS), "Producer should block while the queue is full");
+
+        storage.blockWrites.countDown();
+        assertTrue(queued.await(5, TimeUnit.SECONDS));
+        persistence.sync();
+        assertEquals(10, storage.stored.size());
+        persistence.close();
+    }
+
+    @Test
+    public void testBatchWrittenAndSyncedTogether() {
+        RecordingPersistence storage = new RecordingPersistence();
+        // SYNC mode would otherwise write and sync each change on its own
+        WriteBehindPersistence persistence = new WriteBehindPersistence(storage, ServerConfig.Durability.SYNC, 5, 2);
+
+        Map<String, byte[]> batch = new LinkedHashMap<>();
+        for (int i = 0; i < 5; i++) {
+            batch.put("IDS6090" + i, data(i));
+        }
+        persistence.awaitDurable(persistence.putAll(batch, 1, 0));
+
+        assertEquals(5, storage.stored.size(), "Every station of the batch should be written");
+        assertEquals(1, storage.syncs, "The batch should be synced once, even though it is larger than the queue");
+        persistence.close();
+    }
+
+    @Test
+    public void testDelegateErrorFailsFlushButNotWriter() {
+        RecordingPersistence storage = new RecordingPersistence();
+        storage.failingStation = "BAD";
+        WriteBehindPersistence persistence = new WriteBehindPersistence(storage, ServerConfig.Durability.SYNC, 5, 16);
+
+        assertFalse(persistence.awaitDurable(persistence.put("BAD", 1, 0, data(1))),
+                "A change that could not be written must not be reported durable");
+        assertTrue(persistence.awaitDurable(persistence.put("IDS60901", 2, 0, data(2))),
+                "The writer should carry on after an error");
+        assertEquals("2", storage.stored.get("IDS60901"));
+        assertTrue(persistence.stats().contains("errors=1"));
+        persistence.close();
+    }
+
+    @Test
+    public void testFailedSyncFailsPut() throws Exception {
+        RecordingPersistence storage = new RecordingPersistence();
+        storage.failSync = true;
+        AggregationServer server = new AggregationServer(ServerConfig.fromArgs(new String[] {"--durability=group-commit"}), storage);
+        try {
+            Request put = TestRequests.request("PUT /weather/IDS60901 HTTP/1.1", "{\"id\":\"IDS60901\",\"air_temp\":13.3}");
+            Response response = server.handleRequest(put);
+            assertEquals("500 Internal Server Error", response.status, "A PUT whose fsync failed must not be acknowledged");
+
+            storage.failSync = false;
+            response = server.handleRequest(put);
+            assertEquals("200 OK", response.status, "The next PUT is stored once the disk recovers");
+        } finally {
+            server.shutdown();
+        }
+    }
+
+    @Test
+    public void testInterruptedEnqueueIsNotDurable() {
+        RecordingPersistence storage = new RecordingPersistence();
+        storage.blockWrites = new CountDownLatch(1);
+        WriteBehindPersistence persistence = new WriteBehindPersistence(storage, ServerConfig.Durability.SYNC, 5, 1);
+        persistence.put("IDS60901", 1, 0, data(1)); // taken by the writer, which blocks writing it
+        persistence.put("IDS60902", 2, 0, data(2)); // fills the queue
+
+        Thread.currentThread().interrupt();
+        long sequence = persistence.put("IDS60903", 3, 0, data(3));
+        assertTrue(Thread.interrupted());
+        assertFalse(persistence.awaitDurable(sequence), "A change that was never queued must not be reported durable");
+
+        storage.blockWrites.countDown();
+        assertTrue(persistence.awaitDurable(persistence.put("IDS60904", 4, 0, data(4))));
+        assertNull(storage.stored.get("IDS60903"));
+        persistence.close();
+    }
+}
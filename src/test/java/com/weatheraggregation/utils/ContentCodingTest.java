@@ -0,0 +1,33 @@
+package com.weatheraggregation.utils;
+
+import org.junit.jupiter.api.Test;
+import static org.junit.jupiter.api.Assertions.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+public class ContentCodingTest {
+    @Test
+    public void testNegotiate() {
+        assertNull(ContentCoding.negotiate(null), "No header means no compression");
+        assertNull(ContentCoding.negotiate("br, identity"));
+        assertEquals(ContentCoding.GZIP, ContentCoding.negotiate("deflate, gzip"), "gzip wins a tie");
+        assertEquals(ContentCoding.DEFLATE, ContentCoding.negotiate("gzip;q=0.5, deflate;q=0.8"));
+        assertEquals(ContentCoding.DEFLATE, ContentCoding.negotiate("gzip;q=0, *"), "q=0 refuses a coding");
+        assertEquals(ContentCoding.GZIP, ContentCoding.negotiate("*"));
+        assertNull(ContentCoding.negotiate("gzip;q=bad"));
+    }
+
+    @Test
+    public void testRoundTripAndSizeLimit() throws IOException {
+        byte[] data = "{\"id\":\"IDS60901\",\"air_temp\":13.3}".repeat(100).getBytes(StandardCharsets.UTF_8);
+        for (ContentCoding coding : ContentCoding.values()) {
+            byte[] encoded = coding.encode(data);
+            assertTrue(encoded.length < data.length / 10, "Repetitive JSON should compress well with " + coding.token);
+            assertArrayEquals(data, coding.decode(encoded, data.length));
+            assertThrows(IOException.class, () -> coding.decode(encoded, data.length - 1),
+                    "Payloads expanding beyond the limit should be rejected");
+        }
+        assertThrows(IOException.class, () -> ContentCoding.GZIP.decode(data, data.length));
+    }
+}
@@ -0,0 +1,101 @@
+package com.weatheraggregation.utils;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.locks.ReentrantLock;
+
+/* MICROBENCHMARK FOR LAMPORT CLOCK CONTENTION
+ * Not a unit test (not picked up by surefire). Runs THREADS threads each doing OPERATIONS receive/send
+ * pairs (updateAndIncrement then increment, as a request handler does) against:
+ * - locked: the previous clock, synchronized methods called while also holding a ReentrantLock
+ * - atomic: the lock-free LamportClock
+ * and reports operations per second for each thread count.
+ *   java -cp <classpath> com.weatheraggregation.utils.LamportClockBenchmark [operations] */
+public class LamportClockBenchmark {
+    // the previous implementation, kept here for comparison
+    private static class SynchronizedClock {
+        private int time = 0;
+
+        synchronized void increment() {
+            time++;
+        }
+
+        synchronized void update(int receivedTime) {
+            if (receivedTime > time) {
+                time = receivedTime;
+            }
+            increment();
+        }
+
+        synchronized int getTime() {
+            return time;
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        int operations = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+        int cores = Runtime.getRuntime().availableProcessors();
+        System.out.println("cores: " + cores + ", operations per thread: " + operations);
+        System.out.printf("%8s %16s %16s%n", "threads", "locked ops/s", "atomic ops/s");
+
+        for (int threads = 1; threads <= Math.max(8, cores * 2); threads *= 2) {
+            // run each twice and keep the second run, the first warms up the JIT
+            measureLocked(threads, operations);
+            double locked = measureLocked(threads, operations);
+            measureAtomic(threads, operations);
+            double atomic = measureAtomic(threads, operations);
+            System.out.printf("%8d %16.0f %16.0f%n", threads, locked, atomic);
+        }
+    }
+
+    private static double measureLocked(int threads, int operations) throws InterruptedException {
+        SynchronizedClock clock = new SynchronizedClock();
+        ReentrantLock lock = new ReentrantLock();
+        return measure(threads, operations, () -> {
+            lock.lock();
+            try {
+                clock.update(clock.getTime());
+            } finally {
+                lock.unlock();
+            }
+            lock.lock();
+            try {
+                clock.increment();
+                clock.getTime();
+            } finally {
+                lock.unlock();
+            }
+        });
+    }
+
+    private static double measureAtomic(int threads, int operations) throws InterruptedException {
+        LamportClock clock = new LamportClock();
+        return measure(threads, operations, () -> {
+            clock.updateAndIncrement(clock.getTime());
+            clock.increment();
+        });
+    }
+
+    private static double measure(int threads, int operations, Runnable operation) throws InterruptedException {
+        CountDownLatch start = new CountDownLatch(1);
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException ex) {
+                    return;
+                }
+                for (int i = 0; i < operations; i++) {
+                    operation.run();
+                }
+            });
+            workers[t].start();
+        }
+        long begin = System.nanoTime();
+        start.countDown();
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        return (double) threads * operations / ((System.nanoTime() - begin) / 1e9);
+    }
+}
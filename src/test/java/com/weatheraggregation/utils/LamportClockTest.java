@@ -3,6 +3,9 @@ package com.weatheraggregation.utils;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
 public class LamportClockTest {
     @Test
     public void testInitialTime() {
@@ -35,4 +38,35 @@ public class LamportClockTest {
         assertFalse(updated, "Clock should not be updated with lesser or equal time");
         assertEquals(7, clock.getTime(), "Time should be incremented by 1");
     }
-}
\ No newline at end of file
+
+    @Test
+    public void testUpdateAndIncrementReturnsNewTime() {
+        LamportClock clock = new LamportClock();
+        assertEquals(6, clock.updateAndIncrement(5), "Time should be received time + 1");
+        assertEquals(7, clock.updateAndIncrement(2), "Lower received time should only increment");
+        assertEquals(8, clock.increment());
+        assertEquals(Integer.MAX_VALUE + 2L, clock.updateAndIncrement(Integer.MAX_VALUE + 1L), "Clock should not overflow at 32 bits");
+    }
+
+    @Test
+    public void testConcurrentIncrementsAssignUniqueTimes() throws Exception {
+        LamportClock clock = new LamportClock();
+        int threads = 4;
+        int increments = 10000;
+        Set<Long> assigned = ConcurrentHashMap.newKeySet();
+        Thread[] workers = new Thread[threads];
+        for (int t = 0; t < threads; t++) {
+            workers[t] = new Thread(() -> {
+                for (int i = 0; i < increments; i++) {
+                    assigned.add(i % 2 == 0 ? clock.increment() : clock.updateAndIncrement(0));
+                }
+            });
+            workers[t].start();
+        }
+        for (Thread worker : workers) {
+            worker.join();
+        }
+        assertEquals(threads * increments, assigned.size(), "Every event should be assigned a distinct time");
+        assertEquals(threads * increments, clock.getTime());
+    }
+}
@@ -3,10 +3,15 @@ package com.weatheraggregation.utils;
 import org.junit.jupiter.api.Test;
 import static org.junit.jupiter.api.Assertions.*;
 
+import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ObjectNode;
 import java.io.BufferedReader;
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
 import java.util.Map;
 
 public class ParsingUtilsTest {
@@ -135,4 +140,88 @@ public class ParsingUtilsTest {
         assertEquals("500 Internal Server Error", errorCode[0], "Status code should be 500 Internal Server Error for invalid JSON");
         assertTrue(errorCode[1].contains("Invalid JSON"), "Client error should reflect invalid JSON");
     }
-}
\ No newline at end of file
+
+
+    /* BYTE STREAM PARSING TESTING */
+
+    @Test
+    public void testReadLineAndHeadersFromBytes() throws IOException {
+        String request = "PUT /weather/IDS60901 HTTP/1.1\r\nHost: localhost:4567\r\ncontent-length: 10\r\n\r\n{\"a\":1}";
+        InputStream in = new ByteArrayInputStream(request.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("PUT /weather/IDS60901 HTTP/1.1", ParsingUtils.readLine(in));
+        Map<String, String> headers = ParsingUtils.parseHeaders(in);
+        assertEquals("localhost:4567", headers.get("Host"), "Header values may contain ':'");
+        assertEquals("10", headers.get("Content-Length"), "Header names should be case-insensitive");
+        assertEquals("{\"a\":1}", new String(in.readAllBytes(), StandardCharsets.UTF_8), "Payload should be left unread");
+    }
+
+    @Test
+    public void testReadChunkedBody() throws IOException {
+        String chunked = "5\r\n{\"a\":\r\n3;ext=1\r\n1}\n\r\n0\r\nExpires: never\r\n\r\nNEXT";
+        InputStream in = new ByteArrayInputStream(chunked.getBytes(StandardCharsets.UTF_8));
+
+        assertEquals("{\"a\":1}\n", new String(ParsingUtils.readChunkedBody(in), StandardCharsets.UTF_8));
+        assertEquals("NEXT", new String(in.readAllBytes(), StandardCharsets.UTF_8), "Trailers should be consumed");
+
+        InputStream truncated = new ByteArrayInputStream("a\r\n{\"a\"".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> ParsingUtils.readChunkedBody(truncated));
+        InputStream badSize = new ByteArrayInputStream("zz\r\n".getBytes(StandardCharsets.UTF_8));
+        assertThrows(IOException.class, () -> ParsingUtils.readChunkedBody(badSize));
+    }
+
+    @Test
+    public void testParseJsonBytesWithMultiByteCharacters() throws Exception {
+        // 'ā' is two bytes in UTF-8, so Content-Length (bytes) is larger than the number of chars
+        byte[] body = "{\"IDS60901\":{\"name\":\"Adelaide (West Terrace / Ngāyirdapira)\"}}".getBytes(StandardCharsets.UTF_8);
+        String headersStr = "Content-Length: " + body.length + "\r\nContent-Type: application/json\r\n\r\n";
+        Map<String, String> headers = ParsingUtils.parseHeaders(new BufferedReader(new StringReader(headersStr)));
+        String[] errorCode = new String[2];
+
+        ObjectNode jsonNode = ParsingUtils.parseJSON(body, errorCode, headers);
+        assertNotNull(jsonNode, "JSON should be parsed when Content-Length counts bytes: " + errorCode[1]);
+        assertEquals("Adelaide (West Terrace / Ngāyirdapira)", jsonNode.get("IDS60901").get("name").asText());
+    }
+
+    @Test
+    public void testParseJsonBytesIncompletePayload() throws Exception {
+        byte[] body = "{\"IDS60901\":{}}".getBytes(StandardCharsets.UTF_8);
+        String headersStr = "Content-Length: 200\r\nContent-Type: application/json\r\n\r\n";
+        Map<String, String> headers = ParsingUtils.parseHeaders(new BufferedReader(new StringReader(headersStr)));
+        String[] errorCode = new String[2];
+
+        assertNull(ParsingUtils.parseJSON(body, errorCode, headers));
+        assertEquals("400 Bad Request", errorCode[0]);
+        assertEquals("Incomplete payload received", errorCode[1]);
+    }
+
+    @Test
+    public void testParseJsonBatchArrayAndNdjson() throws Exception {
+        byte[] array = "[{\"id\":\"IDS60901\"},{\"id\":\"IDS60902\"}]".getBytes(StandardCharsets.UTF_8);
+        String[] errorCode = new String[2];
+        Map<String, String> headers = ParsingUtils.parseHeaders(new BufferedReader(new StringReader(
+                "Content-Length: " + array.length + "\r\nContent-Type: application/json\r\n\r\n")));
+        List<JsonNode> elements = ParsingUtils.parseJSONBatch(array, errorCode, headers);
+        assertEquals(2, elements.size(), "Each array element should be returned: " + errorCode[1]);
+        assertEquals("IDS60902", elements.get(1).get("id").asText());
+
+        byte[] ndjson = "{\"id\":\"IDS60901\"}\n\n \t\r\n{\"id\":\"IDS60902\"}\r\n7\n".getBytes(StandardCharsets.UTF_8);
+        headers = ParsingUtils.parseHeaders(new BufferedReader(new StringReader(
+                "Content-Length: " + ndjson.length + "\r\nContent-Type: application/x-ndjson\r\n\r\n")));
+        elements = ParsingUtils.parseJSONBatch(ndjson, errorCode, headers);
+        assertEquals(3, elements.size(), "Blank lines should be skipped: " + errorCode[1]);
+        assertEquals("IDS60902", elements.get(1).get("id").asText());
+        assertTrue(elements.get(2).isNumber(), "Elements are returned as parsed, for the caller to check");
+    }
+
+    @Test
+    public void testParseJsonBatchRejectsObject() throws Exception {
+        byte[] object = "{\"id\":\"IDS60901\"}".getBytes(StandardCharsets.UTF_8);
+        String[] errorCode = new String[2];
+        Map<String, String> headers = ParsingUtils.parseHeaders(new BufferedReader(new StringReader(
+                "Content-Length: " + object.length + "\r\nContent-Type: application/json\r\n\r\n")));
+
+        assertNull(ParsingUtils.parseJSONBatch(object, errorCode, headers));
+        assertEquals("400 Bad Request", errorCode[0], "A batch must be an array");
+    }
+}